@@ -6,6 +6,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.core.user.OAuth2User;
@@ -18,11 +19,11 @@ import java.util.Map;
 @AllArgsConstructor
 @Builder
 @Data
+@Document
 public class AppUser implements OAuth2User {
     private String id;
     private String username;
     private String avatarUrl;
-    private List<String> customerIds;
     private List<String> internetPlanIds;
     private AppUserRoles role;
 
@@ -52,16 +53,6 @@ public class AppUser implements OAuth2User {
         return id;
     }
 
-    @JsonIgnore
-    public List<String> getCustomerIds() {
-        return customerIds;
-    }
-
-    @JsonIgnore
-    public void setCustomerIds(List<String> newCustomerIds) {
-        this.customerIds = newCustomerIds;
-    }
-
     @JsonIgnore
     public List<String> getInternetPlanIds() {
         return internetPlanIds;
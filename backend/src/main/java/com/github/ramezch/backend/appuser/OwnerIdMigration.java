@@ -0,0 +1,67 @@
+package com.github.ramezch.backend.appuser;
+
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+// Moves ownership from the legacy AppUser.customerIds arrays to the ownerId field of customers, subscriptions and invoices.
+// AppUser no longer maps customerIds, so saving an app user drops the array. The migration therefore runs once all beans
+// are created but before the web server starts, when no login can save an app user yet.
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class OwnerIdMigration implements SmartInitializingSingleton {
+    static final String LEGACY_CUSTOMER_IDS = "customerIds";
+    static final int CHUNK_SIZE = 1000;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        migrate();
+    }
+
+    void migrate() {
+        Query legacyUsers = Query.query(Criteria.where(LEGACY_CUSTOMER_IDS).exists(true));
+        legacyUsers.fields().include(LEGACY_CUSTOMER_IDS);
+
+        int migrated = 0;
+        try (Stream<Document> users = mongoTemplate.stream(legacyUsers, Document.class, mongoTemplate.getCollectionName(AppUser.class))) {
+            for (Document user : (Iterable<Document>) users::iterator) {
+                migrateOwner(user.getString("_id"), user.getList(LEGACY_CUSTOMER_IDS, String.class, List.of()));
+                migrated++;
+            }
+        }
+        if (migrated > 0) {
+            log.info("Moved customer ownership of {} app users to ownerId", migrated);
+        }
+    }
+
+    // Documents that already have an owner are left alone, so an interrupted migration can simply run again
+    void migrateOwner(String ownerId, List<String> customerIds) {
+        Update owner = Update.update("ownerId", ownerId);
+        for (int from = 0; from < customerIds.size(); from += CHUNK_SIZE) {
+            List<String> chunk = customerIds.subList(from, Math.min(from + CHUNK_SIZE, customerIds.size()));
+            mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(chunk).and("ownerId").exists(false)), owner, Customer.class);
+            mongoTemplate.updateMulti(Query.query(Criteria.where("customerId").in(chunk).and("ownerId").exists(false)), owner, Subscription.class);
+            mongoTemplate.updateMulti(Query.query(Criteria.where("customerId").in(chunk).and("ownerId").exists(false)), owner, Invoice.class);
+        }
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(ownerId)),
+                new Update().unset(LEGACY_CUSTOMER_IDS),
+                mongoTemplate.getCollectionName(AppUser.class)
+        );
+    }
+}
@@ -55,7 +55,6 @@ public class CustomOAuth2UserService extends DefaultOAuth2UserService {
                 .id(id)
                 .username(username)
                 .avatarUrl(avatarUrl)
-                .customerIds(new ArrayList<>())
                 .internetPlanIds(new ArrayList<>())
                 .role(AppUserRoles.USER)
                 .attributes(oAuth2User.getAttributes())
@@ -1,5 +1,6 @@
 package com.github.ramezch.backend.auth;
 
+import com.github.ramezch.backend.appuser.AppUserRoles;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -25,6 +26,7 @@ public class SecurityConfig {
                 .authorizeHttpRequests(a -> a
                         .requestMatchers("/", "/api/auth/**").permitAll()
                         .requestMatchers("/index.html", "/assets/index-*.js", "/assets/index-*.css", "/cms.png").permitAll()
+                        .requestMatchers("/api/admin/**").hasRole(AppUserRoles.ADMIN.name())
                         .anyRequest().authenticated()
                 )
                 .sessionManagement(s ->
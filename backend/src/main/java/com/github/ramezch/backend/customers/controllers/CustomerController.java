@@ -1,21 +1,38 @@
 package com.github.ramezch.backend.customers.controllers;
 
 import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.customers.exports.CustomerExportFormat;
 import com.github.ramezch.backend.customers.models.Customer;
 import com.github.ramezch.backend.customers.models.CustomerDTO;
+import com.github.ramezch.backend.customers.models.CustomerImportReport;
+import com.github.ramezch.backend.customers.models.CustomerPatchDTO;
 import com.github.ramezch.backend.customers.models.CustomerStatus;
+import com.github.ramezch.backend.customers.models.CustomerSuggestion;
+import com.github.ramezch.backend.customers.services.CustomerExportService;
+import com.github.ramezch.backend.customers.services.CustomerImportService;
 import com.github.ramezch.backend.customers.services.CustomerService;
+import com.github.ramezch.backend.customers.services.CustomerSuggestionService;
 import com.github.ramezch.backend.exceptions.CustomerNotFoundException;
+import com.github.ramezch.backend.utils.ImportFormat;
+import com.github.ramezch.backend.utils.Slice;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Optional;
 
 @RestController
@@ -23,6 +40,9 @@ import java.util.Optional;
 @RequestMapping("/api/customers")
 public class CustomerController {
     private final CustomerService customerService;
+    private final CustomerSuggestionService customerSuggestionService;
+    private final CustomerImportService customerImportService;
+    private final CustomerExportService customerExportService;
 
     @GetMapping
     public Page<Customer> getCustomers(
@@ -44,6 +64,26 @@ public class CustomerController {
         return customerService.searchCustomers(appUser, status, searchTerm, pageable);
     }
 
+    @GetMapping("/slice")
+    public Slice<Customer> getCustomerSlice(
+            @RequestParam(required = false) CustomerStatus status,
+            @RequestParam(required = false) String searchTerm,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @AuthenticationPrincipal AppUser appUser
+    ) {
+        return customerService.getCustomerSlice(appUser, status, searchTerm, cursor, size);
+    }
+
+    @GetMapping("/suggest")
+    public List<CustomerSuggestion> suggestCustomers(
+            @RequestParam String prefix,
+            @RequestParam(defaultValue = "8") int limit,
+            @AuthenticationPrincipal AppUser appUser
+    ) {
+        return customerSuggestionService.suggestCustomers(appUser, prefix, limit);
+    }
+
     @GetMapping("{id}")
     public Customer getCustomer(@PathVariable String id, @AuthenticationPrincipal AppUser appUser) {
         Optional<Customer> customer = customerService.getCustomer(id, appUser);
@@ -59,11 +99,42 @@ public class CustomerController {
         return customerService.addCustomer(customerDTO, appUser, internetPlanId);
     }
 
+    // The body is streamed, rows are read and written in batches while it is still uploading
+    @PostMapping(value = "/import", consumes = {"text/csv", "application/x-ndjson"})
+    public CustomerImportReport importCustomers(
+            InputStream body,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            @RequestParam String internetPlanId,
+            @AuthenticationPrincipal AppUser appUser
+    ) throws IOException {
+        return customerImportService.importCustomers(appUser, internetPlanId, ImportFormat.of(contentType), body);
+    }
+
+    // Written from a separate thread while the cursor is walked, gzip=true sends a .gz file instead
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportCustomers(
+            @RequestParam(defaultValue = "CSV") CustomerExportFormat format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @AuthenticationPrincipal AppUser appUser
+    ) {
+        String ownerId = appUser.getId();
+        String fileName = "customers." + format.fileExtension() + (gzip ? ".gz" : "");
+        return ResponseEntity.ok()
+                .contentType(gzip ? MediaType.parseMediaType("application/gzip") : format.mediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(fileName).build().toString())
+                .body(out -> customerExportService.exportCustomers(ownerId, format, gzip, out));
+    }
+
     @PutMapping("{id}")
     public Customer updateCustomer(@PathVariable String id, @RequestBody @Valid Customer customer, @AuthenticationPrincipal AppUser appUser) {
         return customerService.updateCustomer(id, customer, appUser);
     }
 
+    @PatchMapping("{id}")
+    public Customer patchCustomer(@PathVariable String id, @RequestBody @Valid CustomerPatchDTO patch, @AuthenticationPrincipal AppUser appUser) {
+        return customerService.patchCustomer(id, patch, appUser);
+    }
+
     @DeleteMapping("{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public void deleteCustomer(@PathVariable String id, @AuthenticationPrincipal AppUser appUser) {
@@ -0,0 +1,62 @@
+package com.github.ramezch.backend.customers.exports;
+
+import com.github.ramezch.backend.customers.models.Address;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerExportRow;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+// RFC 4180 CSV. The customer columns use the names the CSV import reads, so an export can be imported elsewhere.
+class CsvCustomerExportWriter implements CustomerExportWriter {
+    static final List<String> COLUMNS = List.of("id", "username", "fullName", "phone", "status", "registrationDate", "notes",
+            "country", "city", "street", "postalCode",
+            "subscriptionStatus", "subscriptionEndDate", "internetPlanId", "internetPlanName", "internetPlanPrice");
+
+    private static final String FORMULA_PREFIXES = "=+-@\t\r";
+
+    private final Writer output;
+
+    CsvCustomerExportWriter(Writer output) {
+        this.output = output;
+    }
+
+    @Override
+    public void writeHeader() throws IOException {
+        writeRecord(COLUMNS.toArray());
+    }
+
+    @Override
+    public void write(CustomerExportRow row) throws IOException {
+        Customer customer = row.customer();
+        Address address = customer.address();
+        writeRecord(customer.id(), customer.username(), customer.fullName(), customer.phone(), customer.status(),
+                customer.registrationDate(), customer.notes(),
+                address == null ? null : address.country(), address == null ? null : address.city(),
+                address == null ? null : address.street(), address == null ? null : address.postalCode(),
+                row.subscriptionStatus(), row.subscriptionEndDate(), row.internetPlanId(), row.internetPlanName(),
+                row.internetPlanPrice());
+    }
+
+    private void writeRecord(Object... values) throws IOException {
+        output.write(String.join(",", Arrays.stream(values).map(CsvCustomerExportWriter::field).toList()));
+        output.write("\r\n");
+    }
+
+    private static String field(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        // Spreadsheets run text starting with these as a formula, the apostrophe makes them show it as text instead
+        if (value instanceof String && !text.isEmpty() && FORMULA_PREFIXES.indexOf(text.charAt(0)) >= 0) {
+            text = "'" + text;
+        }
+        if (text.contains(",") || text.contains("\"") || text.contains("\n") || text.contains("\r")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.ramezch.backend.customers.exports;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+
+import java.io.Writer;
+
+public enum CustomerExportFormat {
+    CSV("text/csv", "csv"),
+    NDJSON("application/x-ndjson", "ndjson");
+
+    private final MediaType mediaType;
+    private final String fileExtension;
+
+    CustomerExportFormat(String mediaType, String fileExtension) {
+        this.mediaType = MediaType.parseMediaType(mediaType);
+        this.fileExtension = fileExtension;
+    }
+
+    public MediaType mediaType() {
+        return mediaType;
+    }
+
+    public String fileExtension() {
+        return fileExtension;
+    }
+
+    public CustomerExportWriter writer(Writer output, ObjectMapper objectMapper) {
+        return switch (this) {
+            case CSV -> new CsvCustomerExportWriter(output);
+            case NDJSON -> new NdjsonCustomerExportWriter(output, objectMapper);
+        };
+    }
+}
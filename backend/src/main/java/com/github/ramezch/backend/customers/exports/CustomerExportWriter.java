@@ -0,0 +1,13 @@
+package com.github.ramezch.backend.customers.exports;
+
+import com.github.ramezch.backend.customers.models.CustomerExportRow;
+
+import java.io.IOException;
+
+// Writes one row at a time, nothing is kept once a row is written
+public interface CustomerExportWriter {
+
+    void writeHeader() throws IOException;
+
+    void write(CustomerExportRow row) throws IOException;
+}
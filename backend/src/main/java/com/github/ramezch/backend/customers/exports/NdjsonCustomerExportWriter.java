@@ -0,0 +1,30 @@
+package com.github.ramezch.backend.customers.exports;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ramezch.backend.customers.models.CustomerExportRow;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// One CustomerExportRow as JSON per line, there is no header
+class NdjsonCustomerExportWriter implements CustomerExportWriter {
+    private final Writer output;
+    private final ObjectMapper objectMapper;
+
+    NdjsonCustomerExportWriter(Writer output, ObjectMapper objectMapper) {
+        this.output = output;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void writeHeader() {
+        // NDJSON has no header
+    }
+
+    @Override
+    public void write(CustomerExportRow row) throws IOException {
+        // writeValue(Writer) would close the response writer after the first row
+        output.write(objectMapper.writeValueAsString(row));
+        output.write('\n');
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.ramezch.backend.customers.imports;
+
+import com.github.ramezch.backend.customers.models.Address;
+import com.github.ramezch.backend.customers.models.CustomerDTO;
+import com.github.ramezch.backend.customers.models.CustomerStatus;
+import com.github.ramezch.backend.exceptions.InvalidImportException;
+import com.github.ramezch.backend.utils.CsvLineReader;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// The header names the CustomerDTO fields, address fields are flattened into country, city, street and postalCode
+public class CustomerCsvParser implements CsvLineReader.RecordParser<CustomerDTO> {
+    static final List<String> COLUMNS = List.of("username", "fullName", "phone", "status", "notes",
+            "country", "city", "street", "postalCode");
+
+    @Override
+    public List<String> columns() {
+        return COLUMNS;
+    }
+
+    @Override
+    public void checkHeader(Set<String> columns) {
+        if (!columns.contains("username")) {
+            throw new InvalidImportException("the CSV header has no username column");
+        }
+    }
+
+    @Override
+    public CustomerDTO parse(CsvLineReader.Cells cells) {
+        String status = cells.get("status");
+        CustomerStatus customerStatus = null;
+        if (status != null) {
+            try {
+                customerStatus = CustomerStatus.valueOf(status.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new CsvLineReader.InvalidCellException("status: Unknown status '" + status + "'");
+            }
+        }
+
+        Address address = new Address(null, cells.get("country"), cells.get("city"), cells.get("street"),
+                cells.get("postalCode"));
+        return new CustomerDTO(cells.get("username"), cells.get("fullName"), cells.get("phone"), address,
+                customerStatus, cells.get("notes"));
+    }
+}
@@ -2,17 +2,28 @@ package com.github.ramezch.backend.customers.models;
 
 import jakarta.annotation.Nullable;
 import jakarta.validation.constraints.*;
+import lombok.With;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
-
+@Document
+@CompoundIndex(name = "ownerId_registrationDate_id", def = "{'ownerId': 1, 'registrationDate': -1, '_id': -1}")
+@CompoundIndex(name = "ownerId_status_registrationDate_id", def = "{'ownerId': 1, 'status': 1, 'registrationDate': -1, '_id': -1}")
+@CompoundIndex(name = "ownerId_username", def = "{'ownerId': 1, 'username': 1}", unique = true)
+@CompoundIndex(name = "ownerId_searchKeys_registrationDate_id", def = "{'ownerId': 1, 'searchKeys': 1, 'registrationDate': -1, '_id': -1}")
 public record Customer(
         @Id
         @NotBlank(message = "ID cannot be blank")
         String id,
 
+        // The AppUser this customer belongs to, every customer query is scoped by it
+        @With
+        String ownerId,
+
         @NotBlank(message = "Username cannot be blank")
         String username,
 
@@ -35,5 +46,16 @@ public record Customer(
 
         @Nullable
         @Size(max = 500, message = "Notes must be less than 500 characters")
-        String notes
-) { }
\ No newline at end of file
+        String notes,
+
+        // Incremented by every update, a request naming a version only applies to that version. Null for customers
+        // written before versions existed, which count as version 0.
+        @Nullable
+        @With
+        Long version
+) {
+    public Customer(String id, String ownerId, String username, String fullName, String phone, Address address,
+                    Instant registrationDate, CustomerStatus status, String notes) {
+        this(id, ownerId, username, fullName, phone, address, registrationDate, status, notes, 0L);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,29 @@
+package com.github.ramezch.backend.customers.models;
+
+import com.github.ramezch.backend.internetplan.models.InternetPlan;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
+import jakarta.annotation.Nullable;
+
+import java.time.Instant;
+
+// A customer joined with its subscription and plan, the subscription fields are null for customers without one
+public record CustomerExportRow(
+        Customer customer,
+        @Nullable SubscriptionStatus subscriptionStatus,
+        @Nullable Instant subscriptionEndDate,
+        @Nullable String internetPlanId,
+        @Nullable String internetPlanName,
+        @Nullable Double internetPlanPrice
+) {
+    public static CustomerExportRow of(Customer customer, @Nullable Subscription subscription, @Nullable InternetPlan internetPlan) {
+        return new CustomerExportRow(
+                customer,
+                subscription == null ? null : subscription.status(),
+                subscription == null ? null : subscription.endDate(),
+                subscription == null ? null : subscription.internetPlanId(),
+                internetPlan == null ? null : internetPlan.name(),
+                internetPlan == null ? null : internetPlan.price()
+        );
+    }
+}
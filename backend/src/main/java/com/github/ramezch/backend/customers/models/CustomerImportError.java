@@ -0,0 +1,12 @@
+package com.github.ramezch.backend.customers.models;
+
+import jakarta.annotation.Nullable;
+
+import java.util.List;
+
+// Why one row of an import was not imported, rows are numbered as in the uploaded file
+public record CustomerImportError(
+        long row,
+        @Nullable String username,
+        List<String> messages
+) { }
@@ -0,0 +1,12 @@
+package com.github.ramezch.backend.customers.models;
+
+import java.util.List;
+
+// Outcome of an import, errors lists at most the first MAX_REPORTED_ERRORS failed rows while failed counts all of them
+public record CustomerImportReport(
+        long imported,
+        long failed,
+        List<CustomerImportError> errors
+) {
+    public static final int MAX_REPORTED_ERRORS = 1000;
+}
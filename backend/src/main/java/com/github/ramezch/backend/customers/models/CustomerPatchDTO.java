@@ -0,0 +1,40 @@
+package com.github.ramezch.backend.customers.models;
+
+import jakarta.annotation.Nullable;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
+
+// Partial customer update, fields left out or null keep their stored value
+public record CustomerPatchDTO(
+        @Nullable
+        @Pattern(regexp = ".*\\S.*", message = "Username cannot be blank")
+        String username,
+
+        @Nullable
+        @Pattern(regexp = ".*\\S.*", message = "Full name cannot be blank")
+        String fullName,
+
+        @Nullable
+        @Pattern(regexp = "^\\+?[0-9\\s\\-]{6,20}$",
+                message = "Phone number must be 6-20 digits with optional + prefix")
+        String phone,
+
+        @Nullable
+        Address address,
+
+        @Nullable
+        CustomerStatus status,
+
+        @Nullable
+        @Size(max = 500, message = "Notes must be less than 500 characters")
+        String notes,
+
+        // Only applied when the customer still has this version, otherwise the update is rejected with a conflict
+        @Nullable
+        Long version
+) {
+    // Username, full name, phone and city are what the search keys are built from
+    public boolean changesSearchKeys() {
+        return username != null || fullName != null || phone != null || address != null;
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.ramezch.backend.customers.models;
+
+import org.springframework.data.annotation.Id;
+
+// Typeahead entry, just enough to show and open the customer
+public record CustomerSuggestion(
+        @Id String id,
+        String username,
+        String fullName
+) { }
@@ -12,40 +12,39 @@ import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface CustomerRepository extends MongoRepository<Customer, String> {
     @NonNull
-    Page<Customer> findByIdIn(List<String> ids, Pageable pageable);
+    Page<Customer> findByOwnerId(String ownerId, Pageable pageable);
 
+    Optional<Customer> findByIdAndOwnerId(String id, String ownerId);
+
+    boolean existsByIdAndOwnerId(String id, String ownerId);
+
+    // Customers that have every one of the search terms in their searchKeys, see CustomerSearchKeys
     @Query("""
     {
         $and: [
-            { _id: { $in: ?0 } },
+            { ownerId: ?0 },
             {
                 $or: [
                     { $expr: { $eq: [?1, null] } },
                     { status: ?1 }
                 ]
             },
-            {
-                $or: [
-                    { username: { $regex: ?2, $options: 'i' } },
-                    { fullName: { $regex: ?2, $options: 'i' } },
-                    { phone: { $regex: ?2, $options: 'i' } },
-                    { 'address.city': { $regex: ?2, $options: 'i' } }
-                ]
-            }
+            { searchKeys: { $all: ?2 } }
         ]
     }
     """)
     Page<Customer> searchCustomers(
-            List<String> customerIds,
+            String ownerId,
             @Nullable CustomerStatus status,
-            @Nullable String searchTerm,
+            List<String> searchTerms,
             Pageable pageable);
 
-    boolean existsByUsernameAndIdIn(@NotBlank(message = "Username cannot be blank") String username, List<String> customerIds);
+    boolean existsByOwnerIdAndUsername(String ownerId, @NotBlank(message = "Username cannot be blank") String username);
 
-    Page<Customer> findByIdInAndStatus(List<String> customerIds, CustomerStatus status, Pageable pageable);
+    Page<Customer> findByOwnerIdAndStatus(String ownerId, CustomerStatus status, Pageable pageable);
 }
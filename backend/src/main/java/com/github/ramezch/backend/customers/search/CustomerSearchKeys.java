@@ -0,0 +1,67 @@
+package com.github.ramezch.backend.customers.search;
+
+import com.github.ramezch.backend.customers.models.Customer;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+// Normalized search terms of a customer, stored in the searchKeys field and indexed together with the owner
+public final class CustomerSearchKeys {
+    public static final String FIELD = "searchKeys";
+    static final int MAX_TERM_LENGTH = 20;
+    static final int MIN_PHONE_INFIX_LENGTH = 3;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_DIGITS = Pattern.compile("\\D+");
+
+    private CustomerSearchKeys() {
+    }
+
+    // Every prefix of every word of username, full name, phone and city, plus the digit runs inside the phone number
+    public static List<String> of(Customer customer) {
+        Set<String> keys = new TreeSet<>();
+        String city = customer.address() == null ? null : customer.address().city();
+        for (String value : Arrays.asList(customer.username(), customer.fullName(), customer.phone(), city)) {
+            tokens(value).forEach(token -> addPrefixes(keys, token, 1));
+        }
+
+        // Phone numbers are searched by any part of them, e.g. the last digits
+        String digits = phoneDigits(customer.phone());
+        for (int start = 0; start <= digits.length() - MIN_PHONE_INFIX_LENGTH; start++) {
+            addPrefixes(keys, digits.substring(start), start == 0 ? 1 : MIN_PHONE_INFIX_LENGTH);
+        }
+        return List.copyOf(keys);
+    }
+
+    // The terms a customer needs to have all of to match the search input, empty if it has no searchable characters
+    public static List<String> terms(String searchTerm) {
+        return tokens(searchTerm).stream()
+                .map(token -> token.length() > MAX_TERM_LENGTH ? token.substring(0, MAX_TERM_LENGTH) : token)
+                .distinct()
+                .toList();
+    }
+
+    static List<String> tokens(String value) {
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        String normalized = DIACRITICS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        return SEPARATORS.splitAsStream(normalized)
+                .filter(token -> !token.isEmpty())
+                .toList();
+    }
+
+    static String phoneDigits(String phone) {
+        return phone == null ? "" : NON_DIGITS.matcher(phone).replaceAll("");
+    }
+
+    private static void addPrefixes(Set<String> keys, String token, int minLength) {
+        int maxLength = Math.min(token.length(), MAX_TERM_LENGTH);
+        for (int length = minLength; length <= maxLength; length++) {
+            keys.add(token.substring(0, length));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.ramezch.backend.customers.search;
+
+import com.github.ramezch.backend.customers.models.Customer;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+import org.springframework.stereotype.Component;
+
+// Keeps searchKeys in line with the customer on every save, the field is not part of the Customer model
+@Component
+public class CustomerSearchKeysCallback implements BeforeSaveCallback<Customer> {
+
+    @Override
+    public Customer onBeforeSave(Customer customer, Document document, String collection) {
+        document.put(CustomerSearchKeys.FIELD, CustomerSearchKeys.of(customer));
+        return customer;
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.ramezch.backend.customers.search;
+
+import com.github.ramezch.backend.customers.models.Customer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.stream.Stream;
+
+// Adds searchKeys to customers saved before the field existed
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class SearchKeysBackfill implements ApplicationRunner {
+    static final int BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        backfill();
+    }
+
+    void backfill() {
+        Query missingKeys = Query.query(Criteria.where(CustomerSearchKeys.FIELD).exists(false));
+
+        int backfilled = 0;
+        BulkOperations bulkOps = null;
+        try (Stream<Customer> customers = mongoTemplate.stream(missingKeys, Customer.class)) {
+            for (Customer customer : (Iterable<Customer>) customers::iterator) {
+                if (bulkOps == null) {
+                    bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Customer.class);
+                }
+                bulkOps.updateOne(Query.query(Criteria.where("_id").is(customer.id())),
+                        Update.update(CustomerSearchKeys.FIELD, CustomerSearchKeys.of(customer)));
+                if (++backfilled % BATCH_SIZE == 0) {
+                    bulkOps.execute();
+                    bulkOps = null;
+                }
+            }
+        }
+        if (bulkOps != null) {
+            bulkOps.execute();
+        }
+        if (backfilled > 0) {
+            log.info("Added search keys to {} customers", backfilled);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.ramezch.backend.customers.search;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "search")
+public record SearchProperties(
+        // Answer customer searches from an in-memory index per owner instead of the searchKeys index in Mongo
+        @DefaultValue("false") boolean inMemoryIndex,
+
+        // Number of owners whose index is kept in memory, the least recently searched one is dropped beyond that
+        @DefaultValue("1000") int maxIndexedOwners,
+
+        // Age after which an owner's index is rebuilt, which picks up customers written through other instances
+        @DefaultValue("10m") Duration indexMaxAge,
+
+        // Time a suggestion query may run in Mongo, a typeahead gets no suggestions rather than late ones
+        @DefaultValue("50ms") Duration suggestMaxTime
+) {}
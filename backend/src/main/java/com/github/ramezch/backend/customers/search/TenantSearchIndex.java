@@ -0,0 +1,263 @@
+package com.github.ramezch.backend.customers.search;
+
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerStatus;
+import com.github.ramezch.backend.customers.models.CustomerSuggestion;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Optional in-memory trigram index of each owner's customers, built on the owner's first search and kept current
+// through the CustomerService write hooks. Mongo is only asked for the customers of the requested page.
+@Component
+@RequiredArgsConstructor
+public class TenantSearchIndex {
+    private final MongoTemplate mongoTemplate;
+    private final SearchProperties properties;
+    private final Map<String, OwnerIndex> owners = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return properties.inMemoryIndex();
+    }
+
+    // Same matching as the searchKeys query: every term is a prefix of a word, or part of the phone digits
+    public Page<Customer> search(String ownerId, CustomerStatus status, List<String> terms, Pageable pageable) {
+        List<String> ids = ownerIndex(ownerId).search(status, terms).stream().map(Entry::id).toList();
+        int from = (int) Math.min(pageable.getOffset(), ids.size());
+        int to = Math.min(from + pageable.getPageSize(), ids.size());
+        return new PageImpl<>(hydrate(ownerId, ids.subList(from, to)), pageable, ids.size());
+    }
+
+    // Answered from memory alone, no customer is loaded from Mongo
+    public List<CustomerSuggestion> suggest(String ownerId, List<String> terms, int limit) {
+        return ownerIndex(ownerId).search(null, terms).stream()
+                .limit(limit)
+                .map(entry -> new CustomerSuggestion(entry.id(), entry.username(), entry.fullName()))
+                .toList();
+    }
+
+    // Owners without a loaded index are skipped, their index is built from Mongo when they search next
+    public void onSaved(Customer customer) {
+        OwnerIndex index = isEnabled() ? owners.get(customer.ownerId()) : null;
+        if (index != null) {
+            index.put(Entry.of(customer));
+        }
+    }
+
+    public void onDeleted(String ownerId, String customerId) {
+        OwnerIndex index = isEnabled() ? owners.get(ownerId) : null;
+        if (index != null) {
+            index.remove(customerId);
+        }
+    }
+
+    int indexedOwners() {
+        return owners.size();
+    }
+
+    private OwnerIndex ownerIndex(String ownerId) {
+        OwnerIndex index = owners.computeIfAbsent(ownerId, id -> new OwnerIndex());
+        index.ensureLoaded(() -> load(ownerId), properties.indexMaxAge());
+        evictLeastRecentlyUsed();
+        return index;
+    }
+
+    private List<Entry> load(String ownerId) {
+        Query query = Query.query(Criteria.where("ownerId").is(ownerId));
+        query.fields().include("username", "fullName", "phone", "address.city", "registrationDate", "status");
+        try (Stream<Customer> customers = mongoTemplate.stream(query, Customer.class)) {
+            return customers.map(Entry::of).toList();
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (owners.size() > properties.maxIndexedOwners()) {
+            owners.entrySet().stream()
+                    .min(Comparator.comparingLong(owner -> owner.getValue().lastUsed))
+                    .ifPresent(owner -> owners.remove(owner.getKey(), owner.getValue()));
+        }
+    }
+
+    private List<Customer> hydrate(String ownerId, List<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Customer> customers = mongoTemplate.find(
+                        Query.query(Criteria.where("_id").in(ids).and("ownerId").is(ownerId)), Customer.class)
+                .stream()
+                .collect(Collectors.toMap(Customer::id, Function.identity()));
+        // A customer deleted through another instance stays in the index until the next rebuild, it is skipped here
+        return ids.stream().map(customers::get).filter(Objects::nonNull).toList();
+    }
+
+    record Entry(String id, String username, String fullName, Instant registrationDate, CustomerStatus status,
+                 List<String> words, String digits) {
+        private static final int GRAM_LENGTH = 3;
+        private static final String PREFIX_MARK = "^";
+        private static final Comparator<Entry> NEWEST_FIRST = Comparator
+                .comparing(Entry::registrationDate, Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(Entry::id, Comparator.reverseOrder());
+
+        static Entry of(Customer customer) {
+            List<String> words = new ArrayList<>();
+            words.addAll(CustomerSearchKeys.tokens(customer.username()));
+            words.addAll(CustomerSearchKeys.tokens(customer.fullName()));
+            words.addAll(CustomerSearchKeys.tokens(customer.phone()));
+            words.addAll(CustomerSearchKeys.tokens(customer.address() == null ? null : customer.address().city()));
+            return new Entry(customer.id(), customer.username(), customer.fullName(), customer.registrationDate(),
+                    customer.status(), List.copyOf(words), CustomerSearchKeys.phoneDigits(customer.phone()));
+        }
+
+        boolean matches(String term) {
+            return words.stream().anyMatch(word -> word.startsWith(term))
+                    || digits.startsWith(term)
+                    || (term.length() >= CustomerSearchKeys.MIN_PHONE_INFIX_LENGTH && digits.contains(term));
+        }
+
+        // Trigrams find terms anywhere in a word, the marked one and two character prefixes serve shorter terms
+        Set<String> grams() {
+            Set<String> grams = new HashSet<>();
+            Stream.concat(words.stream(), Stream.of(digits)).forEach(word -> {
+                for (int length = 1; length < GRAM_LENGTH && length <= word.length(); length++) {
+                    grams.add(PREFIX_MARK + word.substring(0, length));
+                }
+                grams.addAll(trigrams(word));
+            });
+            return grams;
+        }
+
+        static Set<String> termGrams(String term) {
+            return term.length() < GRAM_LENGTH ? Set.of(PREFIX_MARK + term) : trigrams(term);
+        }
+
+        private static Set<String> trigrams(String word) {
+            Set<String> trigrams = new HashSet<>();
+            for (int start = 0; start + GRAM_LENGTH <= word.length(); start++) {
+                trigrams.add(word.substring(start, start + GRAM_LENGTH));
+            }
+            return trigrams;
+        }
+    }
+
+    private static final class OwnerIndex {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Entry> entries = new HashMap<>();
+        private final Map<String, Set<String>> postings = new HashMap<>();
+        private Instant loadedAt;
+        private volatile long lastUsed;
+
+        void ensureLoaded(Supplier<List<Entry>> loader, Duration maxAge) {
+            lastUsed = System.nanoTime();
+            lock.readLock().lock();
+            try {
+                if (isFresh(maxAge)) {
+                    return;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (isFresh(maxAge)) {
+                    return;
+                }
+                entries.clear();
+                postings.clear();
+                loader.get().forEach(this::add);
+                loadedAt = Instant.now();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        List<Entry> search(CustomerStatus status, List<String> terms) {
+            lock.readLock().lock();
+            try {
+                Set<String> candidates = null;
+                for (String term : terms) {
+                    for (String gram : Entry.termGrams(term)) {
+                        Set<String> posting = postings.getOrDefault(gram, Set.of());
+                        if (candidates == null) {
+                            candidates = new HashSet<>(posting);
+                        } else {
+                            candidates.retainAll(posting);
+                        }
+                    }
+                }
+                if (candidates == null) {
+                    return List.of();
+                }
+                return candidates.stream()
+                        .map(entries::get)
+                        .filter(entry -> status == null || entry.status() == status)
+                        .filter(entry -> terms.stream().allMatch(entry::matches))
+                        .sorted(Entry.NEWEST_FIRST)
+                        .toList();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(Entry entry) {
+            lock.writeLock().lock();
+            try {
+                if (loadedAt != null) {
+                    removeEntry(entry.id());
+                    add(entry);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(String customerId) {
+            lock.writeLock().lock();
+            try {
+                removeEntry(customerId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private boolean isFresh(Duration maxAge) {
+            return loadedAt != null && loadedAt.plus(maxAge).isAfter(Instant.now());
+        }
+
+        private void add(Entry entry) {
+            entries.put(entry.id(), entry);
+            entry.grams().forEach(gram -> postings.computeIfAbsent(gram, key -> new HashSet<>()).add(entry.id()));
+        }
+
+        private void removeEntry(String customerId) {
+            Entry existing = entries.remove(customerId);
+            if (existing == null) {
+                return;
+            }
+            for (String gram : existing.grams()) {
+                Set<String> posting = postings.get(gram);
+                if (posting != null) {
+                    posting.remove(customerId);
+                    if (posting.isEmpty()) {
+                        postings.remove(gram);
+                    }
+                }
+            }
+        }
+    }
+}
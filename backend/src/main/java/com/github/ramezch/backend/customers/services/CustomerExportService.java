@@ -0,0 +1,100 @@
+package com.github.ramezch.backend.customers.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ramezch.backend.customers.exports.CustomerExportFormat;
+import com.github.ramezch.backend.customers.exports.CustomerExportWriter;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerExportRow;
+import com.github.ramezch.backend.internetplan.models.InternetPlan;
+import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.github.ramezch.backend.subscription.repository.SubscriptionRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+@Service
+@RequiredArgsConstructor
+public class CustomerExportService {
+    static final int BATCH_SIZE = 500;
+    private static final Sort EXPORT_ORDER = Sort.by(Sort.Direction.DESC, "registrationDate", "_id");
+
+    private final MongoTemplate mongoTemplate;
+    private final SubscriptionRepository subscriptionRepo;
+    private final InternetPlanRepository internetPlanRepo;
+    private final ObjectMapper objectMapper;
+
+    // Walks the owner's customers on a cursor and writes them as they arrive, at most one batch is held in memory.
+    // Subscriptions are fetched once per batch and plans once per export. Writes block while the client is not
+    // reading, which in turn stops the cursor from fetching further batches.
+    public void exportCustomers(String ownerId, CustomerExportFormat format, boolean gzip, OutputStream out) throws IOException {
+        // Sync flush, so every batch reaches the client compressed instead of waiting for the whole export
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(out, 8192, true) : null;
+        Writer output = new BufferedWriter(new OutputStreamWriter(gzip ? compressed : out, StandardCharsets.UTF_8));
+        CustomerExportWriter writer = format.writer(output, objectMapper);
+        writer.writeHeader();
+
+        Map<String, InternetPlan> internetPlans = new HashMap<>();
+        Query query = Query.query(Criteria.where("ownerId").is(ownerId)).with(EXPORT_ORDER).cursorBatchSize(BATCH_SIZE);
+        List<Customer> batch = new ArrayList<>(BATCH_SIZE);
+        try (Stream<Customer> customers = mongoTemplate.stream(query, Customer.class)) {
+            for (Customer customer : (Iterable<Customer>) customers::iterator) {
+                batch.add(customer);
+                if (batch.size() == BATCH_SIZE) {
+                    writeBatch(ownerId, batch, internetPlans, writer);
+                    output.flush();
+                    batch.clear();
+                }
+            }
+        }
+        writeBatch(ownerId, batch, internetPlans, writer);
+        output.flush();
+        if (compressed != null) {
+            compressed.finish();
+        }
+    }
+
+    private void writeBatch(String ownerId, List<Customer> batch, Map<String, InternetPlan> internetPlans,
+                            CustomerExportWriter writer) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, Subscription> subscriptions = subscriptionRepo
+                .findByOwnerIdAndCustomerIdIn(ownerId, batch.stream().map(Customer::id).toList())
+                .stream()
+                .collect(Collectors.toMap(Subscription::customerId, Function.identity(), (first, duplicate) -> first));
+
+        Set<String> missingPlanIds = subscriptions.values().stream()
+                .map(Subscription::internetPlanId)
+                .filter(planId -> !internetPlans.containsKey(planId))
+                .collect(Collectors.toSet());
+        if (!missingPlanIds.isEmpty()) {
+            internetPlanRepo.findAllById(missingPlanIds).forEach(plan -> internetPlans.put(plan.id(), plan));
+        }
+
+        for (Customer customer : batch) {
+            Subscription subscription = subscriptions.get(customer.id());
+            InternetPlan internetPlan = subscription == null ? null : internetPlans.get(subscription.internetPlanId());
+            writer.write(CustomerExportRow.of(customer, subscription, internetPlan));
+        }
+    }
+}
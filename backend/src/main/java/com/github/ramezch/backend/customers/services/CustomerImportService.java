@@ -0,0 +1,189 @@
+package com.github.ramezch.backend.customers.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.customers.imports.CustomerCsvParser;
+import com.github.ramezch.backend.customers.models.Address;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerDTO;
+import com.github.ramezch.backend.customers.models.CustomerImportError;
+import com.github.ramezch.backend.customers.models.CustomerImportReport;
+import com.github.ramezch.backend.customers.search.TenantSearchIndex;
+import com.github.ramezch.backend.exceptions.InternetPlanNotFoundException;
+import com.github.ramezch.backend.exceptions.UsernameTakenException;
+import com.github.ramezch.backend.internetplan.models.InternetPlan;
+import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
+import com.github.ramezch.backend.subscription.services.SubscriptionService;
+import com.github.ramezch.backend.utils.IdService;
+import com.github.ramezch.backend.utils.ImportFormat;
+import com.github.ramezch.backend.utils.LineReader;
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Service
+@RequiredArgsConstructor
+public class CustomerImportService {
+    static final int BATCH_SIZE = 500;
+    private static final CustomerCsvParser CSV_PARSER = new CustomerCsvParser();
+
+    private final MongoTemplate mongoTemplate;
+    private final InternetPlanRepository internetPlanRepo;
+    private final SubscriptionService subscriptionService;
+    private final IdService idService;
+    private final TenantSearchIndex tenantSearchIndex;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+
+    // Reads the body row by row and writes every BATCH_SIZE valid rows with one username lookup, one customer bulk
+    // insert, one subscription insert and one invoice bulk write. Rows that fail do not stop the import, a row is only
+    // counted as imported once its subscription and first invoice are written.
+    public CustomerImportReport importCustomers(AppUser appUser, String internetPlanId, ImportFormat format,
+                                                InputStream body) throws IOException {
+        InternetPlan internetPlan = internetPlanRepo.findById(internetPlanId)
+                .orElseThrow(() -> new InternetPlanNotFoundException(internetPlanId));
+
+        ImportProgress progress = new ImportProgress();
+        List<LineReader.Line<CustomerDTO>> batch = new ArrayList<>(BATCH_SIZE);
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            LineReader<CustomerDTO> reader = format.reader(input, objectMapper, CustomerDTO.class, CSV_PARSER);
+            for (LineReader.Line<CustomerDTO> row = reader.next(); row != null; row = reader.next()) {
+                if (row.error() != null) {
+                    progress.fail(row, List.of(row.error()));
+                    continue;
+                }
+                List<String> violations = validator.validate(row.value()).stream()
+                        .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                        .sorted()
+                        .toList();
+                if (!violations.isEmpty()) {
+                    progress.fail(row, violations);
+                    continue;
+                }
+                batch.add(row);
+                if (batch.size() == BATCH_SIZE) {
+                    importBatch(appUser.getId(), internetPlan, batch, progress);
+                    batch.clear();
+                }
+            }
+        }
+        importBatch(appUser.getId(), internetPlan, batch, progress);
+        progress.errors.sort(Comparator.comparingLong(CustomerImportError::row));
+        return new CustomerImportReport(progress.imported, progress.failed, progress.errors);
+    }
+
+    private void importBatch(String ownerId, InternetPlan internetPlan, List<LineReader.Line<CustomerDTO>> batch,
+                             ImportProgress progress) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Earlier batches are already written, so this one lookup also catches duplicates across batches
+        Set<String> takenUsernames = new HashSet<>(mongoTemplate.findDistinct(
+                Query.query(Criteria.where("ownerId").is(ownerId).and("username").in(batch.stream().map(row -> row.value().username()).toList())),
+                "username", Customer.class, String.class));
+
+        Instant registrationDate = Instant.now();
+        List<LineReader.Line<CustomerDTO>> rows = new ArrayList<>(batch.size());
+        List<Customer> customers = new ArrayList<>(batch.size());
+        for (LineReader.Line<CustomerDTO> row : batch) {
+            CustomerDTO dto = row.value();
+            if (!takenUsernames.add(dto.username())) {
+                progress.fail(row, List.of(new UsernameTakenException(dto.username()).getMessage()));
+                continue;
+            }
+            Address address = dto.address().id() == null
+                    ? new Address(idService.randomId(), dto.address().country(), dto.address().city(), dto.address().street(), dto.address().postalCode())
+                    : dto.address();
+            rows.add(row);
+            customers.add(new Customer(idService.randomId(), ownerId, dto.username(), dto.fullName(), dto.phone(), address,
+                    registrationDate, dto.status(), dto.notes()));
+        }
+
+        Set<Integer> failedIndexes = new HashSet<>();
+        if (!customers.isEmpty()) {
+            try {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Customer.class).insert(customers).execute();
+            } catch (BulkOperationException e) {
+                for (BulkWriteError error : e.getErrors()) {
+                    failedIndexes.add(error.getIndex());
+                    // A username taken between the lookup and the insert is caught by the unique (ownerId, username) index
+                    String message = error.getCategory() == ErrorCategory.DUPLICATE_KEY
+                            ? new UsernameTakenException(customers.get(error.getIndex()).username()).getMessage()
+                            : error.getMessage();
+                    progress.fail(rows.get(error.getIndex()), List.of(message));
+                }
+            }
+        }
+
+        List<String> insertedIds = new ArrayList<>(customers.size());
+        for (int i = 0; i < customers.size(); i++) {
+            if (!failedIndexes.contains(i)) {
+                insertedIds.add(customers.get(i).id());
+            }
+        }
+
+        // Customers whose subscription or invoice could not be written are removed again, like a single customer is
+        Map<String, String> subscriptionFailures;
+        try {
+            subscriptionFailures = subscriptionService.createSubscriptions(ownerId, insertedIds, internetPlan);
+        } catch (RuntimeException e) {
+            subscriptionFailures = new HashMap<>();
+            for (String id : insertedIds) {
+                subscriptionFailures.put(id, e.getMessage());
+            }
+        }
+        if (!subscriptionFailures.isEmpty()) {
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(subscriptionFailures.keySet())), Customer.class);
+        }
+
+        for (int i = 0; i < customers.size(); i++) {
+            Customer customer = customers.get(i);
+            if (failedIndexes.contains(i)) {
+                continue;
+            }
+            String failure = subscriptionFailures.get(customer.id());
+            if (failure != null) {
+                progress.fail(rows.get(i), List.of(failure));
+            } else {
+                tenantSearchIndex.onSaved(customer);
+                progress.imported++;
+            }
+        }
+    }
+
+    private static class ImportProgress {
+        private long imported;
+        private long failed;
+        private final List<CustomerImportError> errors = new ArrayList<>();
+
+        private void fail(LineReader.Line<CustomerDTO> row, List<String> messages) {
+            failed++;
+            if (errors.size() < CustomerImportReport.MAX_REPORTED_ERRORS) {
+                String username = row.value() == null ? null : row.value().username();
+                errors.add(new CustomerImportError(row.number(), username, messages));
+            }
+        }
+    }
+}
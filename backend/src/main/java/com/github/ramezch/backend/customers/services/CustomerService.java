@@ -1,131 +1,260 @@
 package com.github.ramezch.backend.customers.services;
 
 import com.github.ramezch.backend.appuser.AppUser;
-import com.github.ramezch.backend.appuser.AppUserRepository;
 import com.github.ramezch.backend.customers.models.Customer;
 import com.github.ramezch.backend.customers.models.CustomerDTO;
+import com.github.ramezch.backend.customers.models.CustomerPatchDTO;
 import com.github.ramezch.backend.customers.models.CustomerStatus;
 import com.github.ramezch.backend.customers.repositories.CustomerRepository;
+import com.github.ramezch.backend.customers.search.CustomerSearchKeys;
+import com.github.ramezch.backend.customers.search.TenantSearchIndex;
 import com.github.ramezch.backend.exceptions.CustomerNotFoundException;
+import com.github.ramezch.backend.exceptions.CustomerVersionConflictException;
+import com.github.ramezch.backend.exceptions.InternetPlanNotFoundException;
 import com.github.ramezch.backend.exceptions.UsernameTakenException;
+import com.github.ramezch.backend.internetplan.models.InternetPlan;
+import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
 import com.github.ramezch.backend.subscription.services.SubscriptionService;
 import com.github.ramezch.backend.utils.IdService;
+import com.github.ramezch.backend.utils.KeysetCursor;
+import com.github.ramezch.backend.utils.Slice;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor
 public class CustomerService {
+    static final int MAX_SLICE_SIZE = 100;
+    static final int MAX_PATCH_ATTEMPTS = 3;
+    private static final Sort SLICE_ORDER = Sort.by(Sort.Direction.DESC, "registrationDate", "_id");
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "registrationDate");
+
     private final CustomerRepository customerRepo;
-    private final AppUserRepository appUserRepository;
+    private final InternetPlanRepository internetPlanRepo;
     private final IdService idService;
     private final SubscriptionService subscriptionService;
+    private final MongoTemplate mongoTemplate;
+    private final TenantSearchIndex tenantSearchIndex;
 
     public Page<Customer> getCustomers(Pageable pageable, AppUser appUser) {
-        List<String> customerIds = Optional.ofNullable(appUser.getCustomerIds())
-                .orElseGet(ArrayList::new);
-
-        return customerIds.isEmpty()
-                ? Page.empty()
-                : customerRepo.findByIdIn(customerIds, pageable);
+        return customerRepo.findByOwnerId(appUser.getId(), pageable);
     }
 
     public Page<Customer> searchCustomers(AppUser appUser, CustomerStatus status, String searchTerm, Pageable pageable) {
-        List<String> customerIds = appUser.getCustomerIds();
-        if (customerIds == null || customerIds.isEmpty()) {
-            return Page.empty();
-        }
+        String ownerId = appUser.getId();
+        List<String> searchTerms = CustomerSearchKeys.terms(searchTerm);
 
-        // Case 1: No filters - return all customers for these IDs
-        if (status == null && (searchTerm == null || searchTerm.isEmpty())) {
-            return customerRepo.findByIdIn(customerIds, pageable);
+        // Case 1: No filters - return all customers of this owner
+        if (status == null && searchTerms.isEmpty()) {
+            return customerRepo.findByOwnerId(ownerId, pageable);
         }
 
         // Case 2: Only status filter
-        if (status != null && (searchTerm == null || searchTerm.isEmpty())) {
-            return customerRepo.findByIdInAndStatus(customerIds, status, pageable);
+        if (status != null && searchTerms.isEmpty()) {
+            return customerRepo.findByOwnerIdAndStatus(ownerId, status, pageable);
         }
 
-        // Case 3: Full search with both status and search term
+        // Case 3: Full search with both status and search term, from memory when enabled for the default order
+        if (tenantSearchIndex.isEnabled() && (pageable.getSort().isUnsorted() || pageable.getSort().equals(NEWEST_FIRST))) {
+            return tenantSearchIndex.search(ownerId, status, searchTerms, pageable);
+        }
         return customerRepo.searchCustomers(
-                customerIds,
+                ownerId,
                 status,
-                searchTerm,
+                searchTerms,
                 pageable
         );
     }
 
-    public Optional<Customer> getCustomer(String id, AppUser appUser) {
-        if (!appUser.getCustomerIds().contains(id)) {
-            return Optional.empty();
+    // Keyset variant of searchCustomers: continues after the cursor on an owner index ending in (registrationDate, _id)
+    // and fetches one extra customer instead of counting to know whether there is a next slice
+    public Slice<Customer> getCustomerSlice(AppUser appUser, CustomerStatus status, String searchTerm, String cursor, int size) {
+        int sliceSize = Math.clamp(size, 1, MAX_SLICE_SIZE);
+
+        Criteria criteria = Criteria.where("ownerId").is(appUser.getId());
+        if (status != null) {
+            criteria.and("status").is(status);
         }
-        return customerRepo.findById(id);
+
+        List<String> searchTerms = CustomerSearchKeys.terms(searchTerm);
+        if (!searchTerms.isEmpty()) {
+            criteria.and(CustomerSearchKeys.FIELD).all(searchTerms);
+        }
+
+        if (cursor != null && !cursor.isEmpty()) {
+            criteria.orOperator(KeysetCursor.decode(cursor).after("registrationDate"));
+        }
+
+        Query query = Query.query(criteria).with(SLICE_ORDER).limit(sliceSize + 1);
+        List<Customer> customers = mongoTemplate.find(query, Customer.class);
+
+        return Slice.of(customers, sliceSize, customer -> KeysetCursor.of(customer.registrationDate(), customer.id()));
     }
 
+    public Optional<Customer> getCustomer(String id, AppUser appUser) {
+        return customerRepo.findByIdAndOwnerId(id, appUser.getId());
+    }
+
+    // Plan lookup, customer insert, subscription insert and invoice write, without existence checks: the unique
+    // (ownerId, username) index rejects taken usernames and random UUIDs do not collide. The customer is removed again
+    // if its subscription cannot be created.
     public Customer addCustomer(CustomerDTO customerDTO, AppUser appUser, String internetPlanId) {
-        List<String> customerIds = Optional.ofNullable(appUser.getCustomerIds())
-                .orElseGet(ArrayList::new);
+        String ownerId = appUser.getId();
 
-        // Check if username already exists among this user's customers
-        boolean usernameExists = customerRepo.existsByUsernameAndIdIn(
-                customerDTO.username(),
-                customerIds
-        );
+        InternetPlan internetPlan = internetPlanRepo.findById(internetPlanId)
+                .orElseThrow(() -> new InternetPlanNotFoundException(internetPlanId));
 
-        if (usernameExists) {
+        Customer newCustomer = new Customer(idService.randomId(), ownerId, customerDTO.username(), customerDTO.fullName(),
+                customerDTO.phone(), customerDTO.address(), Instant.now(), customerDTO.status(), customerDTO.notes());
+
+        Customer savedCustomer;
+        try {
+            savedCustomer = customerRepo.insert(newCustomer);
+        } catch (DuplicateKeyException e) {
             throw new UsernameTakenException(customerDTO.username());
         }
 
-        String newCustomerID;
-        do {
-            newCustomerID = idService.randomId();
-        } while (customerRepo.existsById(newCustomerID));
+        try {
+            subscriptionService.createSubscription(ownerId, savedCustomer.id(), internetPlan);
+        } catch (RuntimeException e) {
+            customerRepo.deleteById(savedCustomer.id());
+            throw e;
+        }
 
-        Instant registrationDate = Instant.now();
+        tenantSearchIndex.onSaved(savedCustomer);
+        return savedCustomer;
+    }
 
-        Customer newCustomer = new Customer(newCustomerID, customerDTO.username(), customerDTO.fullName(),
-                customerDTO.phone(), customerDTO.address(), registrationDate, customerDTO.status(), customerDTO.notes());
+    // Replaces the stored fields in one findAndModify. Id, owner and version are never taken from the request body,
+    // a version in the body only makes the replacement conditional on it.
+    public Customer updateCustomer(String id, Customer updatedCustomer, AppUser appUser) {
+        Customer replacement = updatedCustomer.withOwnerId(appUser.getId());
+        Update update = new Update()
+                .set("username", replacement.username())
+                .set("fullName", replacement.fullName())
+                .set("phone", replacement.phone())
+                .set("address", replacement.address())
+                .set("registrationDate", replacement.registrationDate())
+                .set("status", replacement.status())
+                .set("notes", replacement.notes())
+                .set(CustomerSearchKeys.FIELD, CustomerSearchKeys.of(replacement));
+        return writeCustomer(id, appUser, update, updatedCustomer.version(), replacement.username());
+    }
 
-        Customer savedCustomer = customerRepo.save(newCustomer);
+    // Sets only the fields that change. Status and notes do not feed the search keys, so a patch of only those is
+    // written without reading the customer first: the patch itself is the diff.
+    public Customer patchCustomer(String id, CustomerPatchDTO patch, AppUser appUser) {
+        if (!patch.changesSearchKeys()) {
+            return applyPatch(id, patch, null, appUser);
+        }
+        // The search keys are computed from the customer as read, so the write only applies to the version that was
+        // read. A patch without a version is read and applied again when another write came in between.
+        for (int attempt = 1; ; attempt++) {
+            Customer current = customerRepo.findByIdAndOwnerId(id, appUser.getId())
+                    .orElseThrow(() -> new CustomerNotFoundException(id));
+            try {
+                return applyPatch(id, patch, current, appUser);
+            } catch (CustomerVersionConflictException e) {
+                if (patch.version() != null || attempt == MAX_PATCH_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
 
-        subscriptionService.createSubscription(newCustomerID, internetPlanId);
+    private Customer applyPatch(String id, CustomerPatchDTO patch, Customer current, AppUser appUser) {
+        Update update = new Update();
+        setIfChanged(update, "username", patch.username(), current, Customer::username);
+        setIfChanged(update, "fullName", patch.fullName(), current, Customer::fullName);
+        setIfChanged(update, "phone", patch.phone(), current, Customer::phone);
+        setIfChanged(update, "address", patch.address(), current, Customer::address);
+        setIfChanged(update, "status", patch.status(), current, Customer::status);
+        setIfChanged(update, "notes", patch.notes(), current, Customer::notes);
 
-        customerIds.add(newCustomerID);
-        appUser.setCustomerIds(customerIds);
-        appUserRepository.save(appUser);
+        if (update.getUpdateObject().isEmpty()) {
+            Customer unchanged = current != null ? current : getCustomer(id, appUser).orElseThrow(() -> new CustomerNotFoundException(id));
+            if (patch.version() != null && patch.version() != versionOf(unchanged)) {
+                throw new CustomerVersionConflictException(id);
+            }
+            return unchanged;
+        }
+        Long expectedVersion = patch.version();
+        if (current != null) {
+            Customer patched = new Customer(id, current.ownerId(),
+                    Objects.requireNonNullElse(patch.username(), current.username()),
+                    Objects.requireNonNullElse(patch.fullName(), current.fullName()),
+                    Objects.requireNonNullElse(patch.phone(), current.phone()),
+                    Objects.requireNonNullElse(patch.address(), current.address()),
+                    current.registrationDate(), current.status(), current.notes());
+            update.set(CustomerSearchKeys.FIELD, CustomerSearchKeys.of(patched));
+            if (expectedVersion == null) {
+                expectedVersion = versionOf(current);
+            }
+        }
+        return writeCustomer(id, appUser, update, expectedVersion, patch.username());
+    }
 
-        return savedCustomer;
+    private static long versionOf(Customer customer) {
+        return Objects.requireNonNullElse(customer.version(), 0L);
     }
 
-    public Customer updateCustomer(String id, Customer updatedCustomer, AppUser appUser) {
-        if (!appUser.getCustomerIds().contains(id)) {
-            throw new CustomerNotFoundException(id);
+    private static <T> void setIfChanged(Update update, String field, T value, Customer current, Function<Customer, T> stored) {
+        if (value != null && (current == null || !value.equals(stored.apply(current)))) {
+            update.set(field, value);
         }
-        return customerRepo.save(updatedCustomer);
     }
 
-    public void deleteCustomer(String id, AppUser appUser) {
-        if (!customerRepo.existsById(id)) {
-            throw new CustomerNotFoundException(id);
+    // One round trip that applies the update and returns the result. Only when nothing matched is it looked up
+    // whether the customer is missing or was at another version.
+    private Customer writeCustomer(String id, AppUser appUser, Update update, Long expectedVersion, String username) {
+        Criteria criteria = Criteria.where("_id").is(id).and("ownerId").is(appUser.getId());
+        if (expectedVersion != null) {
+            criteria.and("version").in(expectedVersion == 0 ? Arrays.asList(0L, null) : List.of(expectedVersion));
         }
 
-       List<String> customerIds = appUser.getCustomerIds();
+        Customer savedCustomer;
+        try {
+            savedCustomer = mongoTemplate.findAndModify(Query.query(criteria), update.inc("version", 1),
+                    FindAndModifyOptions.options().returnNew(true), Customer.class);
+        } catch (DuplicateKeyException e) {
+            throw new UsernameTakenException(username);
+        }
 
-        customerIds.remove(id);
-        appUser.setCustomerIds(customerIds);
+        if (savedCustomer == null) {
+            if (expectedVersion != null && customerRepo.existsByIdAndOwnerId(id, appUser.getId())) {
+                throw new CustomerVersionConflictException(id);
+            }
+            throw new CustomerNotFoundException(id);
+        }
+        tenantSearchIndex.onSaved(savedCustomer);
+        return savedCustomer;
+    }
 
-        subscriptionService.deleteSubscription(id);
+    public void deleteCustomer(String id, AppUser appUser) {
+        if (!customerRepo.existsByIdAndOwnerId(id, appUser.getId())) {
+            throw new CustomerNotFoundException(id);
+        }
 
-        appUserRepository.save(appUser);
+        subscriptionService.deleteSubscription(appUser.getId(), id);
 
         customerRepo.deleteById(id);
+        tenantSearchIndex.onDeleted(appUser.getId(), id);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.github.ramezch.backend.customers.services;
+
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerSuggestion;
+import com.github.ramezch.backend.customers.search.CustomerSearchKeys;
+import com.github.ramezch.backend.customers.search.SearchProperties;
+import com.github.ramezch.backend.customers.search.TenantSearchIndex;
+import com.mongodb.MongoExecutionTimeoutException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class CustomerSuggestionService {
+    static final int MAX_SUGGESTIONS = 20;
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "registrationDate", "_id");
+
+    private final MongoTemplate mongoTemplate;
+    private final TenantSearchIndex tenantSearchIndex;
+    private final SearchProperties searchProperties;
+
+    // The newest customers matching the prefix, read from the (ownerId, searchKeys, registrationDate, _id) index
+    public List<CustomerSuggestion> suggestCustomers(AppUser appUser, String prefix, int limit) {
+        List<String> terms = CustomerSearchKeys.terms(prefix);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        int suggestionLimit = Math.clamp(limit, 1, MAX_SUGGESTIONS);
+
+        if (tenantSearchIndex.isEnabled()) {
+            return tenantSearchIndex.suggest(appUser.getId(), terms, suggestionLimit);
+        }
+
+        Query query = Query.query(Criteria.where("ownerId").is(appUser.getId()).and(CustomerSearchKeys.FIELD).all(terms))
+                .with(NEWEST_FIRST)
+                .limit(suggestionLimit)
+                .maxTime(searchProperties.suggestMaxTime());
+        query.fields().include("username", "fullName");
+        try {
+            return mongoTemplate.find(query, CustomerSuggestion.class, mongoTemplate.getCollectionName(Customer.class));
+        } catch (DataAccessException e) {
+            if (e.getMostSpecificCause() instanceof MongoExecutionTimeoutException) {
+                log.warn("Suggestions for owner {} exceeded {}", appUser.getId(), searchProperties.suggestMaxTime());
+                return List.of();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.ramezch.backend.exceptions;
+
+public class CustomerVersionConflictException extends RuntimeException {
+    public CustomerVersionConflictException(String message) {
+        super("The Customer with ID: '" + message + "' was changed by someone else, reload it and try again.");
+    }
+}
@@ -78,6 +78,14 @@ public class GlobalExceptionHandler {
         return new ErrorMessage(exception.getMessage(), LocalDateTime.now());
     }
 
+    // Handle CustomerVersionConflictException
+    @ExceptionHandler(CustomerVersionConflictException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public ErrorMessage handleCustomerVersionConflictException(CustomerVersionConflictException exception) {
+        logger.info("Customer version conflict: " + exception.getMessage());
+        return new ErrorMessage(exception.getMessage(), LocalDateTime.now());
+    }
+
     // Handle InternetPlanNameTakenException
     @ExceptionHandler(InternetPlanNameTakenException.class)
     @ResponseStatus(HttpStatus.CONFLICT)
@@ -86,6 +94,30 @@ public class GlobalExceptionHandler {
         return new ErrorMessage(exception.getMessage(), LocalDateTime.now());
     }
 
+    // Handle InvalidCursorException
+    @ExceptionHandler(InvalidCursorException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorMessage handleInvalidCursorException(InvalidCursorException exception) {
+        logger.info("Invalid cursor: " + exception.getMessage());
+        return new ErrorMessage(exception.getMessage(), LocalDateTime.now());
+    }
+
+    // Handle InvalidImportException
+    @ExceptionHandler(InvalidImportException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorMessage handleInvalidImportException(InvalidImportException exception) {
+        logger.info("Invalid import: " + exception.getMessage());
+        return new ErrorMessage(exception.getMessage(), LocalDateTime.now());
+    }
+
+    // Handle InvalidReportRangeException
+    @ExceptionHandler(InvalidReportRangeException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorMessage handleInvalidReportRangeException(InvalidReportRangeException exception) {
+        logger.info("Invalid report range: " + exception.getMessage());
+        return new ErrorMessage(exception.getMessage(), LocalDateTime.now());
+    }
+
     // Handle all other exceptions
     @ExceptionHandler(Exception.class)
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
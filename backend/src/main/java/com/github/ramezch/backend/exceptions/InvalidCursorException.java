@@ -0,0 +1,7 @@
+package com.github.ramezch.backend.exceptions;
+
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException(String message) {
+        super("The cursor: '" + message + "' is not valid.");
+    }
+}
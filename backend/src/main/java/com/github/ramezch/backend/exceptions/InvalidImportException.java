@@ -0,0 +1,7 @@
+package com.github.ramezch.backend.exceptions;
+
+public class InvalidImportException extends RuntimeException {
+    public InvalidImportException(String message) {
+        super("The import cannot be read: " + message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.ramezch.backend.exceptions;
+
+public class InvalidReportRangeException extends RuntimeException {
+    public InvalidReportRangeException(String message) {
+        super("The report range is not valid: " + message);
+    }
+}
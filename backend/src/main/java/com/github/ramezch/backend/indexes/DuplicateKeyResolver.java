@@ -0,0 +1,12 @@
+package com.github.ramezch.backend.indexes;
+
+import org.bson.Document;
+
+// Moves the documents that keep a unique index of a collection from being built out of the collection. IndexManager
+// calls it when building a unique index fails on duplicate keys and then builds the index again.
+public interface DuplicateKeyResolver {
+    String collection();
+
+    // Returns the number of documents moved out, throws when the duplicates cannot be resolved without an operator
+    long removeDuplicates(Document indexKeys);
+}
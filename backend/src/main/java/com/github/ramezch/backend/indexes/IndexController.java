@@ -0,0 +1,20 @@
+package com.github.ramezch.backend.indexes;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/admin/indexes")
+public class IndexController {
+    private final IndexManager indexManager;
+
+    @GetMapping
+    public List<IndexReport> getIndexReport() {
+        return indexManager.report();
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.ramezch.backend.indexes;
+
+import com.mongodb.MongoCommandException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mapping.context.MappingContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver.IndexDefinitionHolder;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+// Creates the indexes declared on the @Document models and reports how the indexes of their collections are used
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class IndexManager {
+    private static final String ID_INDEX = "_id_";
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+    private static final int INDEX_KEY_SPECS_CONFLICT = 86;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final List<DuplicateKeyResolver> duplicateKeyResolvers;
+
+    // Index builds can take a while on large collections, so they must not hold up startup
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexesInBackground() {
+        Thread.ofVirtual().name("index-manager").start(this::ensureIndexes);
+    }
+
+    public void ensureIndexes() {
+        int ensured = 0;
+        for (Map.Entry<String, List<IndexDefinitionHolder>> collection : declaredIndexes().entrySet()) {
+            for (IndexDefinitionHolder index : collection.getValue()) {
+                try {
+                    ensureIndex(collection.getKey(), index);
+                    ensured++;
+                } catch (Exception e) {
+                    log.error("Error creating index {} on {}: {}", index.getIndexKeys().toJson(), collection.getKey(), e.getMessage());
+                }
+            }
+        }
+        log.info("Ensured {} declared indexes", ensured);
+    }
+
+    // An index whose declared options or keys changed exists under the same name with the old ones. Mongo refuses to
+    // change it in place and to build a second index on the same keys under another name, so it has to be dropped and
+    // built again. That is only done here when the existing index enforces no uniqueness, since writes would go
+    // unchecked until the rebuild is done. A changed unique index fails its build and has to be migrated by hand.
+    private void ensureIndex(String collection, IndexDefinitionHolder index) {
+        try {
+            createIndex(collection, index);
+        } catch (RuntimeException e) {
+            String name = index.getIndexOptions().getString("name");
+            if (name == null || !isOptionsConflict(e)) {
+                throw e;
+            }
+            boolean enforcesUniqueness = mongoTemplate.indexOps(collection).getIndexInfo().stream()
+                    .anyMatch(existing -> existing.getName().equals(name) && existing.isUnique());
+            if (enforcesUniqueness) {
+                log.error("Unique index {} on {} differs from its declaration, it is kept as it is until migrated", name, collection);
+                throw e;
+            }
+            log.warn("Rebuilding index {} on {} with its declared options", name, collection);
+            mongoTemplate.indexOps(collection).dropIndex(name);
+            createIndex(collection, index);
+        }
+    }
+
+    // A unique index cannot be built over documents that already share a key. The resolver of the collection moves them
+    // out and the index is built again. Without a resolver, or when the resolver refuses, the build fails and is logged.
+    private void createIndex(String collection, IndexDefinitionHolder index) {
+        try {
+            mongoTemplate.indexOps(collection).ensureIndex(index);
+        } catch (RuntimeException e) {
+            DuplicateKeyResolver resolver = duplicateKeyResolvers.stream()
+                    .filter(candidate -> candidate.collection().equals(collection))
+                    .findFirst()
+                    .orElse(null);
+            if (resolver == null || !isDuplicateKey(e)) {
+                throw e;
+            }
+            long removed = resolver.removeDuplicates(index.getIndexKeys());
+            log.warn("Moved {} documents with duplicate keys {} from {}", removed, index.getIndexKeys().toJson(), collection);
+            mongoTemplate.indexOps(collection).ensureIndex(index);
+        }
+    }
+
+    private static boolean isDuplicateKey(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DuplicateKeyException
+                    || cause instanceof MongoCommandException command && command.getErrorCode() == DUPLICATE_KEY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOptionsConflict(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoCommandException command
+                    && (command.getErrorCode() == INDEX_OPTIONS_CONFLICT || command.getErrorCode() == INDEX_KEY_SPECS_CONFLICT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<IndexReport> report() {
+        List<IndexReport> reports = new ArrayList<>();
+        declaredIndexes().forEach((collection, declared) -> {
+            List<IndexUsage> indexes = indexUsage(collection);
+            Set<String> existingKeys = indexes.stream()
+                    .map(index -> index.key().toJson())
+                    .collect(Collectors.toSet());
+            List<Document> missing = declared.stream()
+                    .map(index -> normalized(index.getIndexKeys()))
+                    .filter(key -> !existingKeys.contains(key.toJson()))
+                    .toList();
+            List<String> unused = indexes.stream()
+                    .filter(index -> index.ops() == 0 && !ID_INDEX.equals(index.name()))
+                    .map(IndexUsage::name)
+                    .toList();
+            reports.add(new IndexReport(collection, indexes, missing, unused));
+        });
+        return reports;
+    }
+
+    // Declared indexes by collection, collections of models without indexes map to an empty list
+    Map<String, List<IndexDefinitionHolder>> declaredIndexes() {
+        MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty> mappingContext =
+                mongoTemplate.getConverter().getMappingContext();
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+
+        Map<String, List<IndexDefinitionHolder>> indexes = new TreeMap<>();
+        for (MongoPersistentEntity<?> entity : mappingContext.getPersistentEntities()) {
+            if (entity.isAnnotationPresent(org.springframework.data.mongodb.core.mapping.Document.class)) {
+                List<IndexDefinitionHolder> collectionIndexes = indexes.computeIfAbsent(entity.getCollection(), collection -> new ArrayList<>());
+                resolver.resolveIndexFor(entity.getTypeInformation()).forEach(collectionIndexes::add);
+            }
+        }
+        return indexes;
+    }
+
+    // $indexStats reports once per mongod, so the usage of replica set members is added up per index
+    private List<IndexUsage> indexUsage(String collection) {
+        Map<String, IndexUsage> usageByName = new TreeMap<>();
+        for (Document stats : mongoTemplate.getCollection(collection).aggregate(List.of(new Document("$indexStats", new Document())))) {
+            Document accesses = stats.get("accesses", Document.class);
+            IndexUsage usage = new IndexUsage(
+                    stats.getString("name"),
+                    normalized(stats.get("key", Document.class)),
+                    ((Number) accesses.get("ops")).longValue(),
+                    accesses.getDate("since").toInstant()
+            );
+            usageByName.merge(usage.name(), usage, (first, second) -> new IndexUsage(first.name(), first.key(),
+                    first.ops() + second.ops(), first.since().isBefore(second.since()) ? first.since() : second.since()));
+        }
+        return new ArrayList<>(usageByName.values());
+    }
+
+    // Index keys compare by field order and direction, whatever numeric type the server or the resolver used
+    private static Document normalized(Document key) {
+        Document normalized = new Document();
+        key.forEach((field, direction) -> normalized.append(field, direction instanceof Number number ? number.intValue() : direction));
+        return normalized;
+    }
+}
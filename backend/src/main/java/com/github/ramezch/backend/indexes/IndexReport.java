@@ -0,0 +1,8 @@
+package com.github.ramezch.backend.indexes;
+
+import org.bson.Document;
+
+import java.util.List;
+
+public record IndexReport(String collection, List<IndexUsage> indexes, List<Document> missing, List<String> unused) {
+}
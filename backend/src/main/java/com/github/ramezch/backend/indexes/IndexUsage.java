@@ -0,0 +1,9 @@
+package com.github.ramezch.backend.indexes;
+
+import org.bson.Document;
+
+import java.time.Instant;
+
+// ops counts the operations that used the index since the mongod (re)started or the index was built, whichever is later
+public record IndexUsage(String name, Document key, long ops, Instant since) {
+}
@@ -60,15 +60,13 @@ public class InternetPlanService {
             throw new InternetPlanNameTakenException(internetPlanDTO.name());
         }
 
-        String newInternetPlanID;
-        do {
-            newInternetPlanID = idService.randomId();
-        } while (internetPlanRepo.existsById(newInternetPlanID));
+        String newInternetPlanID = idService.randomId();
 
         InternetPlan newInternetPlan = new InternetPlan(newInternetPlanID, internetPlanDTO.name(),
                 internetPlanDTO.speed(), internetPlanDTO.price(), internetPlanDTO.bandwidth(), internetPlanDTO.isActive());
 
-        internetPlanRepo.save(newInternetPlan);
+        // An insert, so an id collision fails instead of overwriting the plan of another owner
+        internetPlanRepo.insert(newInternetPlan);
 
         internetPlanIds.add(newInternetPlanID);
         appUser.setInternetPlanIds(internetPlanIds);
@@ -0,0 +1,18 @@
+package com.github.ramezch.backend.invoice.archive;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "invoice-archive")
+public record InvoiceArchiveProperties(
+        // Whether paid invoices are moved to the archive collection every night
+        @DefaultValue("true") boolean enabled,
+
+        // Paid invoices due longer ago than this are archived
+        @DefaultValue("365d") Duration paidOlderThan,
+
+        // Number of invoices copied and deleted per round trip
+        @DefaultValue("1000") int batchSize
+) {}
@@ -0,0 +1,74 @@
+package com.github.ramezch.backend.invoice.archive;
+
+import com.github.ramezch.backend.invoice.models.ArchivedInvoice;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+// Moves paid invoices that are long past due from the invoice collection to the archive, so the invoice collection and
+// its indexes only hold the invoices that are still read and written
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class InvoiceArchiver {
+    private static final String DAILY_AT_THREE = "0 0 3 * * *";
+
+    private final MongoTemplate mongoTemplate;
+    private final InvoiceArchiveProperties properties;
+
+    @Scheduled(cron = DAILY_AT_THREE)
+    public void archiveNightly() {
+        if (properties.enabled()) {
+            archivePaidInvoices();
+        }
+    }
+
+    // Each batch is copied with $merge and then deleted from the invoice collection. A run that stops in between leaves
+    // copies in both collections, which the next run copies again and deletes. Lookups prefer the invoice collection
+    // and skip the duplicate meanwhile.
+    public long archivePaidInvoices() {
+        String invoiceCollection = mongoTemplate.getCollectionName(Invoice.class);
+        Instant cutoff = Instant.now().minus(properties.paidOlderThan());
+        long archived = 0;
+        while (true) {
+            Query paidInvoices = Query.query(Criteria.where("isPaid").is(true).and("dueDate").lt(cutoff))
+                    .with(Sort.by(Sort.Direction.ASC, "dueDate"))
+                    .limit(properties.batchSize());
+            paidInvoices.fields().include("_id");
+            List<String> ids = mongoTemplate.find(paidInvoices, Document.class, invoiceCollection).stream()
+                    .map(invoice -> invoice.getString("_id"))
+                    .toList();
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            mongoTemplate.getCollection(invoiceCollection).aggregate(List.of(
+                    new Document("$match", new Document("_id", new Document("$in", ids))),
+                    new Document("$addFields", new Document("archivedAt", "$$NOW")),
+                    new Document("$merge", new Document("into", ArchivedInvoice.COLLECTION)
+                            .append("whenMatched", "replace")
+                            .append("whenNotMatched", "insert"))
+            )).toCollection();
+            archived += mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids).and("isPaid").is(true)), invoiceCollection)
+                    .getDeletedCount();
+
+            if (ids.size() < properties.batchSize()) {
+                break;
+            }
+        }
+        if (archived > 0) {
+            log.info("Archived {} paid invoices due before {}", archived, cutoff);
+        }
+        return archived;
+    }
+}
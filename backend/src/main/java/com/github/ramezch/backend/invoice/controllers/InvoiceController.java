@@ -4,12 +4,21 @@ package com.github.ramezch.backend.invoice.controllers;
 import com.github.ramezch.backend.appuser.AppUser;
 import com.github.ramezch.backend.invoice.models.Invoice;
 import com.github.ramezch.backend.invoice.models.InvoiceUpdateDTO;
+import com.github.ramezch.backend.invoice.models.ReconciliationReport;
 import com.github.ramezch.backend.invoice.services.InvoiceService;
+import com.github.ramezch.backend.invoice.services.PaymentReconciliationService;
+import com.github.ramezch.backend.utils.ImportFormat;
+import com.github.ramezch.backend.utils.Slice;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -17,19 +26,52 @@ import java.util.List;
 @RequestMapping("/api/invoices")
 public class InvoiceController {
     private final InvoiceService invoiceService;
+    private final PaymentReconciliationService paymentReconciliationService;
 
     @GetMapping("/customer/{customerId}")
-    public List<Invoice> getCustomerInvoices(@PathVariable String customerId, @AuthenticationPrincipal AppUser appUser) throws IllegalAccessException {
+    public List<Invoice> getCustomerInvoices(@PathVariable String customerId, @AuthenticationPrincipal AppUser appUser) {
         return invoiceService.getInvoicesByCustomerId(customerId, appUser);
     }
 
+    @GetMapping("/customer/{customerId}/slice")
+    public Slice<Invoice> getCustomerInvoiceSlice(
+            @PathVariable String customerId,
+            @RequestParam(defaultValue = "false") boolean unpaidOnly,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @AuthenticationPrincipal AppUser appUser
+    ) {
+        return invoiceService.getInvoiceSlice(customerId, appUser, unpaidOnly, cursor, size);
+    }
+
+    // The whole history as NDJSON, written from a separate thread while the cursor is walked
+    @GetMapping(value = "/customer/{customerId}/stream", produces = "application/x-ndjson")
+    public StreamingResponseBody streamCustomerInvoices(
+            @PathVariable String customerId,
+            @RequestParam(defaultValue = "false") boolean unpaidOnly,
+            @AuthenticationPrincipal AppUser appUser
+    ) {
+        String ownerId = appUser.getId();
+        return out -> invoiceService.streamInvoices(customerId, ownerId, unpaidOnly, out);
+    }
+
     @GetMapping("{invoiceId}")
-    public Invoice getInvoice(@PathVariable String invoiceId, @AuthenticationPrincipal AppUser appUser) throws IllegalAccessException {
+    public Invoice getInvoice(@PathVariable String invoiceId, @AuthenticationPrincipal AppUser appUser) {
         return invoiceService.getInvoiceById(invoiceId, appUser);
     }
 
+    // The body is streamed, lines are settled in batches while it is still uploading
+    @PostMapping(value = "/reconcile", consumes = {"text/csv", "application/x-ndjson"})
+    public ReconciliationReport reconcilePayments(
+            InputStream body,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            @AuthenticationPrincipal AppUser appUser
+    ) throws IOException {
+        return paymentReconciliationService.reconcile(appUser, ImportFormat.of(contentType), body);
+    }
+
     @PutMapping
-    public InvoiceUpdateDTO updateInvoice(@Valid @RequestBody InvoiceUpdateDTO invoiceDTO, @AuthenticationPrincipal AppUser appUser) throws IllegalAccessException {
+    public Invoice updateInvoice(@Valid @RequestBody InvoiceUpdateDTO invoiceDTO, @AuthenticationPrincipal AppUser appUser) {
         return invoiceService.updateInvoice(invoiceDTO, appUser);
     }
 
@@ -0,0 +1,86 @@
+package com.github.ramezch.backend.invoice.duplicates;
+
+import com.github.ramezch.backend.indexes.DuplicateKeyResolver;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.revenue.services.RevenueRollupService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Invoices generated twice for the same subscription and due date, before the unique index existed, keep that index
+// from being built. Of every duplicated key the paid invoice is kept, or the most recently issued one when none is paid.
+// The others are moved unchanged to a quarantine collection, nothing is deleted. A key with several paid invoices holds
+// several payments, which only an operator can settle, so then nothing is moved and the index build fails.
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class InvoiceDuplicateResolver implements DuplicateKeyResolver {
+    public static final String QUARANTINE_COLLECTION = "invoices_duplicates";
+
+    private final MongoTemplate mongoTemplate;
+    private final RevenueRollupService revenueRollupService;
+
+    @Override
+    public String collection() {
+        return mongoTemplate.getCollectionName(Invoice.class);
+    }
+
+    @Override
+    public long removeDuplicates(Document indexKeys) {
+        Document key = new Document();
+        indexKeys.keySet().forEach(field -> key.append(field, "$" + field));
+        List<Document> pipeline = List.of(
+                new Document("$sort", new Document("isPaid", -1).append("issueDate", -1).append("_id", -1)),
+                new Document("$group", new Document("_id", key)
+                        .append("ids", new Document("$push", "$_id"))
+                        .append("paid", new Document("$sum", new Document("$cond", List.of("$isPaid", 1, 0))))
+                        .append("ownerId", new Document("$first", "$ownerId"))),
+                new Document("$match", new Document("ids.1", new Document("$exists", true)))
+        );
+        List<Document> duplicates = mongoTemplate.getCollection(collection()).aggregate(pipeline).allowDiskUse(true)
+                .into(new ArrayList<>());
+
+        List<Object> paidTwice = duplicates.stream()
+                .filter(group -> group.get("paid", Number.class).intValue() > 1)
+                .map(group -> group.get("_id"))
+                .toList();
+        if (!paidTwice.isEmpty()) {
+            log.error("{} keys {} have more than one paid invoice and must be resolved by hand: {}",
+                    paidTwice.size(), indexKeys.toJson(), paidTwice);
+            throw new IllegalStateException(paidTwice.size() + " keys " + indexKeys.toJson() + " have more than one paid invoice");
+        }
+
+        long quarantined = 0;
+        Set<String> owners = new HashSet<>();
+        for (Document group : duplicates) {
+            List<Object> ids = group.getList("ids", Object.class);
+            List<Object> extra = ids.subList(1, ids.size());
+            // Copied before they are deleted, a run that stops in between copies them again
+            mongoTemplate.getCollection(collection()).aggregate(List.of(
+                    new Document("$match", new Document("_id", new Document("$in", extra))),
+                    new Document("$addFields", new Document("quarantinedAt", "$$NOW")),
+                    new Document("$merge", new Document("into", QUARANTINE_COLLECTION)
+                            .append("whenMatched", "replace")
+                            .append("whenNotMatched", "insert"))
+            )).toCollection();
+            quarantined += mongoTemplate.remove(Query.query(Criteria.where("_id").in(extra)), Invoice.class)
+                    .getDeletedCount();
+            owners.add(group.getString("ownerId"));
+        }
+        if (quarantined > 0) {
+            log.warn("Moved {} duplicate invoices of {} owners to {}", quarantined, owners.size(), QUARANTINE_COLLECTION);
+            // The rollups counted the moved invoices as billed
+            owners.forEach(revenueRollupService::rebuild);
+        }
+        return quarantined;
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.ramezch.backend.invoice.models;
+
+import jakarta.annotation.Nullable;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// A paid invoice moved out of the invoice collection by the InvoiceArchiver. It has the fields of an Invoice, reads
+// map it to Invoice, so this type only declares the collection and its indexes.
+@Document(collection = ArchivedInvoice.COLLECTION)
+@CompoundIndex(name = "subscriptionId_dueDate", def = "{'subscriptionId': 1, 'dueDate': 1}")
+@CompoundIndex(name = "ownerId_customerId_dueDate", def = "{'ownerId': 1, 'customerId': 1, 'dueDate': -1, '_id': -1}")
+public record ArchivedInvoice(
+        String id,
+        String ownerId,
+        String customerId,
+        String subscriptionId,
+        Instant issueDate,
+        Instant dueDate,
+        double amountDue,
+        double amountPaid,
+        boolean isPaid,
+        @Nullable String internetPlanId,
+        Instant archivedAt
+) {
+    public static final String COLLECTION = "invoiceArchive";
+}
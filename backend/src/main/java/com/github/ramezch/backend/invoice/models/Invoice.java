@@ -1,21 +1,45 @@
 package com.github.ramezch.backend.invoice.models;
 
+import jakarta.annotation.Nullable;
 import jakarta.validation.constraints.FutureOrPresent;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.PastOrPresent;
 import jakarta.validation.constraints.PositiveOrZero;
 import lombok.With;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
+@Document
+// A subscription is billed once per due date, which makes invoice generation an idempotent upsert. Concurrent upserts
+// only stay unique once this index exists, IndexManager moves older duplicates to invoices_duplicates before building it.
+@CompoundIndex(name = "subscriptionId_dueDate", def = "{'subscriptionId': 1, 'dueDate': 1}", unique = true)
+// _id breaks ties between invoices due on the same date for the invoice slices. The name is kept, so IndexManager
+// rebuilds the index that was declared without _id instead of leaving it behind.
+@CompoundIndex(name = "ownerId_customerId_dueDate", def = "{'ownerId': 1, 'customerId': 1, 'dueDate': -1, '_id': -1}")
+// Only unpaid invoices are indexed, so the unpaid history of a customer stays small however many were paid
+@CompoundIndex(name = "ownerId_customerId_isPaid_dueDate_id", def = "{'ownerId': 1, 'customerId': 1, 'isPaid': 1, 'dueDate': -1, '_id': -1}",
+        partialFilter = "{'isPaid': false}")
+// Only paid invoices are indexed, the InvoiceArchiver reads the oldest of them
+@CompoundIndex(name = "paid_dueDate", def = "{'dueDate': 1}", partialFilter = "{'isPaid': true}")
 public record Invoice(
         @NotBlank String id,
+        @NotBlank String ownerId,
         @NotBlank String customerId,
         @NotBlank String subscriptionId,
         @PastOrPresent Instant issueDate,
         @FutureOrPresent Instant dueDate,
         @PositiveOrZero double amountDue,
         @With @PositiveOrZero double amountPaid,
-        @With @NotNull boolean isPaid
-) {}
\ No newline at end of file
+        @With @NotNull boolean isPaid,
+        // The plan the invoice was billed for, so revenue can be reported per plan. Invoices generated before invoices
+        // carried their plan get it from their subscription when the revenue rollups are rebuilt.
+        @Nullable String internetPlanId
+) {
+    public Invoice(String id, String ownerId, String customerId, String subscriptionId, Instant issueDate, Instant dueDate,
+                   double amountDue, double amountPaid, boolean isPaid) {
+        this(id, ownerId, customerId, subscriptionId, issueDate, dueDate, amountDue, amountPaid, isPaid, null);
+    }
+}
\ No newline at end of file
@@ -6,8 +6,10 @@ import lombok.With;
 import java.time.Instant;
 
 public record InvoiceDTO(
+        @NotBlank String ownerId,
         @NotBlank String customerId,
         @NotBlank String subscriptionId,
+        @NotBlank String internetPlanId,
         @FutureOrPresent Instant dueDate,
         @With @PositiveOrZero double amountDue
 ) {}
\ No newline at end of file
@@ -1,11 +1,13 @@
 package com.github.ramezch.backend.invoice.models;
 
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.PositiveOrZero;
 import lombok.With;
 
+// A payment of one invoice, also one line of a reconciliation file where the id may be named invoiceId
 public record InvoiceUpdateDTO(
-        @NotBlank String id,
+        @JsonAlias("invoiceId") @NotBlank String id,
         @With @PositiveOrZero double amountPaid
-) {}
\ No newline at end of file
+) {}
@@ -0,0 +1,16 @@
+package com.github.ramezch.backend.invoice.models;
+
+public enum PaymentOutcome {
+    // The payment marked the invoice paid
+    PAID,
+    // The invoice was paid before, by an earlier payment or an earlier line of the same file
+    ALREADY_PAID,
+    // The amount differs from the amount due, the invoice is left as it is
+    AMOUNT_MISMATCH,
+    // No invoice of the caller has this id
+    NOT_FOUND,
+    // The line could not be parsed or failed validation
+    INVALID,
+    // The write was rejected by the database
+    FAILED
+}
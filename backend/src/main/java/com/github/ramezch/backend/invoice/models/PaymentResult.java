@@ -0,0 +1,11 @@
+package com.github.ramezch.backend.invoice.models;
+
+import jakarta.annotation.Nullable;
+
+// What happened to one line of a payment file, lines are numbered as in the uploaded file
+public record PaymentResult(
+        long line,
+        @Nullable String invoiceId,
+        PaymentOutcome outcome,
+        @Nullable String message
+) { }
@@ -0,0 +1,13 @@
+package com.github.ramezch.backend.invoice.models;
+
+import java.util.List;
+import java.util.Map;
+
+// Outcome of a payment file, results lists at most the first MAX_REPORTED_RESULTS lines while totals counts all of them
+public record ReconciliationReport(
+        long lines,
+        Map<PaymentOutcome, Long> totals,
+        List<PaymentResult> results
+) {
+    public static final int MAX_REPORTED_RESULTS = 10_000;
+}
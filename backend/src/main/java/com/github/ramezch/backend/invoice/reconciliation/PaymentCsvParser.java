@@ -0,0 +1,39 @@
+package com.github.ramezch.backend.invoice.reconciliation;
+
+import com.github.ramezch.backend.exceptions.InvalidImportException;
+import com.github.ramezch.backend.invoice.models.InvoiceUpdateDTO;
+import com.github.ramezch.backend.utils.CsvLineReader;
+
+import java.util.List;
+import java.util.Set;
+
+// The header names the invoiceId (or id) and amountPaid columns
+public class PaymentCsvParser implements CsvLineReader.RecordParser<InvoiceUpdateDTO> {
+    static final List<String> COLUMNS = List.of("invoiceId", "id", "amountPaid");
+
+    @Override
+    public List<String> columns() {
+        return COLUMNS;
+    }
+
+    @Override
+    public void checkHeader(Set<String> columns) {
+        if (!(columns.contains("invoiceId") || columns.contains("id")) || !columns.contains("amountPaid")) {
+            throw new InvalidImportException("the CSV header needs an invoiceId and an amountPaid column");
+        }
+    }
+
+    @Override
+    public InvoiceUpdateDTO parse(CsvLineReader.Cells cells) {
+        String invoiceId = cells.get("invoiceId") != null ? cells.get("invoiceId") : cells.get("id");
+        String amountPaid = cells.get("amountPaid");
+        if (amountPaid == null) {
+            throw new CsvLineReader.InvalidCellException("amountPaid: must not be empty");
+        }
+        try {
+            return new InvoiceUpdateDTO(invoiceId, Double.parseDouble(amountPaid));
+        } catch (NumberFormatException e) {
+            throw new CsvLineReader.InvalidCellException("amountPaid: '" + amountPaid + "' is not a number");
+        }
+    }
+}
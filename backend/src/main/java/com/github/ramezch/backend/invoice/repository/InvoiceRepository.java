@@ -5,12 +5,18 @@ import jakarta.validation.constraints.NotBlank;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface InvoiceRepository extends MongoRepository<Invoice, String> {
     Invoice findBySubscriptionIdAndDueDate(@NotBlank String subscriptionId, @NotBlank Instant dueDate);
 
     List<Invoice> findBySubscriptionId(String subscriptionId);
 
-    List<Invoice> findAllByCustomerId(@NotBlank String customerId);
+    List<Invoice> findBySubscriptionIdInAndDueDateIn(Collection<String> subscriptionIds, Collection<Instant> dueDates);
+
+    List<Invoice> findAllByOwnerIdAndCustomerId(@NotBlank String ownerId, @NotBlank String customerId);
+
+    Optional<Invoice> findByIdAndOwnerId(@NotBlank String id, @NotBlank String ownerId);
 }
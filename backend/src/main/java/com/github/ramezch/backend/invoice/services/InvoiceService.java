@@ -1,67 +1,314 @@
 package com.github.ramezch.backend.invoice.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.ramezch.backend.appuser.AppUser;
 import com.github.ramezch.backend.exceptions.InvoiceNotFoundException;
+import com.github.ramezch.backend.invoice.models.ArchivedInvoice;
 import com.github.ramezch.backend.invoice.models.Invoice;
 import com.github.ramezch.backend.invoice.models.InvoiceDTO;
 import com.github.ramezch.backend.invoice.models.InvoiceUpdateDTO;
 import com.github.ramezch.backend.invoice.repository.InvoiceRepository;
+import com.github.ramezch.backend.revenue.services.RevenueRollupService;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
 import com.github.ramezch.backend.utils.IdService;
+import com.github.ramezch.backend.utils.KeysetCursor;
+import com.github.ramezch.backend.utils.Slice;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class InvoiceService {
+    static final int MAX_SLICE_SIZE = 100;
+    static final int STREAM_BATCH_SIZE = 500;
+    private static final Sort HISTORY_ORDER = Sort.by(Sort.Direction.DESC, "dueDate", "_id");
+    private static final Comparator<Invoice> HISTORY_COMPARATOR = Comparator.comparing(Invoice::dueDate)
+            .thenComparing(Invoice::id)
+            .reversed();
+
     private final InvoiceRepository invoiceRepo;
     private final IdService idService;
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+    private final RevenueRollupService revenueRollupService;
+
+    // Reads in this service fall back to the archive the InvoiceArchiver moves old paid invoices to. An invoice found in
+    // both, because archiving it was interrupted, is taken from the invoice collection.
+    public List<Invoice> getInvoicesByCustomerId(String customerId, AppUser appUser) {
+        List<Invoice> invoices = invoiceRepo.findAllByOwnerIdAndCustomerId(appUser.getId(), customerId);
+        List<Invoice> archived = mongoTemplate.find(Query.query(customerInvoices(appUser.getId(), customerId, false)),
+                Invoice.class, ArchivedInvoice.COLLECTION);
+        return withoutDuplicates(invoices, archived);
+    }
+
+    // Keyset pagination in (dueDate desc, id desc) order. The cursor is the position after the last invoice of the
+    // previous slice, so every slice is one index range scan however far back the history goes.
+    public Slice<Invoice> getInvoiceSlice(String customerId, AppUser appUser, boolean unpaidOnly, String cursor, int size) {
+        int sliceSize = Math.clamp(size, 1, MAX_SLICE_SIZE);
 
-    private void  checkIfAppUserContainsCustomerId(String customerId, AppUser appUser) throws IllegalAccessException {
-        if(!appUser.getCustomerIds().contains(customerId)) {
-            throw new IllegalAccessException(String.format("Customer with id: %s not found", customerId));
+        Criteria criteria = customerInvoices(appUser.getId(), customerId, unpaidOnly);
+        if (cursor != null && !cursor.isEmpty()) {
+            criteria.orOperator(KeysetCursor.decode(cursor).after("dueDate"));
         }
+
+        Query query = Query.query(criteria).with(HISTORY_ORDER).limit(sliceSize + 1);
+        List<Invoice> invoices = mongoTemplate.find(query, Invoice.class);
+        // Archived invoices are all paid, so only the full history reads the archive. Its slice is merged in order.
+        if (!unpaidOnly) {
+            List<Invoice> archived = mongoTemplate.find(query, Invoice.class, ArchivedInvoice.COLLECTION);
+            invoices = withoutDuplicates(invoices, archived).stream()
+                    .sorted(HISTORY_COMPARATOR)
+                    .limit(sliceSize + 1L)
+                    .toList();
+        }
+
+        return Slice.of(invoices, sliceSize, invoice -> KeysetCursor.of(invoice.dueDate(), invoice.id()));
     }
 
-    public List<Invoice> getInvoicesByCustomerId(String customerId, AppUser appUser) throws IllegalAccessException {
-        checkIfAppUserContainsCustomerId(customerId, appUser);
-        return invoiceRepo.findAllByCustomerId(customerId);
+    // Writes the whole history as one JSON invoice per line while the cursor is walked, so memory use does not grow
+    // with the number of invoices
+    public void streamInvoices(String customerId, String ownerId, boolean unpaidOnly, OutputStream out) throws IOException {
+        Writer output = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        Query query = Query.query(customerInvoices(ownerId, customerId, unpaidOnly)).with(HISTORY_ORDER).cursorBatchSize(STREAM_BATCH_SIZE);
+        try (Stream<Invoice> invoices = mongoTemplate.stream(query, Invoice.class);
+             Stream<Invoice> archived = unpaidOnly ? Stream.empty() : mongoTemplate.stream(query, Invoice.class, ArchivedInvoice.COLLECTION)) {
+            int written = 0;
+            for (Invoice invoice : (Iterable<Invoice>) () -> mergeHistory(invoices.iterator(), archived.iterator())) {
+                // writeValue(Writer) would close the response writer after the first invoice
+                output.write(objectMapper.writeValueAsString(invoice));
+                output.write('\n');
+                if (++written % STREAM_BATCH_SIZE == 0) {
+                    output.flush();
+                }
+            }
+        }
+        output.flush();
+    }
+
+    // Merges two cursors that are both in history order, an invoice present in both is written once
+    private static Iterator<Invoice> mergeHistory(Iterator<Invoice> invoices, Iterator<Invoice> archived) {
+        return new Iterator<>() {
+            private Invoice nextInvoice = invoices.hasNext() ? invoices.next() : null;
+            private Invoice nextArchived = archived.hasNext() ? archived.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return nextInvoice != null || nextArchived != null;
+            }
+
+            @Override
+            public Invoice next() {
+                Invoice next;
+                if (nextArchived == null || (nextInvoice != null && HISTORY_COMPARATOR.compare(nextInvoice, nextArchived) <= 0)) {
+                    next = nextInvoice;
+                    nextInvoice = invoices.hasNext() ? invoices.next() : null;
+                } else {
+                    next = nextArchived;
+                    nextArchived = archived.hasNext() ? archived.next() : null;
+                }
+                if (nextArchived != null && nextArchived.id().equals(next.id())) {
+                    nextArchived = archived.hasNext() ? archived.next() : null;
+                }
+                return next;
+            }
+        };
     }
 
-    public Invoice getInvoiceById(String invoiceID, AppUser appUser) throws IllegalAccessException {
-        Optional<Invoice> invoiceOptional = invoiceRepo.findById(invoiceID);
-        if(invoiceOptional.isEmpty()) {
-            throw new InvoiceNotFoundException(invoiceID);
+    private static List<Invoice> withoutDuplicates(List<Invoice> invoices, List<Invoice> archived) {
+        if (archived.isEmpty()) {
+            return invoices;
         }
-        Invoice invoice = invoiceOptional.get();
-        String customerId = invoice.customerId();
-        checkIfAppUserContainsCustomerId(customerId, appUser);
-        return invoice;
-    }
-
-    public InvoiceUpdateDTO updateInvoice(InvoiceUpdateDTO invoiceDTO, AppUser appUser) throws IllegalAccessException {
-        Invoice existingInvoice = invoiceRepo.findById(invoiceDTO.id()).orElseThrow(() -> new InvoiceNotFoundException(invoiceDTO.id()));
-        checkIfAppUserContainsCustomerId(existingInvoice.customerId(), appUser);
-        if(invoiceDTO.amountPaid() == existingInvoice.amountDue()) {
-            Invoice newInvoiceToSave = existingInvoice.withPaid(true).withAmountPaid(invoiceDTO.amountPaid());
-            invoiceRepo.save(newInvoiceToSave);
+        Map<String, Invoice> byId = new LinkedHashMap<>();
+        invoices.forEach(invoice -> byId.put(invoice.id(), invoice));
+        archived.forEach(invoice -> byId.putIfAbsent(invoice.id(), invoice));
+        return new ArrayList<>(byId.values());
+    }
+
+    private static Criteria customerInvoices(String ownerId, String customerId, boolean unpaidOnly) {
+        Criteria criteria = Criteria.where("ownerId").is(ownerId).and("customerId").is(customerId);
+        if (unpaidOnly) {
+            criteria.and("isPaid").is(false);
+        }
+        return criteria;
+    }
+
+    // Invoices of other owners are reported as not found so their ids are not disclosed
+    public Invoice getInvoiceById(String invoiceID, AppUser appUser) {
+        return invoiceRepo.findByIdAndOwnerId(invoiceID, appUser.getId())
+                .or(() -> Optional.ofNullable(mongoTemplate.findOne(
+                        Query.query(Criteria.where("_id").is(invoiceID).and("ownerId").is(appUser.getId())),
+                        Invoice.class, ArchivedInvoice.COLLECTION)))
+                .orElseThrow(() -> new InvoiceNotFoundException(invoiceID));
+    }
+
+    // Applies the payment in one atomic findAndModify that only matches an unpaid invoice whose amount due is paid in
+    // full, so of two concurrent payments exactly one marks the invoice paid. Any other payment leaves the invoice as
+    // it is, which is then read to tell a missing invoice from an unchanged one.
+    public Invoice updateInvoice(InvoiceUpdateDTO invoiceDTO, AppUser appUser) {
+        Invoice paidInvoice = mongoTemplate.findAndModify(unpaidInvoice(invoiceDTO, appUser.getId()), payment(invoiceDTO),
+                FindAndModifyOptions.options().returnNew(true), Invoice.class);
+        if (paidInvoice == null) {
+            return getInvoiceById(invoiceDTO.id(), appUser);
+        }
+        scheduleExpiredSubscription(paidInvoice.subscriptionId());
+        revenueRollupService.recordPaid(List.of(paid(paidInvoice)));
+        return paidInvoice;
+    }
+
+    // Matches the invoice only while it is unpaid and the payment covers exactly the amount due
+    static Query unpaidInvoice(InvoiceUpdateDTO payment, String ownerId) {
+        return Query.query(Criteria.where("_id").is(payment.id())
+                .and("ownerId").is(ownerId)
+                .and("isPaid").is(false)
+                .and("amountDue").is(payment.amountPaid()));
+    }
+
+    static Update payment(InvoiceUpdateDTO payment) {
+        return new Update()
+                .set("amountPaid", payment.amountPaid())
+                .set("isPaid", true);
+    }
+
+    // An expired subscription is not swept again until its invoice is paid, so schedule it for the next run
+    private void scheduleExpiredSubscription(String subscriptionId) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(subscriptionId).and("status").is(SubscriptionStatus.EXPIRED)),
+                Update.update("nextActionAt", Instant.now()),
+                Subscription.class
+        );
+    }
+
+    // Batched variant of scheduleExpiredSubscription for invoices paid together
+    public void scheduleExpiredSubscriptions(Collection<String> subscriptionIds) {
+        if (subscriptionIds.isEmpty()) {
+            return;
         }
-        return invoiceDTO;
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("_id").in(subscriptionIds).and("status").is(SubscriptionStatus.EXPIRED)),
+                Update.update("nextActionAt", Instant.now()),
+                Subscription.class
+        );
     }
 
     // These are used in Scheduler and other backend codes
     public Invoice getInvoice(String subscriptionId, Instant subscriptionEndDate) {
-        return invoiceRepo.findBySubscriptionIdAndDueDate(subscriptionId, subscriptionEndDate);
+        Invoice invoice = invoiceRepo.findBySubscriptionIdAndDueDate(subscriptionId, subscriptionEndDate);
+        if (invoice != null) {
+            return invoice;
+        }
+        return mongoTemplate.findOne(Query.query(Criteria.where("subscriptionId").is(subscriptionId).and("dueDate").is(subscriptionEndDate)),
+                Invoice.class, ArchivedInvoice.COLLECTION);
     }
 
+    // Batched variant of getInvoice: one query for many (subscriptionId, dueDate) pairs, keyed by subscriptionId
+    public Map<String, Invoice> getInvoices(Map<String, Instant> dueDatesBySubscriptionId) {
+        if (dueDatesBySubscriptionId.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Invoice> invoices = matchingDueDates(dueDatesBySubscriptionId,
+                invoiceRepo.findBySubscriptionIdInAndDueDateIn(dueDatesBySubscriptionId.keySet(), new HashSet<>(dueDatesBySubscriptionId.values())));
+
+        Map<String, Instant> notFound = new HashMap<>(dueDatesBySubscriptionId);
+        notFound.keySet().removeAll(invoices.keySet());
+        if (notFound.isEmpty()) {
+            return invoices;
+        }
+        Query archivedInvoices = Query.query(Criteria.where("subscriptionId").in(notFound.keySet())
+                .and("dueDate").in(new HashSet<>(notFound.values())));
+        Map<String, Invoice> found = new HashMap<>(invoices);
+        found.putAll(matchingDueDates(notFound, mongoTemplate.find(archivedInvoices, Invoice.class, ArchivedInvoice.COLLECTION)));
+        return found;
+    }
+
+    private static Map<String, Invoice> matchingDueDates(Map<String, Instant> dueDatesBySubscriptionId, List<Invoice> invoices) {
+        return invoices.stream()
+                .filter(invoice -> invoice.dueDate().equals(dueDatesBySubscriptionId.get(invoice.subscriptionId())))
+                .collect(Collectors.toMap(Invoice::subscriptionId, Function.identity(), (first, duplicate) -> first));
+    }
+
+    // Generating an invoice that already exists for the subscription and due date leaves the existing one untouched
     public void generateInvoice(InvoiceDTO invoiceDTO) {
+        UpdateResult written = mongoTemplate.upsert(invoiceKey(invoiceDTO), newInvoice(invoiceDTO), Invoice.class);
+        if (written.getUpsertedId() != null) {
+            revenueRollupService.recordBilled(List.of(billed(invoiceDTO)));
+        }
+    }
+
+    // Upserts all invoices in one unordered bulk write, failed items are reported through BulkOperationException
+    public void generateInvoices(List<InvoiceDTO> invoiceDTOs) {
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Invoice.class);
+        invoiceDTOs.forEach(invoiceDTO -> bulkOps.upsert(invoiceKey(invoiceDTO), newInvoice(invoiceDTO)));
+        try {
+            recordBilled(invoiceDTOs, bulkOps.execute());
+        } catch (BulkOperationException e) {
+            recordBilled(invoiceDTOs, e.getResult());
+            throw e;
+        }
+    }
+
+    // Only invoices the bulk write inserted are billed, the others existed already
+    private void recordBilled(List<InvoiceDTO> invoiceDTOs, BulkWriteResult written) {
+        revenueRollupService.recordBilled(written.getUpserts().stream()
+                .map(upsert -> billed(invoiceDTOs.get(upsert.getIndex())))
+                .toList());
+    }
+
+    private static RevenueRollupService.Entry billed(InvoiceDTO invoiceDTO) {
+        return new RevenueRollupService.Entry(invoiceDTO.ownerId(), invoiceDTO.dueDate(), invoiceDTO.internetPlanId(), invoiceDTO.amountDue());
+    }
+
+    static RevenueRollupService.Entry paid(Invoice invoice) {
+        return new RevenueRollupService.Entry(invoice.ownerId(), invoice.dueDate(), invoice.internetPlanId(), invoice.amountPaid());
+    }
+
+    private Query invoiceKey(InvoiceDTO invoiceDTO) {
+        return Query.query(Criteria.where("subscriptionId").is(invoiceDTO.subscriptionId()).and("dueDate").is(invoiceDTO.dueDate()));
+    }
+
+    private Update newInvoice(InvoiceDTO invoiceDTO) {
         String invoiceID = idService.randomId();
         Instant issueDate = Instant.now();
-        Invoice newInvoice = new Invoice(invoiceID, invoiceDTO.customerId(), invoiceDTO.subscriptionId(), issueDate, invoiceDTO.dueDate(), invoiceDTO.amountDue(), 0, false);
-        invoiceRepo.save(newInvoice);
+        return new Update()
+                .setOnInsert("_id", invoiceID)
+                .setOnInsert("ownerId", invoiceDTO.ownerId())
+                .setOnInsert("customerId", invoiceDTO.customerId())
+                .setOnInsert("internetPlanId", invoiceDTO.internetPlanId())
+                .setOnInsert("issueDate", issueDate)
+                .setOnInsert("amountDue", invoiceDTO.amountDue())
+                .setOnInsert("amountPaid", 0.0)
+                .setOnInsert("isPaid", false);
     }
 
 }
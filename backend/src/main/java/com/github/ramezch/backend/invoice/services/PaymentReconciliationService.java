@@ -0,0 +1,229 @@
+package com.github.ramezch.backend.invoice.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.exceptions.InvoiceNotFoundException;
+import com.github.ramezch.backend.invoice.models.ArchivedInvoice;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.invoice.models.InvoiceUpdateDTO;
+import com.github.ramezch.backend.invoice.models.PaymentOutcome;
+import com.github.ramezch.backend.invoice.models.PaymentResult;
+import com.github.ramezch.backend.invoice.models.ReconciliationReport;
+import com.github.ramezch.backend.invoice.reconciliation.PaymentCsvParser;
+import com.github.ramezch.backend.revenue.services.RevenueRollupService;
+import com.github.ramezch.backend.utils.IdService;
+import com.github.ramezch.backend.utils.ImportFormat;
+import com.github.ramezch.backend.utils.LineReader;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class PaymentReconciliationService {
+    static final int BATCH_SIZE = 500;
+    private static final PaymentCsvParser CSV_PARSER = new PaymentCsvParser();
+    // Set on every invoice a batch pays, to tell the payments of the batch from payments applied concurrently. It is
+    // not part of the Invoice model and is unset again once the batch knows which payments it applied.
+    static final String PAYMENT_BATCH_ID = "paymentBatchId";
+
+    private final MongoTemplate mongoTemplate;
+    private final InvoiceService invoiceService;
+    private final RevenueRollupService revenueRollupService;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final IdService idService;
+
+    // Reads the payment file line by line and settles every BATCH_SIZE lines with one ownership lookup, one unordered
+    // bulk update, one subscription update and one rollup update. Each payment follows the rules of a single
+    // PUT /api/invoices.
+    public ReconciliationReport reconcile(AppUser appUser, ImportFormat format, InputStream body) throws IOException {
+        Reconciliation reconciliation = new Reconciliation();
+        List<LineReader.Line<InvoiceUpdateDTO>> batch = new ArrayList<>(BATCH_SIZE);
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            LineReader<InvoiceUpdateDTO> reader = format.reader(input, objectMapper, InvoiceUpdateDTO.class, CSV_PARSER);
+            for (LineReader.Line<InvoiceUpdateDTO> line = reader.next(); line != null; line = reader.next()) {
+                batch.add(line);
+                if (batch.size() == BATCH_SIZE) {
+                    reconcileBatch(appUser.getId(), batch, reconciliation);
+                    batch.clear();
+                }
+            }
+        }
+        reconcileBatch(appUser.getId(), batch, reconciliation);
+        return reconciliation.report();
+    }
+
+    private void reconcileBatch(String ownerId, List<LineReader.Line<InvoiceUpdateDTO>> batch, Reconciliation reconciliation) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        PaymentResult[] results = new PaymentResult[batch.size()];
+        Set<String> invoiceIds = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            LineReader.Line<InvoiceUpdateDTO> line = batch.get(i);
+            String error = line.error() != null ? line.error() : violations(line.value());
+            if (error != null) {
+                results[i] = result(line, PaymentOutcome.INVALID, error);
+            } else {
+                invoiceIds.add(line.value().id());
+            }
+        }
+
+        // One lookup checks the ownership of the whole batch, invoices of other owners are reported as not found.
+        // Invoices missing from it are looked up in the archive, where they are all paid already.
+        Map<String, Document> invoices = new HashMap<>();
+        findOwnedInvoices(ownerId, invoiceIds, mongoTemplate.getCollectionName(Invoice.class), invoices);
+        Set<String> notFound = new HashSet<>(invoiceIds);
+        notFound.removeAll(invoices.keySet());
+        findOwnedInvoices(ownerId, notFound, ArchivedInvoice.COLLECTION, invoices);
+
+        String batchId = idService.randomId();
+        List<Integer> payments = new ArrayList<>();
+        Set<String> paidInBatch = new HashSet<>();
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Invoice.class);
+        for (int i = 0; i < batch.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            LineReader.Line<InvoiceUpdateDTO> line = batch.get(i);
+            InvoiceUpdateDTO payment = line.value();
+            Document invoice = invoices.get(payment.id());
+            if (invoice == null) {
+                results[i] = result(line, PaymentOutcome.NOT_FOUND, new InvoiceNotFoundException(payment.id()).getMessage());
+            } else if (Boolean.TRUE.equals(invoice.get("isPaid")) || !paidInBatch.add(payment.id())) {
+                results[i] = result(line, PaymentOutcome.ALREADY_PAID, null);
+            } else if (((Number) invoice.get("amountDue")).doubleValue() != payment.amountPaid()) {
+                paidInBatch.remove(payment.id());
+                results[i] = result(line, PaymentOutcome.AMOUNT_MISMATCH, "The amount due is " + invoice.get("amountDue"));
+            } else {
+                // The same conditional filter as a single payment, so a payment posted meanwhile is not applied twice
+                bulkOps.updateOne(InvoiceService.unpaidInvoice(payment, ownerId), InvoiceService.payment(payment).set(PAYMENT_BATCH_ID, batchId));
+                payments.add(i);
+            }
+        }
+
+        if (!payments.isEmpty()) {
+            BulkWriteResult written;
+            try {
+                written = bulkOps.execute();
+            } catch (BulkOperationException e) {
+                written = e.getResult();
+                for (BulkWriteError error : e.getErrors()) {
+                    int index = payments.get(error.getIndex());
+                    results[index] = result(batch.get(index), PaymentOutcome.FAILED, error.getMessage());
+                }
+            }
+            List<String> pending = payments.stream().filter(index -> results[index] == null).map(index -> batch.get(index).value().id()).toList();
+            if (written.getMatchedCount() < pending.size()) {
+                // Some invoices were paid by concurrent requests after the lookup, only those carrying the batch id
+                // were paid by this one
+                Set<String> applied = paidByBatch(batchId, pending);
+                log.info("{} of {} reconciled payments were already applied by concurrent requests", pending.size() - applied.size(), pending.size());
+                for (int index : payments) {
+                    if (results[index] == null && !applied.contains(batch.get(index).value().id())) {
+                        results[index] = result(batch.get(index), PaymentOutcome.ALREADY_PAID, null);
+                    }
+                }
+            }
+            if (written.getModifiedCount() > 0) {
+                mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(pending).and(PAYMENT_BATCH_ID).is(batchId)),
+                        new Update().unset(PAYMENT_BATCH_ID), Invoice.class);
+            }
+        }
+
+        List<String> subscriptionIds = new ArrayList<>();
+        List<RevenueRollupService.Entry> paid = new ArrayList<>();
+        for (int index : payments) {
+            if (results[index] == null) {
+                results[index] = result(batch.get(index), PaymentOutcome.PAID, null);
+                InvoiceUpdateDTO payment = batch.get(index).value();
+                Document invoice = invoices.get(payment.id());
+                subscriptionIds.add(invoice.getString("subscriptionId"));
+                paid.add(new RevenueRollupService.Entry(ownerId, invoice.getDate("dueDate").toInstant(),
+                        invoice.getString("internetPlanId"), payment.amountPaid()));
+            }
+        }
+        invoiceService.scheduleExpiredSubscriptions(subscriptionIds);
+        revenueRollupService.recordPaid(paid);
+
+        for (PaymentResult result : results) {
+            reconciliation.add(result);
+        }
+    }
+
+    private Set<String> paidByBatch(String batchId, List<String> invoiceIds) {
+        Query paidInvoices = Query.query(Criteria.where("_id").in(invoiceIds).and(PAYMENT_BATCH_ID).is(batchId));
+        paidInvoices.fields().include("_id");
+        Set<String> paid = new HashSet<>();
+        mongoTemplate.find(paidInvoices, Document.class, mongoTemplate.getCollectionName(Invoice.class))
+                .forEach(invoice -> paid.add(invoice.getString("_id")));
+        return paid;
+    }
+
+    private void findOwnedInvoices(String ownerId, Set<String> invoiceIds, String collection, Map<String, Document> invoices) {
+        if (invoiceIds.isEmpty()) {
+            return;
+        }
+        Query ownedInvoices = Query.query(Criteria.where("_id").in(invoiceIds).and("ownerId").is(ownerId));
+        ownedInvoices.fields().include("amountDue", "isPaid", "subscriptionId", "dueDate", "internetPlanId");
+        mongoTemplate.find(ownedInvoices, Document.class, collection)
+                .forEach(invoice -> invoices.put(invoice.getString("_id"), invoice));
+    }
+
+    private String violations(InvoiceUpdateDTO payment) {
+        List<String> violations = validator.validate(payment).stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .sorted()
+                .toList();
+        return violations.isEmpty() ? null : String.join(", ", violations);
+    }
+
+    private static PaymentResult result(LineReader.Line<InvoiceUpdateDTO> line, PaymentOutcome outcome, String message) {
+        String invoiceId = line.value() == null ? null : line.value().id();
+        return new PaymentResult(line.number(), invoiceId, outcome, message);
+    }
+
+    private static class Reconciliation {
+        private long lines;
+        private final Map<PaymentOutcome, Long> totals = new EnumMap<>(PaymentOutcome.class);
+        private final List<PaymentResult> results = new ArrayList<>();
+
+        private void add(PaymentResult result) {
+            lines++;
+            totals.merge(result.outcome(), 1L, Long::sum);
+            if (results.size() < ReconciliationReport.MAX_REPORTED_RESULTS) {
+                results.add(result);
+            }
+        }
+
+        private ReconciliationReport report() {
+            return new ReconciliationReport(lines, totals, results);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.ramezch.backend.revenue.controllers;
+
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.revenue.models.RevenueReport;
+import com.github.ramezch.backend.revenue.services.RevenueRollupService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.YearMonth;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/revenue")
+public class RevenueController {
+    private final RevenueRollupService revenueRollupService;
+
+    // Months are given as yyyy-MM, both ends are included
+    @GetMapping
+    public RevenueReport getRevenueReport(
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth from,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth to,
+            @AuthenticationPrincipal AppUser appUser
+    ) {
+        return revenueRollupService.getReport(appUser.getId(), from, to);
+    }
+
+    // Recomputes the caller's rollups from their invoices, answers the number of rollups written
+    @PostMapping("/rebuild")
+    public long rebuildRevenueRollups(@AuthenticationPrincipal AppUser appUser) {
+        return revenueRollupService.rebuild(appUser.getId());
+    }
+}
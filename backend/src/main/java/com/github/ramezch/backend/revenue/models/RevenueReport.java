@@ -0,0 +1,12 @@
+package com.github.ramezch.backend.revenue.models;
+
+import java.util.List;
+
+// Billed, paid and outstanding amounts per month and plan of the invoices due from the first day of from to the last
+// day of to, ordered by month and plan
+public record RevenueReport(
+        String from,
+        String to,
+        List<RevenueTotals> rows,
+        RevenueTotals total
+) { }
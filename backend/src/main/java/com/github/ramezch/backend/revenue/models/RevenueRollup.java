@@ -0,0 +1,23 @@
+package com.github.ramezch.backend.revenue.models;
+
+import jakarta.annotation.Nullable;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Invoice totals of one owner, due day and plan. Kept up to date as invoices are generated and paid, so reports read a
+// few rollups instead of every invoice.
+@Document
+@CompoundIndex(name = "ownerId_day", def = "{'ownerId': 1, 'day': 1}")
+public record RevenueRollup(
+        // ownerId|day|internetPlanId, see RevenueRollupService.rollupId
+        @Id String id,
+        String ownerId,
+        // The UTC due date as yyyy-MM-dd, which sorts and compares like the date
+        String day,
+        @Nullable String internetPlanId,
+        long invoicesBilled,
+        double billed,
+        long invoicesPaid,
+        double paid
+) { }
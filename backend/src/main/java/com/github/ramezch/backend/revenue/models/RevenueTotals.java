@@ -0,0 +1,18 @@
+package com.github.ramezch.backend.revenue.models;
+
+import jakarta.annotation.Nullable;
+
+// Invoices due in one month, for one plan or, as the total of a report, for all of them
+public record RevenueTotals(
+        @Nullable String month,
+        @Nullable String internetPlanId,
+        long invoicesBilled,
+        double billed,
+        long invoicesPaid,
+        double paid,
+        double outstanding
+) {
+    public static RevenueTotals of(String month, String internetPlanId, long invoicesBilled, double billed, long invoicesPaid, double paid) {
+        return new RevenueTotals(month, internetPlanId, invoicesBilled, billed, invoicesPaid, paid, billed - paid);
+    }
+}
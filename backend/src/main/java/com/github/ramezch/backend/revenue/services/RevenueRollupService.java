@@ -0,0 +1,250 @@
+package com.github.ramezch.backend.revenue.services;
+
+import com.github.ramezch.backend.exceptions.InvalidReportRangeException;
+import com.github.ramezch.backend.invoice.models.ArchivedInvoice;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.revenue.models.RevenueReport;
+import com.github.ramezch.backend.revenue.models.RevenueRollup;
+import com.github.ramezch.backend.revenue.models.RevenueTotals;
+import com.github.ramezch.backend.scheduler.SweepCoordinator;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.RenameCollectionOptions;
+import jakarta.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RevenueRollupService {
+    static final int MAX_REPORT_MONTHS = 36;
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneOffset.UTC);
+    private static final String KEY_SEPARATOR = "|";
+    private static final String REBUILD_TASK = "revenue-rollups-rebuild";
+    // Long enough for the aggregation over every invoice, the lease is released as soon as it is done
+    private static final Duration REBUILD_LEASE = Duration.ofHours(1);
+
+    private final MongoTemplate mongoTemplate;
+    private final SweepCoordinator sweepCoordinator;
+
+    // An amount of one invoice, counted towards the rollup of its owner, due day and plan
+    public record Entry(String ownerId, Instant dueDate, @Nullable String internetPlanId, double amount) { }
+
+    public void recordBilled(List<Entry> entries) {
+        increment(entries, "invoicesBilled", "billed");
+    }
+
+    public void recordPaid(List<Entry> entries) {
+        increment(entries, "invoicesPaid", "paid");
+    }
+
+    // Entries of the same rollup are added up first, so a batch costs one upsert per touched day and plan. The invoices
+    // are already written by then, a failure only leaves the rollups behind until they are rebuilt.
+    private void increment(List<Entry> entries, String countField, String amountField) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Map<String, List<Entry>> entriesByRollup = new LinkedHashMap<>();
+        entries.forEach(entry -> entriesByRollup.computeIfAbsent(rollupId(entry), id -> new ArrayList<>()).add(entry));
+
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RevenueRollup.class);
+        entriesByRollup.forEach((id, rollupEntries) -> {
+            Entry first = rollupEntries.getFirst();
+            bulkOps.upsert(Query.query(Criteria.where("_id").is(id)), new Update()
+                    .setOnInsert("ownerId", first.ownerId())
+                    .setOnInsert("day", DAY.format(first.dueDate()))
+                    .setOnInsert("internetPlanId", first.internetPlanId())
+                    .inc(countField, rollupEntries.size())
+                    .inc(amountField, rollupEntries.stream().mapToDouble(Entry::amount).sum()));
+        });
+        try {
+            bulkOps.execute();
+        } catch (RuntimeException e) {
+            log.error("Could not add {} invoices to the revenue rollups, they are off until rebuilt: {}", entries.size(), e.getMessage());
+        }
+    }
+
+    static String rollupId(Entry entry) {
+        return entry.ownerId() + KEY_SEPARATOR + DAY.format(entry.dueDate()) + KEY_SEPARATOR + Objects.requireNonNullElse(entry.internetPlanId(), "");
+    }
+
+    // The rollups start out empty, so the invoices billed before they existed are added up once on the first start
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildInBackgroundIfMissing() {
+        Thread.ofVirtual().name("revenue-rollups").start(this::rebuildIfMissing);
+    }
+
+    // Every replica starts at once, the lease lets only one of them rebuild
+    void rebuildIfMissing() {
+        if (mongoTemplate.exists(new Query(), RevenueRollup.class) || !mongoTemplate.exists(new Query(), Invoice.class)) {
+            return;
+        }
+        if (!sweepCoordinator.claimTask(REBUILD_TASK, REBUILD_LEASE)) {
+            log.info("Revenue rollups are rebuilt by another node");
+            return;
+        }
+        try {
+            rebuild(null);
+        } catch (RuntimeException e) {
+            log.error("Could not rebuild the revenue rollups: {}", e.getMessage());
+        } finally {
+            sweepCoordinator.releaseTask(REBUILD_TASK);
+        }
+    }
+
+    // Replaces the rollups of one owner, or of every owner when ownerId is null, with totals aggregated from the
+    // invoices and archived invoices by the database. The totals are built in a staging collection and swapped in, so
+    // reports never see the rollups half rebuilt and increments made meanwhile are never counted twice. Increments for
+    // invoices generated or paid after the aggregation read them are lost, so it is meant for backfills and repairs
+    // rather than regular use.
+    public long rebuild(@Nullable String ownerId) {
+        Criteria owner = ownerId == null ? new Criteria() : Criteria.where("ownerId").is(ownerId);
+        String invoiceCollection = mongoTemplate.getCollectionName(Invoice.class);
+        String rollupCollection = mongoTemplate.getCollectionName(RevenueRollup.class);
+        assignLegacyInvoicePlans(ownerId, invoiceCollection);
+        assignLegacyInvoicePlans(ownerId, ArchivedInvoice.COLLECTION);
+
+        List<Document> pipeline = new ArrayList<>();
+        if (ownerId != null) {
+            pipeline.add(new Document("$match", new Document("ownerId", ownerId)));
+        }
+        pipeline.add(new Document("$unionWith", new Document("coll", ArchivedInvoice.COLLECTION)
+                .append("pipeline", ownerId == null ? List.of() : List.of(new Document("$match", new Document("ownerId", ownerId))))));
+        pipeline.add(new Document("$group", new Document("_id", new Document("ownerId", "$ownerId")
+                .append("day", new Document("$dateToString", new Document("format", "%Y-%m-%d").append("date", "$dueDate")))
+                .append("internetPlanId", "$internetPlanId"))
+                .append("invoicesBilled", new Document("$sum", 1))
+                .append("billed", new Document("$sum", "$amountDue"))
+                .append("invoicesPaid", new Document("$sum", new Document("$cond", List.of("$isPaid", 1, 0))))
+                .append("paid", new Document("$sum", new Document("$cond", List.of("$isPaid", "$amountPaid", 0))))));
+        pipeline.add(new Document("$project", new Document("_id", new Document("$concat", List.of(
+                        "$_id.ownerId", KEY_SEPARATOR, "$_id.day", KEY_SEPARATOR, new Document("$ifNull", List.of("$_id.internetPlanId", "")))))
+                .append("ownerId", "$_id.ownerId")
+                .append("day", "$_id.day")
+                .append("internetPlanId", "$_id.internetPlanId")
+                .append("invoicesBilled", 1)
+                .append("billed", 1)
+                .append("invoicesPaid", 1)
+                .append("paid", 1)));
+        // Concurrent rebuilds of different owners each get their own staging collection
+        String staging = rollupCollection + "_rebuild_" + new ObjectId().toHexString();
+        pipeline.add(new Document("$out", staging));
+
+        try {
+            mongoTemplate.getCollection(invoiceCollection).aggregate(pipeline).allowDiskUse(true).toCollection();
+            if (ownerId == null) {
+                // The rename replaces the rollups with their indexes, so the staging collection gets them first
+                IndexOperations stagingIndexes = mongoTemplate.indexOps(staging);
+                IndexResolver.create(mongoTemplate.getConverter().getMappingContext())
+                        .resolveIndexFor(RevenueRollup.class)
+                        .forEach(stagingIndexes::ensureIndex);
+                mongoTemplate.getCollection(staging).renameCollection(
+                        new MongoNamespace(mongoTemplate.getDb().getName(), rollupCollection),
+                        new RenameCollectionOptions().dropTarget(true));
+            } else {
+                mongoTemplate.getCollection(staging).aggregate(List.of(
+                        new Document("$merge", new Document("into", rollupCollection)
+                                .append("whenMatched", "replace")
+                                .append("whenNotMatched", "insert"))
+                )).toCollection();
+                List<Object> rebuiltIds = mongoTemplate.getCollection(staging).distinct("_id", Object.class).into(new ArrayList<>());
+                // Rollups of days and plans the owner no longer has invoices for
+                mongoTemplate.remove(Query.query(Criteria.where("ownerId").is(ownerId).and("_id").nin(rebuiltIds)), RevenueRollup.class);
+            }
+        } finally {
+            mongoTemplate.dropCollection(staging);
+        }
+
+        long rollups = mongoTemplate.count(Query.query(owner), RevenueRollup.class);
+        log.info("Rebuilt {} revenue rollups{}", rollups, ownerId == null ? "" : " of " + ownerId);
+        return rollups;
+    }
+
+    // Invoices generated before invoices carried their plan get the plan of their subscription, so payments of these
+    // invoices count towards the same rollups as the rebuild does
+    private void assignLegacyInvoicePlans(@Nullable String ownerId, String invoiceCollection) {
+        Document legacyInvoices = new Document("internetPlanId", new Document("$exists", false));
+        if (ownerId != null) {
+            legacyInvoices.append("ownerId", ownerId);
+        }
+        List<Document> pipeline = List.of(
+                new Document("$match", legacyInvoices),
+                new Document("$lookup", new Document("from", mongoTemplate.getCollectionName(Subscription.class))
+                        .append("localField", "subscriptionId")
+                        .append("foreignField", "_id")
+                        .append("as", "subscription")),
+                new Document("$project", new Document("internetPlanId",
+                        new Document("$arrayElemAt", List.of("$subscription.internetPlanId", 0)))),
+                new Document("$match", new Document("internetPlanId", new Document("$ne", null))),
+                new Document("$merge", new Document("into", invoiceCollection)
+                        .append("whenMatched", "merge")
+                        .append("whenNotMatched", "discard"))
+        );
+        mongoTemplate.getCollection(invoiceCollection).aggregate(pipeline).allowDiskUse(true).toCollection();
+    }
+
+    // Reads at most one rollup per day and plan of the range, however many invoices they stand for
+    public RevenueReport getReport(String ownerId, YearMonth from, YearMonth to) {
+        if (from.isAfter(to)) {
+            throw new InvalidReportRangeException(from + " is after " + to);
+        }
+        if (ChronoUnit.MONTHS.between(from, to) >= MAX_REPORT_MONTHS) {
+            throw new InvalidReportRangeException("at most " + MAX_REPORT_MONTHS + " months can be reported at once");
+        }
+
+        Query query = Query.query(Criteria.where("ownerId").is(ownerId)
+                .and("day").gte(from.atDay(1).toString()).lt(to.plusMonths(1).atDay(1).toString()));
+        Map<String, Map<String, List<RevenueRollup>>> rollupsByMonthAndPlan = new TreeMap<>();
+        for (RevenueRollup rollup : mongoTemplate.find(query, RevenueRollup.class)) {
+            String month = rollup.day().substring(0, 7);
+            String plan = Objects.requireNonNullElse(rollup.internetPlanId(), "");
+            rollupsByMonthAndPlan.computeIfAbsent(month, key -> new TreeMap<>())
+                    .computeIfAbsent(plan, key -> new ArrayList<>())
+                    .add(rollup);
+        }
+
+        List<RevenueTotals> rows = new ArrayList<>();
+        rollupsByMonthAndPlan.forEach((month, rollupsByPlan) -> rollupsByPlan.forEach((plan, rollups) ->
+                rows.add(totals(month, plan.isEmpty() ? null : plan, rollups))));
+        RevenueTotals total = RevenueTotals.of(null, null,
+                rows.stream().mapToLong(RevenueTotals::invoicesBilled).sum(),
+                rows.stream().mapToDouble(RevenueTotals::billed).sum(),
+                rows.stream().mapToLong(RevenueTotals::invoicesPaid).sum(),
+                rows.stream().mapToDouble(RevenueTotals::paid).sum());
+        return new RevenueReport(from.toString(), to.toString(), rows, total);
+    }
+
+    private static RevenueTotals totals(String month, String internetPlanId, List<RevenueRollup> rollups) {
+        return RevenueTotals.of(month, internetPlanId,
+                rollups.stream().mapToLong(RevenueRollup::invoicesBilled).sum(),
+                rollups.stream().mapToDouble(RevenueRollup::billed).sum(),
+                rollups.stream().mapToLong(RevenueRollup::invoicesPaid).sum(),
+                rollups.stream().mapToDouble(RevenueRollup::paid).sum());
+    }
+}
@@ -1,81 +1,297 @@
 package com.github.ramezch.backend.scheduler;
 
 
+import com.github.ramezch.backend.internetplan.models.InternetPlan;
 import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
 import com.github.ramezch.backend.invoice.models.Invoice;
 import com.github.ramezch.backend.invoice.models.InvoiceDTO;
 import com.github.ramezch.backend.invoice.services.InvoiceService;
 import com.github.ramezch.backend.subscription.models.Subscription;
 import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
-import com.github.ramezch.backend.subscription.repository.SubscriptionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Component
 @Slf4j
 @RequiredArgsConstructor
 public class ScheduledTasks {
 
-    private final SubscriptionRepository subscriptionRepository;
     private final InternetPlanRepository internetPlanRepository;
     private final InvoiceService invoiceService;
+    private final MongoTemplate mongoTemplate;
+    private final SchedulerProperties schedulerProperties;
+    private final SweepCoordinator sweepCoordinator;
     private static final String DAILY_AT_MIDNIGHT = "0 0 0 * * *";
 
 
     @Scheduled(cron = DAILY_AT_MIDNIGHT)
     public void updateSubscriptionStatus() {
+        resumeUnfinishedRuns();
+        backfillNextActionAt();
 
-            List<Subscription> subscriptions = subscriptionRepository.findAll();
+        // Every replica fires this cron, they all join the same run and split its partitions through leases
+        Instant now = Instant.now();
+        SweepRun run = sweepCoordinator.startOrJoin(LocalDate.now().toString(), now,
+                () -> SweepPartition.split(mongoTemplate, dueCriteria(now), schedulerProperties.partitions()));
+        sweep(run);
+    }
+
+    // A run cut short by a restart continues from its checkpoints without waiting for the next night
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOnStartup() {
+        Thread.ofVirtual().name("subscription-sweep-resume").start(() -> {
+            try {
+                resumeUnfinishedRuns();
+            } catch (Exception e) {
+                log.error("Error resuming subscription sweeps: {}", e.getMessage());
+            }
+        });
+    }
+
+    void resumeUnfinishedRuns() {
+        for (SweepRun run : sweepCoordinator.unfinishedRuns()) {
+            log.info("Subscription sweep {}: resuming, {} subscriptions processed so far", run.id(), run.processed());
+            sweep(run);
+        }
+    }
+
+    void sweep(SweepRun run) {
+        if (!run.partitions().isEmpty()) {
+            int workers = Math.min(Math.max(1, schedulerProperties.parallelism()), run.partitions().size());
+            log.info("Subscription sweep {}: {} partitions on {} workers", run.id(), run.partitions().size(), workers);
+
+            try (ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("subscription-sweep-", 0).factory())) {
+                for (int i = 0; i < workers; i++) {
+                    executor.submit(() -> sweepPartitions(run));
+                }
+            }
+        }
+
+        sweepCoordinator.finish(run).ifPresent(finished ->
+                log.info("Subscription sweep {} completed: {} subscriptions processed, {} failed",
+                        finished.id(), finished.processed(), finished.failed()));
+    }
 
-            for (Subscription subscription : subscriptions) {
-                try {
-                    processSubscription(subscription);
-                } catch (Exception e) {
-                    log.error("Error processing subscription {}: {}", subscription.id(), e.getMessage());
+    // Claims and sweeps partitions until the whole run is completed, taking over partitions whose lease expired
+    void sweepPartitions(SweepRun run) {
+        try {
+            while (true) {
+                Optional<SweepLease> claimed = sweepCoordinator.claimNext(run);
+                if (claimed.isPresent() && claimed.get().attempts() > schedulerProperties.maxPartitionAttempts()) {
+                    abandonPartition(run, claimed.get());
+                } else if (claimed.isPresent()) {
+                    processPartition(run, claimed.get());
+                } else if (sweepCoordinator.isCompleted(run)) {
+                    return;
+                } else {
+                    Thread.sleep(schedulerProperties.leasePollInterval());
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Subscription sweep {}: worker failed: {}", run.id(), e.getMessage());
+        }
+    }
+
+    // A partition that keeps failing would otherwise be retried every time its lease expires and the run would never end
+    void abandonPartition(SweepRun run, SweepLease lease) {
+        SweepPartition partition = run.partitions().get(lease.partitionIndex());
+        long remaining = mongoTemplate.count(Query.query(partition.restrict(dueCriteria(run.dueBefore()), lease.lastProcessedId())), Subscription.class);
+        sweepCoordinator.abandon(run, partition, remaining);
+        log.error("Sweep partition {}/{}: given up after {} attempts, {} subscriptions left unprocessed",
+                partition.index() + 1, run.partitions().size(), lease.attempts() - 1, remaining);
     }
 
-    void processSubscription(Subscription subscription) {
+    // Only subscriptions whose next action is due can change state
+    private Criteria dueCriteria(Instant now) {
+        return Criteria.where("status").in((Object[]) SubscriptionStatus.values()).and("nextActionAt").lte(now);
+    }
+
+    void processPartition(SweepRun run, SweepLease lease) {
+        SweepPartition partition = run.partitions().get(lease.partitionIndex());
+        long startedAt = System.currentTimeMillis();
+        int partitionNumber = partition.index() + 1;
+        int partitionCount = run.partitions().size();
+        long processed = lease.processed();
+        if (lease.lastProcessedId() != null) {
+            log.info("Sweep partition {}/{}: resuming after {}", partitionNumber, partitionCount, lease.lastProcessedId());
+        }
+
+        // Walk a server-side cursor in _id order so only one batch of subscriptions is on the heap at a time
+        // and the last processed _id is a checkpoint the partition can resume after
+        Query query = Query.query(partition.restrict(dueCriteria(run.dueBefore()), lease.lastProcessedId()))
+                .with(Sort.by("_id"))
+                .allowDiskUse(true)
+                .cursorBatchSize(schedulerProperties.batchSize());
+        SubscriptionTransitionBatch batch = new SubscriptionTransitionBatch(mongoTemplate, invoiceService, schedulerProperties.bulkWriteSize());
+        List<Subscription> chunk = new ArrayList<>(schedulerProperties.batchSize());
+
+        try (Stream<Subscription> subscriptions = mongoTemplate.stream(query, Subscription.class)) {
+            Iterator<Subscription> iterator = subscriptions.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() < schedulerProperties.batchSize() && iterator.hasNext()) {
+                    continue;
+                }
+
+                if (!checkpointChunk(run, partition, chunk, batch)) {
+                    log.warn("Sweep partition {}/{}: lease taken over by another node", partitionNumber, partitionCount);
+                    return;
+                }
+                processed += chunk.size();
+                chunk.clear();
+                log.info("Sweep partition {}/{}: {} subscriptions processed", partitionNumber, partitionCount, processed);
+            }
+        } catch (Exception e) {
+            // The lease is left to expire, then the partition is retried from its last checkpoint
+            log.error("Sweep partition {}/{} failed after {} subscriptions: {}", partitionNumber, partitionCount, processed, e.getMessage());
+            return;
+        }
+
+        sweepCoordinator.complete(run, partition);
+        log.info("Sweep partition {}/{} finished: {} subscriptions in {} ms",
+                partitionNumber, partitionCount, processed, System.currentTimeMillis() - startedAt);
+    }
+
+    // The chunk is written before the checkpoint moves past it, so a resumed partition never skips unwritten work
+    private boolean checkpointChunk(SweepRun run, SweepPartition partition, List<Subscription> chunk, SubscriptionTransitionBatch batch) {
+        int failed = processChunk(chunk, batch);
+        failed += batch.flush();
+        return sweepCoordinator.checkpoint(run, partition, chunk.getLast().id(), chunk.size(), failed);
+    }
+
+    // Subscriptions stored before nextActionAt existed get their schedule computed server-side
+    void backfillNextActionAt() {
+        long gracePeriodMillis = Subscription.SEVEN_DAYS_GRACE_PERIOD_IN_SECONDS * 1000L;
+        // Like Subscription.scheduledNextActionAt, expired subscriptions are only due again once their invoice is paid
+        mongoTemplate.updateMulti(Query.query(Criteria.where("status").is(SubscriptionStatus.EXPIRED).and("nextActionAt").exists(false)),
+                Update.update("nextActionAt", null), Subscription.class);
+        Query legacySubscriptions = Query.query(Criteria.where("status")
+                .in(SubscriptionStatus.ACTIVE, SubscriptionStatus.EXPIRING, SubscriptionStatus.CANCELLED)
+                .and("nextActionAt").exists(false));
+        AggregationUpdate schedule = AggregationUpdate.update()
+                .set("nextActionAt").toValue(ConditionalOperators
+                        .when(ComparisonOperators.valueOf("status").equalToValue(SubscriptionStatus.ACTIVE.name()))
+                        .then(ArithmeticOperators.valueOf("endDate").subtract(gracePeriodMillis))
+                        .otherwise(ArithmeticOperators.valueOf("endDate").add(gracePeriodMillis)));
+        mongoTemplate.updateMulti(legacySubscriptions, schedule, Subscription.class);
+    }
+
+    // Returns the number of subscriptions that could not be processed
+    int processChunk(List<Subscription> subscriptions, SubscriptionTransitionBatch batch) {
+        Map<String, Invoice> invoices;
+        Map<String, InternetPlan> plans;
+        try {
+            invoices = prefetchInvoices(subscriptions);
+            plans = prefetchRenewalPlans(subscriptions, invoices);
+        } catch (Exception e) {
+            subscriptions.forEach(subscription ->
+                    log.error("Error processing subscription {}: {}", subscription.id(), e.getMessage()));
+            return subscriptions.size();
+        }
+
+        int failed = 0;
+        for (Subscription subscription : subscriptions) {
+            try {
+                processSubscription(subscription, invoices.get(subscription.id()), plans, batch);
+            } catch (Exception e) {
+                failed++;
+                log.error("Error processing subscription {}: {}", subscription.id(), e.getMessage());
+            }
+        }
+        return failed;
+    }
+
+    // Loads the current invoice of every subscription in the chunk that needs one with a single query
+    private Map<String, Invoice> prefetchInvoices(List<Subscription> subscriptions) {
+        Map<String, Instant> dueDatesBySubscriptionId = subscriptions.stream()
+                .filter(subscription -> !subscription.isExpiringSoon())
+                .collect(Collectors.toMap(Subscription::id, Subscription::endDate, (first, duplicate) -> first));
+        return dueDatesBySubscriptionId.isEmpty()
+                ? Map.of()
+                : invoiceService.getInvoices(dueDatesBySubscriptionId);
+    }
+
+    // Loads the active plans of every subscription in the chunk that is renewed with a single query
+    private Map<String, InternetPlan> prefetchRenewalPlans(List<Subscription> subscriptions, Map<String, Invoice> invoices) {
+        List<String> planIds = subscriptions.stream()
+                .filter(subscription -> isRenewal(subscription, invoices.get(subscription.id())))
+                .map(Subscription::internetPlanId)
+                .distinct()
+                .toList();
+        return planIds.isEmpty()
+                ? Map.of()
+                : internetPlanRepository.findByIdInAndIsActive(planIds, true).stream()
+                        .collect(Collectors.toMap(InternetPlan::id, Function.identity(), (first, duplicate) -> first));
+    }
+
+    private static boolean isRenewal(Subscription subscription, Invoice subscriptionInvoice) {
+        return !subscription.isExpiringSoon() && subscriptionInvoice != null
+                && subscription.isGracePeriodOver() && subscriptionInvoice.isPaid();
+    }
+
+    void processSubscription(Subscription subscription, Invoice subscriptionInvoice, Map<String, InternetPlan> plans,
+                             SubscriptionTransitionBatch batch) {
         if (subscription.isExpiringSoon()) {
-            subscriptionRepository.save(subscription.withStatus(SubscriptionStatus.EXPIRING));
+            batch.addTransition(subscription.withStatus(SubscriptionStatus.EXPIRING));
             return;
         }
 
-        Invoice subscriptionInvoice = invoiceService.getInvoice(subscription.id(), subscription.endDate());
         if (subscriptionInvoice == null) {
             return;
         }
 
         if (subscription.isGracePeriodOver()) {
             if (subscriptionInvoice.isPaid()) {
-                renewSubscription(subscription);
+                renewSubscription(subscription, plans.get(subscription.internetPlanId()), batch);
             } else {
-                subscriptionRepository.save(subscription.withStatus(SubscriptionStatus.EXPIRED));
+                batch.addTransition(subscription.withStatus(SubscriptionStatus.EXPIRED));
             }
         }
     }
 
-    void renewSubscription(Subscription subscription) {
+    // A subscription whose plan is no longer active is renewed without a new invoice
+    void renewSubscription(Subscription subscription, InternetPlan plan, SubscriptionTransitionBatch batch) {
         Instant newEndDate = subscription.endDate().plus(Duration.ofDays(30));
-        subscriptionRepository.save(
+
+        // Queue the invoice first so it is flushed together with the renewal transition
+        if (plan != null) {
+            double invoiceAmountDue = plan.price();
+            InvoiceDTO newInvoiceDTO = new InvoiceDTO(subscription.ownerId(), subscription.customerId(), subscription.id(), plan.id(), newEndDate, invoiceAmountDue);
+            batch.addInvoice(newInvoiceDTO);
+        }
+
+        batch.addTransition(
                 subscription.withStatus(SubscriptionStatus.ACTIVE)
                         .withEndDate(newEndDate)
         );
-
-        internetPlanRepository.findByIdInAndIsActive(List.of(subscription.internetPlanId()), true)
-                .stream()
-                .findFirst()
-                .ifPresent(plan -> {
-                    double invoiceAmountDue = plan.price();
-                    InvoiceDTO newInvoiceDTO = new InvoiceDTO(subscription.customerId(), subscription.id(), newEndDate, invoiceAmountDue);
-                    invoiceService.generateInvoice(newInvoiceDTO);
-                });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,30 @@
+package com.github.ramezch.backend.scheduler;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "scheduler")
+public record SchedulerProperties(
+        // Number of subscriptions fetched per cursor round trip, and processed per invoice prefetch and checkpoint, during the nightly sweep
+        @DefaultValue("500") int batchSize,
+
+        // Number of status transitions (and generated invoices) sent per unordered bulk write
+        @DefaultValue("500") int bulkWriteSize,
+
+        // Number of _id ranges the due subscriptions are split into
+        @DefaultValue("16") int partitions,
+
+        // Number of partitions swept concurrently, each on its own virtual thread
+        @DefaultValue("4") int parallelism,
+
+        // How long a node owns a claimed partition without renewing it, before other nodes may take it over
+        @DefaultValue("5m") Duration leaseDuration,
+
+        // How often a node with nothing left to claim checks for partitions of dead nodes until the run is done
+        @DefaultValue("30s") Duration leasePollInterval,
+
+        // How often a partition is claimed before it is given up and its remaining subscriptions are counted as failed
+        @DefaultValue("3") int maxPartitionAttempts
+) {}
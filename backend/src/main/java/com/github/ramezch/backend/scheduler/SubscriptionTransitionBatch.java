@@ -0,0 +1,124 @@
+package com.github.ramezch.backend.scheduler;
+
+import com.github.ramezch.backend.invoice.models.InvoiceDTO;
+import com.github.ramezch.backend.invoice.services.InvoiceService;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Collects the status transitions and invoices of one sweep and writes them as unordered bulk operations
+@Slf4j
+class SubscriptionTransitionBatch {
+    private final MongoTemplate mongoTemplate;
+    private final InvoiceService invoiceService;
+    private final int bulkWriteSize;
+
+    private final List<Subscription> transitions = new ArrayList<>();
+    private final List<InvoiceDTO> invoices = new ArrayList<>();
+    // Failures of the writes made once bulkWriteSize was reached, reported by the next flush
+    private int failedSinceFlush;
+
+    SubscriptionTransitionBatch(MongoTemplate mongoTemplate, InvoiceService invoiceService, int bulkWriteSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.invoiceService = invoiceService;
+        this.bulkWriteSize = Math.max(1, bulkWriteSize);
+    }
+
+    void addTransition(Subscription subscription) {
+        transitions.add(subscription);
+        if (transitions.size() >= bulkWriteSize) {
+            failedSinceFlush += write();
+        }
+    }
+
+    // Invoices are only written once the transition of their subscription has been flushed successfully
+    void addInvoice(InvoiceDTO invoiceDTO) {
+        invoices.add(invoiceDTO);
+    }
+
+    // Returns the number of writes that failed since the last flush, including those written once bulkWriteSize was
+    // reached
+    int flush() {
+        int failed = failedSinceFlush + write();
+        failedSinceFlush = 0;
+        return failed;
+    }
+
+    private int write() {
+        Set<String> failedSubscriptionIds = flushTransitions();
+        int failedInvoices = flushInvoices(failedSubscriptionIds);
+        transitions.clear();
+        invoices.clear();
+        return failedSubscriptionIds.size() + failedInvoices;
+    }
+
+    private Set<String> flushTransitions() {
+        Set<String> failedSubscriptionIds = new HashSet<>();
+        if (transitions.isEmpty()) {
+            return failedSubscriptionIds;
+        }
+
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Subscription.class);
+        for (Subscription subscription : transitions) {
+            bulkOps.updateOne(
+                    Query.query(Criteria.where("_id").is(subscription.id())),
+                    new Update()
+                            .set("status", subscription.status())
+                            .set("endDate", subscription.endDate())
+                            .set("nextActionAt", subscription.scheduledNextActionAt())
+            );
+        }
+
+        try {
+            bulkOps.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                String subscriptionId = transitions.get(error.getIndex()).id();
+                failedSubscriptionIds.add(subscriptionId);
+                log.error("Error processing subscription {}: {}", subscriptionId, error.getMessage());
+            }
+        } catch (Exception e) {
+            for (Subscription subscription : transitions) {
+                failedSubscriptionIds.add(subscription.id());
+                log.error("Error processing subscription {}: {}", subscription.id(), e.getMessage());
+            }
+        }
+        return failedSubscriptionIds;
+    }
+
+    private int flushInvoices(Set<String> failedSubscriptionIds) {
+        List<InvoiceDTO> pendingInvoices = invoices.stream()
+                .filter(invoiceDTO -> !failedSubscriptionIds.contains(invoiceDTO.subscriptionId()))
+                .toList();
+        if (pendingInvoices.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            invoiceService.generateInvoices(pendingInvoices);
+            return 0;
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                String subscriptionId = pendingInvoices.get(error.getIndex()).subscriptionId();
+                log.error("Error processing subscription {}: {}", subscriptionId, error.getMessage());
+            }
+            return e.getErrors().size();
+        } catch (Exception e) {
+            for (InvoiceDTO invoiceDTO : pendingInvoices) {
+                log.error("Error processing subscription {}: {}", invoiceDTO.subscriptionId(), e.getMessage());
+            }
+            return pendingInvoices.size();
+        }
+    }
+}
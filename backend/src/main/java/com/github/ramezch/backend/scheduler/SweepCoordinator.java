@@ -0,0 +1,168 @@
+package com.github.ramezch.backend.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+// Spreads the partitions of a sweep over all replicas through lease documents in Mongo
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class SweepCoordinator {
+
+    private final MongoTemplate mongoTemplate;
+    private final SchedulerProperties schedulerProperties;
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName();
+
+    // The first node to start a run decides its partitions, the others pick up the stored ones
+    SweepRun startOrJoin(String runId, Instant dueBefore, Supplier<List<SweepPartition>> partitions) {
+        SweepRun existing = mongoTemplate.findById(runId, SweepRun.class);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            return mongoTemplate.insert(new SweepRun(runId, dueBefore, partitions.get(), 0, 0, null, Instant.now()));
+        } catch (DuplicateKeyException e) {
+            return mongoTemplate.findById(runId, SweepRun.class);
+        }
+    }
+
+    // Runs that were interrupted before all of their partitions were completed, oldest first
+    List<SweepRun> unfinishedRuns() {
+        return mongoTemplate.find(Query.query(Criteria.where("completedAt").is(null)).with(Sort.by("_id")), SweepRun.class);
+    }
+
+    Optional<SweepLease> claimNext(SweepRun run) {
+        for (SweepPartition partition : run.partitions()) {
+            Optional<SweepLease> lease = claim(run, partition);
+            if (lease.isPresent()) {
+                return lease;
+            }
+        }
+        return Optional.empty();
+    }
+
+    // A lease that is completed or held by a live node does not match, so the upsert collides on _id instead
+    Optional<SweepLease> claim(SweepRun run, SweepPartition partition) {
+        Instant now = Instant.now();
+        Query query = Query.query(Criteria.where("_id").is(run.leaseId(partition))
+                .and("completed").is(false)
+                .and("leaseExpiresAt").lt(now));
+        Update update = new Update()
+                .set("owner", owner)
+                .set("leaseExpiresAt", now.plus(schedulerProperties.leaseDuration()))
+                .inc("attempts", 1)
+                .setOnInsert("runId", run.id())
+                .setOnInsert("partitionIndex", partition.index())
+                .setOnInsert("processed", 0L)
+                .setOnInsert("failed", 0L)
+                .setOnInsert("createdAt", now);
+
+        try {
+            return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), SweepLease.class));
+        } catch (DuplicateKeyException e) {
+            return Optional.empty();
+        }
+    }
+
+    // Moves the checkpoint past a written chunk and renews the lease, returns false once another node has taken
+    // the partition over
+    boolean checkpoint(SweepRun run, SweepPartition partition, String lastProcessedId, int processed, int failed) {
+        boolean renewed = mongoTemplate.updateFirst(
+                ownLease(run, partition),
+                new Update()
+                        .set("leaseExpiresAt", Instant.now().plus(schedulerProperties.leaseDuration()))
+                        .set("lastProcessedId", lastProcessedId)
+                        .inc("processed", processed)
+                        .inc("failed", failed),
+                SweepLease.class
+        ).getModifiedCount() > 0;
+
+        if (renewed) {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(run.id())),
+                    new Update().inc("processed", processed).inc("failed", failed), SweepRun.class);
+        }
+        return renewed;
+    }
+
+    void complete(SweepRun run, SweepPartition partition) {
+        mongoTemplate.updateFirst(ownLease(run, partition), Update.update("completed", true), SweepLease.class);
+    }
+
+    // Completes a partition that failed too often without sweeping it, its remaining subscriptions count as failed
+    void abandon(SweepRun run, SweepPartition partition, long remaining) {
+        boolean abandoned = mongoTemplate.updateFirst(ownLease(run, partition),
+                new Update().set("completed", true).inc("failed", remaining), SweepLease.class).getModifiedCount() > 0;
+        if (abandoned) {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(run.id())), new Update().inc("failed", remaining), SweepRun.class);
+        }
+    }
+
+    // Claims a task that only one node may run at a time, such as a backfill on startup. The lease is held until it is
+    // released or leaseDuration has passed.
+    public boolean claimTask(String taskId, Duration leaseDuration) {
+        Instant now = Instant.now();
+        Query query = Query.query(Criteria.where("_id").is(taskId).and("leaseExpiresAt").lt(now));
+        Update update = new Update()
+                .set("owner", owner)
+                .set("leaseExpiresAt", now.plus(leaseDuration))
+                .inc("attempts", 1)
+                .setOnInsert("runId", taskId)
+                .setOnInsert("partitionIndex", 0)
+                .setOnInsert("processed", 0L)
+                .setOnInsert("failed", 0L)
+                .setOnInsert("completed", false)
+                .setOnInsert("createdAt", now);
+
+        try {
+            return mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), SweepLease.class) != null;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public void releaseTask(String taskId) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(taskId).and("owner").is(owner)),
+                Update.update("leaseExpiresAt", Instant.now()), SweepLease.class);
+    }
+
+    boolean isCompleted(SweepRun run) {
+        long completed = mongoTemplate.count(
+                Query.query(Criteria.where("runId").is(run.id()).and("completed").is(true)), SweepLease.class);
+        return completed >= run.partitions().size();
+    }
+
+    // Only one node gets to close the run, the returned run carries the final counters
+    Optional<SweepRun> finish(SweepRun run) {
+        if (!isCompleted(run)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(run.id()).and("completedAt").is(null)),
+                Update.update("completedAt", Instant.now()),
+                FindAndModifyOptions.options().returnNew(true),
+                SweepRun.class
+        ));
+    }
+
+    private Query ownLease(SweepRun run, SweepPartition partition) {
+        return Query.query(Criteria.where("_id").is(run.leaseId(partition)).and("owner").is(owner));
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.ramezch.backend.scheduler;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// Claim of one sweep partition by one node, free to be taken over once leaseExpiresAt has passed.
+// lastProcessedId is the checkpoint the next owner resumes after, attempts counts the claims so far
+@Document("sweepLeases")
+record SweepLease(@Id String id, String runId, int partitionIndex, String owner, Instant leaseExpiresAt,
+                  String lastProcessedId, long processed, long failed, boolean completed, int attempts,
+                  @Indexed(expireAfter = "7d") Instant createdAt) {
+}
@@ -0,0 +1,56 @@
+package com.github.ramezch.backend.scheduler;
+
+import com.github.ramezch.backend.subscription.models.Subscription;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A half-open _id range [fromId, toId) of the nightly sweep, a null bound is unbounded
+record SweepPartition(int index, String fromId, String toId) {
+
+    // Restricts the criteria to this range, or to what is left of it after the checkpoint of an interrupted run
+    Criteria restrict(Criteria criteria, String resumeAfterId) {
+        if (fromId == null && toId == null && resumeAfterId == null) {
+            return criteria;
+        }
+        Criteria idRange = criteria.and("_id");
+        if (resumeAfterId != null) {
+            idRange.gt(resumeAfterId);
+        } else if (fromId != null) {
+            idRange.gte(fromId);
+        }
+        if (toId != null) {
+            idRange.lt(toId);
+        }
+        return criteria;
+    }
+
+    // Splits the matching subscriptions into ranges of roughly equal size using $bucketAuto on _id
+    static List<SweepPartition> split(MongoTemplate mongoTemplate, Criteria criteria, int partitions) {
+        if (partitions <= 1) {
+            return List.of(new SweepPartition(0, null, null));
+        }
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.project("_id"),
+                Aggregation.bucketAuto("_id", partitions)
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        List<Document> buckets = mongoTemplate.aggregate(aggregation, Subscription.class, Document.class).getMappedResults();
+
+        List<SweepPartition> result = new ArrayList<>(buckets.size());
+        String fromId = null;
+        for (int i = 0; i < buckets.size(); i++) {
+            // The upper bound of every bucket but the last is the lower bound of the next one
+            String toId = i == buckets.size() - 1 ? null : buckets.get(i).get("_id", Document.class).getString("max");
+            result.add(new SweepPartition(i, fromId, toId));
+            fromId = toId;
+        }
+        return result;
+    }
+}
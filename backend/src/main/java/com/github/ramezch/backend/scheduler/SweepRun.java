@@ -0,0 +1,19 @@
+package com.github.ramezch.backend.scheduler;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+// One nightly sweep shared by all replicas: every node sweeps the same partitions of what was due at dueBefore.
+// The counters add up the checkpoints of all partitions, completedAt stays null until every partition is done
+@Document("sweepRuns")
+record SweepRun(@Id String id, Instant dueBefore, List<SweepPartition> partitions, long processed, long failed,
+                Instant completedAt, @Indexed(expireAfter = "7d") Instant createdAt) {
+
+    String leaseId(SweepPartition partition) {
+        return id + ":" + partition.index();
+    }
+}
@@ -1,7 +1,6 @@
 package com.github.ramezch.backend.subscription.controllers;
 
 import com.github.ramezch.backend.appuser.AppUser;
-import com.github.ramezch.backend.exceptions.CustomerNotFoundException;
 import com.github.ramezch.backend.exceptions.CustomerSubscriptionNotFoundException;
 import com.github.ramezch.backend.subscription.models.Subscription;
 import com.github.ramezch.backend.subscription.models.SubscriptionDTO;
@@ -20,26 +19,17 @@ public class SubscriptionController {
 
     @GetMapping("{customerId}")
     public SubscriptionDetailsDTO getSubscription(@PathVariable String customerId, @AuthenticationPrincipal AppUser appUser) {
-        if (!appUser.getCustomerIds().contains(customerId)) {
-            throw new CustomerNotFoundException(customerId);
-        }
-        return subscriptionService.getSubscription(customerId)
+        return subscriptionService.getSubscription(appUser.getId(), customerId)
                 .orElseThrow(() -> new CustomerSubscriptionNotFoundException(customerId));
     }
 
     @PutMapping("{customerId}")
     public Subscription updateSubscription(@PathVariable String customerId, @Valid @RequestBody SubscriptionDTO dto, @AuthenticationPrincipal AppUser appUser) {
-        if (!appUser.getCustomerIds().contains(customerId)) {
-            throw new CustomerNotFoundException(customerId);
-        }
-        return subscriptionService.updateSubscription(customerId, dto);
+        return subscriptionService.updateSubscription(appUser.getId(), customerId, dto);
     }
 
     @DeleteMapping("{customerId}")
     public void deleteSubscription(@PathVariable String customerId, @AuthenticationPrincipal AppUser appUser) {
-        if (!appUser.getCustomerIds().contains(customerId)) {
-            throw new CustomerNotFoundException(customerId);
-        }
-        subscriptionService.deleteSubscription(customerId);
+        subscriptionService.deleteSubscription(appUser.getId(), customerId);
     }
 }
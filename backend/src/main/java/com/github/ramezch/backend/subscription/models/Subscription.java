@@ -3,17 +3,30 @@ import jakarta.validation.constraints.FutureOrPresent;
 import jakarta.validation.constraints.NotNull;
 import lombok.With;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.Instant;
 
+@Document
+@CompoundIndex(name = "ownerId_customerId", def = "{'ownerId': 1, 'customerId': 1}")
+@CompoundIndex(name = "status_nextActionAt", def = "{'status': 1, 'nextActionAt': 1}")
 public record Subscription(
         @Id String id,
+        @NotNull String ownerId,
         @NotNull String customerId,
         @NotNull String internetPlanId,
         @With @FutureOrPresent Instant endDate,
-        @With @NotNull SubscriptionStatus status
+        @With @NotNull SubscriptionStatus status,
+        // When the nightly sweep next has to look at this subscription, null while it has nothing to do
+        @With @Field(write = Field.Write.ALWAYS) Instant nextActionAt
 ) {
-    private static final int SEVEN_DAYS_GRACE_PERIOD_IN_SECONDS = 7 * 24 * 60 * 60;
+    public static final int SEVEN_DAYS_GRACE_PERIOD_IN_SECONDS = 7 * 24 * 60 * 60;
+
+    public Subscription(String id, String ownerId, String customerId, String internetPlanId, Instant endDate, SubscriptionStatus status) {
+        this(id, ownerId, customerId, internetPlanId, endDate, status, scheduledNextActionAt(status, endDate));
+    }
 
     public boolean isExpiringSoon() {
         return status == SubscriptionStatus.ACTIVE
@@ -26,4 +39,21 @@ public record Subscription(
         Instant endDatePlusGracePeriod = endDate.plusSeconds(SEVEN_DAYS_GRACE_PERIOD_IN_SECONDS);
         return Instant.now().isAfter(endDatePlusGracePeriod);
     }
-}
\ No newline at end of file
+
+    public Instant scheduledNextActionAt() {
+        return scheduledNextActionAt(status, endDate);
+    }
+
+    // Active subscriptions are due when they enter the expiring window, the rest once the grace period is over.
+    // Expired ones are only due again when their invoice gets paid.
+    public static Instant scheduledNextActionAt(SubscriptionStatus status, Instant endDate) {
+        if (status == null || endDate == null) {
+            return null;
+        }
+        return switch (status) {
+            case ACTIVE -> endDate.minusSeconds(SEVEN_DAYS_GRACE_PERIOD_IN_SECONDS);
+            case EXPIRING, CANCELLED -> endDate.plusSeconds(SEVEN_DAYS_GRACE_PERIOD_IN_SECONDS);
+            case EXPIRED -> null;
+        };
+    }
+}
@@ -4,9 +4,12 @@ import com.github.ramezch.backend.subscription.models.Subscription;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 
 public interface SubscriptionRepository extends MongoRepository<Subscription, String> {
-    Optional<Subscription> findByCustomerId(@NotNull String customerId);
+    Optional<Subscription> findByOwnerIdAndCustomerId(@NotNull String ownerId, @NotNull String customerId);
+    List<Subscription> findByOwnerIdAndCustomerIdIn(@NotNull String ownerId, Collection<String> customerIds);
 }
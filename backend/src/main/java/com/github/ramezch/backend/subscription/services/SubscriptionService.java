@@ -15,11 +15,17 @@ import com.github.ramezch.backend.subscription.models.SubscriptionDetailsDTO;
 import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
 import com.github.ramezch.backend.subscription.repository.SubscriptionRepository;
 import com.github.ramezch.backend.utils.IdService;
+import com.mongodb.bulk.BulkWriteError;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.BulkOperationException;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -32,10 +38,9 @@ public class SubscriptionService {
     private final IdService idService;
     private final InvoiceService invoiceService;
 
-    public void createSubscription(String customerId, String internetPlanId) {
-       InternetPlan internetPlan =  internetPlanRepo.findById(internetPlanId)
-                .orElseThrow(() -> new InternetPlanNotFoundException(internetPlanId));
-
+    // The plan is looked up by the caller before anything is written. The subscription is inserted first and removed
+    // again if its invoice cannot be written, so a failure leaves neither behind.
+    public void createSubscription(String ownerId, String customerId, InternetPlan internetPlan) {
         Instant startDate = Instant.now();
         Instant endDate = startDate.plus(30, ChronoUnit.DAYS); // Default 1 month duration
 
@@ -43,20 +48,77 @@ public class SubscriptionService {
 
         Subscription subscription = new Subscription(
                 subId,
+                ownerId,
                 customerId,
-                internetPlanId,
+                internetPlan.id(),
                 endDate,
                 SubscriptionStatus.ACTIVE
         );
+        subscriptionRepo.insert(subscription);
+
+        InvoiceDTO newInvoiceDTO = new InvoiceDTO(ownerId, customerId, subId, internetPlan.id(), endDate, internetPlan.price());
+        try {
+            invoiceService.generateInvoice(newInvoiceDTO);
+        } catch (RuntimeException e) {
+            subscriptionRepo.deleteById(subId);
+            throw e;
+        }
+    }
+
+    // Batched variant of createSubscription for imports: one insert for the subscriptions and one bulk write for
+    // their first invoices, the plan is looked up once by the caller. Invoices rejected by the bulk write have their
+    // subscriptions removed again and are returned as error messages keyed by customer id. A failed subscription insert
+    // or any other failure removes all subscriptions of the batch and is thrown.
+    public Map<String, String> createSubscriptions(String ownerId, List<String> customerIds, InternetPlan internetPlan) {
+        if (customerIds.isEmpty()) {
+            return Map.of();
+        }
+        Instant endDate = Instant.now().plus(30, ChronoUnit.DAYS); // Default 1 month duration
+
+        List<Subscription> subscriptions = new ArrayList<>(customerIds.size());
+        List<InvoiceDTO> invoiceDTOs = new ArrayList<>(customerIds.size());
+        for (String customerId : customerIds) {
+            String subId = idService.randomId();
+            subscriptions.add(new Subscription(subId, ownerId, customerId, internetPlan.id(), endDate, SubscriptionStatus.ACTIVE));
+            invoiceDTOs.add(new InvoiceDTO(ownerId, customerId, subId, internetPlan.id(), endDate, internetPlan.price()));
+        }
 
-        InvoiceDTO newInvoiceDTO = new InvoiceDTO(customerId, subId, endDate, internetPlan.price());
-        invoiceService.generateInvoice(newInvoiceDTO);
+        List<String> subIds = subscriptions.stream().map(Subscription::id).toList();
+        try {
+            subscriptionRepo.insert(subscriptions);
+        } catch (RuntimeException e) {
+            // The insert is ordered, the subscriptions after a failed one were never written and have no invoice
+            subscriptionRepo.deleteAllById(subIds);
+            throw e;
+        }
+        try {
+            invoiceService.generateInvoices(invoiceDTOs);
+            return Map.of();
+        } catch (BulkOperationException e) {
+            Map<String, String> failures = new HashMap<>();
+            List<String> failedSubIds = new ArrayList<>();
+            for (BulkWriteError error : e.getErrors()) {
+                failures.put(customerIds.get(error.getIndex()), error.getMessage());
+                failedSubIds.add(subIds.get(error.getIndex()));
+            }
+            subscriptionRepo.deleteAllById(failedSubIds);
+            return failures;
+        } catch (RuntimeException e) {
+            subscriptionRepo.deleteAllById(subIds);
+            throw e;
+        }
+    }
 
-        subscriptionRepo.save(subscription);
+    // Customers of other owners are reported as not found, just like customers that do not exist
+    private void checkIfOwnerHasCustomer(String ownerId, String customerId) {
+        if (!customerRepo.existsByIdAndOwnerId(customerId, ownerId)) {
+            throw new CustomerNotFoundException(customerId);
+        }
     }
 
-    public Optional<SubscriptionDetailsDTO> getSubscription(String customerId) {
-        return subscriptionRepo.findByCustomerId(customerId)
+    public Optional<SubscriptionDetailsDTO> getSubscription(String ownerId, String customerId) {
+        checkIfOwnerHasCustomer(ownerId, customerId);
+        return subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)
                 .map(subscription -> {
                     InternetPlan internetPlan = internetPlanRepo.findById(subscription.internetPlanId())
                             .orElseThrow(() -> new InternetPlanNotFoundException(subscription.internetPlanId()));
@@ -74,8 +136,9 @@ public class SubscriptionService {
                 });
     }
 
-    public Subscription updateSubscription(String customerId, SubscriptionDTO dto) {
-        Subscription existing = subscriptionRepo.findByCustomerId(customerId)
+    public Subscription updateSubscription(String ownerId, String customerId, SubscriptionDTO dto) {
+        checkIfOwnerHasCustomer(ownerId, customerId);
+        Subscription existing = subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)
                 .orElseThrow(() -> new CustomerSubscriptionNotFoundException(customerId));
 
         boolean unchanged = existing.customerId().equals(dto.customerId())
@@ -89,17 +152,24 @@ public class SubscriptionService {
 
         Subscription updated = new Subscription(
                 existing.id(),
+                existing.ownerId(),
                 dto.customerId(),
                 dto.internetPlanId(),
                 dto.endDate(),
                 dto.status()
         );
 
+        // A manually expired subscription gets one sweep to pick up an invoice that is already paid
+        if (updated.status() == SubscriptionStatus.EXPIRED) {
+            updated = updated.withNextActionAt(Instant.now());
+        }
+
         return subscriptionRepo.save(updated);
     }
 
-    public void deleteSubscription(String customerId) {
-        Subscription toDelete = subscriptionRepo.findByCustomerId(customerId)
+    public void deleteSubscription(String ownerId, String customerId) {
+        checkIfOwnerHasCustomer(ownerId, customerId);
+        Subscription toDelete = subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)
                 .orElseThrow(() -> new CustomerSubscriptionNotFoundException(customerId));
         subscriptionRepo.delete(toDelete);
     }
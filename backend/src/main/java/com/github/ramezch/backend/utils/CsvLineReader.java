@@ -0,0 +1,103 @@
+package com.github.ramezch.backend.utils;
+
+import com.github.ramezch.backend.exceptions.InvalidImportException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// RFC 4180 CSV with a header row, the parser names the columns it reads and turns each record into a value.
+// Header names are matched ignoring case, unknown columns are ignored and empty cells are read as null.
+// Lines are numbered from the first record after the header.
+public class CsvLineReader<T> implements LineReader<T> {
+    private final CsvRecordReader input;
+    private final RecordParser<T> parser;
+    private Cells cells;
+    private long recordNumber;
+
+    public CsvLineReader(BufferedReader input, RecordParser<T> parser) {
+        this.input = new CsvRecordReader(input);
+        this.parser = parser;
+    }
+
+    @Override
+    public Line<T> next() throws IOException {
+        if (cells == null) {
+            readHeader();
+        }
+        List<String> record;
+        do {
+            record = input.read();
+            if (record == null) {
+                return null;
+            }
+            recordNumber++;
+        } while (record.size() == 1 && record.getFirst().isEmpty());
+
+        cells.record = record;
+        try {
+            return Line.parsed(recordNumber, parser.parse(cells));
+        } catch (InvalidCellException e) {
+            return Line.failed(recordNumber, e.getMessage());
+        }
+    }
+
+    private void readHeader() throws IOException {
+        List<String> header = input.read();
+        if (header == null) {
+            throw new InvalidImportException("the CSV header row is missing");
+        }
+        Map<String, Integer> columnIndexes = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            // Spreadsheet exports often start with a byte order mark
+            String column = header.get(i).replace("\uFEFF", "").strip();
+            int index = i;
+            parser.columns().stream().filter(column::equalsIgnoreCase).findFirst()
+                    .ifPresent(known -> columnIndexes.putIfAbsent(known, index));
+        }
+        parser.checkHeader(columnIndexes.keySet());
+        cells = new Cells(columnIndexes);
+    }
+
+    // Turns the records of one kind of CSV file into values
+    public interface RecordParser<T> {
+
+        // The columns the parser reads, named as the parser asks for them
+        List<String> columns();
+
+        // Throws InvalidImportException when the header lacks a column the file cannot be read without
+        void checkHeader(Set<String> columns);
+
+        // Throws InvalidCellException with the reason the record cannot be read, the next record is still read
+        T parse(Cells cells);
+    }
+
+    // The cells of the current record by column name
+    public static final class Cells {
+        private final Map<String, Integer> columnIndexes;
+        private List<String> record;
+
+        private Cells(Map<String, Integer> columnIndexes) {
+            this.columnIndexes = columnIndexes;
+        }
+
+        // The stripped cell, or null when the column is missing or the cell is empty
+        public String get(String column) {
+            Integer index = columnIndexes.get(column);
+            if (index == null || index >= record.size()) {
+                return null;
+            }
+            String value = record.get(index).strip();
+            return value.isEmpty() ? null : value;
+        }
+    }
+
+    public static class InvalidCellException extends RuntimeException {
+        public InvalidCellException(String message) {
+            super(message);
+        }
+    }
+}
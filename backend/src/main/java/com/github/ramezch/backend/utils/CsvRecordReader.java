@@ -0,0 +1,66 @@
+package com.github.ramezch.backend.utils;
+
+import com.github.ramezch.backend.exceptions.InvalidImportException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads RFC 4180 CSV one record at a time, a record spans several lines when a quoted field contains line breaks
+public class CsvRecordReader {
+    private final BufferedReader input;
+    private long recordsRead;
+
+    public CsvRecordReader(BufferedReader input) {
+        this.input = input;
+    }
+
+    // The fields of the next record, or null once the input is exhausted
+    public List<String> read() throws IOException {
+        int next = input.read();
+        if (next == -1) {
+            return null;
+        }
+        recordsRead++;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (next == -1) {
+                    throw new InvalidImportException("a quoted field in record " + recordsRead + " is not closed");
+                }
+                if (next == '"') {
+                    input.mark(1);
+                    if (input.read() == '"') {
+                        field.append('"');
+                    } else {
+                        input.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) next);
+                }
+            } else if (next == -1 || next == '\n') {
+                break;
+            } else if (next == '\r') {
+                input.mark(1);
+                if (input.read() != '\n') {
+                    input.reset();
+                }
+                break;
+            } else if (next == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (next == '"' && field.isEmpty()) {
+                quoted = true;
+            } else {
+                field.append((char) next);
+            }
+            next = input.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
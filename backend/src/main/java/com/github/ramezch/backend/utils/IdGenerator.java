@@ -0,0 +1,24 @@
+package com.github.ramezch.backend.utils;
+
+import java.util.function.Supplier;
+
+// Source of document ids, IdService uses the one selected by ids.generator
+public interface IdGenerator {
+
+    String nextId();
+
+    enum Type {
+        UUID_V7(UuidV7Generator::new),
+        RANDOM_UUID(RandomUuidGenerator::new);
+
+        private final Supplier<IdGenerator> factory;
+
+        Type(Supplier<IdGenerator> factory) {
+            this.factory = factory;
+        }
+
+        IdGenerator create() {
+            return factory.get();
+        }
+    }
+}
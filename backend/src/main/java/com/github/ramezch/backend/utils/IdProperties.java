@@ -0,0 +1,10 @@
+package com.github.ramezch.backend.utils;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties(prefix = "ids")
+public record IdProperties(
+        // Generator behind IdService, UUID_V7 for time ordered ids or RANDOM_UUID for the former random ones
+        @DefaultValue("UUID_V7") IdGenerator.Type generator
+) {}
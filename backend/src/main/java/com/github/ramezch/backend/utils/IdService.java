@@ -2,11 +2,15 @@ package com.github.ramezch.backend.utils;
 
 import org.springframework.stereotype.Component;
 
-import java.util.UUID;
-
 @Component
 public class IdService {
+    private final IdGenerator generator;
+
+    public IdService(IdProperties properties) {
+        this.generator = properties.generator().create();
+    }
+
     public String randomId() {
-        return UUID.randomUUID().toString();
+        return generator.nextId();
     }
-}
\ No newline at end of file
+}
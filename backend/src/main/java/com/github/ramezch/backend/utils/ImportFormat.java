@@ -0,0 +1,35 @@
+package com.github.ramezch.backend.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+
+import java.io.BufferedReader;
+import java.util.Arrays;
+
+// The formats of uploaded files that are read line by line, customer imports and payment files alike
+public enum ImportFormat {
+    CSV("text/csv"),
+    NDJSON("application/x-ndjson");
+
+    private final MediaType mediaType;
+
+    ImportFormat(String mediaType) {
+        this.mediaType = MediaType.parseMediaType(mediaType);
+    }
+
+    public static ImportFormat of(MediaType contentType) {
+        return Arrays.stream(values())
+                .filter(format -> format.mediaType.isCompatibleWith(contentType))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unsupported import format " + contentType));
+    }
+
+    // NDJSON lines are bound to the type, CSV records are read by the parser
+    public <T> LineReader<T> reader(BufferedReader input, ObjectMapper objectMapper, Class<T> type,
+                                    CsvLineReader.RecordParser<T> csvParser) {
+        return switch (this) {
+            case CSV -> new CsvLineReader<>(input, csvParser);
+            case NDJSON -> new NdjsonLineReader<>(input, objectMapper, type);
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.ramezch.backend.utils;
+
+import com.github.ramezch.backend.exceptions.InvalidCursorException;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.List;
+
+// Position after the last document of a slice, in (date field desc, id desc) order
+public record KeysetCursor(Instant date, String id) {
+    private static final String SEPARATOR = ":";
+
+    // Mongo stores dates in milliseconds, so that is all the precision the cursor can compare against
+    public static KeysetCursor of(Instant date, String id) {
+        return new KeysetCursor(date.truncatedTo(ChronoUnit.MILLIS), id);
+    }
+
+    // The documents after the cursor, as the alternatives of an $or on the date field the slices are ordered by
+    public List<Criteria> after(String dateField) {
+        return List.of(
+                Criteria.where(dateField).lt(date),
+                Criteria.where(dateField).is(date).and("_id").lt(id)
+        );
+    }
+
+    // Clients only pass the token back, its format is not part of the API
+    public String encode() {
+        String position = date.toEpochMilli() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static KeysetCursor decode(String token) {
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = position.indexOf(SEPARATOR);
+            if (separator < 1 || separator == position.length() - 1) {
+                throw new InvalidCursorException(token);
+            }
+            Instant date = Instant.ofEpochMilli(Long.parseLong(position.substring(0, separator)));
+            return new KeysetCursor(date, position.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(token);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.ramezch.backend.utils;
+
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+
+// Reads one value at a time from an uploaded file, so the file never has to be held in memory
+public interface LineReader<T> {
+
+    // The next line, or null once the input is exhausted
+    @Nullable
+    Line<T> next() throws IOException;
+
+    // Either the parsed value or the reason the line could not be parsed
+    record Line<T>(long number, @Nullable T value, @Nullable String error) {
+
+        public static <T> Line<T> parsed(long number, T value) {
+            return new Line<>(number, value, null);
+        }
+
+        public static <T> Line<T> failed(long number, String error) {
+            return new Line<>(number, null, error);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.ramezch.backend.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+// One JSON object per line, blank lines are skipped but still counted
+public class NdjsonLineReader<T> implements LineReader<T> {
+    private final BufferedReader input;
+    private final ObjectMapper objectMapper;
+    private final Class<T> type;
+    private long lineNumber;
+
+    public NdjsonLineReader(BufferedReader input, ObjectMapper objectMapper, Class<T> type) {
+        this.input = input;
+        this.objectMapper = objectMapper;
+        this.type = type;
+    }
+
+    @Override
+    public Line<T> next() throws IOException {
+        String line;
+        do {
+            line = input.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.isBlank());
+
+        try {
+            return Line.parsed(lineNumber, objectMapper.readValue(line, type));
+        } catch (JsonProcessingException e) {
+            return Line.failed(lineNumber, "Malformed JSON: " + e.getOriginalMessage());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.ramezch.backend.utils;
+
+import java.util.UUID;
+
+// Version 4 UUIDs from SecureRandom, the ids used before UUID_V7
+public class RandomUuidGenerator implements IdGenerator {
+
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+}
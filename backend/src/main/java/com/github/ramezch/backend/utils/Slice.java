@@ -0,0 +1,22 @@
+package com.github.ramezch.backend.utils;
+
+import jakarta.annotation.Nullable;
+
+import java.util.List;
+import java.util.function.Function;
+
+// One page of a keyset paginated list without a total count, nextCursor is null on the last page
+public record Slice<T>(
+        List<T> content,
+        int size,
+        boolean hasNext,
+        @Nullable String nextCursor
+) {
+    // Slices are read with one document more than they hold, which tells whether another slice follows
+    public static <T> Slice<T> of(List<T> fetched, int size, Function<T, KeysetCursor> cursor) {
+        boolean hasNext = fetched.size() > size;
+        List<T> content = hasNext ? fetched.subList(0, size) : fetched;
+        String nextCursor = hasNext ? cursor.apply(content.getLast()).encode() : null;
+        return new Slice<>(content, size, hasNext, nextCursor);
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.ramezch.backend.utils;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// RFC 9562 version 7 UUIDs: 48 bits of Unix milliseconds, a 12 bit counter and 62 random bits. Ids sort by creation
+// time, so inserts append to the right edge of the _id index instead of landing on random pages. Timestamp and counter
+// advance together in one atomic step, which keeps the ids of this node strictly increasing across threads, also
+// within a millisecond. The random bits keep nodes apart without any coordination.
+public class UuidV7Generator implements IdGenerator {
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+    private static final long RANDOM_MASK = 0x3FFFFFFFFFFFFFFFL;
+
+    private final LongSupplier clock;
+    private final AtomicLong lastTimeAndCounter = new AtomicLong();
+
+    public UuidV7Generator() {
+        this(System::currentTimeMillis);
+    }
+
+    UuidV7Generator(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public String nextId() {
+        long timeAndCounter = nextTimeAndCounter();
+        long mostSigBits = (timeAndCounter >>> 12) << 16 | VERSION | (timeAndCounter & 0xFFF);
+        long leastSigBits = VARIANT | (ThreadLocalRandom.current().nextLong() & RANDOM_MASK);
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    // Millis in the upper bits, counter in the lower 12. A full counter carries into the millis, and a clock that goes
+    // backwards keeps counting on from the last id, so ids never repeat or go back in time.
+    private long nextTimeAndCounter() {
+        long now = clock.getAsLong() << 12;
+        return lastTimeAndCounter.accumulateAndGet(now, (last, current) -> Math.max(current, last + 1));
+    }
+}
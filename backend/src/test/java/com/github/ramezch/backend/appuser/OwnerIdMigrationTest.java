@@ -0,0 +1,64 @@
+package com.github.ramezch.backend.appuser;
+
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class OwnerIdMigrationTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final OwnerIdMigration migration = new OwnerIdMigration(mongoTemplate);
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.getCollectionName(AppUser.class)).thenReturn("appUser");
+    }
+
+    @Test
+    void migrate_shouldSetOwnerInChunks_andRemoveLegacyArray() {
+        // GIVEN
+        List<String> customerIds = IntStream.range(0, OwnerIdMigration.CHUNK_SIZE + 1).mapToObj(i -> "cust" + i).toList();
+        Document legacyUser = new Document("_id", "user1").append(OwnerIdMigration.LEGACY_CUSTOMER_IDS, customerIds);
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("appUser"))).thenReturn(Stream.of(legacyUser));
+
+        // WHEN
+        migration.migrate();
+
+        // THEN
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), argThat(update -> "user1".equals(update.getUpdateObject().get("$set", Document.class).get("ownerId"))), eq(Customer.class));
+        verify(mongoTemplate).updateMulti(argThat(query -> query.getQueryObject().get("_id") instanceof Document id && id.getList("$in", String.class).size() == 1), any(Update.class), eq(Customer.class));
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(Update.class), eq(Subscription.class));
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(Update.class), eq(Invoice.class));
+        verify(mongoTemplate).updateFirst(
+                argThat(query -> "user1".equals(query.getQueryObject().get("_id"))),
+                argThat(update -> update.getUpdateObject().get("$unset", Document.class).containsKey(OwnerIdMigration.LEGACY_CUSTOMER_IDS)),
+                eq("appUser"));
+    }
+
+    @Test
+    void migrate_shouldDoNothing_whenNoLegacyUsersLeft() {
+        // GIVEN
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("appUser"))).thenReturn(Stream.empty());
+
+        // WHEN
+        migration.migrate();
+
+        // THEN
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), any(Class.class));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), anyString());
+    }
+}
@@ -9,7 +9,6 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.security.authentication.TestingAuthenticationToken;
 import org.springframework.test.web.servlet.MockMvc;
-import java.util.List;
 
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -32,7 +31,6 @@ class AuthControllerTest {
                 .username("test-user")
                 .avatarUrl("www.image.com")
                 .role(AppUserRoles.USER)
-                .customerIds(List.of())
                 .build();
 
         String appUserJson = objectMapper.writeValueAsString(testUser);
@@ -7,12 +7,14 @@ import com.github.ramezch.backend.appuser.AppUserRoles;
 import com.github.ramezch.backend.customers.models.Customer;
 import com.github.ramezch.backend.customers.models.CustomerStatus;
 import com.github.ramezch.backend.customers.repositories.CustomerRepository;
+import com.github.ramezch.backend.indexes.IndexManager;
 import com.github.ramezch.backend.internetplan.models.InternetPlan;
 import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
 import com.github.ramezch.backend.subscription.models.Subscription;
 import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
 import com.github.ramezch.backend.subscription.repository.SubscriptionRepository;
 import com.github.ramezch.backend.utils.IdService;
+import com.jayway.jsonpath.JsonPath;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,12 +24,14 @@ import org.springframework.http.MediaType;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -48,6 +52,8 @@ class CustomerIntegrationTest {
     private InternetPlanRepository internetPlanRepo;
     @Autowired
     private SubscriptionRepository subscriptionRepository;
+    @Autowired
+    private IndexManager indexManager;
 
     private Customer newCustomer;
     private final String baseURL = "/api/customers";
@@ -55,10 +61,12 @@ class CustomerIntegrationTest {
 
     @BeforeEach
     void setup() {
+        // Usernames are kept unique by the (ownerId, username) index, which is otherwise built in the background
+        indexManager.ensureIndexes();
         Instant now = Instant.now();
         Address address = new Address(idService.randomId(),"Deutschland", "Berlin", "BeispielStrasse", "10000");
-        newCustomer = new Customer("123","new_customer", "New Customer", "78863120", address, now, CustomerStatus.PENDING_ACTIVATION, "test");
-        testUser = new AppUser("123", "test_user", "w.com", new ArrayList<>(List.of("123")),new ArrayList<>(List.of("")), AppUserRoles.USER, Map.of(), List.of(new SimpleGrantedAuthority(AppUserRoles.USER.toString())));
+        newCustomer = new Customer("123", "123", "new_customer", "New Customer", "78863120", address, now, CustomerStatus.PENDING_ACTIVATION, "test");
+        testUser = new AppUser("123", "test_user", "w.com", new ArrayList<>(List.of("")), AppUserRoles.USER, Map.of(), List.of(new SimpleGrantedAuthority(AppUserRoles.USER.toString())));
         appUserRepo.save(testUser);
         InternetPlan internetPlan = new InternetPlan("1", "basic", "100Mbps", 75, "unlimited", true);
         internetPlanRepo.save(internetPlan);
@@ -294,7 +302,7 @@ class CustomerIntegrationTest {
         // GIVEN
         repo.save(newCustomer);
         Instant endDate = Instant.now();
-        Subscription newCustomerSub = new Subscription("23456", "123", "1", endDate, SubscriptionStatus.ACTIVE);
+        Subscription newCustomerSub = new Subscription("23456", "123", "123", "1", endDate, SubscriptionStatus.ACTIVE);
         subscriptionRepository.save(newCustomerSub);
         // WHEN
         mvc.perform(delete(baseURL + "/123")
@@ -374,11 +382,9 @@ class CustomerIntegrationTest {
     @DirtiesContext
     void searchCustomers_withStatusOnly_returnsFilteredCustomers() throws Exception {
         // GIVEN
-        Customer activeCustomer = new Customer("active123", "active_user", "Active User", "12345678",
+        Customer activeCustomer = new Customer("active123", "123", "active_user", "Active User", "12345678",
                 newCustomer.address(), Instant.now(), CustomerStatus.ACTIVE, "active notes");
         repo.saveAll(List.of(newCustomer, activeCustomer));
-        testUser.setCustomerIds(List.of("123", "active123"));
-
         // WHEN
         mvc.perform(get(baseURL + "/search")
                 .param("status", "PENDING_ACTIVATION")
@@ -404,19 +410,17 @@ class CustomerIntegrationTest {
     @DirtiesContext
     void searchCustomers_withSearchTermOnly_returnsMatchingCustomers() throws Exception {
         // GIVEN
-        Customer usernameMatch = new Customer("124326", "hamburg_user", "User", "87654321",
+        Customer usernameMatch = new Customer("124326", "123", "hamburg_user", "User", "87654321",
                 new Address(idService.randomId(), "Deutschland", "Hamburg", "OtherStreet", "10115"),
                 Instant.now(), CustomerStatus.ACTIVE, "notes");
-        Customer fullNameMatch = new Customer("987654", "dsfgh", "Hamburg User", "87654321",
+        Customer fullNameMatch = new Customer("987654", "123", "dsfgh", "Hamburg User", "87654321",
                 new Address(idService.randomId(), "Deutschland", "dfgh", "OtherStreet", "10115"),
                 Instant.now(), CustomerStatus.ACTIVE, "notes");
-        Customer cityMatch = new Customer("34567865", "dsfghj", "CDUser", "87654321",
+        Customer cityMatch = new Customer("34567865", "123", "dsfghj", "CDUser", "87654321",
                 new Address(idService.randomId(), "Deutschland", "Hamburg", "OtherStreet", "10115"),
                 Instant.now(), CustomerStatus.ACTIVE, "notes");
 
         repo.saveAll(List.of(usernameMatch, fullNameMatch, cityMatch));
-        testUser.setCustomerIds(List.of(usernameMatch.id(), fullNameMatch.id(), cityMatch.id()));
-
         // WHEN
         mvc.perform(get(baseURL + "/search")
                         .param("searchTerm", "Hamburg")
@@ -460,12 +464,10 @@ class CustomerIntegrationTest {
     @DirtiesContext
     void searchCustomers_withStatusAndSearchTerm_returnsMatchingCustomers() throws Exception {
         // GIVEN
-        Customer pendingBerlinCustomer = new Customer("pendingBerlin", "pending_berlin", "Pending Berlin", "11111111",
+        Customer pendingBerlinCustomer = new Customer("pendingBerlin", "123", "pending_berlin", "Pending Berlin", "11111111",
                 new Address(idService.randomId(), "Deutschland", "Berlin", "PendingStrasse", "10115"),
                 Instant.now(), CustomerStatus.PENDING_ACTIVATION, "pending berlin");
         repo.saveAll(List.of(newCustomer, pendingBerlinCustomer));
-        testUser.setCustomerIds(List.of("123", "pendingBerlin"));
-
         // WHEN
         mvc.perform(get(baseURL + "/search")
                         .param("status", "PENDING_ACTIVATION")
@@ -514,11 +516,9 @@ class CustomerIntegrationTest {
     @DirtiesContext
     void searchCustomers_withNoParams_returnsAllCustomers() throws Exception {
         // GIVEN
-        Customer anotherCustomer = new Customer("another123", "another_user", "Another User", "22222222",
+        Customer anotherCustomer = new Customer("another123", "123", "another_user", "Another User", "22222222",
                 newCustomer.address(), Instant.now(), CustomerStatus.ACTIVE, "another notes");
         repo.saveAll(List.of(newCustomer, anotherCustomer));
-        testUser.setCustomerIds(List.of("123", "another123"));
-
         // WHEN
         mvc.perform(get(baseURL + "/search")
                         .with(oauth2Login().oauth2User(testUser))
@@ -535,8 +535,6 @@ class CustomerIntegrationTest {
     void searchCustomers_withNoMatchingResults_returnsEmptyPage() throws Exception {
         // GIVEN
         repo.save(newCustomer);
-        testUser.setCustomerIds(List.of("123"));
-
         // WHEN
         mvc.perform(get(baseURL + "/search")
                         .param("searchTerm", "nonexistent")
@@ -553,10 +551,9 @@ class CustomerIntegrationTest {
 
     @Test
     @DirtiesContext
-    void searchCustomers_withEmptyCustomerIds_returnsEmptyPage() throws Exception {
+    void searchCustomers_ofAnotherOwner_returnsEmptyPage() throws Exception {
         // GIVEN
-        repo.save(newCustomer);
-        testUser.setCustomerIds(List.of());
+        repo.save(newCustomer.withOwnerId("another_user"));
 
         // WHEN
         mvc.perform(get(baseURL + "/search")
@@ -575,13 +572,11 @@ class CustomerIntegrationTest {
     @DirtiesContext
     void searchCustomers_withPagination_returnsCorrectPage() throws Exception {
         // GIVEN
-        Customer customer2 = new Customer("234", "customer2", "Customer Two", "22222222",
+        Customer customer2 = new Customer("234", "123", "customer2", "Customer Two", "22222222",
                 newCustomer.address(), Instant.now(), CustomerStatus.ACTIVE, "notes2");
-        Customer customer3 = new Customer("345", "customer3", "Customer Three", "33333333",
+        Customer customer3 = new Customer("345", "123", "customer3", "Customer Three", "33333333",
                 newCustomer.address(), Instant.now(), CustomerStatus.ACTIVE, "notes3");
         repo.saveAll(List.of(newCustomer, customer2, customer3));
-        testUser.setCustomerIds(List.of("123", "234", "345"));
-
         // WHEN - Request second page with 1 item per page
         mvc.perform(get(baseURL + "/search")
                         .param("page", "1")
@@ -603,4 +598,160 @@ class CustomerIntegrationTest {
                     }
             """));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DirtiesContext
+    void getCustomerSlice_followsCursorToLastSlice() throws Exception {
+        // GIVEN
+        Instant now = Instant.now();
+        Customer older = new Customer("234", "123", "customer2", "Customer Two", "22222222",
+                newCustomer.address(), now.minusSeconds(60), CustomerStatus.ACTIVE, "notes2");
+        Customer oldest = new Customer("345", "123", "customer3", "Customer Three", "33333333",
+                newCustomer.address(), now.minusSeconds(120), CustomerStatus.ACTIVE, "notes3");
+        repo.saveAll(List.of(newCustomer, older, oldest));
+
+        // WHEN - first slice of two
+        String firstSlice = mvc.perform(get(baseURL + "/slice")
+                        .param("size", "2")
+                        .with(oauth2Login().oauth2User(testUser)))
+                // THEN
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id").value("123"))
+                .andExpect(jsonPath("$.content[1].id").value("234"))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andExpect(jsonPath("$.totalElements").doesNotExist())
+                .andReturn().getResponse().getContentAsString();
+        String cursor = JsonPath.read(firstSlice, "$.nextCursor");
+
+        // WHEN - continue after the cursor
+        mvc.perform(get(baseURL + "/slice")
+                        .param("size", "2")
+                        .param("cursor", cursor)
+                        .with(oauth2Login().oauth2User(testUser)))
+                // THEN
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].id").value("345"))
+                .andExpect(jsonPath("$.hasNext").value(false))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    @DirtiesContext
+    void getCustomerSlice_withInvalidCursor_returnsBadRequest() throws Exception {
+        mvc.perform(get(baseURL + "/slice")
+                        .param("cursor", "not-a-cursor")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DirtiesContext
+    void suggestCustomers_returnsNewestMatchesWithOnlyIdUsernameAndName() throws Exception {
+        // GIVEN
+        Customer older = new Customer("234", "123", "new_user", "Newton Two", "22222222",
+                newCustomer.address(), Instant.now().minusSeconds(60), CustomerStatus.ACTIVE, "notes2");
+        Customer other = new Customer("345", "123", "customer3", "Customer Three", "33333333",
+                newCustomer.address(), Instant.now().minusSeconds(120), CustomerStatus.ACTIVE, "notes3");
+        repo.saveAll(List.of(newCustomer, older, other));
+
+        // WHEN
+        mvc.perform(get(baseURL + "/suggest")
+                        .param("prefix", "new")
+                        .with(oauth2Login().oauth2User(testUser)))
+                // THEN
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value("123"))
+                .andExpect(jsonPath("$[0].username").value("new_customer"))
+                .andExpect(jsonPath("$[0].fullName").value("New Customer"))
+                .andExpect(jsonPath("$[0].address").doesNotExist())
+                .andExpect(jsonPath("$[1].id").value("234"));
+    }
+
+    @Test
+    @DirtiesContext
+    void importCustomers_writesValidRowsWithSubscriptions_andReportsTheRest() throws Exception {
+        // GIVEN
+        repo.save(newCustomer);
+        String csv = """
+                username,fullName,phone,status,city,street
+                imported_one,Imported One,+49 170 1111111,ACTIVE,Berlin,Street 1
+                new_customer,Duplicate,,ACTIVE,Berlin,Street 2
+                ,No Username,,ACTIVE,Berlin,Street 3
+                """;
+
+        // WHEN
+        mvc.perform(post(baseURL + "/import")
+                        .param("internetPlanId", "1")
+                        .contentType("text/csv")
+                        .content(csv)
+                        .with(oauth2Login().oauth2User(testUser)))
+                // THEN
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(1))
+                .andExpect(jsonPath("$.failed").value(2))
+                .andExpect(jsonPath("$.errors[0].row").value(2))
+                .andExpect(jsonPath("$.errors[0].username").value("new_customer"))
+                .andExpect(jsonPath("$.errors[1].row").value(3));
+
+        Customer imported = repo.findAll().stream().filter(customer -> customer.username().equals("imported_one")).findFirst().orElseThrow();
+        assertEquals("123", imported.ownerId());
+        assertTrue(subscriptionRepository.findByOwnerIdAndCustomerId("123", imported.id()).isPresent());
+    }
+
+    @Test
+    @DirtiesContext
+    void exportCustomers_streamsCsvWithSubscriptionPlan() throws Exception {
+        // GIVEN
+        repo.save(newCustomer);
+        subscriptionRepository.save(new Subscription("sub1", "123", "123", "1", Instant.now().plusSeconds(3600), SubscriptionStatus.ACTIVE));
+
+        // WHEN
+        MvcResult export = mvc.perform(get(baseURL + "/export")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // THEN
+        String csv = mvc.perform(asyncDispatch(export))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"customers.csv\""))
+                .andReturn().getResponse().getContentAsString();
+        List<String> lines = csv.lines().toList();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).startsWith("123,new_customer,New Customer,"));
+        assertTrue(lines.get(1).endsWith(",1,basic,75.0"));
+    }
+
+    @Test
+    @DirtiesContext
+    void patchCustomer_setsStatus_andRejectsOutdatedVersion() throws Exception {
+        // GIVEN
+        repo.save(newCustomer);
+
+        // WHEN
+        mvc.perform(patch(baseURL + "/123")
+                        .with(oauth2Login().oauth2User(testUser))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"status": "ACTIVE", "version": 0}
+                                """))
+                // THEN
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("ACTIVE"))
+                .andExpect(jsonPath("$.notes").value("test"))
+                .andExpect(jsonPath("$.version").value(1));
+
+        // WHEN - a second change based on the old version
+        mvc.perform(patch(baseURL + "/123")
+                        .with(oauth2Login().oauth2User(testUser))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"notes": "stale", "version": 0}
+                                """))
+                // THEN
+                .andExpect(status().isConflict());
+        assertEquals("test", repo.findById("123").orElseThrow().notes());
+    }
+}
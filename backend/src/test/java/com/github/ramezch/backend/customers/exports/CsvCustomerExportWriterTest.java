@@ -0,0 +1,48 @@
+package com.github.ramezch.backend.customers.exports;
+
+import com.github.ramezch.backend.customers.models.Address;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerExportRow;
+import com.github.ramezch.backend.customers.models.CustomerStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvCustomerExportWriterTest {
+
+    @Test
+    void write_shouldShowCellsStartingLikeAFormulaAsText() throws IOException {
+        // GIVEN
+        StringWriter output = new StringWriter();
+        CsvCustomerExportWriter writer = new CsvCustomerExportWriter(output);
+        Address address = new Address("addr1", "@SUM(A1)", "Berlin", "\tStreet 1", "-10115");
+        Customer customer = new Customer("cust1", "owner1", "anna", "=HYPERLINK(\"http://x\",\"y\")", "+49 170 1111111",
+                address, Instant.parse("2025-03-01T00:00:00Z"), CustomerStatus.ACTIVE, "\r=1+1");
+
+        // WHEN
+        writer.write(CustomerExportRow.of(customer, null, null));
+
+        // THEN
+        assertEquals("cust1,anna,\"'=HYPERLINK(\"\"http://x\"\",\"\"y\"\")\",'+49 170 1111111,ACTIVE,2025-03-01T00:00:00Z,"
+                + "\"'\r=1+1\",'@SUM(A1),Berlin,'\tStreet 1,'-10115,,,,,\r\n", output.toString());
+    }
+
+    @Test
+    void write_shouldKeepOtherCellsAsTheyAre() throws IOException {
+        // GIVEN
+        StringWriter output = new StringWriter();
+        CsvCustomerExportWriter writer = new CsvCustomerExportWriter(output);
+        Customer customer = new Customer("cust1", "owner1", "anna", "Schmidt, Anna", "0170 1111111", null,
+                Instant.parse("2025-03-01T00:00:00Z"), CustomerStatus.ACTIVE, "plain");
+
+        // WHEN
+        writer.write(CustomerExportRow.of(customer, null, null));
+
+        // THEN
+        assertEquals("cust1,anna,\"Schmidt, Anna\",0170 1111111,ACTIVE,2025-03-01T00:00:00Z,plain,,,,,,,,,\r\n", output.toString());
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.ramezch.backend.customers.imports;
+
+import com.github.ramezch.backend.customers.models.CustomerStatus;
+import com.github.ramezch.backend.customers.models.CustomerDTO;
+import com.github.ramezch.backend.exceptions.InvalidImportException;
+import com.github.ramezch.backend.utils.CsvLineReader;
+import com.github.ramezch.backend.utils.LineReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomerCsvParserTest {
+
+    private CsvLineReader<CustomerDTO> reader(String csv) {
+        return new CsvLineReader<>(new BufferedReader(new StringReader(csv)), new CustomerCsvParser());
+    }
+
+    @Test
+    void next_readsQuotedFieldsAndFlattenedAddress() throws IOException {
+        // GIVEN
+        CsvLineReader<CustomerDTO> reader = reader("""
+                \uFEFFusername,FullName,phone,status,notes,city,street,postalCode,ignored\r
+                anna,"Schmidt, Anna",+49 170 1111111,active,"said ""hi""
+                on two lines",Berlin,Hauptstrasse 1,10115,x\r
+                hans,Hans Müller,,PENDING_ACTIVATION,,Hamburg,Elbchaussee 2,,
+                """);
+
+        // WHEN
+        LineReader.Line<CustomerDTO> first = reader.next();
+        LineReader.Line<CustomerDTO> second = reader.next();
+
+        // THEN
+        assertEquals(1, first.number());
+        assertEquals("Schmidt, Anna", first.value().fullName());
+        assertEquals(CustomerStatus.ACTIVE, first.value().status());
+        assertEquals("said \"hi\"\non two lines", first.value().notes());
+        assertEquals("Berlin", first.value().address().city());
+        assertNull(first.value().address().id());
+        assertEquals(2, second.number());
+        assertNull(second.value().phone());
+        assertNull(second.value().address().postalCode());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void next_reportsUnknownStatus_andContinues() throws IOException {
+        // GIVEN
+        CsvLineReader<CustomerDTO> reader = reader("username,status\nanna,sleeping\nhans,ACTIVE\n");
+
+        // WHEN
+        LineReader.Line<CustomerDTO> first = reader.next();
+        LineReader.Line<CustomerDTO> second = reader.next();
+
+        // THEN
+        assertNull(first.value());
+        assertEquals("status: Unknown status 'sleeping'", first.error());
+        assertEquals("hans", second.value().username());
+    }
+
+    @Test
+    void next_rejectsHeaderWithoutUsername() {
+        CsvLineReader<CustomerDTO> reader = reader("name,city\nanna,Berlin\n");
+        assertThrows(InvalidImportException.class, reader::next);
+    }
+
+    @Test
+    void next_rejectsUnclosedQuote() throws IOException {
+        CsvLineReader<CustomerDTO> reader = reader("username,notes\nanna,\"open\n");
+        assertThrows(InvalidImportException.class, reader::next);
+    }
+}
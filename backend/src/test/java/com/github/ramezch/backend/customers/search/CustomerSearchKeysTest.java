@@ -0,0 +1,69 @@
+package com.github.ramezch.backend.customers.search;
+
+import com.github.ramezch.backend.customers.models.Address;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerStatus;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomerSearchKeysTest {
+
+    private final Customer customer = new Customer("123", "owner1", "jürgen_m", "Jürgen Müller", "+49 170 1234567",
+            new Address("addr1", "Deutschland", "Frankfurt am Main", "BeispielStrasse", "60311"),
+            Instant.now(), CustomerStatus.ACTIVE, "notes");
+
+    @Test
+    void of_containsNormalizedWordPrefixes() {
+        // WHEN
+        List<String> keys = CustomerSearchKeys.of(customer);
+
+        // THEN
+        assertTrue(keys.containsAll(List.of("j", "ju", "jurgen", "m", "mu", "muller", "frank", "main")));
+        assertFalse(keys.contains("urgen"));
+        assertFalse(keys.stream().anyMatch(key -> key.length() > CustomerSearchKeys.MAX_TERM_LENGTH));
+    }
+
+    @Test
+    void of_containsPhoneDigitRuns() {
+        // WHEN
+        List<String> keys = CustomerSearchKeys.of(customer);
+
+        // THEN
+        assertTrue(keys.containsAll(List.of("49", "491701234567", "170", "4567", "567")));
+        assertFalse(keys.contains("67"));
+    }
+
+    @Test
+    void terms_areNormalizedLikeKeys() {
+        assertEquals(List.of("jurgen", "frankfurt"), CustomerSearchKeys.terms("  JÜRGEN, Frankfurt jürgen"));
+        assertEquals(List.of(), CustomerSearchKeys.terms(" - "));
+        assertEquals(List.of(), CustomerSearchKeys.terms(null));
+    }
+
+    @Test
+    void terms_ofAnyPartOfAKey_matchTheCustomer() {
+        List<String> keys = CustomerSearchKeys.of(customer);
+
+        assertTrue(keys.containsAll(CustomerSearchKeys.terms("Müll Frankf")));
+        assertTrue(keys.containsAll(CustomerSearchKeys.terms("1234")));
+        assertFalse(keys.containsAll(CustomerSearchKeys.terms("Müller Berlin")));
+    }
+
+    @Test
+    void callback_writesSearchKeysIntoTheSavedDocument() {
+        // GIVEN
+        Document document = new Document("_id", "123");
+
+        // WHEN
+        Customer saved = new CustomerSearchKeysCallback().onBeforeSave(customer, document, "customer");
+
+        // THEN
+        assertSame(customer, saved);
+        assertEquals(CustomerSearchKeys.of(customer), document.get(CustomerSearchKeys.FIELD));
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.ramezch.backend.customers.search;
+
+import com.github.ramezch.backend.customers.models.Address;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerStatus;
+import com.github.ramezch.backend.customers.models.CustomerSuggestion;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TenantSearchIndexTest {
+
+    private static final String OWNER_ID = "owner1";
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final Instant now = Instant.now();
+    private final Customer berlin = customer("c1", "anna_berlin", "Anna Schmidt", "+49 170 1111111", "Berlin", now.minusSeconds(30), CustomerStatus.ACTIVE);
+    private final Customer hamburg = customer("c2", "hans_hh", "Hans Müller", "+49 40 2222222", "Hamburg", now.minusSeconds(20), CustomerStatus.SUSPENDED);
+    private final Customer bremen = customer("c3", "anton_hb", "Anton Berg", "+49 421 3333333", "Bremen", now.minusSeconds(10), CustomerStatus.ACTIVE);
+
+    private TenantSearchIndex index(int maxOwners) {
+        return new TenantSearchIndex(mongoTemplate, new SearchProperties(true, maxOwners, Duration.ofMinutes(10), Duration.ofMillis(50)));
+    }
+
+    @Test
+    void search_loadsOwnerOnce_andHydratesOnlyTheRequestedPage() {
+        // GIVEN
+        TenantSearchIndex index = index(10);
+        when(mongoTemplate.stream(any(Query.class), eq(Customer.class))).thenAnswer(invocation -> Stream.of(berlin, hamburg, bremen));
+        when(mongoTemplate.find(any(Query.class), eq(Customer.class))).thenReturn(List.of(berlin));
+
+        // WHEN
+        Page<Customer> first = index.search(OWNER_ID, null, List.of("an"), PageRequest.of(0, 1));
+        Page<Customer> second = index.search(OWNER_ID, null, List.of("an"), PageRequest.of(1, 1));
+
+        // THEN
+        assertEquals(2, first.getTotalElements());
+        assertEquals(2, second.getTotalElements());
+        verify(mongoTemplate, times(1)).stream(any(Query.class), eq(Customer.class));
+        verify(mongoTemplate).find(argThat(query -> query.getQueryObject().toJson().contains("\"c3\"")), eq(Customer.class));
+        verify(mongoTemplate).find(argThat(query -> query.getQueryObject().toJson().contains("\"c1\"")), eq(Customer.class));
+    }
+
+    @Test
+    void search_matchesLikeTheSearchKeysQuery() {
+        // GIVEN
+        TenantSearchIndex index = index(10);
+        when(mongoTemplate.stream(any(Query.class), eq(Customer.class))).thenAnswer(invocation -> Stream.of(berlin, hamburg, bremen));
+        when(mongoTemplate.find(any(Query.class), eq(Customer.class))).thenReturn(List.of());
+
+        // THEN
+        assertEquals(1, index.search(OWNER_ID, null, List.of("mull"), PageRequest.of(0, 10)).getTotalElements());
+        assertEquals(1, index.search(OWNER_ID, null, List.of("222"), PageRequest.of(0, 10)).getTotalElements());
+        assertEquals(2, index.search(OWNER_ID, CustomerStatus.ACTIVE, List.of("49"), PageRequest.of(0, 10)).getTotalElements());
+        assertEquals(1, index.search(OWNER_ID, null, List.of("anton", "bremen"), PageRequest.of(0, 10)).getTotalElements());
+        assertEquals(0, index.search(OWNER_ID, null, List.of("erlin"), PageRequest.of(0, 10)).getTotalElements());
+    }
+
+    @Test
+    void hooks_keepLoadedOwnerCurrent() {
+        // GIVEN
+        TenantSearchIndex index = index(10);
+        when(mongoTemplate.stream(any(Query.class), eq(Customer.class))).thenAnswer(invocation -> Stream.of(berlin, hamburg));
+        when(mongoTemplate.find(any(Query.class), eq(Customer.class))).thenReturn(List.of());
+        index.search(OWNER_ID, null, List.of("hans"), PageRequest.of(0, 10));
+
+        // WHEN
+        index.onSaved(customer("c2", "hans_hh", "Hans Meier", "+49 40 2222222", "Hamburg", hamburg.registrationDate(), CustomerStatus.ACTIVE));
+        index.onSaved(bremen);
+        index.onDeleted(OWNER_ID, "c1");
+
+        // THEN
+        assertEquals(0, index.search(OWNER_ID, null, List.of("muller"), PageRequest.of(0, 10)).getTotalElements());
+        assertEquals(1, index.search(OWNER_ID, null, List.of("meier"), PageRequest.of(0, 10)).getTotalElements());
+        assertEquals(1, index.search(OWNER_ID, null, List.of("bremen"), PageRequest.of(0, 10)).getTotalElements());
+        assertEquals(0, index.search(OWNER_ID, null, List.of("anna"), PageRequest.of(0, 10)).getTotalElements());
+        verify(mongoTemplate, times(1)).stream(any(Query.class), eq(Customer.class));
+    }
+
+    @Test
+    void suggest_returnsNewestMatches_withoutLoadingCustomers() {
+        // GIVEN
+        TenantSearchIndex index = index(10);
+        when(mongoTemplate.stream(any(Query.class), eq(Customer.class))).thenAnswer(invocation -> Stream.of(berlin, hamburg, bremen));
+
+        // WHEN
+        List<CustomerSuggestion> suggestions = index.suggest(OWNER_ID, List.of("an"), 1);
+
+        // THEN
+        assertEquals(List.of(new CustomerSuggestion("c3", "anton_hb", "Anton Berg")), suggestions);
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Customer.class));
+    }
+
+    @Test
+    void search_dropsLeastRecentlyUsedOwner_whenFull() {
+        // GIVEN
+        TenantSearchIndex index = index(1);
+        when(mongoTemplate.stream(any(Query.class), eq(Customer.class))).thenAnswer(invocation -> Stream.of(berlin));
+        when(mongoTemplate.find(any(Query.class), eq(Customer.class))).thenReturn(List.of());
+
+        // WHEN
+        index.search(OWNER_ID, null, List.of("anna"), PageRequest.of(0, 10));
+        index.search("owner2", null, List.of("anna"), PageRequest.of(0, 10));
+
+        // THEN
+        assertEquals(1, index.indexedOwners());
+    }
+
+    private Customer customer(String id, String username, String fullName, String phone, String city, Instant registrationDate, CustomerStatus status) {
+        return new Customer(id, OWNER_ID, username, fullName, phone, new Address("addr-" + id, "Deutschland", city, "Strasse 1", "10115"),
+                registrationDate, status, null);
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.ramezch.backend.customers.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.ramezch.backend.customers.exports.CustomerExportFormat;
+import com.github.ramezch.backend.customers.models.Address;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerStatus;
+import com.github.ramezch.backend.internetplan.models.InternetPlan;
+import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
+import com.github.ramezch.backend.subscription.repository.SubscriptionRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CustomerExportServiceTest {
+    private static final String OWNER_ID = "user123";
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final SubscriptionRepository subscriptionRepo = mock(SubscriptionRepository.class);
+    private final InternetPlanRepository internetPlanRepo = mock(InternetPlanRepository.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final CustomerExportService exportService = new CustomerExportService(mongoTemplate, subscriptionRepo, internetPlanRepo, objectMapper);
+
+    private final Instant registrationDate = Instant.parse("2025-01-01T10:00:00Z");
+    private final Instant endDate = Instant.parse("2025-02-01T10:00:00Z");
+    private final InternetPlan internetPlan = new InternetPlan("plan1", "basic", "100Mbps", 75, "unlimited", true);
+
+    private Customer customer(int i) {
+        return new Customer("cust" + i, OWNER_ID, "user" + i, "Customer " + i, "78863120",
+                new Address("addr" + i, "Deutschland", "Berlin", "Street " + i, "10115"), registrationDate, CustomerStatus.ACTIVE, null);
+    }
+
+    @Test
+    void exportCustomers_shouldWriteCsv_withSubscriptionAndPlan() throws IOException {
+        // GIVEN
+        Customer quoted = new Customer("cust1", OWNER_ID, "anna", "Schmidt, Anna", "78863120",
+                new Address("addr1", "Deutschland", "Berlin", "Street 1", "10115"), registrationDate, CustomerStatus.ACTIVE, "said \"hi\"");
+        when(mongoTemplate.stream(any(Query.class), eq(Customer.class))).thenReturn(Stream.of(quoted, customer(2)));
+        when(subscriptionRepo.findByOwnerIdAndCustomerIdIn(OWNER_ID, List.of("cust1", "cust2")))
+                .thenReturn(List.of(new Subscription("sub1", OWNER_ID, "cust1", "plan1", endDate, SubscriptionStatus.ACTIVE)));
+        when(internetPlanRepo.findAllById(Set.of("plan1"))).thenReturn(List.of(internetPlan));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // WHEN
+        exportService.exportCustomers(OWNER_ID, CustomerExportFormat.CSV, false, out);
+
+        // THEN
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("id,username,fullName,"));
+        assertEquals("cust1,anna,\"Schmidt, Anna\",78863120,ACTIVE,2025-01-01T10:00:00Z,\"said \"\"hi\"\"\",Deutschland,Berlin,Street 1,10115,"
+                + "ACTIVE,2025-02-01T10:00:00Z,plan1,basic,75.0", lines.get(1));
+        assertEquals("cust2,user2,Customer 2,78863120,ACTIVE,2025-01-01T10:00:00Z,,Deutschland,Berlin,Street 2,10115,,,,,", lines.get(2));
+    }
+
+    @Test
+    void exportCustomers_shouldJoinPerBatch_andLoadEachPlanOnce() throws IOException {
+        // GIVEN
+        List<Customer> customers = IntStream.range(0, CustomerExportService.BATCH_SIZE + 1).mapToObj(this::customer).toList();
+        when(mongoTemplate.stream(any(Query.class), eq(Customer.class))).thenReturn(customers.stream());
+        when(subscriptionRepo.findByOwnerIdAndCustomerIdIn(eq(OWNER_ID), anyList())).thenAnswer(invocation -> invocation.<List<String>>getArgument(1)
+                .stream().map(id -> new Subscription("sub-" + id, OWNER_ID, id, "plan1", endDate, SubscriptionStatus.ACTIVE)).toList());
+        when(internetPlanRepo.findAllById(Set.of("plan1"))).thenReturn(List.of(internetPlan));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // WHEN
+        exportService.exportCustomers(OWNER_ID, CustomerExportFormat.NDJSON, false, out);
+
+        // THEN
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(CustomerExportService.BATCH_SIZE + 1, lines.size());
+        JsonNode first = objectMapper.readTree(lines.getFirst());
+        assertEquals("cust0", first.get("customer").get("id").asText());
+        assertEquals("basic", first.get("internetPlanName").asText());
+        assertEquals("2025-02-01T10:00:00Z", first.get("subscriptionEndDate").asText());
+        verify(subscriptionRepo, times(2)).findByOwnerIdAndCustomerIdIn(eq(OWNER_ID), anyList());
+        verify(internetPlanRepo, times(1)).findAllById(any());
+    }
+
+    @Test
+    void exportCustomers_shouldCompress_whenGzipRequested() throws IOException {
+        // GIVEN
+        when(mongoTemplate.stream(any(Query.class), eq(Customer.class))).thenReturn(Stream.of(customer(1)));
+        when(subscriptionRepo.findByOwnerIdAndCustomerIdIn(eq(OWNER_ID), anyList())).thenReturn(List.of());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // WHEN
+        exportService.exportCustomers(OWNER_ID, CustomerExportFormat.CSV, true, out);
+
+        // THEN
+        String csv = new String(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(2, csv.lines().count());
+        assertTrue(csv.contains("cust1,user1,"));
+        verifyNoInteractions(internetPlanRepo);
+    }
+}
@@ -0,0 +1,191 @@
+package com.github.ramezch.backend.customers.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerImportError;
+import com.github.ramezch.backend.customers.models.CustomerImportReport;
+import com.github.ramezch.backend.customers.search.TenantSearchIndex;
+import com.github.ramezch.backend.exceptions.InternetPlanNotFoundException;
+import com.github.ramezch.backend.exceptions.UsernameTakenException;
+import com.github.ramezch.backend.internetplan.models.InternetPlan;
+import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
+import com.github.ramezch.backend.subscription.services.SubscriptionService;
+import com.github.ramezch.backend.utils.IdService;
+import com.github.ramezch.backend.utils.ImportFormat;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import jakarta.validation.Validation;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.bson.Document;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CustomerImportServiceTest {
+    private static final String OWNER_ID = "user123";
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final InternetPlanRepository internetPlanRepo = mock(InternetPlanRepository.class);
+    private final SubscriptionService subscriptionService = mock(SubscriptionService.class);
+    private final IdService idService = mock(IdService.class);
+    private final TenantSearchIndex tenantSearchIndex = mock(TenantSearchIndex.class);
+    private final BulkOperations bulkOps = mock(BulkOperations.class);
+    private final CustomerImportService importService = new CustomerImportService(mongoTemplate, internetPlanRepo,
+            subscriptionService, idService, tenantSearchIndex, Validation.buildDefaultValidatorFactory().getValidator(), new ObjectMapper());
+    private final InternetPlan internetPlan = new InternetPlan("1", "basic", "100Mbps", 75, "unlimited", true);
+    private final AppUser appUser = new AppUser();
+
+    @BeforeEach
+    void setUp() {
+        appUser.setId(OWNER_ID);
+        AtomicInteger ids = new AtomicInteger();
+        when(idService.randomId()).thenAnswer(invocation -> "id" + ids.incrementAndGet());
+        when(internetPlanRepo.findById("1")).thenReturn(Optional.of(internetPlan));
+        when(mongoTemplate.findDistinct(any(Query.class), eq("username"), eq(Customer.class), eq(String.class))).thenReturn(List.of());
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Customer.class)).thenReturn(bulkOps);
+        when(bulkOps.insert(anyList())).thenReturn(bulkOps);
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void importCustomers_shouldWriteValidRows_andReportInvalidOnes() throws IOException {
+        // GIVEN
+        when(mongoTemplate.findDistinct(any(Query.class), eq("username"), eq(Customer.class), eq(String.class))).thenReturn(List.of("taken"));
+        String ndjson = """
+                {"username":"anna","fullName":"Anna Schmidt","phone":"+49 170 1111111","address":{"city":"Berlin","street":"Hauptstrasse 1"},"status":"ACTIVE"}
+                {"username":"","fullName":"No Name","address":{"city":"Berlin","street":"Hauptstrasse 2"},"status":"ACTIVE"}
+
+                {"username":"taken","fullName":"Taken","address":{"city":"Berlin","street":"Hauptstrasse 3"},"status":"ACTIVE"}
+                {"username":"anna","fullName":"Anna Again","address":{"city":"Berlin","street":"Hauptstrasse 4"},"status":"ACTIVE"}
+                {not json
+                """;
+
+        // WHEN
+        CustomerImportReport report = importService.importCustomers(appUser, "1", ImportFormat.NDJSON, body(ndjson));
+
+        // THEN
+        assertEquals(1, report.imported());
+        assertEquals(4, report.failed());
+        assertEquals(List.of(2L, 4L, 5L, 6L), report.errors().stream().map(CustomerImportError::row).toList());
+        assertEquals(List.of("username: Username cannot be blank"), report.errors().getFirst().messages());
+        verify(bulkOps).insert(argThat((List<?> customers) -> customers.size() == 1
+                && customers.getFirst() instanceof Customer customer && customer.ownerId().equals(OWNER_ID) && customer.address().id() != null));
+        verify(subscriptionService).createSubscriptions(eq(OWNER_ID), eq(List.of("id2")), eq(internetPlan));
+        verify(tenantSearchIndex).onSaved(argThat(customer -> customer.username().equals("anna")));
+    }
+
+    @Test
+    void importCustomers_shouldWriteInBatches() throws IOException {
+        // GIVEN
+        String csv = "username,fullName,status,city,street\n" + IntStream.range(0, CustomerImportService.BATCH_SIZE + 1)
+                .mapToObj(i -> "user" + i + ",Customer " + i + ",ACTIVE,Berlin,Street " + i)
+                .collect(Collectors.joining("\n"));
+
+        // WHEN
+        CustomerImportReport report = importService.importCustomers(appUser, "1", ImportFormat.CSV, body(csv));
+
+        // THEN
+        assertEquals(CustomerImportService.BATCH_SIZE + 1, report.imported());
+        assertEquals(0, report.failed());
+        verify(mongoTemplate, times(2)).findDistinct(any(Query.class), eq("username"), eq(Customer.class), eq(String.class));
+        verify(bulkOps, times(2)).execute();
+        verify(subscriptionService).createSubscriptions(eq(OWNER_ID), argThat(ids -> ids.size() == CustomerImportService.BATCH_SIZE), eq(internetPlan));
+        verify(subscriptionService).createSubscriptions(eq(OWNER_ID), argThat(ids -> ids.size() == 1), eq(internetPlan));
+    }
+
+    @Test
+    void importCustomers_shouldReportRowsRejectedByTheBulkInsert() throws IOException {
+        // GIVEN
+        BulkWriteError duplicate = new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0);
+        when(bulkOps.execute()).thenThrow(new BulkOperationException("bulk failed", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(1, 1, 0, 0, List.of(), List.of()), List.of(duplicate), null, new ServerAddress(), Set.of())));
+        String csv = "username,fullName,status,city,street\nanna,Anna,ACTIVE,Berlin,Street 1\nhans,Hans,ACTIVE,Berlin,Street 2\n";
+
+        // WHEN
+        CustomerImportReport report = importService.importCustomers(appUser, "1", ImportFormat.CSV, body(csv));
+
+        // THEN
+        assertEquals(1, report.imported());
+        assertEquals(List.of(new CustomerImportError(1, "anna", List.of(new UsernameTakenException("anna").getMessage()))), report.errors());
+        verify(subscriptionService).createSubscriptions(eq(OWNER_ID), argThat(ids -> ids.size() == 1), eq(internetPlan));
+        verify(tenantSearchIndex).onSaved(argThat(customer -> customer.username().equals("hans")));
+        verify(tenantSearchIndex, never()).onSaved(argThat(customer -> customer.username().equals("anna")));
+    }
+
+    @Test
+    void importCustomers_shouldRemoveCustomersAndReportRows_whoseSubscriptionsFailed() throws IOException {
+        // GIVEN
+        when(subscriptionService.createSubscriptions(eq(OWNER_ID), anyList(), eq(internetPlan)))
+                .thenReturn(Map.of("id4", "Document failed validation"));
+        String csv = "username,fullName,status,city,street\nanna,Anna,ACTIVE,Berlin,Street 1\nhans,Hans,ACTIVE,Berlin,Street 2\n";
+
+        // WHEN
+        CustomerImportReport report = importService.importCustomers(appUser, "1", ImportFormat.CSV, body(csv));
+
+        // THEN
+        assertEquals(1, report.imported());
+        assertEquals(List.of(new CustomerImportError(2, "hans", List.of("Document failed validation"))), report.errors());
+        verify(mongoTemplate).remove(argThat((Query query) -> query.getQueryObject().get("_id", Document.class).get("$in") instanceof Collection<?> ids
+                && ids.size() == 1 && ids.contains("id4")), eq(Customer.class));
+        verify(tenantSearchIndex).onSaved(argThat(customer -> customer.username().equals("anna")));
+        verify(tenantSearchIndex, never()).onSaved(argThat(customer -> customer.username().equals("hans")));
+    }
+
+    @Test
+    void importCustomers_shouldReportWholeBatch_whenSubscriptionsCannotBeWritten() throws IOException {
+        // GIVEN
+        when(subscriptionService.createSubscriptions(eq(OWNER_ID), anyList(), eq(internetPlan)))
+                .thenThrow(new DataAccessResourceFailureException("connection lost"));
+        String csv = "username,fullName,status,city,street\nanna,Anna,ACTIVE,Berlin,Street 1\nhans,Hans,ACTIVE,Berlin,Street 2\n";
+
+        // WHEN
+        CustomerImportReport report = importService.importCustomers(appUser, "1", ImportFormat.CSV, body(csv));
+
+        // THEN
+        assertEquals(0, report.imported());
+        assertEquals(2, report.failed());
+        assertEquals(List.of("connection lost"), report.errors().getFirst().messages());
+        verify(mongoTemplate).remove(argThat((Query query) -> query.getQueryObject().get("_id", Document.class).get("$in") instanceof Collection<?> ids
+                && ids.size() == 2), eq(Customer.class));
+        verifyNoInteractions(tenantSearchIndex);
+    }
+
+    @Test
+    void importCustomers_shouldFailBeforeReading_whenPlanNotFound() {
+        // GIVEN
+        InputStream body = mock(InputStream.class);
+
+        // WHEN / THEN
+        assertThrows(InternetPlanNotFoundException.class,
+                () -> importService.importCustomers(appUser, "missing", ImportFormat.CSV, body));
+        verifyNoInteractions(body, mongoTemplate);
+    }
+}
@@ -2,17 +2,26 @@ package com.github.ramezch.backend.customers.services;
 
 import com.github.ramezch.backend.customers.models.Address;
 import com.github.ramezch.backend.appuser.AppUser;
-import com.github.ramezch.backend.appuser.AppUserRepository;
 import com.github.ramezch.backend.customers.models.*;
 import com.github.ramezch.backend.customers.repositories.CustomerRepository;
+import com.github.ramezch.backend.customers.search.TenantSearchIndex;
 import com.github.ramezch.backend.exceptions.*;
 import com.github.ramezch.backend.internetplan.models.InternetPlan;
 import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
 import com.github.ramezch.backend.subscription.services.SubscriptionService;
 import com.github.ramezch.backend.utils.IdService;
+import com.github.ramezch.backend.utils.KeysetCursor;
+import com.github.ramezch.backend.utils.Slice;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.bson.Document;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.*;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.time.Instant;
 import java.util.*;
@@ -20,9 +29,12 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class CustomerServiceTest {
+    private static final String OWNER_ID = "user123";
     private CustomerRepository customerRepo;
-    private AppUserRepository appUserRepo;
     private InternetPlanRepository internetPlanRepo;
+    private SubscriptionService subscriptionService;
+    private MongoTemplate mongoTemplate;
+    private TenantSearchIndex tenantSearchIndex;
     private IdService idService;
     private CustomerService service;
     private Customer customer1, customer2;
@@ -34,45 +46,41 @@ class CustomerServiceTest {
     @BeforeEach
     void setup() {
         customerRepo = mock(CustomerRepository.class);
-        appUserRepo = mock(AppUserRepository.class);
         internetPlanRepo = mock(InternetPlanRepository.class);
-        SubscriptionService subscriptionService = mock(SubscriptionService.class);
+        subscriptionService = mock(SubscriptionService.class);
         idService = mock(IdService.class);
-        service = new CustomerService(customerRepo, appUserRepo, idService, subscriptionService);
+        mongoTemplate = mock(MongoTemplate.class);
+        tenantSearchIndex = mock(TenantSearchIndex.class);
+        service = new CustomerService(customerRepo, internetPlanRepo, idService, subscriptionService, mongoTemplate, tenantSearchIndex);
 
         Instant now = Instant.now();
-        customer1 = new Customer("123", "new_customer", "New Customer", "78863120", address, now, CustomerStatus.PENDING_ACTIVATION, "test");
-        customer2 = new Customer("234", "new_customer2", "New Customer 2", "78863121", address, now, CustomerStatus.PENDING_ACTIVATION, "test2");
+        customer1 = new Customer("123", OWNER_ID, "new_customer", "New Customer", "78863120", address, now, CustomerStatus.PENDING_ACTIVATION, "test");
+        customer2 = new Customer("234", OWNER_ID, "new_customer2", "New Customer 2", "78863121", address, now, CustomerStatus.PENDING_ACTIVATION, "test2");
         customerDTO1 = new CustomerDTO("new_customer", "New Customer", "78863120", address, CustomerStatus.PENDING_ACTIVATION, "test");
         internetPlan = new InternetPlan("1", "basic", "100Mbps", 75, "unlimited", true);
 
         mockUser = new AppUser();
-        String userId = "user123";
-        mockUser.setId(userId);
-        when(appUserRepo.findById(userId)).thenReturn(Optional.of(mockUser));
+        mockUser.setId(OWNER_ID);
     }
 
     @Test
     void getCustomers_returnCustomers_whenFound() {
-        List<String> customerIds = List.of("123", "234");
-        mockUser.setCustomerIds(customerIds);
         Pageable pageable = PageRequest.of(0, 10);
         Page<Customer> expected = new PageImpl<>(List.of(customer1, customer2), pageable, 2);
 
-        when(customerRepo.findByIdIn(customerIds, pageable)).thenReturn(expected);
+        when(customerRepo.findByOwnerId(OWNER_ID, pageable)).thenReturn(expected);
 
         Page<Customer> actual = service.getCustomers(pageable, mockUser);
 
-        verify(customerRepo).findByIdIn(customerIds, pageable);
+        verify(customerRepo).findByOwnerId(OWNER_ID, pageable);
         assertEquals(expected, actual);
     }
 
     @Test
     void getCustomers_returnEmpty_whenNotFound() {
-        mockUser.setCustomerIds(List.of());
         Pageable pageable = PageRequest.of(0, 10);
 
-        when(customerRepo.findByIdIn(anyList(), eq(pageable))).thenReturn(Page.empty());
+        when(customerRepo.findByOwnerId(OWNER_ID, pageable)).thenReturn(Page.empty());
 
         Page<Customer> actual = service.getCustomers(pageable, mockUser);
         assertTrue(actual.isEmpty());
@@ -81,9 +89,8 @@ class CustomerServiceTest {
     @Test
     void getCustomer_returnCustomer_whenFound() {
         String id = "123";
-        mockUser.setCustomerIds(List.of(id));
 
-        when(customerRepo.findById(id)).thenReturn(Optional.of(customer1));
+        when(customerRepo.findByIdAndOwnerId(id, OWNER_ID)).thenReturn(Optional.of(customer1));
 
         Optional<Customer> actual = service.getCustomer(id, mockUser);
         assertTrue(actual.isPresent());
@@ -92,103 +99,230 @@ class CustomerServiceTest {
 
     @Test
     void getCustomer_returnEmpty_whenNotFound() {
-        mockUser.setCustomerIds(List.of("1"));
+        when(customerRepo.findByIdAndOwnerId("999", OWNER_ID)).thenReturn(Optional.empty());
         Optional<Customer> actual = service.getCustomer("999", mockUser);
         assertTrue(actual.isEmpty());
     }
 
     @Test
-    void addCustomer_shouldSaveNewCustomerAndUpdateUser_whenUsernameNotExist() {
-        mockUser.setCustomerIds(new ArrayList<>());
+    void addCustomer_shouldSaveNewCustomerWithOwner_whenUsernameNotExist() {
         when(idService.randomId()).thenReturn("123");
-        when(customerRepo.save(any())).thenReturn(customer1);
+        when(customerRepo.insert(any(Customer.class))).thenReturn(customer1);
         when(internetPlanRepo.findById("1")).thenReturn(Optional.ofNullable(internetPlan));
 
         Customer actual = service.addCustomer(customerDTO1, mockUser, "1");
 
-        verify(customerRepo).save(any());
-        verify(appUserRepo).save(mockUser);
+        verify(customerRepo).insert(argThat((Customer saved) -> OWNER_ID.equals(saved.ownerId()) && "123".equals(saved.id())));
+        verify(subscriptionService).createSubscription(OWNER_ID, "123", internetPlan);
+        verify(tenantSearchIndex).onSaved(customer1);
+        verify(customerRepo, never()).existsById(any());
+        verify(customerRepo, never()).existsByOwnerIdAndUsername(any(), any());
         assertEquals(customer1.username(), actual.username());
-        assertTrue(mockUser.getCustomerIds().contains(actual.id()));
     }
 
     @Test
     void addCustomer_shouldThrowException_whenUsernameExists() {
-        mockUser.setCustomerIds(List.of("123"));
-        when(customerRepo.existsByUsernameAndIdIn(anyString(), anyList())).thenReturn(true);
+        when(internetPlanRepo.findById("1")).thenReturn(Optional.ofNullable(internetPlan));
+        when(customerRepo.insert(any(Customer.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key"));
 
         assertThrows(UsernameTakenException.class, () -> service.addCustomer(customerDTO1, mockUser, "1"));
-        verify(customerRepo, never()).save(any());
+        verifyNoInteractions(subscriptionService, tenantSearchIndex);
+    }
+
+    @Test
+    void addCustomer_shouldWriteNothing_whenPlanNotFound() {
+        when(internetPlanRepo.findById("missing")).thenReturn(Optional.empty());
+
+        assertThrows(InternetPlanNotFoundException.class, () -> service.addCustomer(customerDTO1, mockUser, "missing"));
+        verify(customerRepo, never()).insert(any(Customer.class));
+        verifyNoInteractions(subscriptionService);
     }
 
     @Test
-    void addCustomer_shouldInitializeCustomerIdsList_whenNull() {
-        mockUser.setCustomerIds(null);
+    void addCustomer_shouldRemoveCustomer_whenSubscriptionFails() {
         when(idService.randomId()).thenReturn("123");
-        when(customerRepo.save(any())).thenReturn(customer1);
         when(internetPlanRepo.findById("1")).thenReturn(Optional.ofNullable(internetPlan));
+        when(customerRepo.insert(any(Customer.class))).thenReturn(customer1);
+        doThrow(new DataAccessResourceFailureException("down")).when(subscriptionService).createSubscription(OWNER_ID, "123", internetPlan);
 
-        Customer actual = service.addCustomer(customerDTO1, mockUser, "1");
-
-        assertNotNull(mockUser.getCustomerIds());
-        assertTrue(mockUser.getCustomerIds().contains(actual.id()));
+        assertThrows(DataAccessResourceFailureException.class, () -> service.addCustomer(customerDTO1, mockUser, "1"));
+        verify(customerRepo).deleteById("123");
+        verifyNoInteractions(tenantSearchIndex);
     }
 
     @Test
     void updateCustomer_returnNewCustomer_whenFound() {
-        mockUser.setCustomerIds(List.of("123"));
-        Customer updatedCustomer = new Customer("123", "updated_customer", "Updated Customer", "78863120",
+        Customer updatedCustomer = new Customer("123", OWNER_ID, "updated_customer", "Updated Customer", "78863120",
                 customer1.address(), customer1.registrationDate(), CustomerStatus.ACTIVE, "updated notes");
 
-        when(customerRepo.save(updatedCustomer)).thenReturn(updatedCustomer);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class)))
+                .thenReturn(updatedCustomer.withVersion(1L));
 
         Customer actual = service.updateCustomer("123", updatedCustomer, mockUser);
-        assertEquals(updatedCustomer, actual);
+        assertEquals(updatedCustomer.withVersion(1L), actual);
+        verify(mongoTemplate).findAndModify(any(Query.class), argThat(update -> {
+            Document set = update.getUpdateObject().get("$set", Document.class);
+            return "updated_customer".equals(set.get("username")) && set.get("searchKeys") instanceof List<?> keys && keys.contains("updated")
+                    && !set.containsKey("_id") && !set.containsKey("ownerId")
+                    && update.getUpdateObject().get("$inc", Document.class).containsKey("version");
+        }), any(FindAndModifyOptions.class), eq(Customer.class));
+        verify(tenantSearchIndex).onSaved(updatedCustomer.withVersion(1L));
+    }
+
+    @Test
+    void updateCustomer_throwsUsernameTaken_whenUsernameBelongsToAnotherCustomer() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class)))
+                .thenThrow(new DuplicateKeyException("E11000 duplicate key"));
+
+        assertThrows(UsernameTakenException.class, () -> service.updateCustomer("123", customer1, mockUser));
+        verifyNoInteractions(tenantSearchIndex);
     }
 
     @Test
     void updateCustomer_returnException_whenNotFound() {
-        mockUser.setCustomerIds(List.of("1"));
         assertThrows(CustomerNotFoundException.class, () ->
-                service.updateCustomer("123", customer1, mockUser));
+                service.updateCustomer("123", customer1.withVersion(null), mockUser));
+        verify(customerRepo, never()).save(any());
+        verifyNoInteractions(tenantSearchIndex);
+    }
+
+    @Test
+    void updateCustomer_returnConflict_whenVersionIsOutdated() {
+        when(customerRepo.existsByIdAndOwnerId("123", OWNER_ID)).thenReturn(true);
+
+        assertThrows(CustomerVersionConflictException.class, () ->
+                service.updateCustomer("123", customer1.withVersion(3L), mockUser));
+        verify(mongoTemplate).findAndModify(argThat(query -> query.getQueryObject().get("version") instanceof Document version
+                && version.getList("$in", Long.class).equals(List.of(3L))), any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class));
+    }
+
+    @Test
+    void updateCustomer_keepsOwnerAndId_whenBodyNamesOthers() {
+        Customer foreign = new Customer("999", "someone_else", "new_customer", "New Customer", "78863120", address,
+                customer1.registrationDate(), CustomerStatus.ACTIVE, "test");
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class)))
+                .thenReturn(customer1);
+
+        service.updateCustomer("123", foreign, mockUser);
+
+        verify(mongoTemplate).findAndModify(argThat(query -> query.getQueryObject().get("_id").equals("123")
+                && query.getQueryObject().get("ownerId").equals(OWNER_ID)), any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class));
+    }
+
+    @Test
+    void patchCustomer_setsOnlyStatus_withoutReadingTheCustomer() {
+        CustomerPatchDTO patch = new CustomerPatchDTO(null, null, null, null, CustomerStatus.SUSPENDED, null, 0L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class)))
+                .thenReturn(customer1);
+
+        service.patchCustomer("123", patch, mockUser);
+
+        verify(customerRepo, never()).findByIdAndOwnerId(any(), any());
+        verify(mongoTemplate).findAndModify(argThat(query -> query.getQueryObject().get("version") instanceof Document version
+                        && version.getList("$in", Object.class).equals(Arrays.asList(0L, null))),
+                argThat(update -> update.getUpdateObject().get("$set", Document.class).keySet().equals(Set.of("status"))),
+                any(FindAndModifyOptions.class), eq(Customer.class));
+        verify(tenantSearchIndex).onSaved(customer1);
+    }
+
+    @Test
+    void patchCustomer_setsChangedFieldsAndSearchKeys_onlyForTheVersionRead() {
+        CustomerPatchDTO patch = new CustomerPatchDTO("new_customer", "Renamed Customer", null, null, CustomerStatus.PENDING_ACTIVATION, null, null);
+        when(customerRepo.findByIdAndOwnerId("123", OWNER_ID)).thenReturn(Optional.of(customer1));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class)))
+                .thenReturn(customer1);
+
+        service.patchCustomer("123", patch, mockUser);
+
+        verify(mongoTemplate).findAndModify(argThat(query -> query.getQueryObject().get("version") instanceof Document version
+                        && version.getList("$in", Object.class).equals(Arrays.asList(0L, null))),
+                argThat(update -> {
+                    Document set = update.getUpdateObject().get("$set", Document.class);
+                    return set.keySet().equals(Set.of("fullName", "searchKeys"))
+                            && set.get("searchKeys") instanceof List<?> keys && keys.contains("renamed");
+                }),
+                any(FindAndModifyOptions.class), eq(Customer.class));
+    }
+
+    @Test
+    void patchCustomer_writesNothing_whenNothingChanges() {
+        CustomerPatchDTO patch = new CustomerPatchDTO("new_customer", null, null, null, null, null, null);
+        when(customerRepo.findByIdAndOwnerId("123", OWNER_ID)).thenReturn(Optional.of(customer1));
+
+        Customer actual = service.patchCustomer("123", patch, mockUser);
+
+        assertEquals(customer1, actual);
+        verifyNoInteractions(mongoTemplate, tenantSearchIndex);
+    }
+
+    @Test
+    void patchCustomer_readsAgain_whenAnotherWriteCameInBetween() {
+        CustomerPatchDTO patch = new CustomerPatchDTO(null, "Renamed Customer", null, null, null, null, null);
+        Customer renamedMeanwhile = customer1.withVersion(1L);
+        when(customerRepo.findByIdAndOwnerId("123", OWNER_ID)).thenReturn(Optional.of(customer1), Optional.of(renamedMeanwhile));
+        when(customerRepo.existsByIdAndOwnerId("123", OWNER_ID)).thenReturn(true);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class)))
+                .thenReturn(null, renamedMeanwhile);
+
+        Customer actual = service.patchCustomer("123", patch, mockUser);
+
+        assertEquals(renamedMeanwhile, actual);
+        verify(customerRepo, times(2)).findByIdAndOwnerId("123", OWNER_ID);
+        verify(mongoTemplate).findAndModify(argThat(query -> query != null && query.getQueryObject().get("version") instanceof Document version
+                        && version.getList("$in", Object.class).equals(List.of(1L))),
+                any(Update.class), any(FindAndModifyOptions.class), eq(Customer.class));
+    }
+
+    @Test
+    void patchCustomer_throwsConflict_whenNothingChangesButVersionIsStale() {
+        CustomerPatchDTO patch = new CustomerPatchDTO("new_customer", null, null, null, null, null, 5L);
+        when(customerRepo.findByIdAndOwnerId("123", OWNER_ID)).thenReturn(Optional.of(customer1));
+
+        assertThrows(CustomerVersionConflictException.class, () -> service.patchCustomer("123", patch, mockUser));
+        verifyNoInteractions(mongoTemplate, tenantSearchIndex);
+    }
+
+    @Test
+    void patchCustomer_returnException_whenNotFound() {
+        CustomerPatchDTO patch = new CustomerPatchDTO(null, null, null, null, CustomerStatus.SUSPENDED, null, 2L);
+
+        assertThrows(CustomerNotFoundException.class, () -> service.patchCustomer("123", patch, mockUser));
     }
 
     @Test
     void deleteCustomer_returnNothing_whenFound() {
         String id = "123";
-        mockUser.setCustomerIds(new ArrayList<>(List.of(id)));
-        when(customerRepo.existsById(id)).thenReturn(true);
+        when(customerRepo.existsByIdAndOwnerId(id, OWNER_ID)).thenReturn(true);
 
         service.deleteCustomer(id, mockUser);
 
-        assertFalse(mockUser.getCustomerIds().contains(id));
+        verify(subscriptionService).deleteSubscription(OWNER_ID, id);
         verify(customerRepo).deleteById(id);
+        verify(tenantSearchIndex).onDeleted(OWNER_ID, id);
     }
 
     @Test
     void deleteCustomer_returnException_whenNotFound() {
-        when(customerRepo.existsById("123")).thenReturn(false);
+        when(customerRepo.existsByIdAndOwnerId("123", OWNER_ID)).thenReturn(false);
         assertThrows(CustomerNotFoundException.class, () -> service.deleteCustomer("123", mockUser));
     }
 
     @Test
     void searchCustomers_returnFilteredCustomers_whenStatusProvided() {
         // Given
-        List<String> customerIds = List.of("123", "234");
-        mockUser.setCustomerIds(customerIds);
         Pageable pageable = PageRequest.of(0, 10);
         CustomerStatus status = CustomerStatus.PENDING_ACTIVATION;
         Page<Customer> expected = new PageImpl<>(List.of(customer1, customer2), pageable, 2);
 
         // Mock the correct repository method that will be called
-        when(customerRepo.findByIdInAndStatus(customerIds, status, pageable))
+        when(customerRepo.findByOwnerIdAndStatus(OWNER_ID, status, pageable))
                 .thenReturn(expected);
 
         // When
         Page<Customer> actual = service.searchCustomers(mockUser, status, null, pageable);
 
         // Then
-        verify(customerRepo).findByIdInAndStatus(customerIds, status, pageable);
+        verify(customerRepo).findByOwnerIdAndStatus(OWNER_ID, status, pageable);
         verify(customerRepo, never()).searchCustomers(any(), any(), any(), any());
         assertEquals(expected, actual);
     }
@@ -196,54 +330,48 @@ class CustomerServiceTest {
     @Test
     void searchCustomers_returnFilteredCustomers_whenSearchTermProvided() {
         // Given
-        List<String> customerIds = List.of("123", "234");
-        mockUser.setCustomerIds(customerIds);
         Pageable pageable = PageRequest.of(0, 10);
         String searchTerm = "customer";
         Page<Customer> expected = new PageImpl<>(List.of(customer1, customer2), pageable, 2);
 
-        when(customerRepo.searchCustomers(customerIds, null, searchTerm, pageable))
+        when(customerRepo.searchCustomers(OWNER_ID, null, List.of("customer"), pageable))
                 .thenReturn(expected);
 
         // When
         Page<Customer> actual = service.searchCustomers(mockUser, null, searchTerm, pageable);
 
         // Then
-        verify(customerRepo).searchCustomers(customerIds, null, searchTerm, pageable);
+        verify(customerRepo).searchCustomers(OWNER_ID, null, List.of("customer"), pageable);
         assertEquals(expected, actual);
     }
 
     @Test
     void searchCustomers_returnFilteredCustomers_whenBothStatusAndSearchTermProvided() {
         // Given
-        List<String> customerIds = List.of("123", "234");
-        mockUser.setCustomerIds(customerIds);
         Pageable pageable = PageRequest.of(0, 10);
         CustomerStatus status = CustomerStatus.PENDING_ACTIVATION;
         String searchTerm = "customer";
         Page<Customer> expected = new PageImpl<>(List.of(customer1, customer2), pageable, 2);
 
-        when(customerRepo.searchCustomers(customerIds, status, searchTerm, pageable))
+        when(customerRepo.searchCustomers(OWNER_ID, status, List.of("customer"), pageable))
                 .thenReturn(expected);
 
         // When
         Page<Customer> actual = service.searchCustomers(mockUser, status, searchTerm, pageable);
 
         // Then
-        verify(customerRepo).searchCustomers(customerIds, status, searchTerm, pageable);
+        verify(customerRepo).searchCustomers(OWNER_ID, status, List.of("customer"), pageable);
         assertEquals(expected, actual);
     }
 
     @Test
     void searchCustomers_returnEmpty_whenNoMatchesFound() {
         // Given
-        List<String> customerIds = List.of("123", "234");
-        mockUser.setCustomerIds(customerIds);
         Pageable pageable = PageRequest.of(0, 10);
         CustomerStatus status = CustomerStatus.ACTIVE;
         String searchTerm = "nonexistent";
 
-        when(customerRepo.searchCustomers(customerIds, status, searchTerm, pageable))
+        when(customerRepo.searchCustomers(OWNER_ID, status, List.of("nonexistent"), pageable))
                 .thenReturn(Page.empty());
 
         // When
@@ -256,34 +384,117 @@ class CustomerServiceTest {
     @Test
     void searchCustomers_returnEmpty_whenUserHasNoCustomers() {
         // Given
-        mockUser.setCustomerIds(List.of());
         Pageable pageable = PageRequest.of(0, 10);
+        when(customerRepo.searchCustomers(OWNER_ID, null, List.of("any"), pageable)).thenReturn(Page.empty());
 
         // When
         Page<Customer> actual = service.searchCustomers(mockUser, null, "any", pageable);
 
         // Then
         assertTrue(actual.isEmpty());
-        verify(customerRepo, never()).searchCustomers(any(), any(), any(), any());
     }
 
     @Test
     void searchCustomers_usesCaseInsensitiveSearch() {
         // Given
-        List<String> customerIds = List.of("123", "234");
-        mockUser.setCustomerIds(customerIds);
         Pageable pageable = PageRequest.of(0, 10);
         String searchTerm = "CUSTOMER"; // uppercase
         Page<Customer> expected = new PageImpl<>(List.of(customer1, customer2), pageable, 2);
 
-        when(customerRepo.searchCustomers(customerIds, null, searchTerm, pageable))
+        when(customerRepo.searchCustomers(OWNER_ID, null, List.of("customer"), pageable))
                 .thenReturn(expected);
 
         // When
         Page<Customer> actual = service.searchCustomers(mockUser, null, searchTerm, pageable);
 
         // Then
-        verify(customerRepo).searchCustomers(customerIds, null, searchTerm, pageable);
+        verify(customerRepo).searchCustomers(OWNER_ID, null, List.of("customer"), pageable);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void getCustomerSlice_returnsNextCursor_whenMoreCustomersExist() {
+        // Given
+        when(mongoTemplate.find(any(Query.class), eq(Customer.class))).thenReturn(new ArrayList<>(List.of(customer1, customer2)));
+
+        // When
+        Slice<Customer> actual = service.getCustomerSlice(mockUser, null, null, null, 1);
+
+        // Then
+        assertEquals(List.of(customer1), actual.content());
+        assertTrue(actual.hasNext());
+        assertEquals(KeysetCursor.of(customer1.registrationDate(), customer1.id()), KeysetCursor.decode(actual.nextCursor()));
+        verify(mongoTemplate).find(argThat(query -> query.getLimit() == 2
+                && OWNER_ID.equals(query.getQueryObject().get("ownerId"))
+                && query.getSortObject().equals(new Document("registrationDate", -1).append("_id", -1))), eq(Customer.class));
+    }
+
+    @Test
+    void getCustomerSlice_continuesAfterCursor_andEndsWithoutCursor() {
+        // Given
+        String cursor = KeysetCursor.of(customer1.registrationDate(), customer1.id()).encode();
+        when(mongoTemplate.find(any(Query.class), eq(Customer.class))).thenReturn(List.of(customer2));
+
+        // When
+        Slice<Customer> actual = service.getCustomerSlice(mockUser, CustomerStatus.PENDING_ACTIVATION, null, cursor, 10);
+
+        // Then
+        assertEquals(List.of(customer2), actual.content());
+        assertFalse(actual.hasNext());
+        assertNull(actual.nextCursor());
+        verify(mongoTemplate).find(argThat(query -> query.getQueryObject().get("$or") instanceof List<?> conditions
+                && conditions.size() == 2
+                && CustomerStatus.PENDING_ACTIVATION.equals(query.getQueryObject().get("status"))), eq(Customer.class));
+    }
+
+    @Test
+    void getCustomerSlice_throwsInvalidCursor_whenCursorIsMalformed() {
+        assertThrows(InvalidCursorException.class, () -> service.getCustomerSlice(mockUser, null, null, "not a cursor", 10));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Customer.class));
+    }
+
+    @Test
+    void searchCustomers_listsCustomers_whenSearchTermHasNoSearchableCharacters() {
+        // Given
+        Pageable pageable = PageRequest.of(0, 10);
+        Page<Customer> expected = new PageImpl<>(List.of(customer1, customer2), pageable, 2);
+        when(customerRepo.findByOwnerId(OWNER_ID, pageable)).thenReturn(expected);
+
+        // When
+        Page<Customer> actual = service.searchCustomers(mockUser, null, " - ", pageable);
+
+        // Then
         assertEquals(expected, actual);
+        verify(customerRepo, never()).searchCustomers(any(), any(), any(), any());
+    }
+
+    @Test
+    void searchCustomers_answersFromMemory_whenInMemoryIndexEnabled() {
+        // Given
+        Pageable pageable = PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "registrationDate"));
+        Page<Customer> expected = new PageImpl<>(List.of(customer1), pageable, 1);
+        when(tenantSearchIndex.isEnabled()).thenReturn(true);
+        when(tenantSearchIndex.search(OWNER_ID, null, List.of("new"), pageable)).thenReturn(expected);
+
+        // When
+        Page<Customer> actual = service.searchCustomers(mockUser, null, "New", pageable);
+
+        // Then
+        assertEquals(expected, actual);
+        verify(customerRepo, never()).searchCustomers(any(), any(), any(), any());
+    }
+
+    @Test
+    void searchCustomers_queriesMongo_whenInMemoryIndexCannotServeTheSort() {
+        // Given
+        Pageable pageable = PageRequest.of(0, 10, Sort.by("username"));
+        when(tenantSearchIndex.isEnabled()).thenReturn(true);
+        when(customerRepo.searchCustomers(OWNER_ID, null, List.of("new"), pageable)).thenReturn(Page.empty());
+
+        // When
+        service.searchCustomers(mockUser, null, "New", pageable);
+
+        // Then
+        verify(tenantSearchIndex, never()).search(any(), any(), any(), any());
     }
-}
\ No newline at end of file
+}
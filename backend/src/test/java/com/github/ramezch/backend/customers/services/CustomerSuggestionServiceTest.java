@@ -0,0 +1,108 @@
+package com.github.ramezch.backend.customers.services;
+
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerSuggestion;
+import com.github.ramezch.backend.customers.search.SearchProperties;
+import com.github.ramezch.backend.customers.search.TenantSearchIndex;
+import com.mongodb.MongoExecutionTimeoutException;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CustomerSuggestionServiceTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final TenantSearchIndex tenantSearchIndex = mock(TenantSearchIndex.class);
+    private final CustomerSuggestionService suggestionService = new CustomerSuggestionService(mongoTemplate, tenantSearchIndex,
+            new SearchProperties(false, 1000, Duration.ofMinutes(10), Duration.ofMillis(50)));
+    private final AppUser appUser = new AppUser();
+
+    @BeforeEach
+    void setUp() {
+        appUser.setId("user1");
+        when(mongoTemplate.getCollectionName(Customer.class)).thenReturn("customer");
+    }
+
+    @Test
+    void suggestCustomers_shouldQueryIndexedKeys_withProjectionLimitAndTimeBudget() {
+        // GIVEN
+        List<CustomerSuggestion> expected = List.of(new CustomerSuggestion("cust1", "anna_berlin", "Anna Schmidt"));
+        when(mongoTemplate.find(any(Query.class), eq(CustomerSuggestion.class), eq("customer"))).thenReturn(expected);
+
+        // WHEN
+        List<CustomerSuggestion> result = suggestionService.suggestCustomers(appUser, "Ann", 100);
+
+        // THEN
+        assertEquals(expected, result);
+        verify(mongoTemplate).find(argThat(query -> query.getQueryObject().equals(
+                        new Document("ownerId", "user1").append("searchKeys", new Document("$all", List.of("ann"))))
+                        && query.getLimit() == CustomerSuggestionService.MAX_SUGGESTIONS
+                        && query.getMeta().getMaxTimeMsec() == 50L
+                        && query.getFieldsObject().containsKey("username")
+                        && query.getFieldsObject().containsKey("fullName")
+                        && !query.getFieldsObject().containsKey("address")),
+                eq(CustomerSuggestion.class), eq("customer"));
+        verify(tenantSearchIndex, never()).suggest(anyString(), anyList(), anyInt());
+    }
+
+    @Test
+    void suggestCustomers_shouldReturnNothing_forBlankPrefix() {
+        // WHEN
+        List<CustomerSuggestion> result = suggestionService.suggestCustomers(appUser, "  - ", 8);
+
+        // THEN
+        assertTrue(result.isEmpty());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(CustomerSuggestion.class), anyString());
+    }
+
+    @Test
+    void suggestCustomers_shouldReturnNothing_whenTimeBudgetIsExceeded() {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(CustomerSuggestion.class), eq("customer")))
+                .thenThrow(new QueryTimeoutException("timeout", mock(MongoExecutionTimeoutException.class)));
+
+        // WHEN
+        List<CustomerSuggestion> result = suggestionService.suggestCustomers(appUser, "ann", 8);
+
+        // THEN
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    void suggestCustomers_shouldRethrowOtherFailures() {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(CustomerSuggestion.class), eq("customer")))
+                .thenThrow(new DataRetrievalFailureException("down"));
+
+        // WHEN / THEN
+        assertThrows(DataRetrievalFailureException.class, () -> suggestionService.suggestCustomers(appUser, "ann", 8));
+    }
+
+    @Test
+    void suggestCustomers_shouldUseInMemoryIndex_whenEnabled() {
+        // GIVEN
+        List<CustomerSuggestion> expected = List.of(new CustomerSuggestion("cust1", "anna_berlin", "Anna Schmidt"));
+        when(tenantSearchIndex.isEnabled()).thenReturn(true);
+        when(tenantSearchIndex.suggest("user1", List.of("ann"), 8)).thenReturn(expected);
+
+        // WHEN
+        List<CustomerSuggestion> result = suggestionService.suggestCustomers(appUser, "ann", 8);
+
+        // THEN
+        assertEquals(expected, result);
+        verify(mongoTemplate, never()).find(any(Query.class), eq(CustomerSuggestion.class), anyString());
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.ramezch.backend.indexes;
+
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class IndexManagerTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final DuplicateKeyResolver invoiceDuplicates = mock(DuplicateKeyResolver.class);
+    private IndexManager indexManager;
+
+    @BeforeEach
+    void setUp() {
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        mappingContext.setInitialEntitySet(Set.of(Invoice.class, Customer.class));
+        mappingContext.afterPropertiesSet();
+        when(mongoTemplate.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext));
+        when(invoiceDuplicates.collection()).thenReturn("invoice");
+        indexManager = new IndexManager(mongoTemplate, List.of(invoiceDuplicates));
+    }
+
+    @Test
+    void ensureIndexes_shouldCreateEveryDeclaredIndex_andContinueOnFailure() {
+        // GIVEN
+        IndexOperations invoiceIndexOps = mock(IndexOperations.class);
+        IndexOperations customerIndexOps = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps("invoice")).thenReturn(invoiceIndexOps);
+        when(mongoTemplate.indexOps("customer")).thenReturn(customerIndexOps);
+        when(invoiceIndexOps.ensureIndex(any())).thenThrow(new IllegalStateException("duplicate key")).thenReturn("ownerId_customerId_dueDate", "ownerId_customerId_isPaid_dueDate_id");
+
+        // WHEN
+        indexManager.ensureIndexes();
+
+        // THEN
+        verify(invoiceIndexOps, times(4)).ensureIndex(any(IndexDefinition.class));
+        verify(invoiceIndexOps).ensureIndex(argThat(index -> index.getIndexKeys().containsKey("isPaid")
+                && new Document("isPaid", false).equals(index.getIndexOptions().get("partialFilterExpression"))));
+        verify(invoiceIndexOps).ensureIndex(argThat(index -> index.getIndexKeys().equals(new Document("dueDate", 1))
+                && new Document("isPaid", true).equals(index.getIndexOptions().get("partialFilterExpression"))));
+        verify(customerIndexOps, times(4)).ensureIndex(any(IndexDefinition.class));
+        verify(customerIndexOps).ensureIndex(argThat(index -> index.getIndexKeys().equals(new Document("ownerId", 1).append("username", 1))
+                && Boolean.TRUE.equals(index.getIndexOptions().get("unique"))));
+    }
+
+    @Test
+    void ensureIndexes_shouldRebuildIndex_whenDeclaredOptionsChanged() {
+        // GIVEN
+        IndexOperations invoiceIndexOps = mock(IndexOperations.class);
+        IndexOperations customerIndexOps = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps("invoice")).thenReturn(invoiceIndexOps);
+        when(mongoTemplate.indexOps("customer")).thenReturn(customerIndexOps);
+        MongoCommandException conflict = new MongoCommandException(new BsonDocument("code", new BsonInt32(86)), new ServerAddress());
+        when(customerIndexOps.ensureIndex(argThat(index -> index != null && Boolean.TRUE.equals(index.getIndexOptions().get("unique")))))
+                .thenThrow(new UncategorizedMongoDbException("conflict", conflict))
+                .thenReturn("ownerId_username");
+
+        // WHEN
+        indexManager.ensureIndexes();
+
+        // THEN
+        verify(customerIndexOps).dropIndex("ownerId_username");
+        verify(customerIndexOps, times(5)).ensureIndex(any(IndexDefinition.class));
+    }
+
+    @Test
+    void ensureIndexes_shouldKeepUniqueIndex_whenItsDeclarationChanged() {
+        // GIVEN
+        IndexOperations invoiceIndexOps = mock(IndexOperations.class);
+        IndexOperations customerIndexOps = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps("invoice")).thenReturn(invoiceIndexOps);
+        when(mongoTemplate.indexOps("customer")).thenReturn(customerIndexOps);
+        MongoCommandException conflict = new MongoCommandException(new BsonDocument("code", new BsonInt32(85)), new ServerAddress());
+        when(customerIndexOps.ensureIndex(argThat(index -> index != null && Boolean.TRUE.equals(index.getIndexOptions().get("unique")))))
+                .thenThrow(new UncategorizedMongoDbException("conflict", conflict));
+        when(customerIndexOps.getIndexInfo()).thenReturn(List.of(
+                new IndexInfo(List.of(IndexField.create("ownerId", Sort.Direction.ASC), IndexField.create("username", Sort.Direction.ASC)),
+                        "ownerId_username", true, false, "")));
+
+        // WHEN
+        indexManager.ensureIndexes();
+
+        // THEN
+        verify(customerIndexOps, never()).dropIndex(any());
+        verify(customerIndexOps, times(4)).ensureIndex(any(IndexDefinition.class));
+    }
+
+    @Test
+    void ensureIndexes_shouldRemoveDuplicates_andBuildUniqueIndexAgain() {
+        // GIVEN
+        IndexOperations invoiceIndexOps = mock(IndexOperations.class);
+        IndexOperations customerIndexOps = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps("invoice")).thenReturn(invoiceIndexOps);
+        when(mongoTemplate.indexOps("customer")).thenReturn(customerIndexOps);
+        Document uniqueKey = new Document("subscriptionId", 1).append("dueDate", 1);
+        when(invoiceIndexOps.ensureIndex(argThat(index -> index != null && uniqueKey.equals(index.getIndexKeys()))))
+                .thenThrow(new DuplicateKeyException("E11000 duplicate key error"))
+                .thenReturn("subscriptionId_dueDate");
+
+        // WHEN
+        indexManager.ensureIndexes();
+
+        // THEN
+        verify(invoiceDuplicates).removeDuplicates(uniqueKey);
+        verify(invoiceIndexOps, times(2)).ensureIndex(argThat(index -> uniqueKey.equals(index.getIndexKeys())));
+    }
+
+    @Test
+    void ensureIndexes_shouldNotRemoveDuplicates_ofCollectionsWithoutResolver() {
+        // GIVEN
+        IndexOperations invoiceIndexOps = mock(IndexOperations.class);
+        IndexOperations customerIndexOps = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps("invoice")).thenReturn(invoiceIndexOps);
+        when(mongoTemplate.indexOps("customer")).thenReturn(customerIndexOps);
+        when(customerIndexOps.ensureIndex(argThat(index -> index != null && Boolean.TRUE.equals(index.getIndexOptions().get("unique")))))
+                .thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+
+        // WHEN
+        indexManager.ensureIndexes();
+
+        // THEN
+        verify(invoiceDuplicates, never()).removeDuplicates(any());
+        verify(customerIndexOps, times(4)).ensureIndex(any(IndexDefinition.class));
+    }
+
+    @Test
+    void report_shouldListMissingAndUnusedIndexes() {
+        // GIVEN
+        Date since = new Date();
+        stubIndexStats("invoice", List.of(
+                indexStats("_id_", new Document("_id", 1), 0L, since),
+                indexStats("subscriptionId_dueDate", new Document("subscriptionId", 1).append("dueDate", 1.0), 12L, since),
+                indexStats("isPaid_1", new Document("isPaid", 1), 0L, since)
+        ));
+        stubIndexStats("customer", List.of(
+                indexStats("_id_", new Document("_id", 1), 40L, since),
+                indexStats("ownerId_registrationDate_id", new Document("ownerId", 1).append("registrationDate", -1).append("_id", -1), 25L, since),
+                indexStats("ownerId_status_registrationDate_id", new Document("ownerId", 1).append("status", 1).append("registrationDate", -1).append("_id", -1), 7L, since),
+                indexStats("ownerId_username", new Document("ownerId", 1).append("username", 1), 3L, since),
+                indexStats("ownerId_searchKeys_registrationDate_id", new Document("ownerId", 1).append("searchKeys", 1).append("registrationDate", -1).append("_id", -1), 9L, since)
+        ));
+
+        // WHEN
+        List<IndexReport> reports = indexManager.report();
+
+        // THEN
+        IndexReport invoices = reports.stream().filter(report -> report.collection().equals("invoice")).findFirst().orElseThrow();
+        assertEquals(List.of(
+                new Document("ownerId", 1).append("customerId", 1).append("dueDate", -1).append("_id", -1),
+                new Document("ownerId", 1).append("customerId", 1).append("isPaid", 1).append("dueDate", -1).append("_id", -1),
+                new Document("dueDate", 1)
+        ), invoices.missing());
+        assertEquals(List.of("isPaid_1"), invoices.unused());
+
+        IndexReport customers = reports.stream().filter(report -> report.collection().equals("customer")).findFirst().orElseThrow();
+        assertTrue(customers.missing().isEmpty());
+        assertTrue(customers.unused().isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubIndexStats(String collectionName, List<Document> stats) {
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        AggregateIterable<Document> aggregate = mock(AggregateIterable.class);
+        when(mongoTemplate.getCollection(collectionName)).thenReturn(collection);
+        when(collection.aggregate(anyList())).thenReturn(aggregate);
+        Iterator<Document> iterator = stats.iterator();
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> iterator.next());
+        when(aggregate.iterator()).thenReturn(cursor);
+    }
+
+    private static Document indexStats(String name, Document key, long ops, Date since) {
+        return new Document("name", name)
+                .append("key", key)
+                .append("accesses", new Document("ops", ops).append("since", since));
+    }
+}
@@ -0,0 +1,285 @@
+package com.github.ramezch.backend.indexes;
+
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.customers.models.Address;
+import com.github.ramezch.backend.customers.models.Customer;
+import com.github.ramezch.backend.customers.models.CustomerStatus;
+import com.github.ramezch.backend.customers.repositories.CustomerRepository;
+import com.github.ramezch.backend.customers.services.CustomerService;
+import com.github.ramezch.backend.customers.services.CustomerSuggestionService;
+import com.github.ramezch.backend.internetplan.models.InternetPlan;
+import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.invoice.repository.InvoiceRepository;
+import com.github.ramezch.backend.invoice.services.InvoiceService;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
+import com.github.ramezch.backend.subscription.repository.SubscriptionRepository;
+import com.github.ramezch.backend.utils.KeysetCursor;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Explains every find a repository method sends and fails if it scans the collection or examines far more index keys
+// than it returns documents
+@SpringBootTest
+class QueryPlanIntegrationTest {
+
+    private static final double MAX_KEYS_EXAMINED_PER_DOCUMENT_RETURNED = 3.0;
+    private static final List<Document> CAPTURED_FINDS = new CopyOnWriteArrayList<>();
+
+    @TestConfiguration
+    static class FindCaptureConfig {
+        @Bean
+        MongoClientSettingsBuilderCustomizer captureFinds() {
+            return settings -> settings.addCommandListener(new CommandListener() {
+                @Override
+                public void commandStarted(CommandStartedEvent event) {
+                    if ("find".equals(event.getCommandName())) {
+                        CAPTURED_FINDS.add(Document.parse(event.getCommand().toJson()));
+                    }
+                }
+            });
+        }
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private IndexManager indexManager;
+    @Autowired
+    private CustomerRepository customerRepo;
+    @Autowired
+    private CustomerService customerService;
+    @Autowired
+    private CustomerSuggestionService customerSuggestionService;
+    @Autowired
+    private InvoiceRepository invoiceRepo;
+    @Autowired
+    private InvoiceService invoiceService;
+    @Autowired
+    private SubscriptionRepository subscriptionRepo;
+    @Autowired
+    private InternetPlanRepository internetPlanRepo;
+
+    private final Instant firstDueDate = Instant.now().plus(30, ChronoUnit.DAYS).truncatedTo(ChronoUnit.MILLIS);
+    private final String ownerId = "owner3";
+    private final List<String> planIds = IntStream.range(0, 10).mapToObj(i -> "plan" + i).toList();
+    private final Pageable firstPage = PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "registrationDate"));
+
+    @BeforeEach
+    void setup() {
+        indexManager.declaredIndexes().keySet().forEach(mongoTemplate::dropCollection);
+        indexManager.ensureIndexes();
+
+        // Other users' data, so that no query can pass by examining everything
+        for (int i = 0; i < 40; i++) {
+            String owner = "owner" + (i % 4);
+            CustomerStatus status = i % 5 == 0 ? CustomerStatus.SUSPENDED : CustomerStatus.ACTIVE;
+            customerRepo.save(new Customer("cust" + i, owner, "user" + i, "Customer " + i, "+49 170 " + (1000000 + i),
+                    new Address("addr" + i, "Germany", "Berlin", "Street " + i, "10115"),
+                    Instant.now().minus(Duration.ofDays(i)), status, null));
+            subscriptionRepo.save(new Subscription("sub" + i, owner, "cust" + i, "plan" + (i % 10), firstDueDate, SubscriptionStatus.ACTIVE));
+            for (int month = 0; month < 3; month++) {
+                Instant dueDate = firstDueDate.plus(Duration.ofDays(30L * month));
+                invoiceRepo.save(new Invoice("inv" + i + "-" + month, owner, "cust" + i, "sub" + i, Instant.now(), dueDate, 50, 0, false));
+            }
+        }
+        for (int i = 0; i < 40; i++) {
+            internetPlanRepo.save(new InternetPlan("plan" + i, "Plan " + i, "100Mbps", 30, "unlimited", i % 5 != 0));
+        }
+        CAPTURED_FINDS.clear();
+    }
+
+    @Test
+    void customerRepository_findByOwnerId() {
+        customerRepo.findByOwnerId(ownerId, firstPage);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void customerRepository_searchCustomers() {
+        customerRepo.searchCustomers(ownerId, null, List.of("user"), firstPage);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void customerRepository_existsByOwnerIdAndUsername() {
+        customerRepo.existsByOwnerIdAndUsername(ownerId, "user3");
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void customerRepository_findByOwnerIdAndStatus() {
+        customerRepo.findByOwnerIdAndStatus(ownerId, CustomerStatus.ACTIVE, firstPage);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void customerRepository_findByIdAndOwnerId() {
+        customerRepo.findByIdAndOwnerId("cust3", ownerId);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void customerRepository_existsByIdAndOwnerId() {
+        customerRepo.existsByIdAndOwnerId("cust3", ownerId);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void customerService_getCustomerSlice() {
+        AppUser owner = new AppUser();
+        owner.setId(ownerId);
+        Customer after = customerRepo.findById("cust7").orElseThrow();
+        String cursor = KeysetCursor.of(after.registrationDate(), after.id()).encode();
+        CAPTURED_FINDS.clear();
+        customerService.getCustomerSlice(owner, null, null, cursor, 3);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void customerSuggestionService_suggestCustomers() {
+        AppUser owner = new AppUser();
+        owner.setId(ownerId);
+        customerSuggestionService.suggestCustomers(owner, "user", 5);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void invoiceRepository_findBySubscriptionIdAndDueDate() {
+        invoiceRepo.findBySubscriptionIdAndDueDate("sub3", firstDueDate);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void invoiceRepository_findBySubscriptionId() {
+        invoiceRepo.findBySubscriptionId("sub3");
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void invoiceRepository_findBySubscriptionIdInAndDueDateIn() {
+        invoiceRepo.findBySubscriptionIdInAndDueDateIn(List.of("sub1", "sub2", "sub3"), Set.of(firstDueDate));
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void invoiceRepository_findAllByOwnerIdAndCustomerId() {
+        invoiceRepo.findAllByOwnerIdAndCustomerId(ownerId, "cust3");
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void invoiceService_getInvoiceSlice() {
+        AppUser owner = new AppUser();
+        owner.setId(ownerId);
+        Invoice after = invoiceRepo.findById("inv3-0").orElseThrow();
+        String cursor = KeysetCursor.of(after.dueDate(), after.id()).encode();
+        CAPTURED_FINDS.clear();
+        invoiceService.getInvoiceSlice("cust3", owner, false, cursor, 1);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void invoiceService_getInvoiceSlice_unpaidOnly() {
+        AppUser owner = new AppUser();
+        owner.setId(ownerId);
+        invoiceService.getInvoiceSlice("cust3", owner, true, null, 2);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void invoiceRepository_findByIdAndOwnerId() {
+        invoiceRepo.findByIdAndOwnerId("inv3-0", ownerId);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void subscriptionRepository_findByOwnerIdAndCustomerId() {
+        subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, "cust3");
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void subscriptionRepository_findByOwnerIdAndCustomerIdIn() {
+        subscriptionRepo.findByOwnerIdAndCustomerIdIn(ownerId, List.of("cust3", "cust7", "cust11"));
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void internetPlanRepository_existsByNameAndIdIn() {
+        internetPlanRepo.existsByNameAndIdIn("Plan 3", planIds);
+        assertFindsUseIndexes();
+    }
+
+    @Test
+    void internetPlanRepository_findByIdInAndIsActive() {
+        internetPlanRepo.findByIdInAndIsActive(planIds, true);
+        assertFindsUseIndexes();
+    }
+
+    private void assertFindsUseIndexes() {
+        assertFalse(CAPTURED_FINDS.isEmpty(), "The repository method sent no find command");
+        for (Document find : CAPTURED_FINDS) {
+            Document explain = mongoTemplate.getDb().runCommand(
+                    new Document("explain", withoutSessionFields(find)).append("verbosity", "executionStats"));
+
+            Document winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+            assertFalse(hasStage(winningPlan, "COLLSCAN"), () -> "Collection scan for " + find.toJson() + ": " + winningPlan.toJson());
+
+            Document executionStats = explain.get("executionStats", Document.class);
+            long keysExamined = ((Number) executionStats.get("totalKeysExamined")).longValue();
+            long returned = ((Number) executionStats.get("nReturned")).longValue();
+            assertTrue(keysExamined <= MAX_KEYS_EXAMINED_PER_DOCUMENT_RETURNED * Math.max(1, returned),
+                    () -> keysExamined + " keys examined for " + returned + " documents returned by " + find.toJson());
+        }
+    }
+
+    // The driver adds session and cluster fields to every command, explain only takes the command itself
+    private static Document withoutSessionFields(Document command) {
+        Document cleaned = new Document();
+        command.forEach((field, value) -> {
+            if (!field.startsWith("$") && !field.equals("lsid") && !field.equals("txnNumber")) {
+                cleaned.append(field, value);
+            }
+        });
+        return cleaned;
+    }
+
+    // Plans nest their input stages under inputStage, inputStages or, for slot based execution, queryPlan
+    private static boolean hasStage(Object plan, String stage) {
+        if (plan instanceof Document document) {
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+            return document.values().stream().anyMatch(value -> hasStage(value, stage));
+        }
+        if (plan instanceof List<?> list) {
+            return list.stream().anyMatch(value -> hasStage(value, stage));
+        }
+        return false;
+    }
+}
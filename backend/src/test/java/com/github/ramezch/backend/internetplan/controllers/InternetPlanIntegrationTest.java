@@ -45,7 +45,6 @@ class InternetPlanIntegrationTest {
                 "test_user",
                 "test@example.com",
                 new ArrayList<>(),
-                new ArrayList<>(),
                 AppUserRoles.USER,
                 Map.of(),
                 List.of(new SimpleGrantedAuthority(AppUserRoles.USER.toString()))
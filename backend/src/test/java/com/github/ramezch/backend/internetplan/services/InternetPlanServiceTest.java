@@ -11,6 +11,7 @@ import com.github.ramezch.backend.internetplan.repositories.InternetPlanReposito
 import com.github.ramezch.backend.utils.IdService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -99,7 +100,6 @@ class InternetPlanServiceTest {
         mockUser.setInternetPlanIds(new ArrayList<>());
         when(idService.randomId()).thenReturn("new-id");
         when(internetPlanRepo.existsByNameAndIdIn("premium", new ArrayList<>())).thenReturn(false);
-        when(internetPlanRepo.existsById("new-id")).thenReturn(false);
 
         // WHEN
         InternetPlan result = internetPlanService.addInternetPlan(internetPlanDTO1, mockUser);
@@ -110,11 +110,27 @@ class InternetPlanServiceTest {
         assertEquals("premium", result.name());
         assertTrue(result.isActive());
 
-        verify(internetPlanRepo).save(result);
+        verify(internetPlanRepo).insert(result);
+        verify(internetPlanRepo, never()).save(any());
+        verify(internetPlanRepo, never()).existsById(any());
         verify(appUserRepo).save(mockUser);
         assertTrue(mockUser.getInternetPlanIds().contains("new-id"));
     }
 
+    @Test
+    void addInternetPlan_shouldFailWithoutChangingTheUser_whenIdCollides() {
+        // GIVEN
+        mockUser.setInternetPlanIds(new ArrayList<>());
+        when(idService.randomId()).thenReturn("taken-id");
+        when(internetPlanRepo.insert(any(InternetPlan.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key"));
+
+        // WHEN & THEN
+        assertThrows(DuplicateKeyException.class, () -> internetPlanService.addInternetPlan(internetPlanDTO1, mockUser));
+
+        verify(internetPlanRepo, never()).save(any());
+        verify(appUserRepo, never()).save(any());
+    }
+
     @Test
     void addInternetPlan_shouldThrowException_whenNameExists() {
         // GIVEN
@@ -125,7 +141,7 @@ class InternetPlanServiceTest {
         // WHEN & THEN
         assertThrows(InternetPlanNameTakenException.class, () -> internetPlanService.addInternetPlan(internetPlanDTO2, mockUser));
 
-        verify(internetPlanRepo, never()).save(any());
+        verify(internetPlanRepo, never()).insert(any(InternetPlan.class));
         verify(appUserRepo, never()).save(any());
     }
 
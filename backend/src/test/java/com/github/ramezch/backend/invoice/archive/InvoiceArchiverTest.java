@@ -0,0 +1,88 @@
+package com.github.ramezch.backend.invoice.archive;
+
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.result.DeleteResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class InvoiceArchiverTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final InvoiceArchiveProperties properties = new InvoiceArchiveProperties(true, Duration.ofDays(365), 2);
+    private final InvoiceArchiver archiver = new InvoiceArchiver(mongoTemplate, properties);
+
+    @SuppressWarnings("unchecked")
+    private final MongoCollection<Document> invoices = mock(MongoCollection.class);
+    @SuppressWarnings("unchecked")
+    private final AggregateIterable<Document> aggregate = mock(AggregateIterable.class);
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.getCollectionName(Invoice.class)).thenReturn("invoice");
+        when(mongoTemplate.getCollection("invoice")).thenReturn(invoices);
+        when(invoices.aggregate(anyList())).thenReturn(aggregate);
+        when(mongoTemplate.remove(any(Query.class), eq("invoice")))
+                .thenAnswer(invocation -> DeleteResult.acknowledged(((Collection<?>) ((Query) invocation.getArgument(0))
+                        .getQueryObject().get("_id", Document.class).get("$in")).size()));
+    }
+
+    @Test
+    void archivePaidInvoices_shouldCopyThenDeleteInBatches_untilBatchIsShort() {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("invoice")))
+                .thenReturn(List.of(new Document("_id", "inv1"), new Document("_id", "inv2")))
+                .thenReturn(List.of(new Document("_id", "inv3")));
+
+        // WHEN
+        long archived = archiver.archivePaidInvoices();
+
+        // THEN
+        assertEquals(3, archived);
+        verify(mongoTemplate, times(2)).find(argThat(query -> query.getLimit() == 2
+                && Boolean.TRUE.equals(query.getQueryObject().get("isPaid"))
+                && query.getQueryObject().get("dueDate", Document.class).containsKey("$lt")
+                && query.getSortObject().equals(new Document("dueDate", 1))), eq(Document.class), eq("invoice"));
+        verify(invoices, times(2)).aggregate(argThat((List<? extends Document> pipeline) -> pipeline != null
+                && "invoiceArchive".equals(pipeline.getLast().get("$merge", Document.class).getString("into"))));
+        verify(aggregate, times(2)).toCollection();
+        verify(mongoTemplate, times(2)).remove(argThat((Query query) -> Boolean.TRUE.equals(query.getQueryObject().get("isPaid"))), eq("invoice"));
+    }
+
+    @Test
+    void archivePaidInvoices_shouldDoNothing_whenNoInvoiceIsOldEnough() {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("invoice"))).thenReturn(List.of());
+
+        // WHEN
+        long archived = archiver.archivePaidInvoices();
+
+        // THEN
+        assertEquals(0, archived);
+        verifyNoInteractions(invoices);
+        verify(mongoTemplate, never()).remove(any(Query.class), anyString());
+    }
+
+    @Test
+    void archiveNightly_shouldNotRun_whenDisabled() {
+        // WHEN
+        new InvoiceArchiver(mongoTemplate, new InvoiceArchiveProperties(false, Duration.ofDays(365), 2)).archiveNightly();
+
+        // THEN
+        verifyNoInteractions(mongoTemplate);
+    }
+}
@@ -3,6 +3,8 @@ package com.github.ramezch.backend.invoice.controllers;
 import com.github.ramezch.backend.appuser.AppUser;
 import com.github.ramezch.backend.appuser.AppUserRepository;
 import com.github.ramezch.backend.appuser.AppUserRoles;
+import com.github.ramezch.backend.invoice.archive.InvoiceArchiver;
+import com.github.ramezch.backend.invoice.models.ArchivedInvoice;
 import com.github.ramezch.backend.invoice.models.Invoice;
 import com.github.ramezch.backend.invoice.repository.InvoiceRepository;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,16 +12,19 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.http.MediaType;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -34,6 +39,10 @@ class InvoiceIntegrationTest {
     private InvoiceRepository invoiceRepo;
     @Autowired
     private AppUserRepository appUserRepo;
+    @Autowired
+    private InvoiceArchiver invoiceArchiver;
+    @Autowired
+    private MongoTemplate mongoTemplate;
 
     private final String baseURL = "/api/invoices";
     private AppUser testUser;
@@ -44,13 +53,13 @@ class InvoiceIntegrationTest {
         // Clear repositories
         invoiceRepo.deleteAll();
         appUserRepo.deleteAll();
+        mongoTemplate.dropCollection(ArchivedInvoice.COLLECTION);
 
         // Setup test user
         testUser = new AppUser(
                 "user123",
                 "test_user",
                 "test@example.com",
-                List.of("cust123"), // Customer IDs this user has access to
                 new ArrayList<>(),
                 AppUserRoles.USER,
                 Map.of(),
@@ -61,6 +70,7 @@ class InvoiceIntegrationTest {
         // Setup test invoice
         testInvoice = new Invoice(
                 "inv123",
+                "user123",
                 "cust123",
                 "sub123",
                 Instant.now(),
@@ -135,6 +145,26 @@ class InvoiceIntegrationTest {
                 .andExpect(jsonPath("$.message").value("Invoice with id: 'nonexistent' not found."));
     }
 
+    @Test
+    @DirtiesContext
+    void getCustomerInvoiceSlice_whenUnpaidOnly_returnUnpaidInvoicesNewestFirst() throws Exception {
+        // GIVEN
+        invoiceRepo.save(testInvoice);
+        invoiceRepo.save(new Invoice("inv456", "user123", "cust123", "sub123", Instant.now(), Instant.now().plusSeconds(86400 * 31), 100.0, 0, false));
+        invoiceRepo.save(new Invoice("inv789", "user123", "cust123", "sub123", Instant.now(), Instant.now().plusSeconds(86400 * 62), 100.0, 100.0, true));
+
+        // WHEN & THEN
+        mvc.perform(get(baseURL + "/customer/cust123/slice")
+                        .param("unpaidOnly", "true")
+                        .param("size", "1")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].id").value("inv456"))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andExpect(jsonPath("$.nextCursor").isNotEmpty());
+    }
+
     @Test
     @DirtiesContext
     void updateInvoice_whenValidRequest_returnUpdatedInvoice() throws Exception {
@@ -155,11 +185,67 @@ class InvoiceIntegrationTest {
                 .andExpect(content().json("""
                     {
                         "id": "inv123",
-                        "amountPaid": 100.0
+                        "amountPaid": 100.0,
+                        "isPaid": true
                     }
                 """));
     }
 
+    @Test
+    @DirtiesContext
+    void updateInvoice_whenAmountDiffersFromAmountDue_returnUnchangedInvoice() throws Exception {
+        // GIVEN
+        invoiceRepo.save(testInvoice);
+
+        // WHEN & THEN
+        mvc.perform(put(baseURL)
+                        .with(oauth2Login().oauth2User(testUser))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                    {
+                        "id": "inv123",
+                        "amountPaid": 40.0
+                    }
+                """))
+                .andExpect(status().isOk())
+                .andExpect(content().json("""
+                    {
+                        "id": "inv123",
+                        "amountPaid": 0,
+                        "isPaid": false
+                    }
+                """));
+    }
+
+    @Test
+    @DirtiesContext
+    void reconcilePayments_whenCsvUploaded_payMatchingInvoicesAndReportEveryLine() throws Exception {
+        // GIVEN
+        invoiceRepo.save(testInvoice);
+        invoiceRepo.save(new Invoice("inv456", "other-user", "cust456", "sub456", Instant.now(), Instant.now().plusSeconds(86400), 100.0, 0, false));
+        String csv = """
+                invoiceId,amountPaid
+                inv123,100.0
+                inv456,100.0
+                inv123,100.0
+                """;
+
+        // WHEN & THEN
+        mvc.perform(post(baseURL + "/reconcile")
+                        .contentType("text/csv")
+                        .content(csv)
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.lines").value(3))
+                .andExpect(jsonPath("$.totals.PAID").value(1))
+                .andExpect(jsonPath("$.results[0].outcome").value("PAID"))
+                .andExpect(jsonPath("$.results[1].outcome").value("NOT_FOUND"))
+                .andExpect(jsonPath("$.results[2].outcome").value("ALREADY_PAID"));
+
+        assertTrue(invoiceRepo.findById("inv123").orElseThrow().isPaid());
+        assertFalse(invoiceRepo.findById("inv456").orElseThrow().isPaid());
+    }
+
     @Test
     @DirtiesContext
     void updateInvoice_whenNotFound_returnNotFound() throws Exception {
@@ -195,4 +281,30 @@ class InvoiceIntegrationTest {
                 """))
                 .andExpect(status().isBadRequest());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DirtiesContext
+    void archivePaidInvoices_movesOldPaidInvoices_andLookupsStillFindThem() throws Exception {
+        // GIVEN
+        Instant twoYearsAgo = Instant.now().minus(Duration.ofDays(730));
+        invoiceRepo.save(testInvoice);
+        invoiceRepo.save(new Invoice("inv-old", "user123", "cust123", "sub123", twoYearsAgo, twoYearsAgo, 100.0, 100.0, true));
+
+        // WHEN
+        long archived = invoiceArchiver.archivePaidInvoices();
+
+        // THEN
+        assertEquals(1, archived);
+        assertEquals(List.of(testInvoice.id()), invoiceRepo.findAll().stream().map(Invoice::id).toList());
+        mvc.perform(get(baseURL + "/inv-old")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.isPaid").value(true));
+        mvc.perform(get(baseURL + "/customer/cust123/slice")
+                        .param("size", "10")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id").value("inv123"))
+                .andExpect(jsonPath("$.content[1].id").value("inv-old"));
+    }
+}
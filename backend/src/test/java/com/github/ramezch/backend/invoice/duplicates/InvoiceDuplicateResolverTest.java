@@ -0,0 +1,113 @@
+package com.github.ramezch.backend.invoice.duplicates;
+
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.revenue.services.RevenueRollupService;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.result.DeleteResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class InvoiceDuplicateResolverTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final RevenueRollupService revenueRollupService = mock(RevenueRollupService.class);
+    private final InvoiceDuplicateResolver resolver = new InvoiceDuplicateResolver(mongoTemplate, revenueRollupService);
+    private final Document uniqueKey = new Document("subscriptionId", 1).append("dueDate", 1);
+
+    @SuppressWarnings("unchecked")
+    private final MongoCollection<Document> invoices = mock(MongoCollection.class);
+    @SuppressWarnings("unchecked")
+    private final AggregateIterable<Document> aggregate = mock(AggregateIterable.class);
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.getCollectionName(Invoice.class)).thenReturn("invoice");
+        when(mongoTemplate.getCollection("invoice")).thenReturn(invoices);
+        when(invoices.aggregate(anyList())).thenReturn(aggregate);
+        when(aggregate.allowDiskUse(true)).thenReturn(aggregate);
+        when(mongoTemplate.remove(any(Query.class), eq(Invoice.class)))
+                .thenAnswer(invocation -> DeleteResult.acknowledged(((Collection<?>) ((Query) invocation.getArgument(0))
+                        .getQueryObject().get("_id", Document.class).get("$in")).size()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubDuplicates(List<Document> duplicates) {
+        when(aggregate.into(any())).thenAnswer(invocation -> {
+            Collection<Document> target = invocation.getArgument(0);
+            target.addAll(duplicates);
+            return target;
+        });
+    }
+
+    private static Document group(String ownerId, int paid, String... ids) {
+        return new Document("_id", new Document("subscriptionId", "sub1")).append("ids", List.of(ids))
+                .append("paid", paid).append("ownerId", ownerId);
+    }
+
+    @Test
+    void removeDuplicates_shouldQuarantineAllButFirstInvoiceOfEveryKey_andRebuildRollupsOfItsOwner() {
+        // GIVEN
+        stubDuplicates(List.of(group("owner1", 1, "paid", "newer", "older"), group("owner1", 0, "kept", "moved")));
+
+        // WHEN
+        long quarantined = resolver.removeDuplicates(uniqueKey);
+
+        // THEN
+        assertEquals(3, quarantined);
+        verify(invoices).aggregate(argThat((List<? extends Document> pipeline) -> pipeline != null
+                && new Document("isPaid", -1).append("issueDate", -1).append("_id", -1).equals(pipeline.getFirst().get("$sort"))
+                && new Document("subscriptionId", "$subscriptionId").append("dueDate", "$dueDate")
+                        .equals(pipeline.get(1).get("$group", Document.class).get("_id"))));
+        InOrder inOrder = inOrder(invoices, aggregate, mongoTemplate);
+        inOrder.verify(invoices).aggregate(argThat((List<? extends Document> pipeline) -> pipeline != null && pipeline.getLast().containsKey("$merge")
+                && List.of("newer", "older").equals(pipeline.getFirst().get("$match", Document.class).get("_id", Document.class).get("$in"))
+                && InvoiceDuplicateResolver.QUARANTINE_COLLECTION.equals(pipeline.getLast().get("$merge", Document.class).get("into"))));
+        inOrder.verify(aggregate).toCollection();
+        inOrder.verify(mongoTemplate).remove(argThat((Query query) -> query != null
+                && List.of("newer", "older").equals(query.getQueryObject().get("_id", Document.class).get("$in"))), eq(Invoice.class));
+        verify(mongoTemplate).remove(argThat((Query query) -> query != null
+                && List.of("moved").equals(query.getQueryObject().get("_id", Document.class).get("$in"))), eq(Invoice.class));
+        verify(aggregate, times(2)).toCollection();
+        verify(revenueRollupService).rebuild("owner1");
+    }
+
+    @Test
+    void removeDuplicates_shouldFailWithoutMovingAnything_whenAKeyHasSeveralPaidInvoices() {
+        // GIVEN
+        stubDuplicates(List.of(group("owner1", 0, "kept", "moved"), group("owner2", 2, "paid", "alsoPaid")));
+
+        // WHEN / THEN
+        assertThrows(IllegalStateException.class, () -> resolver.removeDuplicates(uniqueKey));
+        verify(aggregate, never()).toCollection();
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(Invoice.class));
+        verifyNoInteractions(revenueRollupService);
+    }
+
+    @Test
+    void removeDuplicates_shouldNotRebuildRollups_whenNothingIsDuplicated() {
+        // GIVEN
+        stubDuplicates(List.of());
+
+        // WHEN
+        long quarantined = resolver.removeDuplicates(uniqueKey);
+
+        // THEN
+        assertEquals(0, quarantined);
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(Invoice.class));
+        verifyNoInteractions(revenueRollupService);
+    }
+}
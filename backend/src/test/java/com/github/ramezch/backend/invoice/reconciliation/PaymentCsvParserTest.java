@@ -0,0 +1,66 @@
+package com.github.ramezch.backend.invoice.reconciliation;
+
+import com.github.ramezch.backend.exceptions.InvalidImportException;
+import com.github.ramezch.backend.invoice.models.InvoiceUpdateDTO;
+import com.github.ramezch.backend.utils.CsvLineReader;
+import com.github.ramezch.backend.utils.LineReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentCsvParserTest {
+
+    private CsvLineReader<InvoiceUpdateDTO> reader(String csv) {
+        return new CsvLineReader<>(new BufferedReader(new StringReader(csv)), new PaymentCsvParser());
+    }
+
+    @Test
+    void next_readsInvoiceIdAndAmount_andIgnoresOtherColumns() throws IOException {
+        // GIVEN
+        CsvLineReader<InvoiceUpdateDTO> reader = reader("""
+                \uFEFFbookingDate,InvoiceId,reference,amountPaid\r
+                2025-03-01,inv1,"Rent, March",75.5\r
+
+                2025-03-01,inv2,,100
+                """);
+
+        // WHEN
+        LineReader.Line<InvoiceUpdateDTO> first = reader.next();
+        LineReader.Line<InvoiceUpdateDTO> second = reader.next();
+
+        // THEN
+        assertEquals(1, first.number());
+        assertEquals("inv1", first.value().id());
+        assertEquals(75.5, first.value().amountPaid());
+        assertEquals(3, second.number());
+        assertEquals("inv2", second.value().id());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void next_reportsUnreadableAmount_andContinues() throws IOException {
+        // GIVEN
+        CsvLineReader<InvoiceUpdateDTO> reader = reader("id,amountPaid\ninv1,twelve\ninv2,\ninv3,12\n");
+
+        // WHEN
+        LineReader.Line<InvoiceUpdateDTO> first = reader.next();
+        LineReader.Line<InvoiceUpdateDTO> second = reader.next();
+        LineReader.Line<InvoiceUpdateDTO> third = reader.next();
+
+        // THEN
+        assertNull(first.value());
+        assertEquals("amountPaid: 'twelve' is not a number", first.error());
+        assertEquals("amountPaid: must not be empty", second.error());
+        assertEquals("inv3", third.value().id());
+    }
+
+    @Test
+    void next_throws_whenHeaderHasNoAmountColumn() {
+        CsvLineReader<InvoiceUpdateDTO> reader = reader("invoiceId,amount\ninv1,12\n");
+        assertThrows(InvalidImportException.class, reader::next);
+    }
+}
@@ -1,23 +1,49 @@
 package com.github.ramezch.backend.invoice.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.github.ramezch.backend.appuser.AppUser;
-import com.github.ramezch.backend.appuser.AppUserRepository;
+import com.github.ramezch.backend.exceptions.InvalidCursorException;
 import com.github.ramezch.backend.exceptions.InvoiceNotFoundException;
 import com.github.ramezch.backend.invoice.models.Invoice;
 import com.github.ramezch.backend.invoice.models.InvoiceDTO;
 import com.github.ramezch.backend.invoice.models.InvoiceUpdateDTO;
 import com.github.ramezch.backend.invoice.repository.InvoiceRepository;
+import com.github.ramezch.backend.revenue.services.RevenueRollupService;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
 import com.github.ramezch.backend.utils.IdService;
+import com.github.ramezch.backend.utils.KeysetCursor;
+import com.github.ramezch.backend.utils.Slice;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonString;
+import org.bson.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -30,13 +56,21 @@ class InvoiceServiceTest {
     @Mock
     private IdService idService;
     @Mock
-    private AppUserRepository appUserRepo;
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private BulkOperations bulkOps;
+    @Mock
+    private RevenueRollupService revenueRollupService;
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
 
     @InjectMocks
     private InvoiceService invoiceService;
 
     private Invoice testInvoice;
     private final String testId = "test123";
+    private final String ownerId = "user123";
     private final String custId = "cust123";
     private final String testSubscriptionId = "sub123";
     private final Instant testDueDate = Instant.now().plusSeconds(86400);
@@ -45,15 +79,14 @@ class InvoiceServiceTest {
 
     @BeforeEach
     void setUp() {
-        testInvoice = new Invoice(testId, custId, testSubscriptionId, testIssueDate, testDueDate, testAmountDue, 0, false);
+        testInvoice = new Invoice(testId, ownerId, custId, testSubscriptionId, testIssueDate, testDueDate, testAmountDue, 0, false);
     }
 
     @Test
-    void getInvoicesByCustomerId_shouldReturnInvoices_whenCustomerIdMatches() throws Exception {
+    void getInvoicesByCustomerId_shouldReturnInvoices_whenCustomerIdMatches() {
         // GIVEN
-        AppUser mockUser = new AppUser();
-        mockUser.setCustomerIds(List.of(custId));
-        when(invoiceRepo.findAllByCustomerId(custId)).thenReturn(List.of(testInvoice));
+        AppUser mockUser = owner();
+        when(invoiceRepo.findAllByOwnerIdAndCustomerId(ownerId, custId)).thenReturn(List.of(testInvoice));
 
         // WHEN
         List<Invoice> result = invoiceService.getInvoicesByCustomerId(custId, mockUser);
@@ -61,98 +94,291 @@ class InvoiceServiceTest {
         // THEN
         assertEquals(1, result.size());
         assertEquals(testInvoice, result.getFirst());
-        verify(invoiceRepo).findAllByCustomerId(custId);
+        verify(invoiceRepo).findAllByOwnerIdAndCustomerId(ownerId, custId);
     }
 
     @Test
-    void getInvoicesByCustomerId_shouldThrow_whenCustomerIdNotInUser() {
+    void getInvoicesByCustomerId_shouldReturnEmpty_whenCustomerOfAnotherOwner() {
         // GIVEN
-        AppUser mockUser = new AppUser();
-        mockUser.setCustomerIds(List.of("other-cust"));
+        AppUser mockUser = owner();
+        when(invoiceRepo.findAllByOwnerIdAndCustomerId(ownerId, "other-cust")).thenReturn(List.of());
 
-        // WHEN & THEN
-        assertThrows(IllegalAccessException.class,
-                () -> invoiceService.getInvoicesByCustomerId(custId, mockUser));
-        verify(invoiceRepo, never()).findAllByCustomerId(any());
+        // WHEN
+        List<Invoice> result = invoiceService.getInvoicesByCustomerId("other-cust", mockUser);
+
+        // THEN
+        assertTrue(result.isEmpty());
     }
 
     @Test
-    void getInvoiceById_shouldReturnInvoice_whenFoundAndAuthorized() throws Exception {
+    void getInvoiceById_shouldReturnInvoice_whenFoundAndAuthorized() {
         // GIVEN
-        AppUser mockUser = new AppUser();
-        mockUser.setCustomerIds(List.of(custId));
-        when(invoiceRepo.findById(testId)).thenReturn(Optional.of(testInvoice));
+        AppUser mockUser = owner();
+        when(invoiceRepo.findByIdAndOwnerId(testId, ownerId)).thenReturn(Optional.of(testInvoice));
 
         // WHEN
         Invoice result = invoiceService.getInvoiceById(testId, mockUser);
 
         // THEN
         assertEquals(testInvoice, result);
-        verify(invoiceRepo).findById(testId);
+        verify(invoiceRepo).findByIdAndOwnerId(testId, ownerId);
     }
 
     @Test
     void getInvoiceById_shouldThrow_whenInvoiceNotFound() {
         // GIVEN
-        AppUser mockUser = new AppUser();
-        mockUser.setCustomerIds(List.of(custId));
-        when(invoiceRepo.findById(testId)).thenReturn(Optional.empty());
+        AppUser mockUser = owner();
+        when(invoiceRepo.findByIdAndOwnerId(testId, ownerId)).thenReturn(Optional.empty());
 
         // WHEN & THEN
         assertThrows(InvoiceNotFoundException.class,
                 () -> invoiceService.getInvoiceById(testId, mockUser));
-        verify(invoiceRepo).findById(testId);
+        verify(invoiceRepo).findByIdAndOwnerId(testId, ownerId);
     }
 
     @Test
-    void getInvoiceById_shouldThrow_whenUnauthorized() {
+    void getInvoiceById_shouldReturnArchivedInvoice_whenNotInInvoiceCollection() {
         // GIVEN
-        AppUser mockUser = new AppUser();
-        mockUser.setCustomerIds(List.of("other-cust"));
-        when(invoiceRepo.findById(testId)).thenReturn(Optional.of(testInvoice));
+        AppUser mockUser = owner();
+        Invoice archivedInvoice = testInvoice.withPaid(true).withAmountPaid(testAmountDue);
+        when(invoiceRepo.findByIdAndOwnerId(testId, ownerId)).thenReturn(Optional.empty());
+        when(mongoTemplate.findOne(any(Query.class), eq(Invoice.class), eq("invoiceArchive"))).thenReturn(archivedInvoice);
+
+        // WHEN
+        Invoice result = invoiceService.getInvoiceById(testId, mockUser);
+
+        // THEN
+        assertEquals(archivedInvoice, result);
+        verify(mongoTemplate).findOne(argThat(query -> testId.equals(query.getQueryObject().get("_id"))
+                && ownerId.equals(query.getQueryObject().get("ownerId"))), eq(Invoice.class), eq("invoiceArchive"));
+    }
+
+    @Test
+    void getInvoiceById_shouldThrowNotFound_whenInvoiceOfAnotherOwner() {
+        // GIVEN
+        AppUser otherUser = new AppUser();
+        otherUser.setId("other-user");
+        when(invoiceRepo.findByIdAndOwnerId(testId, "other-user")).thenReturn(Optional.empty());
 
         // WHEN & THEN
-        assertThrows(IllegalAccessException.class,
-                () -> invoiceService.getInvoiceById(testId, mockUser));
-        verify(invoiceRepo).findById(testId);
+        assertThrows(InvoiceNotFoundException.class,
+                () -> invoiceService.getInvoiceById(testId, otherUser));
+        verify(invoiceRepo, never()).findById(any());
+    }
+
+    @Test
+    void getInvoiceSlice_shouldReturnNextCursor_whenMoreInvoicesExist() {
+        // GIVEN
+        Invoice olderInvoice = new Invoice("inv456", ownerId, custId, testSubscriptionId, testIssueDate, testDueDate.minusSeconds(86400 * 30), testAmountDue, testAmountDue, true);
+        when(mongoTemplate.find(any(Query.class), eq(Invoice.class))).thenReturn(new ArrayList<>(List.of(testInvoice, olderInvoice)));
+
+        // WHEN
+        Slice<Invoice> result = invoiceService.getInvoiceSlice(custId, owner(), false, null, 1);
+
+        // THEN
+        assertEquals(List.of(testInvoice), result.content());
+        assertTrue(result.hasNext());
+        assertEquals(KeysetCursor.of(testInvoice.dueDate(), testInvoice.id()), KeysetCursor.decode(result.nextCursor()));
+        verify(mongoTemplate).find(argThat(query -> query.getLimit() == 2
+                && ownerId.equals(query.getQueryObject().get("ownerId"))
+                && custId.equals(query.getQueryObject().get("customerId"))
+                && !query.getQueryObject().containsKey("isPaid")
+                && query.getSortObject().equals(new Document("dueDate", -1).append("_id", -1))), eq(Invoice.class));
+    }
+
+    @Test
+    void getInvoiceSlice_shouldMergeArchivedInvoicesInOrder() {
+        // GIVEN
+        Invoice paidInvoice = new Invoice("inv456", ownerId, custId, testSubscriptionId, testIssueDate, testDueDate.minusSeconds(86400 * 30), testAmountDue, testAmountDue, true);
+        Invoice archivedInvoice = new Invoice("inv001", ownerId, custId, testSubscriptionId, testIssueDate, testDueDate.minusSeconds(86400 * 400), testAmountDue, testAmountDue, true);
+        when(mongoTemplate.find(any(Query.class), eq(Invoice.class))).thenReturn(List.of(testInvoice));
+        when(mongoTemplate.find(any(Query.class), eq(Invoice.class), eq("invoiceArchive"))).thenReturn(List.of(paidInvoice, archivedInvoice));
+
+        // WHEN
+        Slice<Invoice> result = invoiceService.getInvoiceSlice(custId, owner(), false, null, 2);
+
+        // THEN
+        assertEquals(List.of(testInvoice, paidInvoice), result.content());
+        assertTrue(result.hasNext());
+        assertEquals(KeysetCursor.of(paidInvoice.dueDate(), paidInvoice.id()), KeysetCursor.decode(result.nextCursor()));
     }
 
     @Test
-    void updateInvoice_shouldUpdateInvoice_whenAuthorized() throws Exception {
+    void getInvoiceSlice_shouldContinueAfterCursor_andFilterUnpaid() {
         // GIVEN
-        AppUser mockUser = new AppUser();
-        mockUser.setCustomerIds(List.of(custId));
-        double amountPaid = testAmountDue;
-        InvoiceUpdateDTO updateDTO = new InvoiceUpdateDTO(testId, amountPaid);
-        Invoice expectedInvoice = testInvoice.withPaid(true).withAmountPaid(amountPaid);
+        String cursor = KeysetCursor.of(testInvoice.dueDate(), testInvoice.id()).encode();
+        when(mongoTemplate.find(any(Query.class), eq(Invoice.class))).thenReturn(List.of());
+
+        // WHEN
+        Slice<Invoice> result = invoiceService.getInvoiceSlice(custId, owner(), true, cursor, 10);
 
-        when(invoiceRepo.findById(testId)).thenReturn(Optional.of(testInvoice));
-        when(invoiceRepo.save(expectedInvoice)).thenReturn(expectedInvoice);
+        // THEN
+        assertTrue(result.content().isEmpty());
+        assertFalse(result.hasNext());
+        assertNull(result.nextCursor());
+        verify(mongoTemplate).find(argThat(query -> Boolean.FALSE.equals(query.getQueryObject().get("isPaid"))
+                && query.getQueryObject().get("$or") instanceof List<?> conditions
+                && conditions.size() == 2), eq(Invoice.class));
+    }
+
+    @Test
+    void getInvoiceSlice_shouldThrowInvalidCursor_whenCursorIsMalformed() {
+        assertThrows(InvalidCursorException.class, () -> invoiceService.getInvoiceSlice(custId, owner(), false, "not a cursor", 10));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Invoice.class));
+    }
+
+    @Test
+    void streamInvoices_shouldWriteOneJsonInvoicePerLine() throws Exception {
+        // GIVEN
+        Invoice paidInvoice = new Invoice("inv456", ownerId, custId, testSubscriptionId, testIssueDate, testDueDate.minusSeconds(86400 * 30), testAmountDue, testAmountDue, true);
+        Invoice archivedInvoice = new Invoice("inv001", ownerId, custId, testSubscriptionId, testIssueDate, testDueDate.minusSeconds(86400 * 400), testAmountDue, testAmountDue, true);
+        when(mongoTemplate.stream(any(Query.class), eq(Invoice.class))).thenReturn(Stream.of(testInvoice, paidInvoice));
+        when(mongoTemplate.stream(any(Query.class), eq(Invoice.class), eq("invoiceArchive"))).thenReturn(Stream.of(paidInvoice, archivedInvoice));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
 
         // WHEN
-        InvoiceUpdateDTO result = invoiceService.updateInvoice(updateDTO, mockUser);
+        invoiceService.streamInvoices(custId, ownerId, false, out);
 
         // THEN
-        assertEquals(updateDTO, result);
-        verify(invoiceRepo).findById(testId);
-        verify(invoiceRepo).save(expectedInvoice);
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(3, lines.size());
+        assertEquals(testInvoice, objectMapper.readValue(lines.get(0), Invoice.class));
+        assertEquals(paidInvoice, objectMapper.readValue(lines.get(1), Invoice.class));
+        assertEquals(archivedInvoice, objectMapper.readValue(lines.get(2), Invoice.class));
+        verify(mongoTemplate).stream(argThat(query -> custId.equals(query.getQueryObject().get("customerId"))
+                && query.getMeta().getCursorBatchSize() == InvoiceService.STREAM_BATCH_SIZE), eq(Invoice.class));
+    }
+
+    @Test
+    void updateInvoice_shouldMarkPaidInOneFindAndModify_whenAmountDueIsPaid() {
+        // GIVEN
+        AppUser mockUser = owner();
+        InvoiceUpdateDTO updateDTO = new InvoiceUpdateDTO(testId, testAmountDue);
+        Invoice paidInvoice = testInvoice.withPaid(true).withAmountPaid(testAmountDue);
+
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Invoice.class)))
+                .thenReturn(paidInvoice);
+
+        // WHEN
+        Invoice result = invoiceService.updateInvoice(updateDTO, mockUser);
+
+        // THEN
+        assertEquals(paidInvoice, result);
+        verify(mongoTemplate).findAndModify(
+                argThat(query -> testId.equals(query.getQueryObject().get("_id"))
+                        && ownerId.equals(query.getQueryObject().get("ownerId"))
+                        && Boolean.FALSE.equals(query.getQueryObject().get("isPaid"))
+                        && Double.valueOf(testAmountDue).equals(query.getQueryObject().get("amountDue"))),
+                argThat(update -> Boolean.TRUE.equals(update.getUpdateObject().get("$set", Document.class).get("isPaid"))
+                        && Double.valueOf(testAmountDue).equals(update.getUpdateObject().get("$set", Document.class).get("amountPaid"))),
+                argThat(FindAndModifyOptions::isReturnNew),
+                eq(Invoice.class));
+        verify(mongoTemplate).updateFirst(
+                argThat(query -> testSubscriptionId.equals(query.getQueryObject().get("_id"))
+                        && SubscriptionStatus.EXPIRED.equals(query.getQueryObject().get("status"))),
+                argThat(update -> update.getUpdateObject().get("$set", Document.class).containsKey("nextActionAt")),
+                eq(Subscription.class));
+        verify(revenueRollupService).recordPaid(List.of(new RevenueRollupService.Entry(ownerId, testDueDate, null, testAmountDue)));
+        verify(invoiceRepo, never()).findByIdAndOwnerId(any(), any());
+        verify(invoiceRepo, never()).save(any());
+    }
+
+    @Test
+    void updateInvoice_shouldReturnInvoiceUnchanged_whenPaymentDoesNotMatch() {
+        // GIVEN
+        AppUser mockUser = owner();
+        InvoiceUpdateDTO updateDTO = new InvoiceUpdateDTO(testId, 40.0);
+
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Invoice.class)))
+                .thenReturn(null);
+        when(invoiceRepo.findByIdAndOwnerId(testId, ownerId)).thenReturn(Optional.of(testInvoice));
+
+        // WHEN
+        Invoice result = invoiceService.updateInvoice(updateDTO, mockUser);
+
+        // THEN
+        assertEquals(testInvoice, result);
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Subscription.class));
+    }
+
+    @Test
+    void updateInvoice_shouldThrow_whenInvoiceNotFound() {
+        // GIVEN
+        AppUser mockUser = owner();
+        InvoiceUpdateDTO updateDTO = new InvoiceUpdateDTO(testId, testAmountDue);
+
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Invoice.class)))
+                .thenReturn(null);
+        when(invoiceRepo.findByIdAndOwnerId(testId, ownerId)).thenReturn(Optional.empty());
+
+        // WHEN & THEN
+        assertThrows(InvoiceNotFoundException.class, () -> invoiceService.updateInvoice(updateDTO, mockUser));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Subscription.class));
     }
 
     @Test
     void generateInvoice_shouldCreateNewInvoice() {
         // GIVEN
         String newId = "new123";
-        InvoiceDTO invoiceDTO = new InvoiceDTO(custId, testSubscriptionId, testDueDate, testAmountDue);
+        InvoiceDTO invoiceDTO = new InvoiceDTO(ownerId, custId, testSubscriptionId, "plan1", testDueDate, testAmountDue);
 
         when(idService.randomId()).thenReturn(newId);
-        when(invoiceRepo.save(any(Invoice.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(Invoice.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, new BsonString(newId)));
 
         // WHEN
         invoiceService.generateInvoice(invoiceDTO);
 
         // THEN
         verify(idService).randomId();
-        verify(invoiceRepo).save(any(Invoice.class));
+        verify(mongoTemplate).upsert(
+                argThat(query -> testSubscriptionId.equals(query.getQueryObject().get("subscriptionId"))
+                        && testDueDate.equals(query.getQueryObject().get("dueDate"))),
+                argThat(update -> newId.equals(update.getUpdateObject().get("$setOnInsert", Document.class).get("_id"))
+                        && ownerId.equals(update.getUpdateObject().get("$setOnInsert", Document.class).get("ownerId"))
+                        && "plan1".equals(update.getUpdateObject().get("$setOnInsert", Document.class).get("internetPlanId"))),
+                eq(Invoice.class));
+        verify(revenueRollupService).recordBilled(List.of(new RevenueRollupService.Entry(ownerId, testDueDate, "plan1", testAmountDue)));
+        verify(invoiceRepo, never()).save(any());
+    }
+
+    @Test
+    void generateInvoice_shouldNotBillAgain_whenInvoiceExists() {
+        // GIVEN
+        InvoiceDTO invoiceDTO = new InvoiceDTO(ownerId, custId, testSubscriptionId, "plan1", testDueDate, testAmountDue);
+        when(idService.randomId()).thenReturn("new123");
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(Invoice.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 0L, null));
+
+        // WHEN
+        invoiceService.generateInvoice(invoiceDTO);
+
+        // THEN
+        verify(revenueRollupService, never()).recordBilled(any());
+    }
+
+    @Test
+    void generateInvoices_shouldUpsertAllInvoicesInOneBulkWrite() {
+        // GIVEN
+        InvoiceDTO first = new InvoiceDTO(ownerId, custId, testSubscriptionId, "plan1", testDueDate, testAmountDue);
+        InvoiceDTO second = new InvoiceDTO(ownerId, "cust456", "sub456", "plan2", testDueDate, 50.0);
+
+        when(idService.randomId()).thenReturn("new1", "new2");
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Invoice.class)).thenReturn(bulkOps);
+        // The first invoice existed already, only the second one is inserted
+        when(bulkOps.execute()).thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 0, List.of(new BulkWriteUpsert(1, new BsonString("new2"))), List.of()));
+
+        // WHEN
+        invoiceService.generateInvoices(List.of(first, second));
+
+        // THEN
+        verify(bulkOps).upsert(argThat((Query query) -> testSubscriptionId.equals(query.getQueryObject().get("subscriptionId"))),
+                argThat((Update update) -> "new1".equals(update.getUpdateObject().get("$setOnInsert", Document.class).get("_id"))));
+        verify(bulkOps).upsert(argThat((Query query) -> "sub456".equals(query.getQueryObject().get("subscriptionId"))),
+                argThat((Update update) -> "new2".equals(update.getUpdateObject().get("$setOnInsert", Document.class).get("_id"))));
+        verify(bulkOps).execute();
+        verify(revenueRollupService).recordBilled(List.of(new RevenueRollupService.Entry(ownerId, testDueDate, "plan2", 50.0)));
+        verify(invoiceRepo, never()).save(any());
     }
 
     @Test
@@ -169,6 +395,53 @@ class InvoiceServiceTest {
         verify(invoiceRepo).findBySubscriptionIdAndDueDate(testSubscriptionId, testDueDate);
     }
 
+    @Test
+    void getInvoices_shouldReturnOnlyExactDueDateMatches_keyedBySubscriptionId() {
+        // GIVEN
+        Instant otherDueDate = testDueDate.plusSeconds(3600);
+        Invoice otherSubscriptionInvoice = new Invoice("inv456", ownerId, "cust456", "sub456", testIssueDate, otherDueDate, 50.0, 0, false);
+        Invoice crossMatch = new Invoice("inv789", ownerId, custId, testSubscriptionId, testIssueDate, otherDueDate, 50.0, 0, false);
+        Map<String, Instant> dueDates = Map.of(testSubscriptionId, testDueDate, "sub456", otherDueDate);
+
+        when(invoiceRepo.findBySubscriptionIdInAndDueDateIn(dueDates.keySet(), Set.copyOf(dueDates.values())))
+                .thenReturn(List.of(testInvoice, otherSubscriptionInvoice, crossMatch));
+
+        // WHEN
+        Map<String, Invoice> result = invoiceService.getInvoices(dueDates);
+
+        // THEN
+        assertEquals(Map.of(testSubscriptionId, testInvoice, "sub456", otherSubscriptionInvoice), result);
+    }
+
+    @Test
+    void getInvoices_shouldLookUpArchive_onlyForInvoicesNotFound() {
+        // GIVEN
+        Instant archivedDueDate = testDueDate.minusSeconds(86400 * 400);
+        Invoice archivedInvoice = new Invoice("inv001", ownerId, "cust456", "sub456", testIssueDate, archivedDueDate, 50.0, 50.0, true);
+        Map<String, Instant> dueDates = Map.of(testSubscriptionId, testDueDate, "sub456", archivedDueDate);
+        when(invoiceRepo.findBySubscriptionIdInAndDueDateIn(dueDates.keySet(), Set.copyOf(dueDates.values())))
+                .thenReturn(List.of(testInvoice));
+        when(mongoTemplate.find(any(Query.class), eq(Invoice.class), eq("invoiceArchive"))).thenReturn(List.of(archivedInvoice));
+
+        // WHEN
+        Map<String, Invoice> result = invoiceService.getInvoices(dueDates);
+
+        // THEN
+        assertEquals(Map.of(testSubscriptionId, testInvoice, "sub456", archivedInvoice), result);
+        verify(mongoTemplate).find(argThat(query -> query.getQueryObject().get("subscriptionId", Document.class).get("$in") instanceof Collection<?> ids
+                && ids.equals(Set.of("sub456"))), eq(Invoice.class), eq("invoiceArchive"));
+    }
+
+    @Test
+    void getInvoices_shouldNotQuery_whenNothingRequested() {
+        // WHEN
+        Map<String, Invoice> result = invoiceService.getInvoices(Map.of());
+
+        // THEN
+        assertTrue(result.isEmpty());
+        verifyNoInteractions(invoiceRepo);
+    }
+
     @Test
     void getInvoice_shouldReturnNull_whenNotFound() {
         // GIVEN
@@ -182,4 +455,10 @@ class InvoiceServiceTest {
         assertNull(result);
         verify(invoiceRepo).findBySubscriptionIdAndDueDate("nonexistent", testDueDate);
     }
-}
\ No newline at end of file
+
+    private AppUser owner() {
+        AppUser appUser = new AppUser();
+        appUser.setId(ownerId);
+        return appUser;
+    }
+}
@@ -0,0 +1,220 @@
+package com.github.ramezch.backend.invoice.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.invoice.models.PaymentOutcome;
+import com.github.ramezch.backend.invoice.models.PaymentResult;
+import com.github.ramezch.backend.invoice.models.ReconciliationReport;
+import com.github.ramezch.backend.revenue.services.RevenueRollupService;
+import com.github.ramezch.backend.utils.IdService;
+import com.github.ramezch.backend.utils.ImportFormat;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import jakarta.validation.Validation;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PaymentReconciliationServiceTest {
+    private static final String OWNER_ID = "user123";
+    private static final Instant DUE_DATE = Instant.parse("2025-03-01T00:00:00Z");
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final InvoiceService invoiceService = mock(InvoiceService.class);
+    private final RevenueRollupService revenueRollupService = mock(RevenueRollupService.class);
+    private final BulkOperations bulkOps = mock(BulkOperations.class);
+    private final IdService idService = mock(IdService.class);
+    private final PaymentReconciliationService reconciliationService = new PaymentReconciliationService(mongoTemplate,
+            invoiceService, revenueRollupService, Validation.buildDefaultValidatorFactory().getValidator(), new ObjectMapper(), idService);
+    private final AppUser appUser = new AppUser();
+
+    @BeforeEach
+    void setUp() {
+        appUser.setId(OWNER_ID);
+        when(mongoTemplate.getCollectionName(Invoice.class)).thenReturn("invoice");
+        when(idService.randomId()).thenReturn("batch1");
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Invoice.class)).thenReturn(bulkOps);
+        when(bulkOps.updateOne(any(Query.class), any(Update.class))).thenReturn(bulkOps);
+        when(bulkOps.execute()).thenAnswer(invocation -> BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Document invoice(String id, double amountDue, boolean isPaid) {
+        return new Document("_id", id).append("amountDue", amountDue).append("isPaid", isPaid).append("subscriptionId", "sub-" + id)
+                .append("dueDate", Date.from(DUE_DATE)).append("internetPlanId", "plan1");
+    }
+
+    @Test
+    void reconcile_shouldPayMatchingInvoices_andReportEveryLine() throws IOException {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("invoice")))
+                .thenReturn(List.of(invoice("inv1", 50.0, false), invoice("inv2", 50.0, true), invoice("inv3", 50.0, false)));
+        String ndjson = """
+                {"invoiceId":"inv1","amountPaid":50.0}
+                {"invoiceId":"inv2","amountPaid":50.0}
+                {"invoiceId":"inv3","amountPaid":20.0}
+                {"invoiceId":"other-owner","amountPaid":50.0}
+
+                {"invoiceId":"inv1","amountPaid":50.0}
+                {"invoiceId":"","amountPaid":50.0}
+                {not json
+                """;
+
+        // WHEN
+        ReconciliationReport report = reconciliationService.reconcile(appUser, ImportFormat.NDJSON, body(ndjson));
+
+        // THEN
+        assertEquals(7, report.lines());
+        assertEquals(List.of(1L, 2L, 3L, 4L, 6L, 7L, 8L), report.results().stream().map(PaymentResult::line).toList());
+        assertEquals(List.of(PaymentOutcome.PAID, PaymentOutcome.ALREADY_PAID, PaymentOutcome.AMOUNT_MISMATCH,
+                        PaymentOutcome.NOT_FOUND, PaymentOutcome.ALREADY_PAID, PaymentOutcome.INVALID, PaymentOutcome.INVALID),
+                report.results().stream().map(PaymentResult::outcome).toList());
+        assertEquals(Map.of(PaymentOutcome.PAID, 1L, PaymentOutcome.ALREADY_PAID, 2L, PaymentOutcome.AMOUNT_MISMATCH, 1L,
+                PaymentOutcome.NOT_FOUND, 1L, PaymentOutcome.INVALID, 2L), report.totals());
+
+        verify(mongoTemplate).find(argThat(query -> OWNER_ID.equals(query.getQueryObject().get("ownerId"))
+                && query.getQueryObject().get("_id", Document.class).get("$in") instanceof Collection<?> ids && ids.size() == 4), eq(Document.class), eq("invoice"));
+        verify(bulkOps).updateOne(
+                argThat((Query query) -> "inv1".equals(query.getQueryObject().get("_id"))
+                        && Boolean.FALSE.equals(query.getQueryObject().get("isPaid"))
+                        && OWNER_ID.equals(query.getQueryObject().get("ownerId"))),
+                argThat((Update update) -> Boolean.TRUE.equals(update.getUpdateObject().get("$set", Document.class).get("isPaid"))));
+        verify(bulkOps).execute();
+        verify(mongoTemplate).updateMulti(argThat((Query query) -> query != null && "batch1".equals(query.getQueryObject().get("paymentBatchId"))
+                        && List.of("inv1").equals(query.getQueryObject().get("_id", Document.class).get("$in"))),
+                argThat((Update update) -> update != null && update.getUpdateObject().get("$unset", Document.class).containsKey("paymentBatchId")),
+                eq(Invoice.class));
+        verify(invoiceService).scheduleExpiredSubscriptions(List.of("sub-inv1"));
+        verify(revenueRollupService).recordPaid(List.of(new RevenueRollupService.Entry(OWNER_ID, DUE_DATE, "plan1", 50.0)));
+    }
+
+    @Test
+    void reconcile_shouldReportArchivedInvoicesAsAlreadyPaid() throws IOException {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("invoice"))).thenReturn(List.of(invoice("inv1", 50.0, false)));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("invoiceArchive"))).thenReturn(List.of(invoice("inv0", 50.0, true)));
+        String csv = "invoiceId,amountPaid\ninv1,50\ninv0,50\n";
+
+        // WHEN
+        ReconciliationReport report = reconciliationService.reconcile(appUser, ImportFormat.CSV, body(csv));
+
+        // THEN
+        assertEquals(List.of(PaymentOutcome.PAID, PaymentOutcome.ALREADY_PAID), report.results().stream().map(PaymentResult::outcome).toList());
+        verify(mongoTemplate).find(argThat(query -> query.getQueryObject().get("_id", Document.class).get("$in") instanceof Collection<?> ids
+                && ids.equals(Set.of("inv0"))), eq(Document.class), eq("invoiceArchive"));
+        verify(bulkOps).updateOne(argThat((Query query) -> "inv1".equals(query.getQueryObject().get("_id"))), any(Update.class));
+        verify(bulkOps, never()).updateOne(argThat((Query query) -> query != null && "inv0".equals(query.getQueryObject().get("_id"))), any(Update.class));
+    }
+
+    @Test
+    void reconcile_shouldSettleInBatches() throws IOException {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("invoice"))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            Collection<?> ids = (Collection<?>) query.getQueryObject().get("_id", Document.class).get("$in");
+            return ids.stream()
+                    .map(id -> invoice((String) id, 10.0, false))
+                    .toList();
+        });
+        AtomicInteger updates = new AtomicInteger();
+        when(bulkOps.updateOne(any(Query.class), any(Update.class))).thenAnswer(invocation -> {
+            updates.incrementAndGet();
+            return bulkOps;
+        });
+        when(bulkOps.execute()).thenAnswer(invocation -> {
+            int matched = updates.getAndSet(0);
+            return BulkWriteResult.acknowledged(0, matched, 0, matched, List.of(), List.of());
+        });
+        String csv = "invoiceId,amountPaid\n" + IntStream.range(0, PaymentReconciliationService.BATCH_SIZE + 1)
+                .mapToObj(i -> "inv" + i + ",10")
+                .collect(Collectors.joining("\n"));
+
+        // WHEN
+        ReconciliationReport report = reconciliationService.reconcile(appUser, ImportFormat.CSV, body(csv));
+
+        // THEN
+        assertEquals(Map.of(PaymentOutcome.PAID, PaymentReconciliationService.BATCH_SIZE + 1L), report.totals());
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(Document.class), eq("invoice"));
+        verify(bulkOps, times(2)).execute();
+        verify(invoiceService, times(2)).scheduleExpiredSubscriptions(anyList());
+    }
+
+    @Test
+    void reconcile_shouldReportPaymentsAppliedConcurrently_asAlreadyPaid() throws IOException {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("invoice"))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            if ("batch1".equals(query.getQueryObject().get(PaymentReconciliationService.PAYMENT_BATCH_ID))) {
+                return List.of(new Document("_id", "inv1"));
+            }
+            return List.of(invoice("inv1", 50.0, false), invoice("inv2", 50.0, false));
+        });
+        when(bulkOps.execute()).thenAnswer(invocation -> BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+        // WHEN
+        ReconciliationReport report = reconciliationService.reconcile(appUser, ImportFormat.NDJSON, body("""
+                {"invoiceId":"inv1","amountPaid":50.0}
+                {"invoiceId":"inv2","amountPaid":50.0}
+                """));
+
+        // THEN
+        assertEquals(List.of(PaymentOutcome.PAID, PaymentOutcome.ALREADY_PAID), report.results().stream().map(PaymentResult::outcome).toList());
+        verify(bulkOps, times(2)).updateOne(any(Query.class),
+                argThat((Update update) -> "batch1".equals(update.getUpdateObject().get("$set", Document.class).get(PaymentReconciliationService.PAYMENT_BATCH_ID))));
+        verify(invoiceService).scheduleExpiredSubscriptions(List.of("sub-inv1"));
+        verify(revenueRollupService).recordPaid(List.of(new RevenueRollupService.Entry(OWNER_ID, DUE_DATE, "plan1", 50.0)));
+    }
+
+    @Test
+    void reconcile_shouldReportRejectedWrites_andPayTheRest() throws IOException {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("invoice")))
+                .thenReturn(List.of(invoice("inv1", 50.0, false), invoice("inv2", 50.0, false)));
+        BulkWriteResult written = BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of());
+        BulkWriteError rejected = new BulkWriteError(121, "Document failed validation", new BsonDocument(), 1);
+        when(bulkOps.execute()).thenThrow(new BulkOperationException("write failed",
+                new MongoBulkWriteException(written, List.of(rejected), null, new ServerAddress(), Set.of())));
+
+        // WHEN
+        ReconciliationReport report = reconciliationService.reconcile(appUser, ImportFormat.NDJSON, body("""
+                {"invoiceId":"inv1","amountPaid":50.0}
+                {"invoiceId":"inv2","amountPaid":50.0}
+                """));
+
+        // THEN
+        assertEquals(List.of(PaymentOutcome.PAID, PaymentOutcome.FAILED), report.results().stream().map(PaymentResult::outcome).toList());
+        assertEquals("Document failed validation", report.results().get(1).message());
+        verify(invoiceService).scheduleExpiredSubscriptions(List.of("sub-inv1"));
+    }
+}
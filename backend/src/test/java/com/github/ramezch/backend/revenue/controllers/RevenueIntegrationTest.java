@@ -0,0 +1,140 @@
+package com.github.ramezch.backend.revenue.controllers;
+
+import com.github.ramezch.backend.appuser.AppUser;
+import com.github.ramezch.backend.appuser.AppUserRepository;
+import com.github.ramezch.backend.appuser.AppUserRoles;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.invoice.models.InvoiceDTO;
+import com.github.ramezch.backend.invoice.repository.InvoiceRepository;
+import com.github.ramezch.backend.invoice.services.InvoiceService;
+import com.github.ramezch.backend.revenue.models.RevenueRollup;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class RevenueIntegrationTest {
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private InvoiceService invoiceService;
+    @Autowired
+    private InvoiceRepository invoiceRepo;
+    @Autowired
+    private AppUserRepository appUserRepo;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final String baseURL = "/api/revenue";
+    private final Instant march = Instant.parse("2099-03-10T00:00:00Z");
+    private final Instant april = Instant.parse("2099-04-10T00:00:00Z");
+    private AppUser testUser;
+
+    @BeforeEach
+    void setup() {
+        invoiceRepo.deleteAll();
+        appUserRepo.deleteAll();
+        mongoTemplate.dropCollection(RevenueRollup.class);
+
+        testUser = new AppUser(
+                "user123",
+                "test_user",
+                "test@example.com",
+                new ArrayList<>(),
+                AppUserRoles.USER,
+                Map.of(),
+                List.of(new SimpleGrantedAuthority(AppUserRoles.USER.toString()))
+        );
+        appUserRepo.save(testUser);
+
+        invoiceService.generateInvoice(new InvoiceDTO("user123", "cust1", "sub1", "plan1", march, 50.0));
+        invoiceService.generateInvoice(new InvoiceDTO("user123", "cust2", "sub2", "plan2", march, 80.0));
+        invoiceService.generateInvoice(new InvoiceDTO("user123", "cust1", "sub1", "plan1", april, 50.0));
+        // Generated again, which must not bill it twice
+        invoiceService.generateInvoice(new InvoiceDTO("user123", "cust1", "sub1", "plan1", march, 50.0));
+        invoiceService.generateInvoice(new InvoiceDTO("other-user", "cust3", "sub3", "plan1", march, 999.0));
+    }
+
+    @Test
+    @DirtiesContext
+    void getRevenueReport_answersFromRollupsKeptUpToDateByInvoices() throws Exception {
+        // GIVEN
+        Invoice marchInvoice = invoiceService.getInvoice("sub1", march);
+        mvc.perform(put("/api/invoices")
+                        .with(oauth2Login().oauth2User(testUser))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\": \"" + marchInvoice.id() + "\", \"amountPaid\": 50.0}"))
+                .andExpect(status().isOk());
+
+        // WHEN & THEN
+        mvc.perform(get(baseURL)
+                        .param("from", "2099-03")
+                        .param("to", "2099-04")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isOk())
+                .andExpect(content().json("""
+                    {
+                        "from": "2099-03",
+                        "to": "2099-04",
+                        "rows": [
+                            {"month": "2099-03", "internetPlanId": "plan1", "invoicesBilled": 1, "billed": 50.0, "invoicesPaid": 1, "paid": 50.0, "outstanding": 0.0},
+                            {"month": "2099-03", "internetPlanId": "plan2", "invoicesBilled": 1, "billed": 80.0, "invoicesPaid": 0, "paid": 0.0, "outstanding": 80.0},
+                            {"month": "2099-04", "internetPlanId": "plan1", "invoicesBilled": 1, "billed": 50.0, "invoicesPaid": 0, "paid": 0.0, "outstanding": 50.0}
+                        ],
+                        "total": {"invoicesBilled": 3, "billed": 180.0, "invoicesPaid": 1, "paid": 50.0, "outstanding": 130.0}
+                    }
+                """));
+    }
+
+    @Test
+    @DirtiesContext
+    void rebuildRevenueRollups_recomputesTheSameTotalsFromInvoices() throws Exception {
+        // GIVEN
+        mongoTemplate.dropCollection(RevenueRollup.class);
+
+        // WHEN
+        mvc.perform(post(baseURL + "/rebuild")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isOk())
+                .andExpect(content().string("3"));
+
+        // THEN
+        mvc.perform(get(baseURL)
+                        .param("from", "2099-03")
+                        .param("to", "2099-04")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rows.length()").value(3))
+                .andExpect(jsonPath("$.total.billed").value(180.0))
+                .andExpect(jsonPath("$.total.outstanding").value(180.0));
+    }
+
+    @Test
+    @DirtiesContext
+    void getRevenueReport_whenRangeReversed_returnBadRequest() throws Exception {
+        mvc.perform(get(baseURL)
+                        .param("from", "2099-04")
+                        .param("to", "2099-03")
+                        .with(oauth2Login().oauth2User(testUser)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("The report range is not valid: 2099-04 is after 2099-03"));
+    }
+}
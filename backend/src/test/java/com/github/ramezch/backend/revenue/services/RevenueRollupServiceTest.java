@@ -0,0 +1,257 @@
+package com.github.ramezch.backend.revenue.services;
+
+import com.github.ramezch.backend.exceptions.InvalidReportRangeException;
+import com.github.ramezch.backend.invoice.models.Invoice;
+import com.github.ramezch.backend.revenue.models.RevenueReport;
+import com.github.ramezch.backend.revenue.models.RevenueRollup;
+import com.github.ramezch.backend.revenue.models.RevenueTotals;
+import com.github.ramezch.backend.scheduler.SweepCoordinator;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.DistinctIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.RenameCollectionOptions;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class RevenueRollupServiceTest {
+    private static final String OWNER_ID = "user123";
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulkOps = mock(BulkOperations.class);
+    private final SweepCoordinator sweepCoordinator = mock(SweepCoordinator.class);
+    private final RevenueRollupService rollupService = new RevenueRollupService(mongoTemplate, sweepCoordinator);
+
+    @Test
+    void recordBilled_shouldAddUpEntriesOfTheSameDayAndPlan_inOneUpsertEach() {
+        // GIVEN
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RevenueRollup.class)).thenReturn(bulkOps);
+        Instant march1 = Instant.parse("2025-03-01T08:00:00Z");
+        List<RevenueRollupService.Entry> entries = List.of(
+                new RevenueRollupService.Entry(OWNER_ID, march1, "plan1", 50.0),
+                new RevenueRollupService.Entry(OWNER_ID, march1.plusSeconds(3600), "plan1", 25.0),
+                new RevenueRollupService.Entry(OWNER_ID, march1, "plan2", 80.0)
+        );
+
+        // WHEN
+        rollupService.recordBilled(entries);
+
+        // THEN
+        verify(bulkOps).upsert(
+                argThat((Query query) -> "user123|2025-03-01|plan1".equals(query.getQueryObject().get("_id"))),
+                argThat((Update update) -> Integer.valueOf(2).equals(update.getUpdateObject().get("$inc", Document.class).get("invoicesBilled"))
+                        && Double.valueOf(75.0).equals(update.getUpdateObject().get("$inc", Document.class).get("billed"))
+                        && "2025-03-01".equals(update.getUpdateObject().get("$setOnInsert", Document.class).get("day"))));
+        verify(bulkOps).upsert(argThat((Query query) -> "user123|2025-03-01|plan2".equals(query.getQueryObject().get("_id"))), any(Update.class));
+        verify(bulkOps).execute();
+    }
+
+    @Test
+    void recordPaid_shouldNotWrite_whenNothingWasPaid() {
+        // WHEN
+        rollupService.recordPaid(List.of());
+
+        // THEN
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void recordPaid_shouldNotFail_whenRollupWriteFails() {
+        // GIVEN
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RevenueRollup.class)).thenReturn(bulkOps);
+        when(bulkOps.execute()).thenThrow(new IllegalStateException("connection lost"));
+
+        // WHEN & THEN
+        assertDoesNotThrow(() -> rollupService.recordPaid(List.of(
+                new RevenueRollupService.Entry(OWNER_ID, Instant.parse("2025-03-01T08:00:00Z"), null, 50.0))));
+    }
+
+    @Test
+    void getReport_shouldSumRollupsPerMonthAndPlan() {
+        // GIVEN
+        when(mongoTemplate.find(any(Query.class), eq(RevenueRollup.class))).thenReturn(List.of(
+                new RevenueRollup("a", OWNER_ID, "2025-03-01", "plan1", 2, 100.0, 1, 50.0),
+                new RevenueRollup("b", OWNER_ID, "2025-03-15", "plan1", 1, 50.0, 1, 50.0),
+                new RevenueRollup("c", OWNER_ID, "2025-03-15", "plan2", 1, 80.0, 0, 0.0),
+                new RevenueRollup("d", OWNER_ID, "2025-04-01", "plan1", 3, 150.0, 0, 0.0)
+        ));
+
+        // WHEN
+        RevenueReport report = rollupService.getReport(OWNER_ID, YearMonth.of(2025, 3), YearMonth.of(2025, 4));
+
+        // THEN
+        assertEquals(List.of(
+                new RevenueTotals("2025-03", "plan1", 3, 150.0, 2, 100.0, 50.0),
+                new RevenueTotals("2025-03", "plan2", 1, 80.0, 0, 0.0, 80.0),
+                new RevenueTotals("2025-04", "plan1", 3, 150.0, 0, 0.0, 150.0)
+        ), report.rows());
+        assertEquals(new RevenueTotals(null, null, 7, 380.0, 2, 100.0, 280.0), report.total());
+        verify(mongoTemplate).find(argThat(query -> OWNER_ID.equals(query.getQueryObject().get("ownerId"))
+                && new Document("$gte", "2025-03-01").append("$lt", "2025-05-01").equals(query.getQueryObject().get("day"))), eq(RevenueRollup.class));
+    }
+
+    @Test
+    void getReport_shouldThrow_whenRangeIsInvalid() {
+        assertThrows(InvalidReportRangeException.class, () -> rollupService.getReport(OWNER_ID, YearMonth.of(2025, 4), YearMonth.of(2025, 3)));
+        assertThrows(InvalidReportRangeException.class, () -> rollupService.getReport(OWNER_ID, YearMonth.of(2020, 1), YearMonth.of(2025, 1)));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(RevenueRollup.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private final MongoCollection<Document> invoices = mock(MongoCollection.class);
+    @SuppressWarnings("unchecked")
+    private final MongoCollection<Document> archivedInvoices = mock(MongoCollection.class);
+    @SuppressWarnings("unchecked")
+    private final MongoCollection<Document> staging = mock(MongoCollection.class);
+    @SuppressWarnings("unchecked")
+    private final AggregateIterable<Document> aggregate = mock(AggregateIterable.class);
+
+    private void stubRebuild() {
+        when(mongoTemplate.getCollectionName(Invoice.class)).thenReturn("invoice");
+        when(mongoTemplate.getCollectionName(Subscription.class)).thenReturn("subscription");
+        when(mongoTemplate.getCollectionName(RevenueRollup.class)).thenReturn("revenueRollup");
+        when(mongoTemplate.getCollection("invoice")).thenReturn(invoices);
+        when(mongoTemplate.getCollection("invoiceArchive")).thenReturn(archivedInvoices);
+        when(mongoTemplate.getCollection(startsWith("revenueRollup_rebuild_"))).thenReturn(staging);
+        when(invoices.aggregate(anyList())).thenReturn(aggregate);
+        when(archivedInvoices.aggregate(anyList())).thenReturn(aggregate);
+        when(staging.aggregate(anyList())).thenReturn(aggregate);
+        when(aggregate.allowDiskUse(true)).thenReturn(aggregate);
+        when(mongoTemplate.count(any(Query.class), eq(RevenueRollup.class))).thenReturn(4L);
+    }
+
+    private static boolean outputsTo(List<? extends Document> pipeline, String prefix) {
+        return pipeline != null && pipeline.getLast().get("$out") instanceof String out && out.startsWith(prefix);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void rebuild_shouldAssignLegacyPlans_thenMergeStagedRollupsOfTheOwner_andRemoveStaleOnes() {
+        // GIVEN
+        stubRebuild();
+        DistinctIterable<Object> distinct = mock(DistinctIterable.class);
+        when(staging.distinct("_id", Object.class)).thenReturn(distinct);
+        when(distinct.into(anyList())).thenAnswer(invocation -> {
+            List<Object> ids = invocation.getArgument(0);
+            ids.add("user123|2025-03-01|plan1");
+            return ids;
+        });
+
+        // WHEN
+        long rebuilt = rollupService.rebuild(OWNER_ID);
+
+        // THEN
+        assertEquals(4L, rebuilt);
+        verify(invoices).aggregate(argThat((List<? extends Document> pipeline) -> pipeline != null
+                && pipeline.getLast().get("$merge") instanceof Document merge && "invoice".equals(merge.getString("into"))
+                && pipeline.getFirst().get("$match", Document.class).getString("ownerId").equals(OWNER_ID)));
+        verify(invoices).aggregate(argThat((List<? extends Document> pipeline) -> outputsTo(pipeline, "revenueRollup_rebuild_")
+                && pipeline.stream().anyMatch(stage -> stage.containsKey("$group"))
+                && pipeline.stream().anyMatch(stage -> stage.get("$unionWith") instanceof Document union
+                        && "invoiceArchive".equals(union.getString("coll")))));
+        verify(archivedInvoices).aggregate(argThat((List<? extends Document> pipeline) -> pipeline != null
+                && pipeline.getLast().get("$merge", Document.class).getString("into").equals("invoiceArchive")));
+        verify(staging).aggregate(argThat((List<? extends Document> pipeline) -> pipeline != null
+                && "revenueRollup".equals(pipeline.getLast().get("$merge", Document.class).getString("into"))
+                && "replace".equals(pipeline.getLast().get("$merge", Document.class).getString("whenMatched"))));
+        verify(mongoTemplate).remove(argThat((Query query) -> query != null && OWNER_ID.equals(query.getQueryObject().get("ownerId"))
+                && List.of("user123|2025-03-01|plan1").equals(query.getQueryObject().get("_id", Document.class).get("$nin"))), eq(RevenueRollup.class));
+        verify(aggregate, times(4)).toCollection();
+        verify(staging, never()).renameCollection(any(MongoNamespace.class), any(RenameCollectionOptions.class));
+        verify(mongoTemplate).dropCollection(startsWith("revenueRollup_rebuild_"));
+    }
+
+    @Test
+    void rebuild_shouldSwapInTheStagedRollupsWithTheirIndexes_whenRebuildingEveryOwner() {
+        // GIVEN
+        stubRebuild();
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        when(mongoTemplate.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext));
+        IndexOperations stagingIndexes = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps(startsWith("revenueRollup_rebuild_"))).thenReturn(stagingIndexes);
+        MongoDatabase database = mock(MongoDatabase.class);
+        when(database.getName()).thenReturn("isms");
+        when(mongoTemplate.getDb()).thenReturn(database);
+
+        // WHEN
+        rollupService.rebuild(null);
+
+        // THEN
+        verify(invoices).aggregate(argThat((List<? extends Document> pipeline) -> outputsTo(pipeline, "revenueRollup_rebuild_")
+                && !pipeline.getFirst().containsKey("$match")));
+        InOrder inOrder = inOrder(stagingIndexes, staging, mongoTemplate);
+        inOrder.verify(stagingIndexes).ensureIndex(argThat(index -> index.getIndexKeys().equals(new Document("ownerId", 1).append("day", 1))));
+        inOrder.verify(staging).renameCollection(argThat(namespace -> namespace.getFullName().equals("isms.revenueRollup")),
+                argThat(RenameCollectionOptions::isDropTarget));
+        inOrder.verify(mongoTemplate).dropCollection(startsWith("revenueRollup_rebuild_"));
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(RevenueRollup.class));
+    }
+
+    @Test
+    void rebuildIfMissing_shouldNotRebuild_whenAnotherNodeHoldsTheLease() {
+        // GIVEN
+        when(mongoTemplate.exists(any(Query.class), eq(RevenueRollup.class))).thenReturn(false);
+        when(mongoTemplate.exists(any(Query.class), eq(Invoice.class))).thenReturn(true);
+        when(sweepCoordinator.claimTask(eq("revenue-rollups-rebuild"), any())).thenReturn(false);
+
+        // WHEN
+        rollupService.rebuildIfMissing();
+
+        // THEN
+        verify(mongoTemplate, never()).getCollection(any());
+        verify(sweepCoordinator, never()).releaseTask(any());
+    }
+
+    @Test
+    void rebuildIfMissing_shouldRebuildAndReleaseTheLease_whenClaimed() {
+        // GIVEN
+        when(mongoTemplate.exists(any(Query.class), eq(RevenueRollup.class))).thenReturn(false);
+        when(mongoTemplate.exists(any(Query.class), eq(Invoice.class))).thenReturn(true);
+        when(sweepCoordinator.claimTask(eq("revenue-rollups-rebuild"), any())).thenReturn(true);
+        stubRebuild();
+        doThrow(new IllegalStateException("connection lost")).when(aggregate).toCollection();
+
+        // WHEN
+        rollupService.rebuildIfMissing();
+
+        // THEN
+        verify(sweepCoordinator).releaseTask("revenue-rollups-rebuild");
+    }
+
+    @Test
+    void rebuildIfMissing_shouldDoNothing_whenRollupsExist() {
+        // GIVEN
+        when(mongoTemplate.exists(any(Query.class), eq(RevenueRollup.class))).thenReturn(true);
+
+        // WHEN
+        rollupService.rebuildIfMissing();
+
+        // THEN
+        verifyNoInteractions(sweepCoordinator);
+    }
+}
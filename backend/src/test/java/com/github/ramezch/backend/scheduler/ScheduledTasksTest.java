@@ -7,37 +7,59 @@ import com.github.ramezch.backend.invoice.models.InvoiceDTO;
 import com.github.ramezch.backend.invoice.services.InvoiceService;
 import com.github.ramezch.backend.subscription.models.Subscription;
 import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
-import com.github.ramezch.backend.subscription.repository.SubscriptionRepository;
+import org.bson.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class ScheduledTasksTest {
 
-    @Mock
-    private SubscriptionRepository subscriptionRepository;
-
     @Mock
     private InternetPlanRepository internetPlanRepository;
 
     @Mock
     private InvoiceService invoiceService;
 
-    @InjectMocks
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations subscriptionBulkOps;
+
+    @Mock
+    private SubscriptionTransitionBatch batch;
+
+    @Mock
+    private SweepCoordinator sweepCoordinator;
+
     private ScheduledTasks scheduledTasks;
 
     private Instant currentTime;
@@ -48,28 +70,30 @@ class ScheduledTasksTest {
 
     @BeforeEach
     void setUp() {
+        scheduledTasks = new ScheduledTasks(internetPlanRepository, invoiceService, mongoTemplate,
+                properties(1), sweepCoordinator);
         currentTime = Instant.now();
 
         activeSubscription = new Subscription(
-                "sub1", "cust1", "plan1",
+                "sub1", "owner1", "cust1", "plan1",
                 currentTime.plus(Duration.ofDays(10)),
                 SubscriptionStatus.ACTIVE
         );
 
         expiringSubscription = new Subscription(
-                "sub2", "cust2", "plan2",
+                "sub2", "owner1", "cust2", "plan2",
                 currentTime.plus(Duration.ofDays(6)),
                 SubscriptionStatus.ACTIVE
         );
 
         expiredSubscription = new Subscription(
-                "sub3", "cust3", "plan3",
+                "sub3", "owner1", "cust3", "plan3",
                 currentTime.minus(Duration.ofDays(10)),
                 SubscriptionStatus.EXPIRING
         );
 
         cancelledSubscription = new Subscription(
-                "sub4", "cust4", "plan4",
+                "sub4", "owner1", "cust4", "plan4",
                 currentTime.plus(Duration.ofDays(1)),
                 SubscriptionStatus.CANCELLED
         );
@@ -78,35 +102,197 @@ class ScheduledTasksTest {
     @Test
     void updateSubscriptionStatus_ShouldProcessAllActiveSubscriptions() {
         // Given
-        when(subscriptionRepository.findAll()).thenReturn(List.of(
+        coordinateAsSingleNode();
+        when(mongoTemplate.stream(any(Query.class), eq(Subscription.class))).thenReturn(Stream.of(
                 activeSubscription, expiringSubscription, expiredSubscription, cancelledSubscription
         ));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Subscription.class)).thenReturn(subscriptionBulkOps);
 
         Invoice paidInvoice = new Invoice(
-                "inv1", "cust3", "sub3",
+                "inv1", "owner1", "cust3", "sub3",
                 currentTime.minus(Duration.ofDays(10)),
                 currentTime.minus(Duration.ofDays(5)),
                 100.0, 100.0, true
         );
-        when(invoiceService.getInvoice(eq("sub3"), any())).thenReturn(paidInvoice);
+        when(invoiceService.getInvoices(any())).thenReturn(Map.of("sub3", paidInvoice));
 
         // When
         scheduledTasks.updateSubscriptionStatus();
 
         // Then
-        verify(subscriptionRepository).findAll();
-        verify(subscriptionRepository).save(argThat(sub ->
-                sub.id().equals("sub2") &&
-                        sub.status() == SubscriptionStatus.EXPIRING
+        verify(invoiceService).getInvoices(Map.of("sub1", activeSubscription.endDate()));
+        verify(invoiceService).getInvoices(Map.of(
+                "sub3", expiredSubscription.endDate(),
+                "sub4", cancelledSubscription.endDate()
         ));
-        verify(subscriptionRepository).save(argThat(sub ->
-                sub.id().equals("sub3") &&
-                        sub.status() == SubscriptionStatus.ACTIVE &&
-                        sub.endDate().isAfter(expiredSubscription.endDate())
+        verify(invoiceService, never()).getInvoice(any(), any());
+        verify(internetPlanRepository).findByIdInAndIsActive(List.of("plan3"), true);
+        verify(subscriptionBulkOps).updateOne(argThat(query -> targets(query, "sub2")),
+                argThat(update -> setsStatus(update, SubscriptionStatus.EXPIRING)
+                        && expiringSubscription.endDate().plus(Duration.ofDays(7)).equals(setFields(update).get("nextActionAt"))));
+        verify(subscriptionBulkOps).updateOne(argThat(query -> targets(query, "sub3")),
+                argThat(update -> setsStatus(update, SubscriptionStatus.ACTIVE)
+                        && ((Instant) setFields(update).get("endDate")).isAfter(expiredSubscription.endDate())));
+        verify(subscriptionBulkOps, never()).updateOne(argThat(query -> targets(query, "sub4")), any(Update.class));
+        verify(subscriptionBulkOps, times(2)).execute();
+        verify(mongoTemplate).updateMulti(argThat(query -> query.getQueryObject().containsKey("nextActionAt")),
+                any(AggregationUpdate.class), eq(Subscription.class));
+    }
+
+    @Test
+    void updateSubscriptionStatus_ShouldStreamWithConfiguredBatchSizeAndContinueOnError() {
+        // Given
+        coordinateAsSingleNode();
+        when(mongoTemplate.stream(any(Query.class), eq(Subscription.class))).thenReturn(Stream.of(
+                expiredSubscription, activeSubscription, expiringSubscription
         ));
-        verify(subscriptionRepository, never()).save(argThat(sub ->
-                sub.id().equals("sub4")
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Subscription.class)).thenReturn(subscriptionBulkOps);
+        when(invoiceService.getInvoices(any())).thenThrow(new IllegalStateException("lookup failed"));
+
+        // When
+        scheduledTasks.updateSubscriptionStatus();
+
+        // Then
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(queryCaptor.capture(), eq(Subscription.class));
+        assertEquals(2, queryCaptor.getValue().getMeta().getCursorBatchSize());
+        Document dueFilter = queryCaptor.getValue().getQueryObject();
+        assertTrue(dueFilter.get("nextActionAt", Document.class).containsKey("$lte"));
+        assertTrue(dueFilter.get("status", Document.class).containsKey("$in"));
+        verify(subscriptionBulkOps).updateOne(argThat(query -> targets(query, "sub2")),
+                argThat(update -> setsStatus(update, SubscriptionStatus.EXPIRING)));
+        verify(subscriptionBulkOps, never()).updateOne(argThat(query -> targets(query, "sub3")), any(Update.class));
+        verify(subscriptionBulkOps, never()).updateOne(argThat(query -> targets(query, "sub1")), any(Update.class));
+    }
+
+    @Test
+    void updateSubscriptionStatus_ShouldSweepEachPartitionInItsOwnIdRange() {
+        // Given
+        ScheduledTasks partitionedTasks = new ScheduledTasks(internetPlanRepository, invoiceService, mongoTemplate,
+                properties(2), sweepCoordinator);
+        coordinateAsSingleNode();
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Subscription.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(bucket("sub1", "sub3"), bucket("sub3", "sub4")), new Document()));
+        when(mongoTemplate.stream(any(Query.class), eq(Subscription.class))).thenAnswer(invocation -> {
+            Document idRange = invocation.getArgument(0, Query.class).getQueryObject().get("_id", Document.class);
+            return idRange.containsKey("$lt")
+                    ? Stream.of(activeSubscription, expiringSubscription)
+                    : Stream.of(expiredSubscription, cancelledSubscription);
+        });
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Subscription.class)).thenReturn(subscriptionBulkOps);
+        when(invoiceService.getInvoices(any())).thenReturn(Map.of());
+
+        // When
+        partitionedTasks.updateSubscriptionStatus();
+
+        // Then
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).stream(queryCaptor.capture(), eq(Subscription.class));
+        List<Document> idRanges = queryCaptor.getAllValues().stream()
+                .map(query -> query.getQueryObject().get("_id", Document.class))
+                .toList();
+        assertTrue(idRanges.contains(new Document("$lt", "sub3")));
+        assertTrue(idRanges.contains(new Document("$gte", "sub3")));
+        verify(subscriptionBulkOps).updateOne(argThat(query -> targets(query, "sub2")),
+                argThat(update -> setsStatus(update, SubscriptionStatus.EXPIRING)));
+        verify(subscriptionBulkOps, times(1)).execute();
+    }
+
+    @Test
+    void updateSubscriptionStatus_ShouldSkipPartitionsClaimedByOtherNodes() {
+        // Given
+        SweepRun run = run(new SweepPartition(0, null, null));
+        when(sweepCoordinator.startOrJoin(any(), any(), any())).thenReturn(run);
+        when(sweepCoordinator.claimNext(run)).thenReturn(Optional.empty());
+        when(sweepCoordinator.isCompleted(run)).thenReturn(true);
+
+        // When
+        scheduledTasks.updateSubscriptionStatus();
+
+        // Then
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Subscription.class));
+        verify(sweepCoordinator, never()).complete(any(), any());
+    }
+
+    @Test
+    void updateSubscriptionStatus_ShouldFinishInterruptedRunsFirst() {
+        // Given
+        SweepRun interrupted = run(new SweepPartition(0, null, null));
+        SweepRun today = new SweepRun("2030-01-02", currentTime, List.of(), 0, 0, null, currentTime);
+        when(sweepCoordinator.unfinishedRuns()).thenReturn(List.of(interrupted));
+        when(sweepCoordinator.claimNext(interrupted)).thenReturn(Optional.of(lease(0, "sub1", 1)), Optional.empty());
+        when(sweepCoordinator.isCompleted(interrupted)).thenReturn(true);
+        when(sweepCoordinator.startOrJoin(any(), any(), any())).thenReturn(today);
+        when(mongoTemplate.stream(any(Query.class), eq(Subscription.class))).thenReturn(Stream.empty());
+
+        // When
+        scheduledTasks.updateSubscriptionStatus();
+
+        // Then
+        InOrder inOrder = inOrder(sweepCoordinator);
+        inOrder.verify(sweepCoordinator).complete(interrupted, interrupted.partitions().getFirst());
+        inOrder.verify(sweepCoordinator).finish(interrupted);
+        inOrder.verify(sweepCoordinator).startOrJoin(any(), any(), any());
+        inOrder.verify(sweepCoordinator).finish(today);
+    }
+
+    @Test
+    void sweep_ShouldAbandonPartition_afterTooManyAttempts() {
+        // Given
+        SweepRun run = run(new SweepPartition(0, null, "sub9"));
+        SweepLease exhausted = new SweepLease("2030-01-01:0", "2030-01-01", 0, "node",
+                currentTime.plus(Duration.ofMinutes(5)), "sub2", 4, 0, false, 4, currentTime);
+        when(sweepCoordinator.claimNext(run)).thenReturn(Optional.of(exhausted), Optional.empty());
+        when(sweepCoordinator.isCompleted(run)).thenReturn(true);
+        when(mongoTemplate.count(any(Query.class), eq(Subscription.class))).thenReturn(7L);
+
+        // When
+        scheduledTasks.sweep(run);
+
+        // Then
+        verify(mongoTemplate).count(argThat(query -> new Document("$gt", "sub2").append("$lt", "sub9").equals(query.getQueryObject().get("_id"))),
+                eq(Subscription.class));
+        verify(sweepCoordinator).abandon(run, run.partitions().getFirst(), 7L);
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Subscription.class));
+        verify(sweepCoordinator).finish(run);
+    }
+
+    @Test
+    void processPartition_ShouldResumeAfterCheckpointInIdOrder() {
+        // Given
+        SweepRun run = run(new SweepPartition(0, null, "sub9"));
+        when(mongoTemplate.stream(any(Query.class), eq(Subscription.class))).thenReturn(Stream.of(expiredSubscription));
+        when(invoiceService.getInvoices(any())).thenReturn(Map.of());
+        when(sweepCoordinator.checkpoint(run, run.partitions().getFirst(), "sub3", 1, 0)).thenReturn(true);
+
+        // When
+        scheduledTasks.processPartition(run, lease(0, "sub2", 4));
+
+        // Then
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(queryCaptor.capture(), eq(Subscription.class));
+        assertEquals(new Document("$gt", "sub2").append("$lt", "sub9"), queryCaptor.getValue().getQueryObject().get("_id"));
+        assertEquals(new Document("_id", 1), queryCaptor.getValue().getSortObject());
+        verify(sweepCoordinator).complete(run, run.partitions().getFirst());
+    }
+
+    @Test
+    void processPartition_ShouldStopWithoutCompleting_whenLeaseIsTakenOver() {
+        // Given
+        SweepRun run = run(new SweepPartition(0, null, null));
+        when(mongoTemplate.stream(any(Query.class), eq(Subscription.class))).thenReturn(Stream.of(
+                expiringSubscription, expiringSubscription, expiringSubscription
         ));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Subscription.class)).thenReturn(subscriptionBulkOps);
+        when(sweepCoordinator.checkpoint(run, run.partitions().getFirst(), "sub2", 2, 0)).thenReturn(false);
+
+        // When
+        scheduledTasks.processPartition(run, lease(0, null, 0));
+
+        // Then
+        verify(subscriptionBulkOps, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(subscriptionBulkOps).execute();
+        verify(sweepCoordinator, never()).complete(any(), any());
     }
 
     @Test
@@ -115,14 +301,14 @@ class ScheduledTasksTest {
         Subscription subscription = expiringSubscription;
 
         // When
-        scheduledTasks.processSubscription(subscription);
+        scheduledTasks.processSubscription(subscription, null, Map.of(), batch);
 
         // Then
-        verify(subscriptionRepository).save(argThat(sub ->
+        verify(batch).addTransition(argThat(sub ->
                 sub.id().equals("sub2") &&
                         sub.status() == SubscriptionStatus.EXPIRING
         ));
-        verify(invoiceService, never()).getInvoice(any(), any());
+        verifyNoInteractions(invoiceService);
     }
 
     @Test
@@ -130,28 +316,26 @@ class ScheduledTasksTest {
         // Given
         Subscription subscription = expiredSubscription;
         Invoice paidInvoice = new Invoice(
-                "inv1", "cust3", "sub3",
+                "inv1", "owner1", "cust3", "sub3",
                 currentTime.minus(Duration.ofDays(40)),
                 currentTime.minus(Duration.ofDays(10)),
                 100.0, 100.0, true
         );
         InternetPlan plan3 = new InternetPlan("plan3", "basic", "100Mbps", 72, "unlimited", true);
-        when(invoiceService.getInvoice(subscription.id(), subscription.endDate())).thenReturn(paidInvoice);
-        when(internetPlanRepository.findByIdInAndIsActive(List.of(subscription.internetPlanId()), true)).thenReturn(List.of(plan3));
 
         // When
-        scheduledTasks.processSubscription(subscription);
+        scheduledTasks.processSubscription(subscription, paidInvoice, Map.of("plan3", plan3), batch);
 
         // Then
         ArgumentCaptor<Subscription> subscriptionCaptor = ArgumentCaptor.forClass(Subscription.class);
-        verify(subscriptionRepository).save(subscriptionCaptor.capture());
+        verify(batch).addTransition(subscriptionCaptor.capture());
 
         Subscription savedSubscription = subscriptionCaptor.getValue();
         assertEquals(SubscriptionStatus.ACTIVE, savedSubscription.status());
         assertTrue(savedSubscription.endDate().isAfter(subscription.endDate()));
 
         ArgumentCaptor<InvoiceDTO> invoiceCaptor = ArgumentCaptor.forClass(InvoiceDTO.class);
-        verify(invoiceService).generateInvoice(invoiceCaptor.capture());
+        verify(batch).addInvoice(invoiceCaptor.capture());
 
         InvoiceDTO newInvoice = invoiceCaptor.getValue();
         assertEquals("cust3", newInvoice.customerId());
@@ -164,58 +348,89 @@ class ScheduledTasksTest {
         // Given
         Subscription subscription = expiredSubscription;
         Invoice unpaidInvoice = new Invoice(
-                "inv1", "cust3", "sub3",
+                "inv1", "owner1", "cust3", "sub3",
                 currentTime.minus(Duration.ofDays(20)),
                 currentTime.minus(Duration.ofDays(9)),
                 100.0, 0.0, false
         );
-        when(invoiceService.getInvoice(subscription.id(), subscription.endDate())).thenReturn(unpaidInvoice);
 
         // When
-        scheduledTasks.processSubscription(subscription);
+        scheduledTasks.processSubscription(subscription, unpaidInvoice, Map.of(), batch);
 
         // Then
-        verify(subscriptionRepository).save(argThat(sub ->
+        verify(batch).addTransition(argThat(sub ->
                 sub.id().equals("sub3") &&
                         sub.status() == SubscriptionStatus.EXPIRED
         ));
-        verify(invoiceService, never()).generateInvoice(any());
+        verify(batch, never()).addInvoice(any());
     }
 
     @Test
     void processSubscription_ShouldDoNothingWhenNoInvoiceFound() {
         // Given
         Subscription subscription = expiredSubscription;
-        when(invoiceService.getInvoice(subscription.id(), subscription.endDate())).thenReturn(null);
+        // When
+        scheduledTasks.processSubscription(subscription, null, Map.of(), batch);
+
+        // Then
+        verify(batch, never()).addTransition(any());
+        verify(batch, never()).addInvoice(any());
+    }
+
+    @Test
+    void processChunk_ShouldLoadActivePlansOfAllRenewalsWithOneQuery() {
+        // Given
+        Subscription otherExpiredSubscription = new Subscription(
+                "sub5", "owner1", "cust5", "plan5",
+                expiredSubscription.endDate(),
+                SubscriptionStatus.EXPIRING
+        );
+        Invoice paidInvoice = new Invoice(
+                "inv1", "owner1", "cust3", "sub3",
+                currentTime.minus(Duration.ofDays(40)),
+                currentTime.minus(Duration.ofDays(10)),
+                100.0, 100.0, true
+        );
+        Invoice otherPaidInvoice = new Invoice(
+                "inv5", "owner1", "cust5", "sub5",
+                currentTime.minus(Duration.ofDays(40)),
+                currentTime.minus(Duration.ofDays(10)),
+                50.0, 50.0, true
+        );
+        when(invoiceService.getInvoices(any())).thenReturn(Map.of("sub3", paidInvoice, "sub5", otherPaidInvoice));
+        when(internetPlanRepository.findByIdInAndIsActive(List.of("plan3", "plan5"), true))
+                .thenReturn(List.of(new InternetPlan("plan5", "plan5", "50Mbps", 50.0, "unlimited", true)));
 
         // When
-        scheduledTasks.processSubscription(subscription);
+        int failed = scheduledTasks.processChunk(List.of(expiredSubscription, otherExpiredSubscription), batch);
 
         // Then
-        verify(subscriptionRepository, never()).save(any());
-        verify(invoiceService, never()).generateInvoice(any());
+        assertEquals(0, failed);
+        verify(internetPlanRepository).findByIdInAndIsActive(List.of("plan3", "plan5"), true);
+        verify(batch, times(2)).addTransition(argThat(sub -> sub.status() == SubscriptionStatus.ACTIVE));
+        verify(batch).addInvoice(argThat(invoice -> "sub5".equals(invoice.subscriptionId()) && invoice.amountDue() == 50.0));
+        verify(batch, never()).addInvoice(argThat(invoice -> "sub3".equals(invoice.subscriptionId())));
     }
 
     @Test
     void renewSubscription_ShouldCreateNewInvoiceWithCorrectDetails() {
         // Given
         Subscription subscription = expiredSubscription;
-        when(internetPlanRepository.findByIdInAndIsActive(any(), eq(true)))
-                .thenReturn(List.of(new InternetPlan("plan3", "plan3","100Mbps", 99.99, "unlimited", true)));
+        InternetPlan plan = new InternetPlan("plan3", "plan3","100Mbps", 99.99, "unlimited", true);
 
         // When
-        scheduledTasks.renewSubscription(subscription);
+        scheduledTasks.renewSubscription(subscription, plan, batch);
 
         // Then
         ArgumentCaptor<Subscription> subscriptionCaptor = ArgumentCaptor.forClass(Subscription.class);
-        verify(subscriptionRepository).save(subscriptionCaptor.capture());
+        verify(batch).addTransition(subscriptionCaptor.capture());
 
         Subscription renewedSubscription = subscriptionCaptor.getValue();
         assertEquals(SubscriptionStatus.ACTIVE, renewedSubscription.status());
         assertEquals(subscription.endDate().plus(Duration.ofDays(30)), renewedSubscription.endDate());
 
         ArgumentCaptor<InvoiceDTO> invoiceCaptor = ArgumentCaptor.forClass(InvoiceDTO.class);
-        verify(invoiceService).generateInvoice(invoiceCaptor.capture());
+        verify(batch).addInvoice(invoiceCaptor.capture());
 
         InvoiceDTO newInvoice = invoiceCaptor.getValue();
         assertEquals("cust3", newInvoice.customerId());
@@ -223,4 +438,66 @@ class ScheduledTasksTest {
         assertEquals(99.99, newInvoice.amountDue());
         assertEquals(renewedSubscription.endDate(), newInvoice.dueDate());
     }
-}
\ No newline at end of file
+
+    private static SchedulerProperties properties(int partitions) {
+        return new SchedulerProperties(2, 10, partitions, 2, Duration.ofMinutes(5), Duration.ofMillis(10), 3);
+    }
+
+    // Lets this node create the run and win every lease once, as if no other replica were running
+    @SuppressWarnings("unchecked")
+    private void coordinateAsSingleNode() {
+        Set<Integer> claimed = ConcurrentHashMap.newKeySet();
+        when(sweepCoordinator.startOrJoin(any(), any(), any())).thenAnswer(invocation -> new SweepRun(
+                invocation.getArgument(0), invocation.getArgument(1),
+                (List<SweepPartition>) invocation.getArgument(2, Supplier.class).get(), 0, 0, null, currentTime));
+        when(sweepCoordinator.claimNext(any())).thenAnswer(invocation -> invocation.getArgument(0, SweepRun.class)
+                .partitions().stream()
+                .filter(partition -> claimed.add(partition.index()))
+                .findFirst()
+                .map(partition -> lease(partition.index(), null, 0)));
+        when(sweepCoordinator.isCompleted(any())).thenReturn(true);
+        lenient().when(sweepCoordinator.checkpoint(any(), any(), any(), anyInt(), anyInt())).thenReturn(true);
+    }
+
+    private SweepRun run(SweepPartition partition) {
+        return new SweepRun("2030-01-01", currentTime, List.of(partition), 0, 0, null, currentTime);
+    }
+
+    private SweepLease lease(int partitionIndex, String lastProcessedId, long processed) {
+        return new SweepLease("2030-01-01:" + partitionIndex, "2030-01-01", partitionIndex, "node",
+                currentTime.plus(Duration.ofMinutes(5)), lastProcessedId, processed, 0, false, 1, currentTime);
+    }
+
+    private static Document bucket(String min, String max) {
+        return new Document("_id", new Document("min", min).append("max", max)).append("count", 2);
+    }
+
+    private static boolean targets(Query query, String subscriptionId) {
+        return subscriptionId.equals(query.getQueryObject().get("_id"));
+    }
+
+    private static boolean setsStatus(Update update, SubscriptionStatus status) {
+        return setFields(update).get("status") == status;
+    }
+
+    @Test
+    void backfillNextActionAt_shouldLeaveLegacyExpiredSubscriptionsUnscheduled() {
+        // When
+        scheduledTasks.backfillNextActionAt();
+
+        // Then
+        verify(mongoTemplate).updateMulti(
+                argThat(query -> query != null && SubscriptionStatus.EXPIRED.equals(query.getQueryObject().get("status"))),
+                argThat((Update update) -> update != null && setFields(update).containsKey("nextActionAt")
+                        && setFields(update).get("nextActionAt") == null),
+                eq(Subscription.class));
+        verify(mongoTemplate).updateMulti(
+                argThat(query -> query != null && query.getQueryObject().get("status") instanceof Document status
+                        && !status.getList("$in", Object.class).contains(SubscriptionStatus.EXPIRED)),
+                any(AggregationUpdate.class), eq(Subscription.class));
+    }
+
+    private static Document setFields(Update update) {
+        return (Document) update.getUpdateObject().get("$set");
+    }
+}
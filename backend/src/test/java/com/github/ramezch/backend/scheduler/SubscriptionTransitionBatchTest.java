@@ -0,0 +1,126 @@
+package com.github.ramezch.backend.scheduler;
+
+import com.github.ramezch.backend.invoice.models.InvoiceDTO;
+import com.github.ramezch.backend.invoice.services.InvoiceService;
+import com.github.ramezch.backend.subscription.models.Subscription;
+import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SubscriptionTransitionBatchTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private InvoiceService invoiceService;
+
+    @Mock
+    private BulkOperations subscriptionBulkOps;
+
+    private final Instant endDate = Instant.now().plusSeconds(86400);
+    private final Subscription renewed1 = new Subscription("sub1", "owner1", "cust1", "plan1", endDate, SubscriptionStatus.ACTIVE);
+    private final Subscription renewed2 = new Subscription("sub2", "owner1", "cust2", "plan1", endDate, SubscriptionStatus.ACTIVE);
+    private final InvoiceDTO invoice1 = new InvoiceDTO("owner1", "cust1", "sub1", "plan1", endDate, 50);
+    private final InvoiceDTO invoice2 = new InvoiceDTO("owner1", "cust2", "sub2", "plan1", endDate, 50);
+
+    @Test
+    void addTransition_shouldFlushOnceBulkWriteSizeIsReached() {
+        // GIVEN
+        SubscriptionTransitionBatch batch = new SubscriptionTransitionBatch(mongoTemplate, invoiceService, 2);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Subscription.class)).thenReturn(subscriptionBulkOps);
+
+        // WHEN
+        batch.addInvoice(invoice1);
+        batch.addTransition(renewed1);
+        batch.addInvoice(invoice2);
+        batch.addTransition(renewed2);
+
+        // THEN
+        verify(subscriptionBulkOps, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(subscriptionBulkOps).execute();
+        verify(invoiceService).generateInvoices(List.of(invoice1, invoice2));
+    }
+
+    @Test
+    void flush_shouldSkipInvoicesOfFailedTransitions() {
+        // GIVEN
+        SubscriptionTransitionBatch batch = new SubscriptionTransitionBatch(mongoTemplate, invoiceService, 10);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Subscription.class)).thenReturn(subscriptionBulkOps);
+        BulkWriteError error = new BulkWriteError(11000, "write failed", new BsonDocument(), 1);
+        MongoBulkWriteException cause = new MongoBulkWriteException(BulkWriteResult.unacknowledged(), List.of(error),
+                null, new ServerAddress(), Set.of());
+        when(subscriptionBulkOps.execute()).thenThrow(new BulkOperationException("bulk failed", cause));
+
+        batch.addInvoice(invoice1);
+        batch.addTransition(renewed1);
+        batch.addInvoice(invoice2);
+        batch.addTransition(renewed2);
+
+        // WHEN
+        int failed = batch.flush();
+
+        // THEN
+        assertEquals(1, failed);
+        ArgumentCaptor<List<InvoiceDTO>> invoicesCaptor = ArgumentCaptor.captor();
+        verify(invoiceService).generateInvoices(invoicesCaptor.capture());
+        assertEquals(List.of(invoice1), invoicesCaptor.getValue());
+    }
+
+    @Test
+    void flush_shouldReportFailuresOfWritesMadeOnceBulkWriteSizeWasReached() {
+        // GIVEN
+        SubscriptionTransitionBatch batch = new SubscriptionTransitionBatch(mongoTemplate, invoiceService, 1);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Subscription.class)).thenReturn(subscriptionBulkOps);
+        BulkWriteError error = new BulkWriteError(11000, "write failed", new BsonDocument(), 0);
+        MongoBulkWriteException cause = new MongoBulkWriteException(BulkWriteResult.unacknowledged(), List.of(error),
+                null, new ServerAddress(), Set.of());
+        when(subscriptionBulkOps.execute()).thenThrow(new BulkOperationException("bulk failed", cause)).thenReturn(null);
+
+        batch.addTransition(renewed1);
+        batch.addTransition(renewed2);
+
+        // WHEN
+        int failed = batch.flush();
+        int failedAgain = batch.flush();
+
+        // THEN
+        assertEquals(1, failed);
+        assertEquals(0, failedAgain);
+        verify(subscriptionBulkOps, times(2)).execute();
+    }
+
+    @Test
+    void flush_shouldDoNothing_whenEmpty() {
+        // GIVEN
+        SubscriptionTransitionBatch batch = new SubscriptionTransitionBatch(mongoTemplate, invoiceService, 10);
+
+        // WHEN
+        batch.flush();
+
+        // THEN
+        verifyNoInteractions(mongoTemplate, invoiceService);
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.ramezch.backend.scheduler;
+
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SweepCoordinatorTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private SweepCoordinator sweepCoordinator;
+
+    private final Instant now = Instant.now();
+    private final SweepPartition partition = new SweepPartition(1, "a", "m");
+    private final SweepRun run = new SweepRun("2030-01-01", now, List.of(new SweepPartition(0, null, "a"), partition), 0, 0, null, now);
+
+    @BeforeEach
+    void setUp() {
+        sweepCoordinator = new SweepCoordinator(mongoTemplate,
+                new SchedulerProperties(500, 500, 2, 2, Duration.ofMinutes(5), Duration.ofSeconds(30), 3));
+    }
+
+    @Test
+    void startOrJoin_shouldJoinExistingRun_withoutComputingPartitions() {
+        // GIVEN
+        Supplier<List<SweepPartition>> partitions = mock();
+        when(mongoTemplate.findById("2030-01-01", SweepRun.class)).thenReturn(run);
+
+        // WHEN
+        SweepRun result = sweepCoordinator.startOrJoin("2030-01-01", now, partitions);
+
+        // THEN
+        assertEquals(run, result);
+        verifyNoInteractions(partitions);
+        verify(mongoTemplate, never()).insert(any(SweepRun.class));
+    }
+
+    @Test
+    void startOrJoin_shouldJoinRunOfOtherNode_whenItWonTheInsert() {
+        // GIVEN
+        when(mongoTemplate.findById("2030-01-01", SweepRun.class)).thenReturn(null, run);
+        when(mongoTemplate.insert(any(SweepRun.class))).thenThrow(new DuplicateKeyException("duplicate run"));
+
+        // WHEN
+        SweepRun result = sweepCoordinator.startOrJoin("2030-01-01", now, List::of);
+
+        // THEN
+        assertEquals(run, result);
+    }
+
+    @Test
+    void claim_shouldTakeLease_whenFreeOrExpired() {
+        // GIVEN
+        SweepLease lease = new SweepLease("2030-01-01:1", "2030-01-01", 1, "node", now.plusSeconds(300), null, 0, 0, false, 1, now);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(SweepLease.class)))
+                .thenReturn(lease);
+
+        // WHEN
+        Optional<SweepLease> claimed = sweepCoordinator.claim(run, partition);
+
+        // THEN
+        assertEquals(Optional.of(lease), claimed);
+        verify(mongoTemplate).findAndModify(
+                argThat(query -> "2030-01-01:1".equals(query.getQueryObject().get("_id"))
+                        && Boolean.FALSE.equals(query.getQueryObject().get("completed"))),
+                any(Update.class),
+                argThat(FindAndModifyOptions::isUpsert),
+                eq(SweepLease.class));
+    }
+
+    @Test
+    void claim_shouldFail_whenLeaseIsHeldOrCompleted() {
+        // GIVEN
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(SweepLease.class)))
+                .thenThrow(new DuplicateKeyException("lease held"));
+
+        // WHEN
+        Optional<SweepLease> claimed = sweepCoordinator.claim(run, partition);
+
+        // THEN
+        assertTrue(claimed.isEmpty());
+    }
+
+    @Test
+    void claimTask_shouldTakeExpiredOrMissingLease_forTheGivenDuration() {
+        // GIVEN
+        SweepLease lease = new SweepLease("task", "task", 0, "node", now.plusSeconds(3600), null, 0, 0, false, 1, now);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(SweepLease.class)))
+                .thenReturn(lease);
+
+        // WHEN
+        boolean claimed = sweepCoordinator.claimTask("task", Duration.ofHours(1));
+
+        // THEN
+        assertTrue(claimed);
+        verify(mongoTemplate).findAndModify(
+                argThat(query -> "task".equals(query.getQueryObject().get("_id"))
+                        && query.getQueryObject().get("leaseExpiresAt") instanceof Document expires && expires.containsKey("$lt")),
+                argThat(update -> update.getUpdateObject().get("$set", Document.class).get("leaseExpiresAt") instanceof Instant expires
+                        && expires.isAfter(now.plus(Duration.ofMinutes(59)))),
+                argThat(FindAndModifyOptions::isUpsert),
+                eq(SweepLease.class));
+    }
+
+    @Test
+    void claimTask_shouldFail_whenAnotherNodeHoldsTheLease() {
+        // GIVEN
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(SweepLease.class)))
+                .thenThrow(new DuplicateKeyException("lease held"));
+
+        // WHEN / THEN
+        assertFalse(sweepCoordinator.claimTask("task", Duration.ofHours(1)));
+    }
+
+    @Test
+    void checkpoint_shouldCountChunkOnLeaseAndRun() {
+        // GIVEN
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SweepLease.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        // WHEN
+        boolean renewed = sweepCoordinator.checkpoint(run, partition, "c", 500, 2);
+
+        // THEN
+        assertTrue(renewed);
+        verify(mongoTemplate).updateFirst(any(Query.class),
+                argThat(update -> update.getUpdateObject().get("$set") instanceof Document set
+                        && "c".equals(set.get("lastProcessedId"))),
+                eq(SweepLease.class));
+        verify(mongoTemplate).updateFirst(any(Query.class),
+                eq(new Update().inc("processed", 500).inc("failed", 2)),
+                eq(SweepRun.class));
+    }
+
+    @Test
+    void claim_shouldCountAttempts() {
+        // WHEN
+        sweepCoordinator.claim(run, partition);
+
+        // THEN
+        verify(mongoTemplate).findAndModify(any(Query.class),
+                argThat(update -> new Document("attempts", 1).equals(update.getUpdateObject().get("$inc"))),
+                any(FindAndModifyOptions.class), eq(SweepLease.class));
+    }
+
+    @Test
+    void abandon_shouldCompletePartition_andCountRemainingAsFailed() {
+        // GIVEN
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SweepLease.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        // WHEN
+        sweepCoordinator.abandon(run, partition, 7);
+
+        // THEN
+        verify(mongoTemplate).updateFirst(any(Query.class), eq(new Update().set("completed", true).inc("failed", 7L)), eq(SweepLease.class));
+        verify(mongoTemplate).updateFirst(any(Query.class), eq(new Update().inc("failed", 7L)), eq(SweepRun.class));
+    }
+
+    @Test
+    void checkpoint_shouldFail_whenLeaseWasTakenOver() {
+        // GIVEN
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SweepLease.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        // WHEN
+        boolean renewed = sweepCoordinator.checkpoint(run, partition, "c", 500, 0);
+
+        // THEN
+        assertFalse(renewed);
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(SweepRun.class));
+    }
+
+    @Test
+    void finish_shouldNotCloseRun_whilePartitionsAreOpen() {
+        // GIVEN
+        when(mongoTemplate.count(any(Query.class), eq(SweepLease.class))).thenReturn(1L);
+
+        // WHEN
+        Optional<SweepRun> finished = sweepCoordinator.finish(run);
+
+        // THEN
+        assertTrue(finished.isEmpty());
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(SweepRun.class));
+    }
+
+    @Test
+    void isCompleted_shouldRequireEveryPartitionToBeCompleted() {
+        // GIVEN
+        when(mongoTemplate.count(any(Query.class), eq(SweepLease.class))).thenReturn(1L, 2L);
+
+        // WHEN / THEN
+        assertFalse(sweepCoordinator.isCompleted(run));
+        assertTrue(sweepCoordinator.isCompleted(run));
+    }
+}
@@ -60,7 +60,6 @@ class SubscriptionControllerIntegrationTest {
                 "user123",
                 "test_user",
                 "test@example.com",
-                List.of("customer123"), // Add customer ID
                 new ArrayList<>(),
                 AppUserRoles.USER,
                 Map.of(),
@@ -81,6 +80,7 @@ class SubscriptionControllerIntegrationTest {
         Address address = new Address("123 Main St", "Springfield", "IL", "62704", "USA");
         Customer testCustomer = new Customer(
                 "customer123",
+                "user123",
                 "test_customer",
                 "Test Customer",
                 "123456789",
@@ -96,6 +96,7 @@ class SubscriptionControllerIntegrationTest {
 
         testSubscription = new Subscription(
                 "sub123",
+                "user123",
                 "customer123",
                 "plan123",
                 endDate,
@@ -140,7 +141,6 @@ class SubscriptionControllerIntegrationTest {
                 "user456",
                 "other_user",
                 "other@example.com",
-                List.of("otherCustomer"),
                 new ArrayList<>(),
                 AppUserRoles.USER,
                 Map.of(),
@@ -259,7 +259,6 @@ class SubscriptionControllerIntegrationTest {
                 "user456",
                 "other_user",
                 "other@example.com",
-                List.of("otherCustomer"),
                 new ArrayList<>(),
                 AppUserRoles.USER,
                 Map.of(),
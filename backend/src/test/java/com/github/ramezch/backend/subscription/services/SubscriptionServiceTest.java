@@ -4,8 +4,8 @@ import com.github.ramezch.backend.customers.models.Address;
 import com.github.ramezch.backend.customers.models.Customer;
 import com.github.ramezch.backend.customers.models.CustomerStatus;
 import com.github.ramezch.backend.customers.repositories.CustomerRepository;
+import com.github.ramezch.backend.exceptions.CustomerNotFoundException;
 import com.github.ramezch.backend.exceptions.CustomerSubscriptionNotFoundException;
-import com.github.ramezch.backend.exceptions.InternetPlanNotFoundException;
 import com.github.ramezch.backend.internetplan.models.InternetPlan;
 import com.github.ramezch.backend.internetplan.repositories.InternetPlanRepository;
 import com.github.ramezch.backend.invoice.services.InvoiceService;
@@ -15,15 +15,26 @@ import com.github.ramezch.backend.subscription.models.SubscriptionDetailsDTO;
 import com.github.ramezch.backend.subscription.models.SubscriptionStatus;
 import com.github.ramezch.backend.subscription.repository.SubscriptionRepository;
 import com.github.ramezch.backend.utils.IdService;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -44,6 +55,7 @@ class SubscriptionServiceTest {
     @InjectMocks
     private SubscriptionService subscriptionService;
 
+    private final String ownerId = "user-1";
     private final String customerId = "customer-123";
     private final String internetPlanId = "plan-456";
     private final String subscriptionId = "sub-789";
@@ -51,83 +63,134 @@ class SubscriptionServiceTest {
     private final Instant testEndTime = Instant.now().plus(30, ChronoUnit.DAYS);
 
     @Test
-    void createSubscription_shouldCreateNewSubscription_whenPlanExists() {
+    void createSubscription_shouldCreateNewSubscription_withInvoiceForThePlan() {
         // GIVEN
-        Subscription expectedSubscription = new Subscription(
-                subscriptionId,
-                customerId,
-                internetPlanId,
-                testEndTime,
-                SubscriptionStatus.ACTIVE
-        );
-
-        when(internetPlanRepo.findById(internetPlanId)).thenReturn(Optional.of(basicPlan));
         when(idService.randomId()).thenReturn(subscriptionId);
-        when(subscriptionRepo.save(any(Subscription.class))).thenReturn(expectedSubscription);
 
         // WHEN
-        subscriptionService.createSubscription(customerId, internetPlanId);
+        subscriptionService.createSubscription(ownerId, customerId, basicPlan);
 
         // THEN
-        verify(internetPlanRepo).findById(internetPlanId);
         verify(idService).randomId();
-        verify(subscriptionRepo).save(argThat(subscription ->
+        verify(subscriptionRepo).insert(argThat((Subscription subscription) ->
                 subscription.id().equals(subscriptionId) &&
+                        subscription.ownerId().equals(ownerId) &&
                         subscription.customerId().equals(customerId) &&
                         subscription.internetPlanId().equals(internetPlanId) &&
                         subscription.status() == SubscriptionStatus.ACTIVE
         ));
+        verify(invoiceService).generateInvoice(argThat(invoice -> invoice.subscriptionId().equals(subscriptionId)
+                && invoice.amountDue() == basicPlan.price()));
+        verifyNoInteractions(internetPlanRepo);
     }
 
     @Test
-    void createSubscription_shouldThrowException_whenPlanNotFound() {
+    void createSubscription_shouldSetCorrectDuration() {
         // GIVEN
-        when(internetPlanRepo.findById(internetPlanId)).thenReturn(Optional.empty());
+        when(idService.randomId()).thenReturn(subscriptionId);
+        Instant before = Instant.now().plus(30, ChronoUnit.DAYS);
 
-        // WHEN & THEN
-        assertThrows(InternetPlanNotFoundException.class,
-                () -> subscriptionService.createSubscription(customerId, internetPlanId));
+        // WHEN
+        subscriptionService.createSubscription(ownerId, customerId, basicPlan);
 
-        verify(internetPlanRepo).findById(internetPlanId);
-        verifyNoInteractions(idService, subscriptionRepo);
+        // THEN
+        verify(subscriptionRepo).insert(argThat((Subscription subscription) ->
+                !subscription.endDate().isBefore(before) && subscription.endDate().isBefore(before.plusSeconds(60))));
     }
 
     @Test
-    void createSubscription_shouldSetCorrectDuration() {
+    void createSubscription_shouldRemoveSubscription_whenInvoiceFails() {
         // GIVEN
-        Subscription expectedSubscription = new Subscription(
-                subscriptionId,
-                customerId,
-                internetPlanId,
-                testEndTime,
-                SubscriptionStatus.ACTIVE
-        );
-
-        when(internetPlanRepo.findById(internetPlanId)).thenReturn(Optional.of(basicPlan));
         when(idService.randomId()).thenReturn(subscriptionId);
-        when(subscriptionRepo.save(any(Subscription.class))).thenReturn(expectedSubscription);
+        doThrow(new IllegalStateException("invoice failed")).when(invoiceService).generateInvoice(any());
+
+        // WHEN & THEN
+        assertThrows(IllegalStateException.class, () -> subscriptionService.createSubscription(ownerId, customerId, basicPlan));
+        verify(subscriptionRepo).deleteById(subscriptionId);
+    }
+
+    @Test
+    void createSubscriptions_shouldWriteAllSubscriptionsAndInvoicesAtOnce() {
+        // GIVEN
+        when(idService.randomId()).thenReturn("sub-1", "sub-2");
 
         // WHEN
-        subscriptionService.createSubscription(customerId, internetPlanId);
+        Map<String, String> failures = subscriptionService.createSubscriptions(ownerId, List.of("customer-1", "customer-2"), basicPlan);
 
         // THEN
-        verify(subscriptionRepo).save(any());
+        assertTrue(failures.isEmpty());
+        InOrder order = inOrder(subscriptionRepo, invoiceService);
+        order.verify(subscriptionRepo).insert(anyList());
+        order.verify(invoiceService).generateInvoices(anyList());
+        verify(invoiceService).generateInvoices(argThat(invoices -> invoices.size() == 2
+                && invoices.stream().allMatch(invoice -> invoice.ownerId().equals(ownerId) && invoice.amountDue() == basicPlan.price())));
+        verify(subscriptionRepo).insert(argThat((List<Subscription> subscriptions) -> subscriptions.size() == 2
+                && subscriptions.get(1).id().equals("sub-2") && subscriptions.get(1).customerId().equals("customer-2")
+                && subscriptions.stream().allMatch(subscription -> subscription.internetPlanId().equals(internetPlanId))));
+        verifyNoInteractions(internetPlanRepo);
     }
 
     @Test
-    void createSubscription_shouldNotAllowNullPlanId() {
-        // WHEN & THEN
-        assertThrows(InternetPlanNotFoundException.class,
-                () -> subscriptionService.createSubscription(customerId, null));
+    void createSubscriptions_shouldRemoveSubscriptions_whoseInvoicesWereRejected() {
+        // GIVEN
+        when(idService.randomId()).thenReturn("sub-1", "sub-2");
+        BulkWriteError rejected = new BulkWriteError(121, "Document failed validation", new BsonDocument(), 1);
+        doThrow(new BulkOperationException("bulk failed", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(), List.of()), List.of(rejected), null, new ServerAddress(), Set.of())))
+                .when(invoiceService).generateInvoices(anyList());
+
+        // WHEN
+        Map<String, String> failures = subscriptionService.createSubscriptions(ownerId, List.of("customer-1", "customer-2"), basicPlan);
+
+        // THEN
+        assertEquals(Map.of("customer-2", "Document failed validation"), failures);
+        verify(subscriptionRepo).deleteAllById(List.of("sub-2"));
+    }
+
+    @Test
+    void createSubscriptions_shouldRemoveAllSubscriptionsAndThrow_whenInvoicesCannotBeWritten() {
+        // GIVEN
+        when(idService.randomId()).thenReturn("sub-1", "sub-2");
+        doThrow(new DataAccessResourceFailureException("connection lost")).when(invoiceService).generateInvoices(anyList());
+
+        // WHEN / THEN
+        List<String> customerIds = List.of("customer-1", "customer-2");
+        assertThrows(DataAccessResourceFailureException.class, () -> subscriptionService.createSubscriptions(ownerId, customerIds, basicPlan));
+        verify(subscriptionRepo).deleteAllById(List.of("sub-1", "sub-2"));
+    }
+
+    @Test
+    void createSubscriptions_shouldRemoveAllSubscriptionsAndThrow_whenSubscriptionInsertFailsPartway() {
+        // GIVEN
+        when(idService.randomId()).thenReturn("sub-1", "sub-2", "sub-3");
+        BulkWriteError duplicate = new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 1);
+        BulkOperationException insertFailed = new BulkOperationException("insert failed", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()), List.of(duplicate), null, new ServerAddress(), Set.of()));
+        when(subscriptionRepo.insert(anyList())).thenThrow(insertFailed);
+
+        // WHEN / THEN
+        List<String> customerIds = List.of("customer-1", "customer-2", "customer-3");
+        assertThrows(BulkOperationException.class, () -> subscriptionService.createSubscriptions(ownerId, customerIds, basicPlan));
+        verify(subscriptionRepo).deleteAllById(List.of("sub-1", "sub-2", "sub-3"));
+        verifyNoInteractions(invoiceService);
+    }
+
+    @Test
+    void createSubscriptions_shouldDoNothing_forNoCustomers() {
+        // WHEN
+        subscriptionService.createSubscriptions(ownerId, List.of(), basicPlan);
+
+        // THEN
+        verifyNoInteractions(invoiceService, subscriptionRepo);
     }
 
     @Test
     void getSubscription_shouldReturnSubscriptionDetails_whenExists() {
         // GIVEN
         Address address = new Address("123 Main St", "Springfield", "IL", "62704", "USA");
-        Customer customer = new Customer(customerId, "username", "John Doe", "123456789", address, testEndTime, CustomerStatus.ACTIVE, "email@test.com");
+        Customer customer = new Customer(customerId, ownerId, "username", "John Doe", "123456789", address, testEndTime, CustomerStatus.ACTIVE, "email@test.com");
         Subscription subscription = new Subscription(
-                subscriptionId, customerId, internetPlanId,
+                subscriptionId, ownerId, customerId, internetPlanId,
                 testEndTime,
                 SubscriptionStatus.ACTIVE
         );
@@ -139,17 +202,18 @@ class SubscriptionServiceTest {
                 SubscriptionStatus.ACTIVE
         );
 
-        when(subscriptionRepo.findByCustomerId(customerId)).thenReturn(Optional.of(subscription));
+        when(customerRepo.existsByIdAndOwnerId(customerId, ownerId)).thenReturn(true);
+        when(subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)).thenReturn(Optional.of(subscription));
         when(internetPlanRepo.findById(internetPlanId)).thenReturn(Optional.of(basicPlan));
         when(customerRepo.findById(customerId)).thenReturn(Optional.of(customer));
 
         // WHEN
-        Optional<SubscriptionDetailsDTO> result = subscriptionService.getSubscription(customerId);
+        Optional<SubscriptionDetailsDTO> result = subscriptionService.getSubscription(ownerId, customerId);
 
         // THEN
         assertTrue(result.isPresent());
         assertEquals(expected, result.get());
-        verify(subscriptionRepo).findByCustomerId(customerId);
+        verify(subscriptionRepo).findByOwnerIdAndCustomerId(ownerId, customerId);
         verify(internetPlanRepo).findById(internetPlanId);
         verify(customerRepo).findById(customerId);
     }
@@ -157,22 +221,24 @@ class SubscriptionServiceTest {
     @Test
     void getSubscription_shouldReturnEmpty_whenNotFound() {
         // GIVEN
-        when(subscriptionRepo.findByCustomerId(customerId)).thenReturn(Optional.empty());
+        when(customerRepo.existsByIdAndOwnerId(customerId, ownerId)).thenReturn(true);
+        when(subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)).thenReturn(Optional.empty());
 
         // WHEN
-        Optional<SubscriptionDetailsDTO> result = subscriptionService.getSubscription(customerId);
+        Optional<SubscriptionDetailsDTO> result = subscriptionService.getSubscription(ownerId, customerId);
 
         // THEN
         assertTrue(result.isEmpty());
-        verify(subscriptionRepo).findByCustomerId(customerId);
-        verifyNoInteractions(internetPlanRepo, customerRepo);
+        verify(subscriptionRepo).findByOwnerIdAndCustomerId(ownerId, customerId);
+        verifyNoInteractions(internetPlanRepo);
+        verify(customerRepo, never()).findById(any());
     }
 
     @Test
     void updateSubscription_shouldUpdateChangedFields() {
         // GIVEN
         Subscription existing = new Subscription(
-                subscriptionId, customerId, "old-plan",
+                subscriptionId, ownerId, customerId, "old-plan",
                 testEndTime,
                 SubscriptionStatus.ACTIVE
         );
@@ -183,23 +249,51 @@ class SubscriptionServiceTest {
                 SubscriptionStatus.EXPIRING
         );
 
-        when(subscriptionRepo.findByCustomerId(customerId)).thenReturn(Optional.of(existing));
+        when(customerRepo.existsByIdAndOwnerId(customerId, ownerId)).thenReturn(true);
+        when(subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)).thenReturn(Optional.of(existing));
         when(subscriptionRepo.save(any())).thenAnswer(inv -> inv.getArgument(0));
 
         // WHEN
-        Subscription result = subscriptionService.updateSubscription(customerId, update);
+        Subscription result = subscriptionService.updateSubscription(ownerId, customerId, update);
 
         // THEN
         assertEquals("new-plan", result.internetPlanId());
         assertEquals(SubscriptionStatus.EXPIRING, result.status());
         assertEquals(existing.endDate().plus(10, ChronoUnit.DAYS), result.endDate());
+        assertEquals(result.endDate().plus(7, ChronoUnit.DAYS), result.nextActionAt());
+    }
+
+    @Test
+    void updateSubscription_shouldScheduleImmediateCheck_whenExpiredManually() {
+        // GIVEN
+        Subscription existing = new Subscription(
+                subscriptionId, ownerId, customerId, internetPlanId,
+                testEndTime,
+                SubscriptionStatus.ACTIVE
+        );
+
+        SubscriptionDTO update = new SubscriptionDTO(
+                customerId, internetPlanId,
+                existing.endDate(), SubscriptionStatus.EXPIRED
+        );
+
+        when(customerRepo.existsByIdAndOwnerId(customerId, ownerId)).thenReturn(true);
+        when(subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)).thenReturn(Optional.of(existing));
+        when(subscriptionRepo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+
+        // WHEN
+        Subscription result = subscriptionService.updateSubscription(ownerId, customerId, update);
+
+        // THEN
+        assertEquals(SubscriptionStatus.EXPIRED, result.status());
+        assertFalse(result.nextActionAt().isAfter(Instant.now()));
     }
 
     @Test
     void updateSubscription_shouldReturnOriginal_whenNoChanges() {
         // GIVEN
         Subscription existing = new Subscription(
-                subscriptionId, customerId, internetPlanId,
+                subscriptionId, ownerId, customerId, internetPlanId,
                 testEndTime,
                 SubscriptionStatus.ACTIVE
         );
@@ -209,10 +303,11 @@ class SubscriptionServiceTest {
                 existing.endDate(), existing.status()
         );
 
-        when(subscriptionRepo.findByCustomerId(customerId)).thenReturn(Optional.of(existing));
+        when(customerRepo.existsByIdAndOwnerId(customerId, ownerId)).thenReturn(true);
+        when(subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)).thenReturn(Optional.of(existing));
 
         // WHEN
-        Subscription result = subscriptionService.updateSubscription(customerId, noChanges);
+        Subscription result = subscriptionService.updateSubscription(ownerId, customerId, noChanges);
 
         // THEN
         assertEquals(existing, result);
@@ -223,15 +318,16 @@ class SubscriptionServiceTest {
     void deleteSubscription_shouldDeleteExistingSubscription() {
         // GIVEN
         Subscription existing = new Subscription(
-                subscriptionId, customerId, internetPlanId,
+                subscriptionId, ownerId, customerId, internetPlanId,
                 testEndTime,
                 SubscriptionStatus.ACTIVE
         );
 
-        when(subscriptionRepo.findByCustomerId(customerId)).thenReturn(Optional.of(existing));
+        when(customerRepo.existsByIdAndOwnerId(customerId, ownerId)).thenReturn(true);
+        when(subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)).thenReturn(Optional.of(existing));
 
         // WHEN
-        subscriptionService.deleteSubscription(customerId);
+        subscriptionService.deleteSubscription(ownerId, customerId);
 
         // THEN
         verify(subscriptionRepo).delete(existing);
@@ -240,10 +336,22 @@ class SubscriptionServiceTest {
     @Test
     void deleteSubscription_shouldThrowException_whenSubscriptionNotFound() {
         // GIVEN
-        when(subscriptionRepo.findByCustomerId(customerId)).thenReturn(Optional.empty());
+        when(customerRepo.existsByIdAndOwnerId(customerId, ownerId)).thenReturn(true);
+        when(subscriptionRepo.findByOwnerIdAndCustomerId(ownerId, customerId)).thenReturn(Optional.empty());
 
         // WHEN & THEN
         assertThrows(CustomerSubscriptionNotFoundException.class,
-                () -> subscriptionService.deleteSubscription(customerId));
+                () -> subscriptionService.deleteSubscription(ownerId, customerId));
+    }
+
+    @Test
+    void getSubscription_shouldThrowCustomerNotFound_whenCustomerOfAnotherOwner() {
+        // GIVEN
+        when(customerRepo.existsByIdAndOwnerId(customerId, "other-owner")).thenReturn(false);
+
+        // WHEN & THEN
+        assertThrows(CustomerNotFoundException.class,
+                () -> subscriptionService.getSubscription("other-owner", customerId));
+        verify(subscriptionRepo, never()).findByOwnerIdAndCustomerId(any(), any());
     }
-}
\ No newline at end of file
+}
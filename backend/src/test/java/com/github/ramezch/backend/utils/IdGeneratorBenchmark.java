@@ -0,0 +1,67 @@
+package com.github.ramezch.backend.utils;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+// Throughput of the id generators, single threaded and contended. Not a test, run the main method:
+// java -cp target/classes:target/test-classes com.github.ramezch.backend.utils.IdGeneratorBenchmark
+public class IdGeneratorBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int IDS_PER_THREAD = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (IdGenerator.Type type : IdGenerator.Type.values()) {
+            IdGenerator generator = type.create();
+            Result single = nanosPerId(generator, 1);
+            System.out.printf("%-12s 1 thread:  %6.1f ns/id (checksum %d)%n", type, single.nanosPerId(), single.checksum());
+            Result contended = nanosPerId(generator, threads);
+            System.out.printf("%-12s %d threads: %6.1f ns/id per thread (checksum %d)%n", type, threads,
+                    contended.nanosPerId(), contended.checksum());
+        }
+    }
+
+    // The checksum of the ids is printed, so the JIT cannot drop the nextId calls as dead code
+    private record Result(double nanosPerId, int checksum) {}
+
+    private record Round(long elapsed, int checksum) {}
+
+    private static Result nanosPerId(IdGenerator generator, int threads) throws Exception {
+        int checksum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            checksum += run(generator, threads).checksum();
+        }
+        long elapsed = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            Round measured = run(generator, threads);
+            elapsed += measured.elapsed();
+            checksum += measured.checksum();
+        }
+        return new Result((double) elapsed / MEASURED_ROUNDS / IDS_PER_THREAD, checksum);
+    }
+
+    // Wall time for every thread to create IDS_PER_THREAD ids
+    private static Round run(IdGenerator generator, int threads) throws Exception {
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            long start = System.nanoTime();
+            List<Future<Integer>> futures = IntStream.range(0, threads)
+                    .mapToObj(thread -> executor.submit(() -> {
+                        int checksum = 0;
+                        for (int i = 0; i < IDS_PER_THREAD; i++) {
+                            checksum += generator.nextId().hashCode();
+                        }
+                        return checksum;
+                    }))
+                    .toList();
+            int checksum = 0;
+            for (Future<Integer> future : futures) {
+                checksum += future.get();
+            }
+            return new Round(System.nanoTime() - start, checksum);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.ramezch.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UuidV7GeneratorTest {
+
+    @Test
+    void nextId_isVersion7UuidCarryingTheTime() {
+        // GIVEN
+        long now = 1_735_725_600_000L;
+        UuidV7Generator generator = new UuidV7Generator(() -> now);
+
+        // WHEN
+        UUID id = UUID.fromString(generator.nextId());
+
+        // THEN
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        assertEquals(now, id.getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    void nextId_increasesWithinTheSameMillisecond_andWhenTheClockGoesBack() {
+        // GIVEN
+        AtomicLong clock = new AtomicLong(1_735_725_600_000L);
+        UuidV7Generator generator = new UuidV7Generator(clock::get);
+
+        // WHEN
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            ids.add(generator.nextId());
+            if (i == 2500) {
+                clock.addAndGet(-1000);
+            }
+        }
+
+        // THEN
+        assertEquals(ids.stream().sorted().toList(), ids);
+        assertEquals(ids.size(), Set.copyOf(ids).size());
+    }
+
+    @Test
+    void nextId_isUniqueAcrossThreads() throws Exception {
+        // GIVEN
+        UuidV7Generator generator = new UuidV7Generator();
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+
+        // WHEN
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            List<? extends Future<?>> futures = IntStream.range(0, 8)
+                    .mapToObj(thread -> executor.submit(() -> IntStream.range(0, 50_000).forEach(i -> ids.add(generator.nextId()))))
+                    .toList();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        // THEN
+        assertEquals(8 * 50_000, ids.size());
+    }
+}
@@ -4,7 +4,9 @@ import { toast } from "react-toastify";
 import "react-toastify/dist/ReactToastify.css";
 import { FaChevronLeft, FaChevronRight, FaColumns, FaSort, FaSortUp, FaSortDown } from "react-icons/fa";
 
-import { Customer } from "../types.ts";
+import { useNavigate } from "react-router-dom";
+
+import { Customer, CustomerSuggestion } from "../types.ts";
 import { CustomerCard } from "../components/CustomerCard.tsx";
 import { Input } from "../shared/Input.tsx";
 import { Button } from "../shared/Button.tsx";
@@ -50,6 +52,8 @@ export const Customers = () => {
         notes: true,
     });
     const [sortDirection, setSortDirection] = useState<SortDirection>('none');
+    const [suggestions, setSuggestions] = useState<CustomerSuggestion[]>([]);
+    const navigate = useNavigate();
 
     const statusOptions = [
         { value: "", label: "All" },
@@ -154,18 +158,54 @@ export const Customers = () => {
         fetchCustomers(0, pageSize, sortDirection);
     }, []);
 
+    // Typeahead, asks for a handful of matches once typing pauses and drops answers to older prefixes
+    useEffect(() => {
+        const prefix = searchQuery.trim();
+        if (prefix.length < 2) {
+            setSuggestions([]);
+            return;
+        }
+        const controller = new AbortController();
+        const timer = setTimeout(() => {
+            axios.get<CustomerSuggestion[]>("/api/customers/suggest", { params: { prefix }, signal: controller.signal })
+                .then(({ data }) => setSuggestions(data))
+                .catch(() => setSuggestions([]));
+        }, 200);
+        return () => {
+            clearTimeout(timer);
+            controller.abort();
+        };
+    }, [searchQuery]);
+
     return (
         <div className="flex flex-col gap-4 p-4 max-w-full">
             {/* Search and Actions */}
             <div className="flex flex-col sm:flex-row items-center mb-5 gap-4 w-full">
-                <Input
-                    label="Search Bar"
-                    placeholder="Search by username, name, city..."
-                    value={searchQuery}
-                    onChange={e => setSearchQuery(e.target.value)}
-                    onKeyDown={handleKeyDown}
-                    containerClassName="flex-grow w-full sm:w-auto mb-0"
-                />
+                <div className="relative flex-grow w-full sm:w-auto">
+                    <Input
+                        label="Search Bar"
+                        placeholder="Search by username, name, city..."
+                        value={searchQuery}
+                        onChange={e => setSearchQuery(e.target.value)}
+                        onKeyDown={handleKeyDown}
+                        onBlur={() => setTimeout(() => setSuggestions([]), 150)}
+                        containerClassName="w-full mb-0"
+                    />
+                    {suggestions.length > 0 && (
+                        <ul className="absolute z-10 w-full bg-white border border-gray-200 rounded-md shadow-lg mt-1">
+                            {suggestions.map(suggestion => (
+                                <li
+                                    key={suggestion.id}
+                                    className="px-3 py-2 cursor-pointer hover:bg-gray-100"
+                                    onMouseDown={() => navigate(`/customer/${suggestion.id}/edit`)}
+                                >
+                                    <span className="font-medium">{suggestion.username}</span>
+                                    <span className="ml-2 text-gray-500">{suggestion.fullName}</span>
+                                </li>
+                            ))}
+                        </ul>
+                    )}
+                </div>
                 <Button
                     onClick={() => fetchCustomers(0, pageSize, sortDirection)}
                     className="h-[42px] w-full sm:w-auto"
@@ -38,7 +38,8 @@ export const EditCustomer = () => {
     const handleSubmit = async (customer: CustomerDTO) => {
         setIsSubmitting(true);
         try {
-            await axios.put(`/api/customers/${id}`, customer);
+            // The loaded version makes the update fail with 409 if someone else changed the customer meanwhile
+            await axios.put(`/api/customers/${id}`, { ...customer, version: initialData?.version });
             toast.success("Customer updated successfully!");
             navigate("/");
         } catch (error) {
@@ -46,6 +47,8 @@ export const EditCustomer = () => {
             if (axiosError.response?.status === 404) {
                 toast.error("Customer not found");
                 navigate("/");
+            } else if (axiosError.response?.status === 409) {
+                toast.error("Customer was changed meanwhile or the username is taken. Reload and try again.");
             } else {
                 toast.error("Failed to update customer. Please try again.");
                 console.error("Error updating customer:", error);
@@ -2,7 +2,7 @@ import { useState, useEffect } from 'react';
 import { useParams } from 'react-router-dom';
 import { FaCheck, FaEuroSign, FaFileInvoiceDollar } from 'react-icons/fa';
 import axios from 'axios';
-import {Invoice, InvoiceUpdateDTO} from "../types.ts";
+import {Invoice, InvoiceSlice, InvoiceUpdateDTO} from "../types.ts";
 import {toast} from "react-toastify";
 
 const apiRequest = async <T,>(url: string, method: 'GET' | 'POST' | 'PUT' | 'DELETE', data?: InvoiceUpdateDTO): Promise<T> => {
@@ -23,8 +23,11 @@ const apiRequest = async <T,>(url: string, method: 'GET' | 'POST' | 'PUT' | 'DEL
     }
 };
 
-const getCustomerInvoices = async (customerId: string): Promise<Invoice[]> => {
-    return apiRequest<Invoice[]>(`/api/invoices/customer/${customerId}`, 'GET');
+// Newest invoices first, pass the previous slice's nextCursor to load older ones
+const getCustomerInvoices = async (customerId: string, cursor?: string): Promise<InvoiceSlice> => {
+    const params = new URLSearchParams({ size: '20' });
+    if (cursor) params.set('cursor', cursor);
+    return apiRequest<InvoiceSlice>(`/api/invoices/customer/${customerId}/slice?${params}`, 'GET');
 };
 
 const getInvoiceById = async (invoiceId: string): Promise<Invoice> => {
@@ -47,6 +50,7 @@ const formatDate = (dateString: string) => {
 export const InvoicePage = () => {
     const { customerId, invoiceId } = useParams<{ customerId: string; invoiceId?: string }>();
     const [invoices, setInvoices] = useState<Invoice[]>([]);
+    const [nextCursor, setNextCursor] = useState<string | null>(null);
     const [selectedInvoice, setSelectedInvoice] = useState<Invoice | null>(null);
     const [loading, setLoading] = useState(true);
     const [error, setError] = useState<string | null>(null);
@@ -56,8 +60,10 @@ export const InvoicePage = () => {
             try {
                 if (!customerId) return;
 
-                const data = await getCustomerInvoices(customerId);
+                const slice = await getCustomerInvoices(customerId);
+                const data = slice.content;
                 setInvoices(data);
+                setNextCursor(slice.nextCursor);
 
                 if (invoiceId) {
                     const invoice = data.find(i => i.id === invoiceId) || await getInvoiceById(invoiceId);
@@ -76,6 +82,19 @@ export const InvoicePage = () => {
         fetchInvoices();
     }, [customerId, invoiceId]);
 
+    const handleLoadMore = async () => {
+        if (!customerId || !nextCursor) return;
+
+        try {
+            const slice = await getCustomerInvoices(customerId, nextCursor);
+            setInvoices([...invoices, ...slice.content]);
+            setNextCursor(slice.nextCursor);
+        } catch (err) {
+            toast.error('Failed to load more invoices');
+            console.error(err);
+        }
+    };
+
     const handleInvoiceSelect = (invoice: Invoice) => {
         setSelectedInvoice(invoice);
     };
@@ -84,25 +103,21 @@ export const InvoicePage = () => {
         if (!selectedInvoice || selectedInvoice.isPaid) return;
 
         try {
-            const partialUpdate = await updateInvoice(
+            const updatedInvoice = await updateInvoice(
                 selectedInvoice.id,
                 selectedInvoice.amountDue
             );
 
-            const isPaid = partialUpdate.amountPaid === selectedInvoice.amountDue;
-
-            const updatedInvoice: Invoice = {
-                ...selectedInvoice,
-                amountPaid: partialUpdate.amountPaid,
-                isPaid: isPaid,
-            };
-
             setInvoices(invoices.map(i =>
                 i.id === updatedInvoice.id ? updatedInvoice : i
             ));
             setSelectedInvoice(updatedInvoice);
 
-            toast.success('Invoice marked as paid successfully');
+            if (updatedInvoice.isPaid) {
+                toast.success('Invoice marked as paid successfully');
+            } else {
+                toast.error('Invoice could not be marked as paid');
+            }
         } catch (err) {
             toast.error('Failed to mark invoice as paid');
             console.error(err);
@@ -153,6 +168,14 @@ export const InvoicePage = () => {
                                 </div>
                             </button>
                         ))}
+                        {nextCursor && (
+                            <button
+                                onClick={handleLoadMore}
+                                className="w-full p-2 text-sm text-blue-600 hover:bg-gray-50 rounded"
+                            >
+                                Load older invoices
+                            </button>
+                        )}
                     </div>
                 </div>
 
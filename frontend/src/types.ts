@@ -40,7 +40,8 @@ export type Customer = {
     address: Address,
     registrationDate: string,
     status: CustomerStatus,
-    notes: string
+    notes: string,
+    version?: number
 };
 
 export type Option = {
@@ -99,6 +100,12 @@ export interface SubscriptionDTO {
     status: SubscriptionStatus;
 }
 
+export interface CustomerSuggestion {
+    id: string;
+    username: string;
+    fullName: string;
+}
+
 export interface Invoice {
     id: string;
     customerId: string;
@@ -110,6 +117,13 @@ export interface Invoice {
     isPaid: boolean;
 }
 
+export interface InvoiceSlice {
+    content: Invoice[];
+    size: number;
+    hasNext: boolean;
+    nextCursor: string | null;
+}
+
 export interface InvoiceUpdateDTO {
     id: string;
     amountPaid: number;